@@ -127,6 +127,37 @@ public class AvroLilyImpl implements AvroLily {
         }
     }
 
+    @Override
+    public List<ByteBuffer> updateRecords(List<ByteBuffer> records, String repositoryName, String tableName,
+            boolean updateVersion, boolean useLatestRecordType) throws AvroRepositoryException,
+            AvroInterruptedException {
+        try {
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertRecords(table.update(converter.convertAvroRecords(records, repository),
+                    updateVersion, useLatestRecordType), repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
+    @Override
+    public List<ByteBuffer> createOrUpdateRecords(List<ByteBuffer> records, String repositoryName, String tableName,
+            boolean useLatestRecordType) throws AvroRepositoryException, AvroInterruptedException {
+        try {
+            LRepository repository = repositoryManager.getRepository(repositoryName);
+            LTable table = repository.getTable(tableName);
+            return converter.convertRecords(table.createOrUpdate(converter.convertAvroRecords(records, repository),
+                    useLatestRecordType), repository);
+        } catch (RepositoryException e) {
+            throw converter.convert(e);
+        } catch (InterruptedException e) {
+            throw converter.convert(e);
+        }
+    }
+
     @Override
     public AvroFieldType createFieldType(AvroFieldType avroFieldType)
             throws AvroRepositoryException, AvroInterruptedException {
@@ -22,6 +22,7 @@ import java.util.Map;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 import org.lilyproject.repository.api.FieldTypes;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.IdRecord;
@@ -47,6 +48,12 @@ import org.lilyproject.repository.impl.MetadataSerDeser;
  * and mapped to a short prefix, giving some compression.</p>
  */
 public class RecordAsBytesConverter {
+    /**
+     * Media type of a stream of records in this format, as produced by the REST interface. Each record is
+     * preceded by its length as a 4-byte int, the stream ends with a length of 0.
+     */
+    public static final String STREAM_MEDIA_TYPE = "application/x-lily-record";
+
     private static final byte NULL_MARKER = 0;
     private static final byte NOT_NULL_MARKER = 1;
     private static final int VERSION_1 = 1;
@@ -58,9 +65,13 @@ public class RecordAsBytesConverter {
 
     public static final byte[] write(Record record, LRepository repository)
             throws RepositoryException, InterruptedException {
-        DataOutput output = new DataOutputImpl();
-        write(record, output, repository);
-        return output.toByteArray();
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            write(record, output, repository);
+            return output.toByteArray();
+        } finally {
+            DataOutputPool.release(output);
+        }
     }
 
     public static final void write(Record record, DataOutput output, LRepository repository)
@@ -211,9 +222,13 @@ public class RecordAsBytesConverter {
 
     public static final byte[] writeIdRecord(IdRecord record, LRepository repository)
             throws RepositoryException, InterruptedException {
-        DataOutput output = new DataOutputImpl();
-        writeIdRecord(record, output, repository);
-        return output.toByteArray();
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            writeIdRecord(record, output, repository);
+            return output.toByteArray();
+        } finally {
+            DataOutputPool.release(output);
+        }
     }
 
     public static final void writeIdRecord(IdRecord record, DataOutput output, LRepository repository)
@@ -17,9 +17,12 @@ package org.lilyproject.avro;
 
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.UUID;
 
 import org.apache.avro.Schema;
@@ -30,6 +33,7 @@ import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.lilyproject.repository.api.BatchRecordException;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeEntry;
 import org.lilyproject.repository.api.FieldTypes;
@@ -37,9 +41,11 @@ import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
 import org.lilyproject.repository.api.RecordFactory;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
@@ -56,6 +62,8 @@ import static org.easymock.EasyMock.createControl;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.isA;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 
 public class AvroConverterTest {
@@ -424,4 +432,34 @@ public class AvroConverterTest {
         assertEquals(record, converter.convertRecord(converter.convert(record, repository), repository));
         control.verify();
     }
+
+    @Test
+    public void testBatchRecordException() throws Exception {
+        control.replay();
+        converter = new AvroConverter();
+        Record stored = new RecordImpl();
+        stored.setVersion(2L);
+        SortedMap<Integer, RepositoryException> failures = new TreeMap<Integer, RepositoryException>();
+        failures.put(1, new RecordException("failure 1"));
+        BatchRecordException exception = new BatchRecordException(Arrays.asList(stored, null), failures);
+        assertEquals(Arrays.asList(stored, null), exception.getRecords());
+
+        RepositoryException converted = converter.convert(converter.convert(exception));
+        assertTrue(converted instanceof BatchRecordException);
+        BatchRecordException batchException = (BatchRecordException)converted;
+        assertEquals(exception.getMessage(), batchException.getMessage());
+        assertEquals(Collections.singletonList(0), batchException.getSucceeded());
+        assertEquals(Collections.singleton(1), batchException.getFailures().keySet());
+        // The records themselves are not transported
+        assertNull(batchException.getRecords());
+    }
+
+    @Test
+    public void testBatchRecordExceptionIncompleteState() throws Exception {
+        BatchRecordException exception = new BatchRecordException("message",
+                Collections.<String, String>emptyMap());
+        assertEquals("message", exception.getMessage());
+        assertTrue(exception.getSucceeded().isEmpty());
+        assertTrue(exception.getFailures().isEmpty());
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.joda.time.DateTime;
+import org.joda.time.LocalDate;
+import org.lilyproject.bytes.api.ByteArray;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.HierarchyPath;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.Link;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordFactory;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.impl.AbstractRepositoryManager;
+import org.lilyproject.repository.impl.HBaseRepository;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.RepoTableKey;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.RepoAndTableUtil;
+
+/**
+ * Schema, records and repository objects shared by the benchmarks. Everything lives in memory: the types are
+ * kept by a {@link BenchmarkTypeManager} and the repository is an {@link HBaseRepository} whose table and blob
+ * manager refuse any call, which is fine since the benchmarked code paths do not use them.
+ */
+public class BenchmarkData {
+    public static final String NS = "org.lilyproject.benchmark";
+    public static final String NESTED_RECORD_TYPE = "{" + NS + "}Nested";
+
+    /**
+     * All value types for which a field type is created. This covers every built-in value type, including
+     * the nested ones.
+     */
+    public static final String[] VALUE_TYPES = {"STRING", "INTEGER", "LONG", "DOUBLE", "DECIMAL", "BOOLEAN", "DATE",
+            "DATETIME", "LINK", "BLOB", "URI", "BYTEARRAY", "LIST<STRING>", "PATH<LINK>",
+            "RECORD<" + NESTED_RECORD_TYPE + ">", "LIST<RECORD<" + NESTED_RECORD_TYPE + ">>"};
+
+    private final IdGenerator idGenerator = new IdGeneratorImpl();
+    private final BenchmarkTypeManager typeManager = new BenchmarkTypeManager(idGenerator);
+    private final RecordFactory recordFactory = new RecordFactoryImpl();
+    private final Map<String, FieldType> fieldTypes = new LinkedHashMap<String, FieldType>();
+    private final QName nestedStringField = new QName(NS, "nestedString");
+    private final QName nestedLongField = new QName(NS, "nestedLong");
+    private final RecordType recordType;
+    private final HBaseRepository repository;
+
+    public BenchmarkData() throws Exception {
+        RecordType nestedType = typeManager.newRecordType(QName.fromString(NESTED_RECORD_TYPE));
+        nestedType.addFieldTypeEntry(
+                typeManager.createFieldType("STRING", nestedStringField, Scope.NON_VERSIONED).getId(), false);
+        nestedType.addFieldTypeEntry(
+                typeManager.createFieldType("LONG", nestedLongField, Scope.NON_VERSIONED).getId(), false);
+        typeManager.createRecordType(nestedType);
+
+        RecordType type = typeManager.newRecordType(new QName(NS, "Benchmark"));
+        for (int i = 0; i < VALUE_TYPES.length; i++) {
+            // Spread the fields over the scopes, so that all of them are encoded
+            Scope scope = Scope.values()[i % Scope.values().length];
+            FieldType fieldType = typeManager.createFieldType(VALUE_TYPES[i], new QName(NS, "field" + i), scope);
+            fieldTypes.put(VALUE_TYPES[i], fieldType);
+            type.addFieldTypeEntry(fieldType.getId(), false);
+        }
+        recordType = typeManager.createRecordType(type);
+
+        repository = new HBaseRepository(new RepoTableKey(RepoAndTableUtil.DEFAULT_REPOSITORY,
+                LilyHBaseSchema.Table.RECORD.name),
+                new BenchmarkRepositoryManager(), unsupported(HTableInterface.class), unsupported(BlobManager.class),
+                null, recordFactory);
+    }
+
+    public IdGenerator getIdGenerator() {
+        return idGenerator;
+    }
+
+    public BenchmarkTypeManager getTypeManager() {
+        return typeManager;
+    }
+
+    public HBaseRepository getRepository() {
+        return repository;
+    }
+
+    public FieldType getFieldType(String valueType) {
+        return fieldTypes.get(valueType);
+    }
+
+    /**
+     * Creates a record with a value for each of the {@link #VALUE_TYPES}.
+     */
+    public Record newRecord(String id) {
+        Record record = recordFactory.newRecord(idGenerator.newRecordId(id));
+        record.setRecordType(recordType.getName(), recordType.getVersion());
+        for (Map.Entry<String, FieldType> entry : fieldTypes.entrySet()) {
+            record.setField(entry.getValue().getName(), newValue(entry.getKey()));
+        }
+        return record;
+    }
+
+    /**
+     * Creates a sample value of the given value type, of a size typical for the kind of value.
+     */
+    public Object newValue(String valueType) {
+        if (valueType.equals("STRING")) {
+            return "A string value with a length similar to that of the titles or names found in most records";
+        } else if (valueType.equals("INTEGER")) {
+            return 1234567;
+        } else if (valueType.equals("LONG")) {
+            return 1234567890123L;
+        } else if (valueType.equals("DOUBLE")) {
+            return 3.14159265d;
+        } else if (valueType.equals("DECIMAL")) {
+            return new BigDecimal("12345678.9012");
+        } else if (valueType.equals("BOOLEAN")) {
+            return Boolean.TRUE;
+        } else if (valueType.equals("DATE")) {
+            return new LocalDate(2013, 6, 15);
+        } else if (valueType.equals("DATETIME")) {
+            return new DateTime(2013, 6, 15, 12, 30, 45, 500);
+        } else if (valueType.equals("LINK")) {
+            return new Link(idGenerator.newRecordId("linked-record"));
+        } else if (valueType.equals("BLOB")) {
+            return new Blob(new byte[20], "application/pdf", 1000000L, "document.pdf");
+        } else if (valueType.equals("URI")) {
+            return URI.create("http://www.lilyproject.org/some/path?query=value");
+        } else if (valueType.equals("BYTEARRAY")) {
+            byte[] bytes = new byte[256];
+            new Random(0).nextBytes(bytes);
+            return ByteArray.wrap(bytes);
+        } else if (valueType.equals("LIST<STRING>")) {
+            List<String> list = new ArrayList<String>();
+            for (int i = 0; i < 10; i++) {
+                list.add("list item " + i);
+            }
+            return list;
+        } else if (valueType.equals("PATH<LINK>")) {
+            return new HierarchyPath(new Link(idGenerator.newRecordId("parent")),
+                    new Link(idGenerator.newRecordId("child")), new Link(idGenerator.newRecordId("grandchild")));
+        } else if (valueType.startsWith("RECORD")) {
+            return newNestedRecord(0);
+        } else if (valueType.startsWith("LIST<RECORD")) {
+            List<Record> list = new ArrayList<Record>();
+            for (int i = 0; i < 5; i++) {
+                list.add(newNestedRecord(i));
+            }
+            return list;
+        }
+        throw new IllegalArgumentException("No sample value for value type " + valueType);
+    }
+
+    private Record newNestedRecord(int i) {
+        Record record = recordFactory.newRecord();
+        record.setRecordType(QName.fromString(NESTED_RECORD_TYPE));
+        record.setField(nestedStringField, "nested record " + i);
+        record.setField(nestedLongField, (long)i);
+        return record;
+    }
+
+    /**
+     * Creates an implementation of an interface which throws an exception for every call.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T unsupported(final Class<T> clazz) {
+        return (T)Proxy.newProxyInstance(clazz.getClassLoader(), new Class[] {clazz}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                throw new UnsupportedOperationException(clazz.getSimpleName() + "." + method.getName()
+                        + " is not available in benchmarks");
+            }
+        });
+    }
+
+    private class BenchmarkRepositoryManager extends AbstractRepositoryManager {
+        BenchmarkRepositoryManager() {
+            super(typeManager, idGenerator, recordFactory, null);
+        }
+
+        @Override
+        protected Repository createRepository(RepoTableKey key) throws InterruptedException, RepositoryException {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RecordTypeNotFoundException;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeBucket;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.AbstractSchemaCache;
+import org.lilyproject.repository.impl.AbstractTypeManager;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.Pair;
+
+/**
+ * A TypeManager which only keeps the types in its (local) cache, so that the encoding and decoding code
+ * can be benchmarked without HBase or ZooKeeper.
+ *
+ * <p>Only the creation of field types and record types is supported.</p>
+ */
+public class BenchmarkTypeManager extends AbstractTypeManager {
+
+    public BenchmarkTypeManager(IdGenerator idGenerator) {
+        super(null);
+        log = LogFactory.getLog(getClass());
+        this.idGenerator = idGenerator;
+        this.schemaCache = new AbstractSchemaCache(null) {
+            @Override
+            protected TypeManager getTypeManager() {
+                return BenchmarkTypeManager.this;
+            }
+        };
+        registerDefaultValueTypes();
+    }
+
+    @Override
+    public FieldType createFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        FieldType newFieldType = fieldType.clone();
+        newFieldType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        updateFieldTypeCache(newFieldType);
+        return newFieldType;
+    }
+
+    @Override
+    public FieldType createFieldType(ValueType valueType, QName name, Scope scope)
+            throws RepositoryException, InterruptedException {
+        return createFieldType(newFieldType(valueType, name, scope));
+    }
+
+    @Override
+    public FieldType createFieldType(String valueType, QName name, Scope scope)
+            throws RepositoryException, InterruptedException {
+        return createFieldType(newFieldType(getValueType(valueType), name, scope));
+    }
+
+    @Override
+    public RecordType createRecordType(RecordType recordType) throws RepositoryException, InterruptedException {
+        RecordType newRecordType = recordType.clone();
+        newRecordType.setId(new SchemaIdImpl(UUID.randomUUID()));
+        newRecordType.setVersion(1L);
+        updateRecordTypeCache(newRecordType);
+        return newRecordType;
+    }
+
+    @Override
+    protected RecordType getRecordTypeByIdWithoutCache(SchemaId id, Long version)
+            throws RepositoryException, InterruptedException {
+        RecordType recordType = getRecordTypeFromCache(id);
+        if (recordType == null || (version != null && !version.equals(recordType.getVersion()))) {
+            throw new RecordTypeNotFoundException(id, version);
+        }
+        return recordType.clone();
+    }
+
+    @Override
+    public List<FieldType> getFieldTypesWithoutCache() throws RepositoryException, InterruptedException {
+        return getFieldTypes();
+    }
+
+    @Override
+    public List<RecordType> getRecordTypesWithoutCache() throws RepositoryException, InterruptedException {
+        return new ArrayList<RecordType>(getRecordTypes());
+    }
+
+    @Override
+    public Pair<List<FieldType>, List<RecordType>> getTypesWithoutCache()
+            throws RepositoryException, InterruptedException {
+        return new Pair<List<FieldType>, List<RecordType>>(getFieldTypesWithoutCache(), getRecordTypesWithoutCache());
+    }
+
+    @Override
+    public TypeBucket getTypeBucketWithoutCache(String bucketId) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RecordType updateRecordType(RecordType recordType) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RecordType updateRecordType(RecordType recordType, boolean refreshSubtypes)
+            throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RecordType createOrUpdateRecordType(RecordType recordType) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public RecordType createOrUpdateRecordType(RecordType recordType, boolean refreshSubtypes)
+            throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FieldType updateFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public FieldType createOrUpdateFieldType(FieldType fieldType) throws RepositoryException, InterruptedException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void enableSchemaCacheRefresh() throws RepositoryException, InterruptedException {
+    }
+
+    @Override
+    public void disableSchemaCacheRefresh() throws RepositoryException, InterruptedException {
+    }
+
+    @Override
+    public void triggerSchemaCacheRefresh() throws RepositoryException, InterruptedException {
+    }
+
+    @Override
+    public boolean isSchemaCacheRefreshEnabled() throws RepositoryException, InterruptedException {
+        return false;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Sets;
+import com.ngdata.sep.WALEditFilter;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.indexer.event.IndexerEditFilterProvider;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.repo.RecordEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of the SEP edit filters for one WALEdit of a record update, as paid on the region server: each
+ * index subscription and the link index subscription filter their own copy of the edit.
+ *
+ * <p>The payload is either in the json format or in the binary format, where the filters only need to read
+ * the routing header.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditFilterBenchmark {
+    @Param({"json", "binary"})
+    public String format;
+
+    @Param({"12"})
+    public int indexCount;
+
+    private List<WALEditFilter> filters;
+    private List<KeyValue> keyValues;
+
+    @Setup
+    public void setUp() throws Exception {
+        IndexerEditFilterProvider filterProvider = new IndexerEditFilterProvider();
+        filters = new ArrayList<WALEditFilter>();
+        for (int i = 0; i < indexCount; i++) {
+            filters.add(filterProvider.getWALEditFilter("IndexUpdater_index" + i));
+        }
+        filters.add(filterProvider.getWALEditFilter("LinkIndexUpdater"));
+
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("record");
+        event.setVersionCreated(3L);
+
+        RecordEvent.IndexRecordFilterData filterData = new RecordEvent.IndexRecordFilterData();
+        filterData.setOldRecordExists(true);
+        filterData.setNewRecordExists(true);
+        SchemaId recordTypeId = new SchemaIdImpl(UUID.randomUUID());
+        filterData.setOldRecordType(recordTypeId);
+        filterData.setNewRecordType(recordTypeId);
+        for (int i = 0; i < 5; i++) {
+            SchemaId fieldId = new SchemaIdImpl(UUID.randomUUID());
+            event.addUpdatedField(fieldId);
+            filterData.addChangedField(fieldId, Bytes.toBytes("old value"), Bytes.toBytes("new value"));
+        }
+        // The record matches the index inclusion rules of half of the indexes
+        filterData.setSubscriptionInclusions(Sets.newHashSet("IndexUpdater_index0", "IndexUpdater_index2",
+                "IndexUpdater_index4", "IndexUpdater_index6", "IndexUpdater_index8", "IndexUpdater_index10"));
+        event.setIndexRecordFilterData(filterData);
+
+        byte[] row = Bytes.toBytes(UUID.randomUUID().toString());
+        byte[] payload = format.equals("json") ? event.toJsonBytes() : event.toBytes();
+        keyValues = new ArrayList<KeyValue>();
+        for (int i = 0; i < 5; i++) {
+            keyValues.add(new KeyValue(row, RecordCf.DATA.bytes, Bytes.toBytes("field" + i), 3L,
+                    Bytes.toBytes("new value")));
+        }
+        keyValues.add(new KeyValue(row, RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, payload));
+    }
+
+    @Benchmark
+    public int filterEdit() {
+        int remaining = 0;
+        for (WALEditFilter filter : filters) {
+            WALEdit walEdit = new WALEdit();
+            for (KeyValue kv : keyValues) {
+                walEdit.add(kv);
+            }
+            filter.apply(walEdit);
+            remaining += walEdit.size();
+        }
+        return remaining;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing and formatting of record ids, in their string and binary forms.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdGeneratorBenchmark {
+    @Param({"USER.document-2013-0001", "USER.document-2013-0001.branch=dev,lang=en",
+            "UUID.7b4a3b9e-1c53-4a8f-9f6b-2f0f0c6a1d2e", "UUID.7b4a3b9e-1c53-4a8f-9f6b-2f0f0c6a1d2e.lang=en"})
+    public String recordIdString;
+
+    private IdGenerator idGenerator;
+    private byte[] recordIdBytes;
+
+    @Setup
+    public void setUp() {
+        idGenerator = new IdGeneratorImpl();
+        recordIdBytes = idGenerator.fromString(recordIdString).toBytes();
+    }
+
+    @Benchmark
+    public RecordId fromString() {
+        return idGenerator.fromString(recordIdString);
+    }
+
+    @Benchmark
+    public RecordId fromBytes() {
+        return idGenerator.fromBytes(recordIdBytes);
+    }
+
+    /**
+     * Record ids cache their binary form, so this is measured together with the parsing of the string form,
+     * which is what happens when e.g. a record id from a REST request is turned into a row key.
+     */
+    @Benchmark
+    public byte[] fromStringToBytes() {
+        return idGenerator.fromString(recordIdString).toBytes();
+    }
+}
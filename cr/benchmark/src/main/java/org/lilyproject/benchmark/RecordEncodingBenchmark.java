@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.impl.HBaseRepository;
+import org.lilyproject.repository.impl.RecordDecoder;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.util.repo.RecordEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of a complete record, with a field of each value type: to the HBase row format
+ * (Put and Result) and to the binary format of {@link RecordAsBytesConverter}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordEncodingBenchmark {
+    private BenchmarkData data;
+    private HBaseRepository repository;
+    private RecordDecoder recordDecoder;
+    private FieldTypes fieldTypes;
+    private Record record;
+    private Result result;
+    private byte[] recordBytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        data = new BenchmarkData();
+        repository = data.getRepository();
+        recordDecoder = new RecordDecoder(data.getTypeManager(), data.getIdGenerator(), new RecordFactoryImpl());
+        fieldTypes = data.getTypeManager().getFieldTypesSnapshot();
+        record = data.newRecord("benchmark-record");
+
+        // The Result which HBase would return when reading back the row written by the Put
+        List<KeyValue> keyValues = new ArrayList<KeyValue>();
+        for (List<KeyValue> familyKeyValues : buildPut().getFamilyMap().values()) {
+            keyValues.addAll(familyKeyValues);
+        }
+        Collections.sort(keyValues, KeyValue.COMPARATOR);
+        result = new Result(keyValues);
+
+        recordBytes = RecordAsBytesConverter.write(record, repository);
+    }
+
+    @Benchmark
+    public Put buildPut() throws Exception {
+        return repository.buildPut(record, 1L, fieldTypes, new RecordEvent(),
+                new HashSet<BlobReference>(), new HashSet<BlobReference>(), 1L);
+    }
+
+    /**
+     * Decodes the record, the field values themselves are decoded lazily so this only includes reading the
+     * row structure.
+     */
+    @Benchmark
+    public Record decodeRecord() throws Exception {
+        return recordDecoder.decodeRecord(result);
+    }
+
+    @Benchmark
+    public Record decodeRecordWithFields() throws Exception {
+        Record decoded = recordDecoder.decodeRecord(result);
+        decoded.getFields();
+        return decoded;
+    }
+
+    @Benchmark
+    public byte[] writeRecordAsBytes() throws Exception {
+        return RecordAsBytesConverter.write(record, repository);
+    }
+
+    @Benchmark
+    public Record readRecordAsBytes() throws Exception {
+        return RecordAsBytesConverter.read(new DataInputImpl(recordBytes), repository);
+    }
+}
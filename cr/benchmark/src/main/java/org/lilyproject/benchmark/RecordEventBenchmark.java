@@ -0,0 +1,106 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmark;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.util.repo.RecordEvent;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serialization of a record event of a typical update, in both the json and the binary format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecordEventBenchmark {
+    private IdGenerator idGenerator;
+    private RecordEvent event;
+    private byte[] json;
+    private byte[] binary;
+
+    @Setup
+    public void setUp() throws Exception {
+        idGenerator = new IdGeneratorImpl();
+
+        event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("record");
+        event.setVersionCreated(3L);
+        event.setRecordTypeChanged(false);
+        for (int i = 0; i < 5; i++) {
+            event.addUpdatedField(new SchemaIdImpl(UUID.randomUUID()));
+        }
+        event.addVTagToIndex(new SchemaIdImpl(UUID.randomUUID()));
+        Map<String, String> attributes = new HashMap<String, String>();
+        attributes.put("origin", "benchmark");
+        event.setAttributes(attributes);
+
+        RecordEvent.IndexRecordFilterData filterData = new RecordEvent.IndexRecordFilterData();
+        filterData.setOldRecordExists(true);
+        filterData.setNewRecordExists(true);
+        SchemaId recordTypeId = new SchemaIdImpl(UUID.randomUUID());
+        filterData.setOldRecordType(recordTypeId);
+        filterData.setNewRecordType(recordTypeId);
+        for (SchemaId fieldId : event.getUpdatedFields()) {
+            filterData.addChangedField(fieldId, Bytes.toBytes("old value"), Bytes.toBytes("new value"));
+        }
+        event.setIndexRecordFilterData(filterData);
+
+        json = event.toJsonBytes();
+        binary = event.toBytes();
+    }
+
+    @Benchmark
+    public byte[] toJson() {
+        return event.toJsonBytes();
+    }
+
+    @Benchmark
+    public RecordEvent fromJson() throws Exception {
+        return new RecordEvent(json, idGenerator);
+    }
+
+    @Benchmark
+    public byte[] toBinary() {
+        return event.toBytes();
+    }
+
+    @Benchmark
+    public RecordEvent fromBinary() throws Exception {
+        return new RecordEvent(binary, idGenerator);
+    }
+}
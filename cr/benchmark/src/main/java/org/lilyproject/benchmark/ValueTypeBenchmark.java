@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.benchmark;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.ValueType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Encoding and decoding of a single field value, for each of the value types.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValueTypeBenchmark {
+    /** Keep in sync with {@link BenchmarkData#VALUE_TYPES}. */
+    @Param({"STRING", "INTEGER", "LONG", "DOUBLE", "DECIMAL", "BOOLEAN", "DATE", "DATETIME", "LINK", "BLOB", "URI",
+            "BYTEARRAY", "LIST<STRING>", "PATH<LINK>", "RECORD<" + BenchmarkData.NESTED_RECORD_TYPE + ">",
+            "LIST<RECORD<" + BenchmarkData.NESTED_RECORD_TYPE + ">>"})
+    public String valueType;
+
+    private ValueType type;
+    private Object value;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws Exception {
+        Param param = ValueTypeBenchmark.class.getField("valueType").getAnnotation(Param.class);
+        List<String> params = Arrays.asList(param.value());
+        if (!params.equals(Arrays.asList(BenchmarkData.VALUE_TYPES))) {
+            throw new IllegalStateException("The valueType parameters " + params + " are not in sync with "
+                    + Arrays.asList(BenchmarkData.VALUE_TYPES));
+        }
+
+        BenchmarkData data = new BenchmarkData();
+        type = data.getFieldType(valueType).getValueType();
+        value = data.newValue(valueType);
+        encoded = type.toBytes(value, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public byte[] write() throws Exception {
+        return type.toBytes(value, new IdentityRecordStack());
+    }
+
+    @Benchmark
+    public Object read() throws Exception {
+        return type.read(encoded);
+    }
+}
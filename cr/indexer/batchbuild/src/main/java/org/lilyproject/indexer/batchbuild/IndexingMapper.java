@@ -38,12 +38,17 @@ import org.apache.solr.client.solrj.SolrServerException;
 import org.lilyproject.client.LilyClient;
 import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
+import org.lilyproject.indexer.engine.BlobTextCache;
+import org.lilyproject.indexer.engine.BufferedSolrShardManager;
 import org.lilyproject.indexer.engine.ClassicSolrShardManager;
 import org.lilyproject.indexer.engine.CloudSolrShardManager;
+import org.lilyproject.indexer.engine.ContentExtractor;
+import org.lilyproject.indexer.engine.DerefRecordCache;
 import org.lilyproject.indexer.engine.IndexLocker;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.SolrClientConfig;
+import org.lilyproject.indexer.engine.SolrClientException;
 import org.lilyproject.indexer.engine.SolrShardManager;
 import org.lilyproject.indexer.model.indexerconf.IndexerConf;
 import org.lilyproject.indexer.model.indexerconf.IndexerConfBuilder;
@@ -57,6 +62,8 @@ import org.lilyproject.mapreduce.RecordIdWritable;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.zookeeper.ZkUtil;
@@ -70,6 +77,7 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
     private ZooKeeperItf zk;
     private LilyClient lilyClient;
     private ThreadPoolExecutor executor;
+    private BufferedSolrShardManager bufferedShardMgr;
     private final Log log = LogFactory.getLog(getClass());
 
     @Override
@@ -104,13 +112,39 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
             boolean enableLocking =
                     Boolean.parseBoolean(jobConf.get("org.lilyproject.indexer.batchbuild.enableLocking"));
 
+            // Buffered updates would only be sent after the index lock of the record has been released, so that
+            // they could overwrite newer documents sent by the incremental indexer. Hence no buffering when the
+            // batch build runs alongside incremental indexing, which is what locking is for.
+            int updateBufferSize = getIntProp("org.lilyproject.indexer.batchbuild.solrUpdateBufferSize", 100, jobConf);
+            if (updateBufferSize > 1 && !enableLocking) {
+                bufferedShardMgr = new BufferedSolrShardManager(solrShardMgr, updateBufferSize);
+                solrShardMgr = bufferedShardMgr;
+            }
+
             indexLocker = new IndexLocker(zk, enableLocking);
 
             final DerefMap derefMap = indexerConf.containsDerefExpressions() ?
                     DerefMapHbaseImpl.create(repository.getRepositoryName(), indexName,
                             LilyClient.getHBaseConfiguration(zk), null, repository.getIdGenerator()) : null;
+            IndexerMetrics indexerMetrics = new IndexerMetrics(indexName);
+            int derefCacheSize = getIntProp("org.lilyproject.indexer.batchbuild.derefCacheSize", 100000, jobConf);
+            int derefCacheExpiry = getIntProp("org.lilyproject.indexer.batchbuild.derefCacheExpiry",
+                    DerefRecordCache.DEFAULT_EXPIRY_SECONDS, jobConf);
+            DerefRecordCache derefRecordCache = derefCacheSize > 0 && indexerConf.containsDerefExpressions() ?
+                    new DerefRecordCache(derefCacheSize, derefCacheExpiry, indexerMetrics) : null;
+
+            int extractContentMaxSize = getIntProp("org.lilyproject.indexer.batchbuild.extractContentMaxSize",
+                    ContentExtractor.DEFAULT_MAX_SIZE, jobConf);
+            // The table is created by the Lily servers which cache extracted content, map tasks do not create it
+            BlobTextCache blobTextCache =
+                    jobConf.getBoolean("org.lilyproject.indexer.batchbuild.cacheExtractedContent", false) ?
+                    new BlobTextCache(LilyHBaseSchema.getBlobTextTable(
+                            new HBaseTableFactoryImpl(LilyClient.getHBaseConfiguration(zk)), true)) : null;
+            ContentExtractor contentExtractor =
+                    new ContentExtractor(extractContentMaxSize, blobTextCache, indexerMetrics);
+
             indexer = new Indexer(indexName, indexerConf, repository, solrShardMgr, indexLocker,
-                    new IndexerMetrics(indexName), derefMap);
+                    indexerMetrics, derefMap, derefRecordCache, contentExtractor);
 
             int workers = getIntProp("org.lilyproject.indexer.batchbuild.threads", 5, jobConf);
 
@@ -190,6 +224,15 @@ public class IndexingMapper extends IdRecordMapper<ImmutableBytesWritable, Resul
             log.error("Executor did not finish outstanding work within the foreseen timeout.");
         }
 
+        if (bufferedShardMgr != null) {
+            // Failing the task here makes sure the buffered documents are not silently lost
+            try {
+                bufferedShardMgr.flush();
+            } catch (SolrClientException e) {
+                throw new IOException("Error sending buffered updates to Solr.", e);
+            }
+        }
+
         Closer.close(connectionManager);
         log.info("Shutdown lily client");
         Closer.close(lilyClient);
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.IOException;
+
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.lilyproject.util.hbase.LilyHBaseSchema.BlobTextCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.BlobTextColumn;
+
+/**
+ * Stores the text extracted from blobs in an HBase table, so that blobs only need to be parsed once, rather than
+ * each time a record containing them is indexed.
+ *
+ * <p>The text is stored by blob key. Since the content of a blob never changes once stored, cached text never
+ * becomes outdated. Entries are removed by HBase when they reach their time to live, which bounds the size of
+ * the table for blobs which are not indexed anymore. The table is described by
+ * {@link LilyHBaseSchema#getBlobTextTable}.</p>
+ *
+ * <p>The table is shared by all indexes.</p>
+ */
+public class BlobTextCache {
+    private final HTableInterface table;
+
+    private static final byte[] FAMILY = BlobTextCf.DATA.bytes;
+    private static final byte[] TEXT_COLUMN = BlobTextColumn.TEXT.bytes;
+    private static final byte[] MAX_SIZE_COLUMN = BlobTextColumn.MAX_SIZE.bytes;
+
+    /**
+     * Blobs with larger keys are not cached. Only inline blobs, which contain their data in their key, have such
+     * keys, and these are cheap to parse anyway.
+     */
+    private static final int MAX_KEY_LENGTH = 1024;
+
+    /**
+     * @param table the blob text table, see {@link LilyHBaseSchema#getBlobTextTable}
+     */
+    public BlobTextCache(HTableInterface table) {
+        this.table = table;
+    }
+
+    public boolean isCacheable(byte[] blobKey) {
+        return blobKey != null && blobKey.length <= MAX_KEY_LENGTH;
+    }
+
+    /**
+     * Returns the cached text of the blob, or null if it is not cached.
+     *
+     * @param maxSize the maximum size the text was extracted with. Text extracted with another maximum size is not
+     *                returned, as it might be truncated differently.
+     */
+    public String get(byte[] blobKey, int maxSize) throws IOException {
+        Get get = new Get(blobKey);
+        get.addFamily(FAMILY);
+        Result result = table.get(get);
+        if (result.isEmpty()) {
+            return null;
+        }
+
+        byte[] cachedMaxSize = result.getValue(FAMILY, MAX_SIZE_COLUMN);
+        if (cachedMaxSize == null || Bytes.toInt(cachedMaxSize) != maxSize) {
+            return null;
+        }
+
+        byte[] text = result.getValue(FAMILY, TEXT_COLUMN);
+        return text != null ? Bytes.toString(text) : null;
+    }
+
+    public void put(byte[] blobKey, int maxSize, String text) throws IOException {
+        Put put = new Put(blobKey);
+        put.add(FAMILY, TEXT_COLUMN, Bytes.toBytes(text));
+        put.add(FAMILY, MAX_SIZE_COLUMN, Bytes.toBytes(maxSize));
+        put.setWriteToWAL(false); // it's only a cache
+        table.put(put);
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.solr.client.solrj.response.QueryResponse;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.params.SolrParams;
+import org.apache.solr.common.util.NamedList;
+import org.lilyproject.indexer.model.sharding.ShardSelectorException;
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * A SolrShardManager which buffers the adds and deletes-by-id per shard, so that they can be sent
+ * to Solr as one request per shard.
+ *
+ * <p>The buffered operations are sent when {@link #flush()} is called, or when the buffer of a shard reaches
+ * its maximum size. For each document id, only the last operation is kept: a later add or delete of the same
+ * id replaces an earlier one, which gives the same end result as sending them in order. Other operations,
+ * such as a delete-by-query, first flush the buffer of the shard, so that they are applied in order as well.</p>
+ *
+ * <p>Operations which failed to be sent remain buffered and will be sent again by the next flush. After
+ * {@link #flush()} returned normally, all operations that were buffered before the call have been sent.</p>
+ *
+ * <p>This class is thread safe, the buffers are shared by all users.</p>
+ */
+public class BufferedSolrShardManager implements SolrShardManager {
+    private final SolrShardManager delegate;
+    private final int maxBufferSize;
+    private final Map<SolrClient, BufferedSolrClient> clients = new IdentityHashMap<SolrClient, BufferedSolrClient>();
+
+    /**
+     * Response returned for operations that are only buffered.
+     */
+    private static final UpdateResponse BUFFERED_UPDATE_RESPONSE = new UpdateResponse();
+
+    static {
+        BUFFERED_UPDATE_RESPONSE.setResponse(new NamedList<Object>());
+    }
+
+    /**
+     * @param maxBufferSize maximum number of buffered operations per shard
+     */
+    public BufferedSolrShardManager(SolrShardManager delegate, int maxBufferSize) {
+        this.delegate = delegate;
+        this.maxBufferSize = maxBufferSize;
+    }
+
+    @Override
+    public SolrClient getSolrClient(RecordId recordId) throws ShardSelectorException {
+        SolrClient solrClient = delegate.getSolrClient(recordId);
+        // SolrClients might be dynamic proxies, hence the IdentityHashMap
+        synchronized (clients) {
+            BufferedSolrClient bufferedClient = clients.get(solrClient);
+            if (bufferedClient == null) {
+                bufferedClient = new BufferedSolrClient(solrClient);
+                clients.put(solrClient, bufferedClient);
+            }
+            return bufferedClient;
+        }
+    }
+
+    /**
+     * Sends all buffered operations to Solr.
+     */
+    public void flush() throws SolrClientException, InterruptedException {
+        List<BufferedSolrClient> bufferedClients;
+        synchronized (clients) {
+            bufferedClients = new ArrayList<BufferedSolrClient>(clients.values());
+        }
+        for (BufferedSolrClient client : bufferedClients) {
+            client.flush();
+        }
+    }
+
+    /**
+     * Closes the wrapped SolrShardManager, without flushing.
+     */
+    @Override
+    public void close() throws IOException {
+        delegate.close();
+    }
+
+    private class BufferedSolrClient implements SolrClient {
+        private final SolrClient delegate;
+
+        /**
+         * Key = document id, value = the document to add, or null to delete it.
+         */
+        private final Map<String, SolrInputDocument> pending = new LinkedHashMap<String, SolrInputDocument>();
+
+        BufferedSolrClient(SolrClient delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public String getDescription() {
+            return delegate.getDescription();
+        }
+
+        @Override
+        public synchronized UpdateResponse add(SolrInputDocument doc) throws SolrClientException,
+                InterruptedException {
+            String id = (String)doc.getFieldValue("lily.key");
+            if (id == null) {
+                // Not a document produced by the Indexer, don't try to be smart about it
+                flush();
+                return delegate.add(doc);
+            }
+            return buffer(id, doc);
+        }
+
+        @Override
+        public UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrClientException,
+                InterruptedException {
+            for (SolrInputDocument doc : docs) {
+                add(doc);
+            }
+            return BUFFERED_UPDATE_RESPONSE;
+        }
+
+        @Override
+        public UpdateResponse deleteById(String id) throws SolrClientException, InterruptedException {
+            return buffer(id, null);
+        }
+
+        @Override
+        public UpdateResponse deleteById(List<String> ids) throws SolrClientException, InterruptedException {
+            for (String id : ids) {
+                buffer(id, null);
+            }
+            return BUFFERED_UPDATE_RESPONSE;
+        }
+
+        @Override
+        public synchronized UpdateResponse deleteByQuery(String query) throws SolrClientException,
+                InterruptedException {
+            flush();
+            return delegate.deleteByQuery(query);
+        }
+
+        @Override
+        public synchronized UpdateResponse commit(boolean waitFlush, boolean waitSearcher)
+                throws SolrClientException, InterruptedException {
+            flush();
+            return delegate.commit(waitFlush, waitSearcher);
+        }
+
+        @Override
+        public synchronized UpdateResponse commit() throws SolrClientException, InterruptedException {
+            flush();
+            return delegate.commit();
+        }
+
+        @Override
+        public QueryResponse query(SolrParams params) throws SolrClientException, InterruptedException {
+            return delegate.query(params);
+        }
+
+        private synchronized UpdateResponse buffer(String id, SolrInputDocument doc)
+                throws SolrClientException, InterruptedException {
+            pending.put(id, doc);
+            if (pending.size() >= maxBufferSize) {
+                flush();
+            }
+            return BUFFERED_UPDATE_RESPONSE;
+        }
+
+        /**
+         * Sends the buffered operations. Since only the last operation per id is kept, the deletes and adds
+         * concern different ids and can be sent in two requests.
+         */
+        synchronized void flush() throws SolrClientException, InterruptedException {
+            if (pending.isEmpty()) {
+                return;
+            }
+
+            List<String> deletes = new ArrayList<String>();
+            List<SolrInputDocument> adds = new ArrayList<SolrInputDocument>();
+            for (Map.Entry<String, SolrInputDocument> entry : pending.entrySet()) {
+                if (entry.getValue() == null) {
+                    deletes.add(entry.getKey());
+                } else {
+                    adds.add(entry.getValue());
+                }
+            }
+
+            if (!deletes.isEmpty()) {
+                delegate.deleteById(deletes);
+                pending.keySet().removeAll(deletes);
+            }
+
+            if (!adds.isEmpty()) {
+                UpdateResponse response = delegate.add(adds);
+                if (response == ErrorSwallowingSolrClient.ERROR_UPDATE_RESPONSE && adds.size() > 1) {
+                    // A document error was swallowed, which would make the whole batch get lost. Resend the
+                    // documents one by one, so that only the faulty ones are skipped.
+                    for (SolrInputDocument doc : adds) {
+                        delegate.add(doc);
+                        pending.remove(doc.getFieldValue("lily.key"));
+                    }
+                }
+                pending.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.InputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
+import org.apache.tika.sax.WriteOutContentHandler;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.util.io.Closer;
+
+/**
+ * Extracts the text from blobs using Tika, optionally reusing text extracted earlier from the same blob.
+ */
+public class ContentExtractor {
+    private final Log log = LogFactory.getLog(getClass());
+
+    /**
+     * 500K characters (Tika default: 100K).
+     */
+    public static final int DEFAULT_MAX_SIZE = 500 * 1000;
+
+    private final Parser tikaParser = new AutoDetectParser();
+    private final int maxSize;
+    private final BlobTextCache blobTextCache;
+    private final IndexerMetrics metrics;
+
+    public ContentExtractor() {
+        this(DEFAULT_MAX_SIZE, null, null);
+    }
+
+    /**
+     * @param maxSize maximum number of characters to extract from one blob, any further text is ignored
+     * @param blobTextCache optional
+     * @param metrics optional
+     */
+    public ContentExtractor(int maxSize, BlobTextCache blobTextCache, IndexerMetrics metrics) {
+        this.maxSize = maxSize;
+        this.blobTextCache = blobTextCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the text of the blob, null if the extraction failed.
+     *
+     * @param indexes the position of the blob in the field value, see {@link LTable#getInputStream}
+     */
+    public String extract(Blob blob, String table, LRepository repository, Record record, FieldType fieldType,
+            int[] indexes) {
+        boolean cacheable = blobTextCache != null && blobTextCache.isCacheable(blob.getValue());
+
+        if (cacheable) {
+            try {
+                String text = blobTextCache.get(blob.getValue(), maxSize);
+                if (text != null) {
+                    if (metrics != null) {
+                        metrics.blobTextCacheHits.inc();
+                    }
+                    return text;
+                }
+                if (metrics != null) {
+                    metrics.blobTextCacheMisses.inc();
+                }
+            } catch (Throwable t) {
+                log.warn("Error reading extracted blob text from cache. Field '" + fieldType.getName() +
+                        "', record '" + record.getId() + "'.", t);
+            }
+        }
+
+        long before = System.currentTimeMillis();
+        String text = parse(blob, table, repository, record, fieldType, indexes);
+        if (metrics != null) {
+            metrics.extractContent.inc(System.currentTimeMillis() - before);
+        }
+
+        if (text != null && cacheable) {
+            try {
+                blobTextCache.put(blob.getValue(), maxSize, text);
+            } catch (Throwable t) {
+                log.warn("Error storing extracted blob text in cache. Field '" + fieldType.getName() +
+                        "', record '" + record.getId() + "'.", t);
+            }
+        }
+
+        return text;
+    }
+
+    private String parse(Blob blob, String table, LRepository repository, Record record, FieldType fieldType,
+            int[] indexes) {
+        InputStream is = null;
+
+        WriteOutContentHandler woh = new WriteOutContentHandler(maxSize);
+        BodyContentHandler ch = new BodyContentHandler(woh);
+
+        try {
+            is = repository.getTable(table).getInputStream(record, fieldType.getName(), indexes);
+
+            Metadata metadata = new Metadata();
+            metadata.add(Metadata.CONTENT_TYPE, blob.getMediaType());
+            if (blob.getName() != null) {
+                metadata.add(Metadata.RESOURCE_NAME_KEY, blob.getName());
+            }
+
+            ParseContext parseContext = new ParseContext();
+
+            tikaParser.parse(is, ch, metadata, parseContext);
+        } catch (Throwable t) {
+            if (woh.isWriteLimitReached(t)) {
+                // ok, we'll just add use the partial result
+                if (log.isInfoEnabled()) {
+                    log.info("Blob extraction: write limit reached. Field '" + fieldType.getName() + "', record '"
+                            + record.getId() + "'.");
+                }
+            } else {
+                log.error(
+                        "Error extracting blob content. Field '" + fieldType.getName() + "', record '" + record.getId()
+                                + "'.", t);
+                return null;
+            }
+        } finally {
+            Closer.close(is);
+        }
+
+        return ch.toString();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
+import org.lilyproject.util.repo.VersionTag;
+
+/**
+ * Cache for the records which are read while following links, masters and variants during the evaluation of
+ * dereference expressions. Popular link targets are often read for nearly every indexed record, this avoids
+ * reading them from the repository over and over.
+ *
+ * <p>The cache is bounded by the number of fields of the cached records. Since the records are not immutable
+ * (e.g. non-versioned fields and version tags), the cache relies on {@link #invalidate} being called whenever a
+ * record changes. As a safety net, entries also expire some time after they were read.</p>
+ *
+ * <p>The index updater can only invalidate the records for which it receives events. Changes to linked records
+ * which are excluded by the record filter of the index, to records updated without indexing, or to records whose
+ * events are processed on another node, are only noticed once the cached entry expires. This is why the cache is
+ * disabled by default, and why the expiry time is configurable.</p>
+ *
+ * <p>The cached records are shared: users should not modify them.</p>
+ */
+public class DerefRecordCache {
+    private final Cache<AbsoluteRecordId, Map<SchemaId, IdRecord>> cache;
+    private final IndexerMetrics metrics;
+
+    /**
+     * Invalidation stamps, one per stripe of record ids. A record read while its stripe was invalidated is not
+     * cached, since it might have been read before the change which caused the invalidation. Invalidations of
+     * other records only interfere with this when they fall in the same stripe.
+     */
+    private final AtomicLongArray invalidationStamps = new AtomicLongArray(STAMP_STRIPES);
+
+    private static final int STAMP_STRIPES = 1024;
+
+    public static final int DEFAULT_EXPIRY_SECONDS = 300;
+
+    /**
+     * @param maxFields maximum number of fields, summed over all cached records
+     */
+    public DerefRecordCache(long maxFields, IndexerMetrics metrics) {
+        this(maxFields, DEFAULT_EXPIRY_SECONDS, metrics);
+    }
+
+    /**
+     * @param maxFields maximum number of fields, summed over all cached records
+     * @param expirySeconds time after which a cached record is read again, this bounds how long changes which the
+     *                      cache is not told about (see class comment) can go unnoticed
+     */
+    public DerefRecordCache(long maxFields, int expirySeconds, IndexerMetrics metrics) {
+        this.metrics = metrics;
+        this.cache = CacheBuilder.newBuilder()
+                .maximumWeight(maxFields)
+                .weigher(new Weigher<AbsoluteRecordId, Map<SchemaId, IdRecord>>() {
+                    @Override
+                    public int weigh(AbsoluteRecordId key, Map<SchemaId, IdRecord> value) {
+                        int weight = 1;
+                        for (IdRecord record : value.values()) {
+                            weight += record.getFields().size();
+                        }
+                        return weight;
+                    }
+                })
+                .expireAfterWrite(expirySeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * Same as {@link VersionTag#getIdRecord(RecordId, SchemaId, LTable, LRepository)}, but served from the cache
+     * when possible.
+     */
+    public IdRecord getIdRecord(RecordId recordId, SchemaId vtagId, LTable table, LRepository repository)
+            throws RepositoryException, InterruptedException {
+        AbsoluteRecordId key = new AbsoluteRecordIdImpl(table.getTableName(), recordId);
+
+        Map<SchemaId, IdRecord> records = cache.getIfPresent(key);
+        IdRecord record = records != null ? records.get(vtagId) : null;
+        if (record != null) {
+            metrics.derefCacheHits.inc();
+            return record;
+        }
+        metrics.derefCacheMisses.inc();
+
+        int stripe = getStripe(key);
+        long stampBefore = invalidationStamps.get(stripe);
+        record = VersionTag.getIdRecord(recordId, vtagId, table, repository);
+
+        // A null record means the vtag is not defined on the record, which is not cached
+        if (record != null && invalidationStamps.get(stripe) == stampBefore) {
+            // The per-record map is replaced rather than modified, so that the weight of the entry is updated
+            Map<SchemaId, IdRecord> newRecords = records != null ?
+                    new HashMap<SchemaId, IdRecord>(records) : new HashMap<SchemaId, IdRecord>(2);
+            newRecords.put(vtagId, record);
+            cache.put(key, Collections.unmodifiableMap(newRecords));
+        }
+
+        return record;
+    }
+
+    /**
+     * Removes all cached versions of the given record.
+     */
+    public void invalidate(AbsoluteRecordId recordId) {
+        invalidationStamps.incrementAndGet(getStripe(recordId));
+        cache.invalidate(recordId);
+    }
+
+    static int getStripe(AbsoluteRecordId recordId) {
+        return (recordId.hashCode() & Integer.MAX_VALUE) % STAMP_STRIPES;
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Collection;
+
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * The implementation of the record locks handed out by the {@link IndexLocker}.
+ *
+ * <p>Locks are owned by the thread that took them.</p>
+ */
+public interface IndexLockStrategy {
+    /**
+     * Obtains the lock for the given record, waiting for it if needed.
+     *
+     * @throws IndexLockTimeoutException if the lock could not be obtained within the timeout of the strategy.
+     */
+    void lock(RecordId recordId) throws IndexLockException;
+
+    void unlock(RecordId recordId) throws IndexLockException, InterruptedException;
+
+    boolean hasLock(RecordId recordId) throws IndexLockException, InterruptedException;
+
+    /**
+     * Tries to obtain the locks for all given records at once, without waiting for locks that are held
+     * by others. Either all locks are obtained, or none.
+     *
+     * @return true if all locks were obtained
+     */
+    boolean tryLockAll(Collection<RecordId> recordIds) throws IndexLockException, InterruptedException;
+
+    /**
+     * Releases locks obtained through {@link #tryLockAll(Collection)}.
+     */
+    void unlockAll(Collection<RecordId> recordIds) throws IndexLockException, InterruptedException;
+}
@@ -15,19 +15,16 @@
  */
 package org.lilyproject.indexer.engine;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.zookeeper.CreateMode;
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.ZooDefs;
-import org.apache.zookeeper.data.Stat;
 import org.lilyproject.repository.api.RecordId;
-import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
-import org.lilyproject.util.zookeeper.ZooKeeperOperation;
 
 // About the IndexLocker:
 //
@@ -59,31 +56,37 @@ import org.lilyproject.util.zookeeper.ZooKeeperOperation;
 // index lock for each record, which would lower chances of contention when having multiple
 // indexes defined. Will leave it like this though since I'd rather see the need for this locking
 // removed altogether.
+//
+// Update 2013: the locks are now implemented by an IndexLockStrategy. The ZooKeeper-based locks described
+// above are the default. LocalIndexLockStrategy keeps the locks within the JVM, for setups where a record
+// is only ever indexed by one process. To lower the number of ZooKeeper round trips, the IndexUpdater
+// takes the locks for a whole batch of events at once, see lockAll().
 
 public class IndexLocker {
-    private ZooKeeperItf zk;
-    private int waitBetweenTries = 20;
-    private int maxWaitTime = 20000;
+    private final IndexLockStrategy strategy;
     /**
      * Flag to allow globally disabling the index locking.
      */
     private boolean enabled = true;
 
-    private Log log = LogFactory.getLog(getClass());
+    /**
+     * The batch lock the current thread is working for, if any, see {@link BatchLock#join()}.
+     */
+    private final ThreadLocal<BatchLock> currentBatch = new ThreadLocal<BatchLock>();
 
-    private static final String LOCK_PATH = "/lily/indexer/recordlock";
+    private Log log = LogFactory.getLog(getClass());
 
     public IndexLocker(ZooKeeperItf zk, boolean enabled) throws InterruptedException, KeeperException {
-        this.zk = zk;
-        this.enabled = enabled;
-        ZkUtil.createPath(zk, LOCK_PATH);
+        this(new ZooKeeperIndexLockStrategy(zk), enabled);
     }
 
     public IndexLocker(ZooKeeperItf zk, int waitBetweenTries, int maxWaitTime) throws InterruptedException, KeeperException {
-        this.zk = zk;
-        this.waitBetweenTries = waitBetweenTries;
-        this.maxWaitTime = maxWaitTime;
-        ZkUtil.createPath(zk, LOCK_PATH);
+        this(new ZooKeeperIndexLockStrategy(zk, waitBetweenTries, maxWaitTime), true);
+    }
+
+    public IndexLocker(IndexLockStrategy strategy, boolean enabled) {
+        this.strategy = strategy;
+        this.enabled = enabled;
     }
 
     /**
@@ -95,119 +98,22 @@ public class IndexLocker {
      * @throws IndexLockTimeoutException if the lock could not be obtained within the given timeout.
      */
     public void lock(RecordId recordId) throws IndexLockException {
-        if (!enabled) {
+        if (!enabled || isLockedByCurrentBatch(recordId)) {
             return;
         }
 
-        if (zk.isCurrentThreadEventThread()) {
-            throw new RuntimeException("IndexLocker should not be used from within the ZooKeeper event thread.");
-        }
-
-        try {
-            long startTime = System.currentTimeMillis();
-            final String lockPath = getPath(recordId);
-
-            final byte[] data = Bytes.toBytes(Thread.currentThread().getId());
-
-            while (true) {
-                if (System.currentTimeMillis() - startTime > maxWaitTime) {
-                    // we have been attempting long enough to get the lock, without success
-                    throw new IndexLockTimeoutException("Failed to obtain an index lock for record " + recordId +
-                            " within " + maxWaitTime + " ms.");
-                }
-
-                try {
-                    zk.retryOperation(new ZooKeeperOperation<Object>() {
-                        @Override
-                        public Object execute() throws KeeperException, InterruptedException {
-                            zk.create(lockPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
-                            return null;
-                        }
-                    });
-                    // We successfully created the node, hence we have the lock.
-                    return;
-                } catch (KeeperException.NodeExistsException e) {
-                    // ignore, see next
-                }
-
-                // In case creating the node failed, it does not mean we do not have the lock: in case
-                // of connection loss, we might not know if we actually succeeded creating the node, therefore
-                // read the owner and thread id to check.
-                boolean hasLock = zk.retryOperation(new ZooKeeperOperation<Boolean>() {
-                    @Override
-                    public Boolean execute() throws KeeperException, InterruptedException {
-                        try {
-                            Stat stat = new Stat();
-                            byte[] currentData = zk.getData(lockPath, false, stat);
-                            return (stat.getEphemeralOwner() == zk.getSessionId() && Arrays.equals(currentData, data));
-                        } catch (KeeperException.NoNodeException e) {
-                            return false;
-                        }
-                    }
-                });
-
-                if (hasLock) {
-                    return;
-                }
-
-                Thread.sleep(waitBetweenTries);
-            }
-        } catch (Throwable throwable) {
-            if (throwable instanceof IndexLockException) {
-                throw (IndexLockException)throwable;
-            }
-            throw new IndexLockException("Error taking index lock on record " + recordId, throwable);
-        }
+        strategy.lock(recordId);
     }
 
     public void unlock(final RecordId recordId) throws IndexLockException, InterruptedException,
             KeeperException {
 
-        if (!enabled) {
+        if (!enabled || isLockedByCurrentBatch(recordId)) {
+            // Batch locks are only released by BatchLock.release()
             return;
         }
 
-        if (zk.isCurrentThreadEventThread()) {
-            throw new RuntimeException("IndexLocker should not be used from within the ZooKeeper event thread.");
-        }
-
-        final String lockPath = getPath(recordId);
-
-        // The below loop is because, even if our thread is interrupted, we still want to remove the lock.
-        // The interruption might be because just one IndexUpdater is being shut down, rather than the
-        // complete application, and hence session expiration will then not remove the lock.
-        boolean tokenOk;
-        boolean interrupted = false;
-        while (true) {
-            try {
-                tokenOk = zk.retryOperation(new ZooKeeperOperation<Boolean>() {
-                    @Override
-                    public Boolean execute() throws KeeperException, InterruptedException {
-                        Stat stat = new Stat();
-                        byte[] data = zk.getData(lockPath, false, stat);
-
-                        if (stat.getEphemeralOwner() == zk.getSessionId() && Bytes.toLong(data) == Thread.currentThread().getId()) {
-                            zk.delete(lockPath, -1);
-                            return true;
-                        } else {
-                            return false;
-                        }
-                    }
-                });
-                break;
-            } catch (InterruptedException e) {
-                interrupted = true;
-            }
-        }
-
-        if (interrupted) {
-            Thread.currentThread().interrupt();
-        }
-
-        if (!tokenOk) {
-            throw new IndexLockException("You cannot remove the index lock for record " + recordId +
-                    " because the token is incorrect.");
-        }
+        strategy.unlock(recordId);
     }
 
     public void unlockLogFailure(final RecordId recordId) {
@@ -225,34 +131,85 @@ public class IndexLocker {
     public boolean hasLock(final RecordId recordId) throws IndexLockException, InterruptedException,
             KeeperException {
 
-        if (!enabled) {
+        if (!enabled || isLockedByCurrentBatch(recordId)) {
             return true;
         }
 
-        if (zk.isCurrentThreadEventThread()) {
-            throw new RuntimeException("IndexLocker should not be used from within the ZooKeeper event thread.");
-        }
+        return strategy.hasLock(recordId);
+    }
 
-        final String lockPath = getPath(recordId);
+    /**
+     * Tries to obtain the locks for a set of records at once, for use by one batch of work, such as
+     * the processing of a batch of events.
+     *
+     * <p>The locks are obtained all or none, this method does not wait for locks that are held by
+     * others. Threads working for the batch should {@link BatchLock#join() join} it, after which
+     * {@link #lock}, {@link #unlock} and {@link #hasLock} calls for the records of the batch are
+     * satisfied by the batch lock. The thread that obtained the batch lock should call
+     * {@link BatchLock#release()} when the batch is done.</p>
+     *
+     * @return the batch lock, or null if locking is disabled or the locks could not be obtained, in which
+     *         case the records should be locked one by one.
+     */
+    public BatchLock lockAll(Collection<RecordId> recordIds) throws IndexLockException, InterruptedException {
+        if (!enabled || recordIds.isEmpty()) {
+            return null;
+        }
 
-        return zk.retryOperation(new ZooKeeperOperation<Boolean>() {
-            @Override
-            public Boolean execute() throws KeeperException, InterruptedException {
-                try {
-                    Stat stat = new Stat();
-                    byte[] data = zk.getData(lockPath, false, stat);
-                    return stat.getEphemeralOwner() == zk.getSessionId() &&
-                            Bytes.toLong(data) == Thread.currentThread().getId();
-                } catch (KeeperException.NoNodeException e) {
-                    return false;
-                }
+        Set<RecordId> ids = new HashSet<RecordId>(recordIds);
+        if (!strategy.tryLockAll(ids)) {
+            return null;
+        }
+        return new BatchLock(ids);
+    }
 
-            }
-        });
+    public boolean isEnabled() {
+        return enabled;
     }
 
-    private String getPath(RecordId recordId) {
-        return LOCK_PATH + "/" + recordId.toString();
+    /**
+     * Returns true if the current thread works for a batch lock which covers the given record, see
+     * {@link BatchLock#join()}.
+     */
+    public boolean isLockedByCurrentBatch(RecordId recordId) {
+        BatchLock batch = currentBatch.get();
+        return batch != null && batch.recordIds.contains(recordId);
     }
 
+    /**
+     * The locks of a set of records, obtained through {@link IndexLocker#lockAll}.
+     */
+    public class BatchLock {
+        private final Set<RecordId> recordIds;
+
+        private BatchLock(Set<RecordId> recordIds) {
+            this.recordIds = recordIds;
+        }
+
+        /**
+         * Lets the current thread work under this batch lock.
+         */
+        public void join() {
+            currentBatch.set(this);
+        }
+
+        public void leave() {
+            currentBatch.remove();
+        }
+
+        /**
+         * Releases the locks, must be called by the thread that obtained them. Logs rather than throws
+         * failures.
+         */
+        public void release() {
+            try {
+                strategy.unlockAll(new ArrayList<RecordId>(recordIds));
+            } catch (Throwable t) {
+                if (t instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                log.error("Error releasing locks on " + recordIds.size() + " records", t);
+            }
+        }
+    }
 }
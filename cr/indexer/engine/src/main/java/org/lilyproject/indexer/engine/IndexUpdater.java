@@ -20,10 +20,18 @@ import static org.lilyproject.util.repo.RecordEvent.Type.DELETE;
 import static org.lilyproject.util.repo.RecordEvent.Type.INDEX;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ArrayListMultimap;
@@ -54,6 +62,7 @@ import org.lilyproject.sep.LilyEventListener;
 import org.lilyproject.sep.LilyEventPublisherManager;
 import org.lilyproject.sep.LilySepEvent;
 import org.lilyproject.util.Pair;
+import org.lilyproject.util.concurrent.CustomThreadFactory;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
 import org.lilyproject.util.repo.RecordEventHelper;
@@ -92,6 +101,18 @@ import org.lilyproject.util.repo.VTaggedRecord;
 
 /**
  * Updates the index in response to repository events.
+ *
+ * <p>When created with more than one thread, the events of a batch are partitioned by record id and the
+ * partitions are processed concurrently. Events of the same record are always processed in order, by the
+ * same thread. {@link #processLilyEvents(List)} only returns once the complete batch has been processed,
+ * so that the SEP does not consider the batch done too early.</p>
+ *
+ * <p>The index locks of the records of a batch are taken at once, see {@link IndexLocker#lockAll}. When
+ * the indexer writes to Solr through a {@link BufferedSolrShardManager}, the buffered updates are flushed at
+ * the end of each batch, before releasing these locks. Records which are locked one by one, because the batch
+ * lock could not be obtained or because the batch concerns only one record, have their updates flushed before
+ * their lock is released. Otherwise another indexer, such as a batch build, could index the record in between
+ * and have its newer document overwritten by our older one.</p>
  */
 public class IndexUpdater extends LilyEventListener {
     private RepositoryManager repositoryManager;
@@ -103,6 +124,17 @@ public class IndexUpdater extends LilyEventListener {
     private LilyEventPublisherManager eventPublisherMgr;
     private String subscriptionId;
 
+    /**
+     * Thread pool to process the partitions of an event batch, <code>null</code> if events are processed
+     * by the calling thread.
+     */
+    private ExecutorService executor;
+
+    /**
+     * The shard manager used by the indexer in case it buffers the Solr updates, otherwise <code>null</code>.
+     */
+    private BufferedSolrShardManager bufferedShardMgr;
+
     /**
      * Deref map used to update denormalized data. It is <code>null</code> in case the indexer configuration doesn't
      * contain dereference expressions.
@@ -120,6 +152,20 @@ public class IndexUpdater extends LilyEventListener {
                         IndexLocker indexLocker, IndexUpdaterMetrics metrics, DerefMap derefMap,
                         LilyEventPublisherManager eventPublisherMgr,
             String subscriptionId) {
+        this(indexer, repositoryManager, repositoryName, indexLocker, metrics, derefMap, eventPublisherMgr,
+                subscriptionId, 1, null);
+    }
+
+    /**
+     * @param threads number of threads used to process the events of one batch. Events of different records
+     *                are processed concurrently, events of the same record sequentially. With a value of 1,
+     *                all events are processed by the calling thread.
+     * @param bufferedShardMgr the shard manager used by the indexer, if it buffers the Solr updates. Can be null.
+     */
+    public IndexUpdater(Indexer indexer, RepositoryManager repositoryManager, String repositoryName,
+                        IndexLocker indexLocker, IndexUpdaterMetrics metrics, DerefMap derefMap,
+                        LilyEventPublisherManager eventPublisherMgr, String subscriptionId, int threads,
+                        BufferedSolrShardManager bufferedShardMgr) {
         super(repositoryManager);
         this.indexer = indexer;
         this.repositoryManager = repositoryManager;
@@ -132,15 +178,156 @@ public class IndexUpdater extends LilyEventListener {
         this.myContextClassLoader = Thread.currentThread().getContextClassLoader();
 
         this.metrics = metrics;
+        this.bufferedShardMgr = bufferedShardMgr;
+
+        if (threads > 1) {
+            this.executor = Executors.newFixedThreadPool(threads,
+                    new CustomThreadFactory("IndexUpdater_" + indexer.getIndexName(), null, true));
+        }
+    }
+
+    /**
+     * Stops the threads used for processing event batches, if any.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
     }
 
     @Override
     public void processLilyEvents(List<LilySepEvent> events) {
+        Collection<List<LilySepEvent>> partitions = partitionByRecord(events);
+
+        // Lock the records of the complete batch at once, rather than each time an event is processed. If
+        // this does not succeed, the records are locked one by one while processing the events.
+        IndexLocker.BatchLock batchLock = lockBatch(partitions);
+        try {
+            if (executor == null || partitions.size() < 2) {
+                processEventsInOrder(events, batchLock);
+            } else {
+                processPartitions(partitions, batchLock);
+            }
+
+            // Flush while we still hold the locks of the batch. Records that were locked one by one have
+            // already been flushed before releasing their lock, what remains are the updates of records
+            // that were covered by the batch lock, or of all records if locking is disabled.
+            if (bufferedShardMgr != null) {
+                flushSolrUpdates();
+            }
+        } finally {
+            if (batchLock != null) {
+                batchLock.release();
+            }
+        }
+    }
+
+    private IndexLocker.BatchLock lockBatch(Collection<List<LilySepEvent>> partitions) {
+        if (partitions.size() < 2) {
+            return null;
+        }
+
+        List<RecordId> recordIds = new ArrayList<RecordId>(partitions.size());
+        for (List<LilySepEvent> partition : partitions) {
+            recordIds.add(partition.get(0).getRecordId());
+        }
+
+        try {
+            return indexLocker.lockAll(recordIds);
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.warn("Failed to lock the records of an event batch, will lock them one by one: " + e);
+            return null;
+        }
+    }
+
+    private void flushSolrUpdates() {
+        try {
+            bufferedShardMgr.flush();
+        } catch (Exception e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            log.error("Failure in IndexUpdater while sending buffered updates to Solr: " + e);
+            metrics.errors.inc();
+            // The updates stay buffered, throwing the exception makes the SEP retry the batch
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void processPartitions(Collection<List<LilySepEvent>> partitions,
+            final IndexLocker.BatchLock batchLock) {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(partitions.size());
+        for (final List<LilySepEvent> partition : partitions) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    processEventsInOrder(partition, batchLock);
+                    return null;
+                }
+            }));
+        }
+
+        // Wait for all partitions, even if one of them failed: the SEP will retry the complete batch, and
+        // we don't want the retry to overlap with partitions that are still running.
+        Throwable failure = null;
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<Void> other : futures) {
+                    other.cancel(true);
+                }
+                throw new RuntimeException("Interrupted while waiting for index updater threads", e);
+            }
+        }
+
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException)failure;
+        } else if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private void processEventsInOrder(List<LilySepEvent> events, IndexLocker.BatchLock batchLock) {
+        if (batchLock != null) {
+            batchLock.join();
+        }
+        try {
+            for (LilySepEvent event : events) {
+                processEvent(event);
+            }
+        } finally {
+            if (batchLock != null) {
+                batchLock.leave();
+            }
+        }
+    }
+
+    /**
+     * Groups the events per record, keeping the original order of the events within each group.
+     */
+    private Collection<List<LilySepEvent>> partitionByRecord(List<LilySepEvent> events) {
+        Map<RecordId, List<LilySepEvent>> eventsByRecord = new LinkedHashMap<RecordId, List<LilySepEvent>>();
         for (LilySepEvent event : events) {
-            processEvent(event);
+            RecordId recordId = event.getRecordId();
+            List<LilySepEvent> recordEvents = eventsByRecord.get(recordId);
+            if (recordEvents == null) {
+                recordEvents = new ArrayList<LilySepEvent>();
+                eventsByRecord.put(recordId, recordEvents);
+            }
+            recordEvents.add(event);
         }
+        return eventsByRecord.values();
     }
-    
+
     public void processEvent(LilySepEvent event) {
         if (!repositoryName.equals(event.getLilyRepositoryName())) {
             log.warn("got sep event for record that should have been filtered by IndexEditFilter and IndexRecordFilterHook");
@@ -164,6 +351,12 @@ public class IndexUpdater extends LilyEventListener {
             recordId = event.getRecordId();
             LRepository repository = repositoryManager.getRepository(event.getLilyRepositoryName());
 
+            // The record changed, so it should not be served anymore from the cache used for deref evaluation
+            DerefRecordCache derefRecordCache = indexer.getDerefRecordCache();
+            if (derefRecordCache != null) {
+                derefRecordCache.invalidate(new AbsoluteRecordIdImpl(recordEvent.getTableName(), recordId));
+            }
+
             if (log.isDebugEnabled()) {
                 log.debug("Received message: " + recordEvent.toJson());
             }
@@ -183,7 +376,7 @@ public class IndexUpdater extends LilyEventListener {
                 try {
                     indexer.delete(recordId);
                 } finally {
-                    indexLocker.unlockLogFailure(recordId);
+                    flushAndUnlock(recordId);
                 }
 
                 if (log.isDebugEnabled()) {
@@ -259,7 +452,7 @@ public class IndexUpdater extends LilyEventListener {
 
                         handleRecordCreateUpdate(vtRecord);
                     } finally {
-                        indexLocker.unlockLogFailure(recordId);
+                        flushAndUnlock(recordId);
                     }
                 }
 
@@ -486,7 +679,7 @@ public class IndexUpdater extends LilyEventListener {
 
             try {
                 eventPublisherMgr.getEventPublisher(repo, referrer.getTable()
-                        ).publishEvent(referrer.getRecordId().toBytes(), payload.toJsonBytes());
+                        ).publishEvent(referrer.getRecordId().toBytes(), payload.toBytes());
             } catch (Exception e) {
                 // We failed to put the message: this is pretty important since it means the record's index
                 // won't get updated, therefore log as error, but after this we continue with the next one.
@@ -548,9 +741,24 @@ public class IndexUpdater extends LilyEventListener {
             indexer.index(table, vtRecord, vtagsToIndex);
         } finally {
             if (lockObtained) {
-                indexLocker.unlockLogFailure(recordId);
+                flushAndUnlock(recordId);
             }
         }
     }
 
+    /**
+     * Releases the index lock of a record that was locked by {@link IndexLocker#lock}. Unless the lock is
+     * covered by the lock of the batch, the buffered Solr updates are sent first, so that they can't arrive
+     * after the updates of another indexer that locks the record next.
+     */
+    private void flushAndUnlock(RecordId recordId) throws SolrClientException, InterruptedException {
+        try {
+            if (bufferedShardMgr != null && indexLocker.isEnabled() && !indexLocker.isLockedByCurrentBatch(recordId)) {
+                bufferedShardMgr.flush();
+            }
+        } finally {
+            indexLocker.unlockLogFailure(recordId);
+        }
+    }
+
 }
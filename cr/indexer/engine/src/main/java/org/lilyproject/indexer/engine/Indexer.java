@@ -73,11 +73,24 @@ public class Indexer {
      */
     private final DerefMap derefMap;
 
+    /**
+     * Cache for records read while evaluating dereference expressions, <code>null</code> if not enabled.
+     */
+    private final DerefRecordCache derefRecordCache;
+
     private final Log log = LogFactory.getLog(getClass());
 
     public Indexer(String indexName, IndexerConf conf, LRepository repository, SolrShardManager solrShardMgr,
                    IndexLocker indexLocker, IndexerMetrics metrics, DerefMap derefMap)
             throws RepositoryException, InterruptedException {
+        this(indexName, conf, repository, solrShardMgr, indexLocker, metrics, derefMap, null,
+                new ContentExtractor(ContentExtractor.DEFAULT_MAX_SIZE, null, metrics));
+    }
+
+    public Indexer(String indexName, IndexerConf conf, LRepository repository, SolrShardManager solrShardMgr,
+                   IndexLocker indexLocker, IndexerMetrics metrics, DerefMap derefMap,
+                   DerefRecordCache derefRecordCache, ContentExtractor contentExtractor)
+            throws RepositoryException, InterruptedException {
         this.indexName = indexName;
         this.conf = conf;
         this.repository = repository;
@@ -85,9 +98,10 @@ public class Indexer {
         this.indexLocker = indexLocker;
         this.typeManager = repository.getTypeManager();
         this.systemFields = SystemFields.getInstance(typeManager, repository.getIdGenerator());
-        this.valueEvaluator = new ValueEvaluator(conf);
+        this.valueEvaluator = new ValueEvaluator(conf, contentExtractor);
         this.metrics = metrics;
         this.derefMap = derefMap;
+        this.derefRecordCache = derefRecordCache;
     }
 
     public IndexerConf getConf() {
@@ -98,6 +112,10 @@ public class Indexer {
         return indexName;
     }
 
+    public DerefRecordCache getDerefRecordCache() {
+        return derefRecordCache;
+    }
+
     /**
      * Performs a complete indexing of the given record, supposing the record is not yet indexed
      * (existing entries are not explicitly removed).
@@ -212,7 +230,8 @@ public class Indexer {
 
             SolrDocumentBuilder solrDocumentBuilder =
                     new SolrDocumentBuilder(repository, getConf().getRecordFilter(), systemFields, valueEvaluator,
-                            table, record, getIndexId(table, record.getId(), vtag), vtag, version);
+                            table, record, getIndexId(table, record.getId(), vtag), vtag, version,
+                            derefRecordCache);
 
             // By convention/definition, we first evaluate the static index fields and then the dynamic ones
 
@@ -269,9 +288,13 @@ public class Indexer {
 
                 processDependencies(table, record, vtag, solrDocumentBuilder);
 
-                log.debug("index response " + solrShardMgr.getSolrClient(record.getId()).add(solrDoc).toString());
+                UpdateResponse response = solrShardMgr.getSolrClient(record.getId()).add(solrDoc);
                 metrics.adds.inc();
 
+                if (log.isDebugEnabled()) {
+                    log.debug("index response " + response);
+                }
+
                 if (log.isDebugEnabled()) {
                     log.debug(String.format("Record %1$s, vtag %2$s: indexed, doc = %3$s", record.getId(),
                             safeLoadTagName(vtag), solrDoc));
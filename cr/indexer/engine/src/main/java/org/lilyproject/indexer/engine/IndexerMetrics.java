@@ -24,6 +24,7 @@ import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingLong;
+import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
 import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
@@ -44,6 +45,16 @@ public class IndexerMetrics implements Updater {
 
     public MetricsTimeVaryingLong deletesByQuery = new MetricsTimeVaryingLong("deletesByQuery", registry);
 
+    public MetricsTimeVaryingLong derefCacheHits = new MetricsTimeVaryingLong("derefCacheHits", registry);
+
+    public MetricsTimeVaryingLong derefCacheMisses = new MetricsTimeVaryingLong("derefCacheMisses", registry);
+
+    public MetricsTimeVaryingRate extractContent = new MetricsTimeVaryingRate("extractContent", registry);
+
+    public MetricsTimeVaryingLong blobTextCacheHits = new MetricsTimeVaryingLong("blobTextCacheHits", registry);
+
+    public MetricsTimeVaryingLong blobTextCacheMisses = new MetricsTimeVaryingLong("blobTextCacheMisses", registry);
+
     public IndexerMetrics(String indexName) {
         this.indexName = indexName;
         context = MetricsUtil.getContext("indexer");
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import org.lilyproject.repository.api.RecordId;
+
+/**
+ * Index locks that only exist within this JVM, implemented as a fixed set of re-entrant locks to which
+ * the record ids are hashed.
+ *
+ * <p>This avoids any ZooKeeper traffic, but only gives mutual exclusion between the users of the same
+ * strategy instance. It is only suited when all indexing of a record happens in one process, for example
+ * when the index updaters are the only ones indexing (the SEP delivers all events of a record to the same
+ * consumer), and no batch build with locking runs at the same time.</p>
+ *
+ * <p>Since multiple records share a lock, a thread might wait for a lock held for another record.</p>
+ */
+public class LocalIndexLockStrategy implements IndexLockStrategy {
+    private final Striped<Lock> locks;
+    private final int maxWaitTime;
+
+    public LocalIndexLockStrategy() {
+        this(1024, 20000);
+    }
+
+    /**
+     * @param stripes number of locks among which the records are divided
+     * @param maxWaitTime maximum time, in ms, to wait for a lock
+     */
+    public LocalIndexLockStrategy(int stripes, int maxWaitTime) {
+        this.locks = Striped.lock(stripes);
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    @Override
+    public void lock(RecordId recordId) throws IndexLockException {
+        boolean locked;
+        try {
+            locked = locks.get(recordId).tryLock(maxWaitTime, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IndexLockException("Interrupted while taking index lock on record " + recordId, e);
+        }
+
+        if (!locked) {
+            throw new IndexLockTimeoutException("Failed to obtain an index lock for record " + recordId +
+                    " within " + maxWaitTime + " ms.");
+        }
+    }
+
+    @Override
+    public void unlock(RecordId recordId) throws IndexLockException {
+        try {
+            locks.get(recordId).unlock();
+        } catch (IllegalMonitorStateException e) {
+            throw new IndexLockException("You cannot remove the index lock for record " + recordId +
+                    " because it is not held by this thread.", e);
+        }
+    }
+
+    @Override
+    public boolean hasLock(RecordId recordId) {
+        return ((ReentrantLock)locks.get(recordId)).isHeldByCurrentThread();
+    }
+
+    @Override
+    public boolean tryLockAll(Collection<RecordId> recordIds) {
+        List<Lock> obtained = new ArrayList<Lock>(recordIds.size());
+        for (RecordId recordId : recordIds) {
+            Lock lock = locks.get(recordId);
+            if (!lock.tryLock()) {
+                for (Lock obtainedLock : Lists.reverse(obtained)) {
+                    obtainedLock.unlock();
+                }
+                return false;
+            }
+            obtained.add(lock);
+        }
+        return true;
+    }
+
+    @Override
+    public void unlockAll(Collection<RecordId> recordIds) throws IndexLockException {
+        // The locks are re-entrant, a lock shared by several of the records has been taken once for each
+        for (RecordId recordId : recordIds) {
+            unlock(recordId);
+        }
+    }
+}
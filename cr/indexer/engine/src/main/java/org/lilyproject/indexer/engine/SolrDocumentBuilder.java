@@ -46,6 +46,7 @@ import org.lilyproject.indexer.model.indexerconf.Value;
 import org.lilyproject.indexer.model.indexerconf.VariantPropertyTemplatePart;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
@@ -54,6 +55,7 @@ import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
 import org.lilyproject.util.repo.SystemFields;
+import org.lilyproject.util.repo.VersionTag;
 
 public class SolrDocumentBuilder implements IndexUpdateBuilder {
 
@@ -65,6 +67,7 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
     private final TypeManager typeManager;
     private final ValueEvaluator valueEvaluator;
     private final NameTemplateResolver nameTemplateResolver;
+    private final DerefRecordCache derefRecordCache;
 
     private final SolrInputDocument solrDoc = new SolrInputDocument();
     private boolean emptyDocument = true;
@@ -80,6 +83,15 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
 
     public SolrDocumentBuilder(LRepository repository, IndexRecordFilter indexRecordFilter, SystemFields systemFields,
                                ValueEvaluator valueEvaluator, String table, IdRecord record, String key, SchemaId vtag, long version) {
+        this(repository, indexRecordFilter, systemFields, valueEvaluator, table, record, key, vtag, version, null);
+    }
+
+    /**
+     * @param derefRecordCache optional, cache for the records read while following links
+     */
+    public SolrDocumentBuilder(LRepository repository, IndexRecordFilter indexRecordFilter, SystemFields systemFields,
+                               ValueEvaluator valueEvaluator, String table, IdRecord record, String key, SchemaId vtag, long version,
+                               DerefRecordCache derefRecordCache) {
         this.repository = repository;
         this.indexRecordFilter = indexRecordFilter;
         this.systemFields = systemFields;
@@ -90,6 +102,7 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
         this.key = key;
         this.vtag = vtag;
         this.version = version;
+        this.derefRecordCache = derefRecordCache;
 
         this.nameTemplateResolver = new FieldNameTemplateResolver();
 
@@ -227,6 +240,15 @@ public class SolrDocumentBuilder implements IndexUpdateBuilder {
         return vtag;
     }
 
+    @Override
+    public IdRecord getIdRecord(RecordId recordId, LTable table) throws RepositoryException, InterruptedException {
+        if (derefRecordCache != null) {
+            return derefRecordCache.getIdRecord(recordId, vtag, table, repository);
+        } else {
+            return VersionTag.getIdRecord(recordId, vtag, table, repository);
+        }
+    }
+
     @Override
     public String evalIndexFieldName(NameTemplate nameTemplate) {
         if (getRecordContext().record != null) {
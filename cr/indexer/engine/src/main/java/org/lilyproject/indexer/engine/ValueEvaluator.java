@@ -16,7 +16,6 @@
 package org.lilyproject.indexer.engine;
 
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -25,14 +24,6 @@ import java.util.List;
 
 import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
-import org.apache.tika.metadata.Metadata;
-import org.apache.tika.parser.AutoDetectParser;
-import org.apache.tika.parser.ParseContext;
-import org.apache.tika.parser.Parser;
-import org.apache.tika.sax.BodyContentHandler;
-import org.apache.tika.sax.WriteOutContentHandler;
 import org.lilyproject.indexer.model.indexerconf.DerefValue;
 import org.lilyproject.indexer.model.indexerconf.FieldValue;
 import org.lilyproject.indexer.model.indexerconf.Follow;
@@ -48,24 +39,26 @@ import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
-import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.repo.SystemFields;
 
 /**
  * Evaluates an index field value (a {@link Value}) to a value.
  */
 public class ValueEvaluator {
-    private Log log = LogFactory.getLog(getClass());
-
     private IndexerConf conf;
 
     private SystemFields systemFields;
 
-    private Parser tikaParser = new AutoDetectParser();
+    private ContentExtractor contentExtractor;
 
     public ValueEvaluator(IndexerConf conf) {
+        this(conf, new ContentExtractor());
+    }
+
+    public ValueEvaluator(IndexerConf conf, ContentExtractor contentExtractor) {
         this.conf = conf;
         this.systemFields = conf.getSystemFields();
+        this.contentExtractor = contentExtractor;
     }
 
     /**
@@ -161,44 +154,8 @@ public class ValueEvaluator {
     private void extractContent(String table, Object value, Record record, FieldType fieldType, int[] indexes, List<String> result,
             LRepository repository) {
 
-        Blob blob = (Blob) value;
-        InputStream is = null;
-
-        // TODO make write limit configurable
-        WriteOutContentHandler woh = new WriteOutContentHandler(500 * 1000); // 500K limit (Tika default: 100K)
-        BodyContentHandler ch = new BodyContentHandler(woh);
-
-        try {
-            is = repository.getTable(table).getInputStream(record, fieldType.getName(), indexes);
-
-            Metadata metadata = new Metadata();
-            metadata.add(Metadata.CONTENT_TYPE, blob.getMediaType());
-            if (blob.getName() != null) {
-                metadata.add(Metadata.RESOURCE_NAME_KEY, blob.getName());
-            }
-
-            ParseContext parseContext = new ParseContext();
-
-            tikaParser.parse(is, ch, metadata, parseContext);
-        } catch (Throwable t) {
-            if (woh.isWriteLimitReached(t)) {
-                // ok, we'll just add use the partial result
-                if (log.isInfoEnabled()) {
-                    log.info("Blob extraction: write limit reached. Field '" + fieldType.getName() + "', record '"
-                            + record.getId() + "'.");
-                }
-            } else {
-                log.error(
-                        "Error extracting blob content. Field '" + fieldType.getName() + "', record '" + record.getId()
-                                + "'.", t);
-                return;
-            }
-        } finally {
-            Closer.close(is);
-        }
-
-        String text = ch.toString();
-        if (text.length() > 0) {
+        String text = contentExtractor.extract((Blob) value, table, repository, record, fieldType, indexes);
+        if (text != null && text.length() > 0) {
             result.add(text);
         }
     }
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.zookeeper.AsyncCallback;
+import org.apache.zookeeper.CreateMode;
+import org.apache.zookeeper.KeeperException;
+import org.apache.zookeeper.ZooDefs;
+import org.apache.zookeeper.data.Stat;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.util.zookeeper.ZkUtil;
+import org.lilyproject.util.zookeeper.ZooKeeperItf;
+import org.lilyproject.util.zookeeper.ZooKeeperOperation;
+
+/**
+ * Index locks stored in ZooKeeper, which gives mutual exclusion between all processes connected to
+ * the same ZooKeeper quorum, such as the index updaters on the Lily nodes and the batch build map tasks.
+ *
+ * <p>See the comments at the top of {@link IndexLocker} for the design.</p>
+ */
+public class ZooKeeperIndexLockStrategy implements IndexLockStrategy {
+    private ZooKeeperItf zk;
+    private int waitBetweenTries = 20;
+    private int maxWaitTime = 20000;
+
+    private Log log = LogFactory.getLog(getClass());
+
+    private static final String LOCK_PATH = "/lily/indexer/recordlock";
+
+    public ZooKeeperIndexLockStrategy(ZooKeeperItf zk) throws InterruptedException, KeeperException {
+        this.zk = zk;
+        ZkUtil.createPath(zk, LOCK_PATH);
+    }
+
+    public ZooKeeperIndexLockStrategy(ZooKeeperItf zk, int waitBetweenTries, int maxWaitTime)
+            throws InterruptedException, KeeperException {
+        this(zk);
+        this.waitBetweenTries = waitBetweenTries;
+        this.maxWaitTime = maxWaitTime;
+    }
+
+    @Override
+    public void lock(RecordId recordId) throws IndexLockException {
+        checkNotEventThread();
+
+        try {
+            long startTime = System.currentTimeMillis();
+            final String lockPath = getPath(recordId);
+
+            final byte[] data = Bytes.toBytes(Thread.currentThread().getId());
+
+            while (true) {
+                if (System.currentTimeMillis() - startTime > maxWaitTime) {
+                    // we have been attempting long enough to get the lock, without success
+                    throw new IndexLockTimeoutException("Failed to obtain an index lock for record " + recordId +
+                            " within " + maxWaitTime + " ms.");
+                }
+
+                try {
+                    zk.retryOperation(new ZooKeeperOperation<Object>() {
+                        @Override
+                        public Object execute() throws KeeperException, InterruptedException {
+                            zk.create(lockPath, data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL);
+                            return null;
+                        }
+                    });
+                    // We successfully created the node, hence we have the lock.
+                    return;
+                } catch (KeeperException.NodeExistsException e) {
+                    // ignore, see next
+                }
+
+                // In case creating the node failed, it does not mean we do not have the lock: in case
+                // of connection loss, we might not know if we actually succeeded creating the node, therefore
+                // read the owner and thread id to check.
+                if (isOwnLock(lockPath, data)) {
+                    return;
+                }
+
+                Thread.sleep(waitBetweenTries);
+            }
+        } catch (Throwable throwable) {
+            if (throwable instanceof IndexLockException) {
+                throw (IndexLockException)throwable;
+            }
+            throw new IndexLockException("Error taking index lock on record " + recordId, throwable);
+        }
+    }
+
+    @Override
+    public void unlock(final RecordId recordId) throws IndexLockException, InterruptedException {
+        checkNotEventThread();
+
+        final String lockPath = getPath(recordId);
+
+        // The below loop is because, even if our thread is interrupted, we still want to remove the lock.
+        // The interruption might be because just one IndexUpdater is being shut down, rather than the
+        // complete application, and hence session expiration will then not remove the lock.
+        boolean tokenOk;
+        boolean interrupted = false;
+        while (true) {
+            try {
+                tokenOk = zk.retryOperation(new ZooKeeperOperation<Boolean>() {
+                    @Override
+                    public Boolean execute() throws KeeperException, InterruptedException {
+                        Stat stat = new Stat();
+                        byte[] data = zk.getData(lockPath, false, stat);
+
+                        if (stat.getEphemeralOwner() == zk.getSessionId() && Bytes.toLong(data) == Thread.currentThread().getId()) {
+                            zk.delete(lockPath, -1);
+                            return true;
+                        } else {
+                            return false;
+                        }
+                    }
+                });
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (KeeperException e) {
+                throw new IndexLockException("Error releasing index lock on record " + recordId, e);
+            }
+        }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (!tokenOk) {
+            throw new IndexLockException("You cannot remove the index lock for record " + recordId +
+                    " because the token is incorrect.");
+        }
+    }
+
+    @Override
+    public boolean hasLock(final RecordId recordId) throws IndexLockException, InterruptedException {
+        checkNotEventThread();
+
+        try {
+            return isOwnLock(getPath(recordId), Bytes.toBytes(Thread.currentThread().getId()));
+        } catch (KeeperException e) {
+            throw new IndexLockException("Error checking index lock on record " + recordId, e);
+        }
+    }
+
+    /**
+     * Creates the lock nodes of all records asynchronously, so that this costs about one round trip to
+     * ZooKeeper rather than one per record.
+     */
+    @Override
+    public boolean tryLockAll(Collection<RecordId> recordIds) throws IndexLockException, InterruptedException {
+        checkNotEventThread();
+
+        final byte[] data = Bytes.toBytes(Thread.currentThread().getId());
+        final List<RecordId> ids = new ArrayList<RecordId>(recordIds);
+        final KeeperException.Code[] results = new KeeperException.Code[ids.size()];
+        final CountDownLatch latch = new CountDownLatch(ids.size());
+
+        for (int i = 0; i < ids.size(); i++) {
+            zk.create(getPath(ids.get(i)), data, ZooDefs.Ids.OPEN_ACL_UNSAFE, CreateMode.EPHEMERAL,
+                    new AsyncCallback.StringCallback() {
+                        @Override
+                        public void processResult(int rc, String path, Object ctx, String name) {
+                            results[(Integer)ctx] = KeeperException.Code.get(rc);
+                            latch.countDown();
+                        }
+                    }, i);
+        }
+
+        if (!latch.await(maxWaitTime, TimeUnit.MILLISECONDS)) {
+            // Should not happen since ZooKeeper calls back on connection loss as well, but if it would,
+            // the outcome is unknown for some records: release what we might have
+            releaseUncertainLocks(ids);
+            return false;
+        }
+
+        List<RecordId> obtained = new ArrayList<RecordId>(ids.size());
+        List<RecordId> uncertain = new ArrayList<RecordId>();
+        for (int i = 0; i < ids.size(); i++) {
+            if (results[i] == KeeperException.Code.OK) {
+                obtained.add(ids.get(i));
+            } else if (results[i] != KeeperException.Code.NODEEXISTS) {
+                // e.g. a connection loss, the node might have been created or not
+                uncertain.add(ids.get(i));
+            }
+        }
+
+        if (obtained.size() == ids.size()) {
+            return true;
+        }
+
+        // All or nothing: don't keep some locks while waiting for others, this could deadlock with
+        // another batch waiting for ours.
+        unlockAll(obtained);
+        releaseUncertainLocks(uncertain);
+        return false;
+    }
+
+    @Override
+    public void unlockAll(Collection<RecordId> recordIds) throws IndexLockException, InterruptedException {
+        checkNotEventThread();
+
+        final CountDownLatch latch = new CountDownLatch(recordIds.size());
+        final List<String> failures = new ArrayList<String>();
+
+        for (RecordId recordId : recordIds) {
+            // We created these nodes ourselves, so we don't check the owner before deleting them. In case
+            // our session would have expired, the nodes have been removed already and the delete fails.
+            zk.delete(getPath(recordId), -1, new AsyncCallback.VoidCallback() {
+                @Override
+                public void processResult(int rc, String path, Object ctx) {
+                    if (rc != KeeperException.Code.OK.intValue() && rc != KeeperException.Code.NONODE.intValue()) {
+                        synchronized (failures) {
+                            failures.add(path + " (" + KeeperException.Code.get(rc) + ")");
+                        }
+                    }
+                    latch.countDown();
+                }
+            }, null);
+        }
+
+        if (!latch.await(maxWaitTime, TimeUnit.MILLISECONDS)) {
+            throw new IndexLockException("Timed out releasing index locks on " + recordIds.size() + " records.");
+        }
+
+        if (!failures.isEmpty()) {
+            throw new IndexLockException("Error releasing index locks: " + failures);
+        }
+    }
+
+    private void releaseUncertainLocks(List<RecordId> recordIds) {
+        for (RecordId recordId : recordIds) {
+            try {
+                if (hasLock(recordId)) {
+                    unlock(recordId);
+                }
+            } catch (Throwable t) {
+                log.error("Error releasing lock on record " + recordId, t);
+            }
+        }
+    }
+
+    private boolean isOwnLock(final String lockPath, final byte[] data) throws KeeperException, InterruptedException {
+        return zk.retryOperation(new ZooKeeperOperation<Boolean>() {
+            @Override
+            public Boolean execute() throws KeeperException, InterruptedException {
+                try {
+                    Stat stat = new Stat();
+                    byte[] currentData = zk.getData(lockPath, false, stat);
+                    return (stat.getEphemeralOwner() == zk.getSessionId() && Arrays.equals(currentData, data));
+                } catch (KeeperException.NoNodeException e) {
+                    return false;
+                }
+            }
+        });
+    }
+
+    private void checkNotEventThread() {
+        if (zk.isCurrentThreadEventThread()) {
+            throw new RuntimeException("IndexLocker should not be used from within the ZooKeeper event thread.");
+        }
+    }
+
+    private String getPath(RecordId recordId) {
+        return LOCK_PATH + "/" + recordId.toString();
+    }
+}
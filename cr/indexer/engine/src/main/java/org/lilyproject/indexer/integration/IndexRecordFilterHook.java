@@ -33,6 +33,7 @@ import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.repo.RecordEvent;
@@ -44,7 +45,7 @@ import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
  * on the previous (or deleted) record state. Also allows to make this decision without
  * needing to read the complete record.
  */
-public class IndexRecordFilterHook implements RecordUpdateHook {
+public class IndexRecordFilterHook implements FieldDependentRecordUpdateHook {
 
     private PluginRegistry pluginRegistry;
     private final IndexesInfo indexesInfo;
@@ -73,6 +74,12 @@ public class IndexRecordFilterHook implements RecordUpdateHook {
         pluginRegistry.removePlugin(RecordUpdateHook.class, NAME, this);
     }
 
+    @Override
+    public Set<QName> getFieldDependencies() {
+        // The record type and the record id, on which the filter can also match, are always available
+        return indexesInfo.getRecordFilterFieldDependencies();
+    }
+
     @Override
     public void beforeUpdate(Record record, Record originalRecord, Repository repository, FieldTypes fieldTypes,
             RecordEvent recordEvent) throws RepositoryException, InterruptedException {
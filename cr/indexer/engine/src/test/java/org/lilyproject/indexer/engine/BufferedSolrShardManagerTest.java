@@ -0,0 +1,149 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.RecordId;
+import org.mockito.InOrder;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.reset;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BufferedSolrShardManagerTest {
+
+    private SolrClient baseSolrClient;
+    private RecordId recordId;
+    private BufferedSolrShardManager shardManager;
+
+    @Before
+    public void setUp() throws Exception {
+        baseSolrClient = mock(SolrClient.class);
+        recordId = mock(RecordId.class);
+        SolrShardManager baseShardManager = mock(SolrShardManager.class);
+        when(baseShardManager.getSolrClient(any(RecordId.class))).thenReturn(baseSolrClient);
+        shardManager = new BufferedSolrShardManager(baseShardManager, 10);
+    }
+
+    private SolrInputDocument doc(String key) {
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("lily.key", key);
+        return doc;
+    }
+
+    @Test
+    public void testUpdatesAreSentOnFlush() throws Exception {
+        SolrInputDocument doc1 = doc("1");
+        SolrInputDocument doc2 = doc("2");
+        shardManager.getSolrClient(recordId).add(doc1);
+        shardManager.getSolrClient(recordId).deleteById("3");
+        shardManager.getSolrClient(recordId).add(doc2);
+
+        verify(baseSolrClient, never()).add(any(SolrInputDocument.class));
+        verify(baseSolrClient, never()).add(anyCollectionOf(SolrInputDocument.class));
+        verify(baseSolrClient, never()).deleteById(anyListOf(String.class));
+
+        shardManager.flush();
+
+        verify(baseSolrClient).deleteById(Collections.singletonList("3"));
+        verify(baseSolrClient).add((Collection<SolrInputDocument>)Arrays.asList(doc1, doc2));
+    }
+
+    @Test
+    public void testLastOperationPerIdWins() throws Exception {
+        SolrInputDocument doc1 = doc("1");
+        SolrInputDocument doc2 = doc("2");
+        shardManager.getSolrClient(recordId).add(doc1);
+        shardManager.getSolrClient(recordId).deleteById("1");
+        shardManager.getSolrClient(recordId).deleteById("2");
+        shardManager.getSolrClient(recordId).add(doc2);
+
+        shardManager.flush();
+
+        verify(baseSolrClient).deleteById(Collections.singletonList("1"));
+        verify(baseSolrClient).add((Collection<SolrInputDocument>)Collections.singletonList(doc2));
+    }
+
+    @Test
+    public void testFlushWhenBufferFull() throws Exception {
+        for (int i = 0; i < 10; i++) {
+            shardManager.getSolrClient(recordId).deleteById(String.valueOf(i));
+        }
+
+        verify(baseSolrClient).deleteById(anyListOf(String.class));
+    }
+
+    @Test
+    public void testDeleteByQueryFlushesFirst() throws Exception {
+        shardManager.getSolrClient(recordId).deleteById("1");
+        shardManager.getSolrClient(recordId).deleteByQuery("lily.id:1");
+
+        InOrder inOrder = inOrder(baseSolrClient);
+        inOrder.verify(baseSolrClient).deleteById(Collections.singletonList("1"));
+        inOrder.verify(baseSolrClient).deleteByQuery("lily.id:1");
+    }
+
+    @Test
+    public void testFailedUpdatesRemainBuffered() throws Exception {
+        List<String> deletes = Collections.singletonList("1");
+        when(baseSolrClient.deleteById(deletes)).thenThrow(new SolrClientException("shard", new Exception()));
+        shardManager.getSolrClient(recordId).deleteById("1");
+
+        try {
+            shardManager.flush();
+            fail("Expected SolrClientException");
+        } catch (SolrClientException e) {
+            // expected
+        }
+
+        reset(baseSolrClient);
+        shardManager.flush();
+        verify(baseSolrClient).deleteById(deletes);
+
+        reset(baseSolrClient);
+        shardManager.flush();
+        verify(baseSolrClient, never()).deleteById(anyListOf(String.class));
+    }
+
+    @Test
+    public void testSwallowedErrorResendsOneByOne() throws Exception {
+        SolrInputDocument doc1 = doc("1");
+        SolrInputDocument doc2 = doc("2");
+        when(baseSolrClient.add(anyCollectionOf(SolrInputDocument.class)))
+                .thenReturn(ErrorSwallowingSolrClient.ERROR_UPDATE_RESPONSE);
+        shardManager.getSolrClient(recordId).add(doc1);
+        shardManager.getSolrClient(recordId).add(doc2);
+
+        shardManager.flush();
+
+        verify(baseSolrClient).add(doc1);
+        verify(baseSolrClient).add(doc2);
+    }
+}
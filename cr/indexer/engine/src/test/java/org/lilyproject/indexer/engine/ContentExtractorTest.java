@@ -0,0 +1,94 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.io.ByteArrayInputStream;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ContentExtractorTest {
+    private static final int MAX_SIZE = 1000;
+
+    private LRepository repository;
+    private LTable table;
+    private Record record;
+    private FieldType fieldType;
+    private Blob blob;
+    private byte[] blobKey;
+    private BlobTextCache blobTextCache;
+
+    @Before
+    public void setUp() throws Exception {
+        blobKey = Bytes.toBytes("blobkey");
+        blob = new Blob("text/plain", 5L, "hello.txt");
+        blob.setValue(blobKey);
+
+        QName fieldName = new QName("ns", "blob");
+        fieldType = mock(FieldType.class);
+        when(fieldType.getName()).thenReturn(fieldName);
+        record = mock(Record.class);
+
+        table = mock(LTable.class);
+        when(table.getInputStream(record, fieldName, new int[0]))
+                .thenReturn(new ByteArrayInputStream(Bytes.toBytes("hello")));
+        repository = mock(LRepository.class);
+        when(repository.getTable("record")).thenReturn(table);
+
+        blobTextCache = mock(BlobTextCache.class);
+        when(blobTextCache.isCacheable(blobKey)).thenReturn(true);
+    }
+
+    @Test
+    public void testCachedTextIsUsed() throws Exception {
+        when(blobTextCache.get(blobKey, MAX_SIZE)).thenReturn("cached");
+        ContentExtractor extractor = new ContentExtractor(MAX_SIZE, blobTextCache, null);
+
+        assertEquals("cached", extractor.extract(blob, "record", repository, record, fieldType, new int[0]));
+        verify(repository, never()).getTable(anyString());
+    }
+
+    @Test
+    public void testExtractedTextIsCached() throws Exception {
+        ContentExtractor extractor = new ContentExtractor(MAX_SIZE, blobTextCache, null);
+
+        assertEquals("hello", extractor.extract(blob, "record", repository, record, fieldType, new int[0]).trim());
+        verify(blobTextCache).put(any(byte[].class), anyInt(), anyString());
+    }
+
+    @Test
+    public void testMaxSize() throws Exception {
+        ContentExtractor extractor = new ContentExtractor(2, null, null);
+
+        assertEquals("he", extractor.extract(blob, "record", repository, record, fieldType, new int[0]));
+    }
+}
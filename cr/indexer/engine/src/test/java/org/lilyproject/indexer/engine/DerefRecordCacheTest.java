@@ -0,0 +1,175 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.AbsoluteRecordId;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.id.AbsoluteRecordIdImpl;
+import org.lilyproject.util.repo.VersionTag;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DerefRecordCacheTest {
+
+    private LRepository repository;
+    private LTable table;
+    private RecordId recordId;
+    private SchemaId vtagId;
+    private IdRecord record;
+    private IndexerMetrics metrics;
+    private DerefRecordCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        vtagId = mock(SchemaId.class);
+        FieldType vtagFieldType = mock(FieldType.class);
+        ValueType longType = mock(ValueType.class);
+        when(longType.getBaseName()).thenReturn("LONG");
+        when(vtagFieldType.getId()).thenReturn(vtagId);
+        when(vtagFieldType.getName()).thenReturn(new QName(VersionTag.NAMESPACE, "live"));
+        when(vtagFieldType.getScope()).thenReturn(Scope.NON_VERSIONED);
+        when(vtagFieldType.getValueType()).thenReturn(longType);
+
+        TypeManager typeManager = mock(TypeManager.class);
+        when(typeManager.getFieldTypeById(vtagId)).thenReturn(vtagFieldType);
+        FieldType lastFieldType = mock(FieldType.class);
+        when(lastFieldType.getId()).thenReturn(mock(SchemaId.class));
+        when(typeManager.getFieldTypeByName(VersionTag.LAST)).thenReturn(lastFieldType);
+        repository = mock(LRepository.class);
+        when(repository.getTypeManager()).thenReturn(typeManager);
+
+        // The last version of the record is tagged with the vtag
+        recordId = mock(RecordId.class);
+        record = mock(IdRecord.class);
+        when(record.getId()).thenReturn(recordId);
+        when(record.getVersion()).thenReturn(1L);
+        when(record.getFieldsById()).thenReturn(Collections.<SchemaId, Object>singletonMap(vtagId, 1L));
+
+        table = mock(LTable.class);
+        when(table.getTableName()).thenReturn("record");
+        when(table.readWithIds(recordId, null, null)).thenReturn(record);
+
+        metrics = new IndexerMetrics("test");
+        cache = new DerefRecordCache(1000, metrics);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        metrics.shutdown();
+    }
+
+    @Test
+    public void testRecordIsReadOnce() throws Exception {
+        assertSame(record, cache.getIdRecord(recordId, vtagId, table, repository));
+        assertSame(record, cache.getIdRecord(recordId, vtagId, table, repository));
+
+        verify(table, times(1)).readWithIds(recordId, null, null);
+        assertEquals(1, metrics.derefCacheHits.getCurrentIntervalValue());
+        assertEquals(1, metrics.derefCacheMisses.getCurrentIntervalValue());
+    }
+
+    @Test
+    public void testInvalidate() throws Exception {
+        cache.getIdRecord(recordId, vtagId, table, repository);
+        cache.invalidate(new AbsoluteRecordIdImpl("record", recordId));
+        cache.getIdRecord(recordId, vtagId, table, repository);
+
+        verify(table, times(2)).readWithIds(recordId, null, null);
+    }
+
+    @Test
+    public void testOtherTableIsNotInvalidated() throws Exception {
+        cache.getIdRecord(recordId, vtagId, table, repository);
+        cache.invalidate(new AbsoluteRecordIdImpl("other", recordId));
+        cache.getIdRecord(recordId, vtagId, table, repository);
+
+        verify(table, times(1)).readWithIds(recordId, null, null);
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        DerefRecordCache expiringCache = new DerefRecordCache(1000, 1, metrics);
+        expiringCache.getIdRecord(recordId, vtagId, table, repository);
+        Thread.sleep(1100);
+        expiringCache.getIdRecord(recordId, vtagId, table, repository);
+
+        verify(table, times(2)).readWithIds(recordId, null, null);
+    }
+
+    @Test
+    public void testInvalidatedWhileReading() throws Exception {
+        invalidateWhileReading(new AbsoluteRecordIdImpl("record", recordId));
+
+        cache.getIdRecord(recordId, vtagId, table, repository);
+        cache.getIdRecord(recordId, vtagId, table, repository);
+
+        // The first read might predate the change, so it was not cached
+        verify(table, times(2)).readWithIds(recordId, null, null);
+    }
+
+    @Test
+    public void testOtherRecordInvalidatedWhileReading() throws Exception {
+        // Take a record that does not share the invalidation stamp with the one being read
+        AbsoluteRecordId key = new AbsoluteRecordIdImpl("record", recordId);
+        AbsoluteRecordId otherKey;
+        int i = 0;
+        do {
+            otherKey = new AbsoluteRecordIdImpl("other" + i++, recordId);
+        } while (DerefRecordCache.getStripe(otherKey) == DerefRecordCache.getStripe(key));
+        invalidateWhileReading(otherKey);
+
+        cache.getIdRecord(recordId, vtagId, table, repository);
+        cache.getIdRecord(recordId, vtagId, table, repository);
+
+        verify(table, times(1)).readWithIds(recordId, null, null);
+    }
+
+    private void invalidateWhileReading(final AbsoluteRecordId invalidatedId) throws Exception {
+        when(table.readWithIds(recordId, null, null)).thenAnswer(new Answer<IdRecord>() {
+            private boolean first = true;
+
+            @Override
+            public IdRecord answer(InvocationOnMock invocation) {
+                if (first) {
+                    first = false;
+                    cache.invalidate(invalidatedId);
+                }
+                return record;
+            }
+        });
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.sep.LilySepEvent;
+import org.lilyproject.util.repo.RecordEvent;
+import org.mockito.InOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexUpdaterTest {
+    private static final String REPOSITORY_NAME = "default";
+    private static final String TABLE_NAME = "record";
+
+    private IdGenerator idGenerator;
+    private RepositoryManager repositoryManager;
+    private Indexer indexer;
+    private IndexLockStrategy lockStrategy;
+    private IndexLocker indexLocker;
+    private BufferedSolrShardManager bufferedShardMgr;
+    private IndexUpdaterMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        idGenerator = new IdGeneratorImpl();
+        LRepository repository = mock(LRepository.class);
+        when(repository.getIdGenerator()).thenReturn(idGenerator);
+        when(repository.getRepositoryName()).thenReturn(REPOSITORY_NAME);
+        repositoryManager = mock(RepositoryManager.class);
+        when(repositoryManager.getRepository(REPOSITORY_NAME)).thenReturn(repository);
+
+        indexer = mock(Indexer.class);
+        when(indexer.getIndexName()).thenReturn("IndexUpdaterTest");
+        lockStrategy = mock(IndexLockStrategy.class);
+        indexLocker = new IndexLocker(lockStrategy, true);
+        bufferedShardMgr = mock(BufferedSolrShardManager.class);
+        metrics = new IndexUpdaterMetrics("IndexUpdaterTest");
+    }
+
+    @After
+    public void tearDown() {
+        metrics.shutdown();
+    }
+
+    private IndexUpdater createIndexUpdater(int threads) {
+        return new IndexUpdater(indexer, repositoryManager, REPOSITORY_NAME, indexLocker, metrics, null, null,
+                "subscription", threads, bufferedShardMgr);
+    }
+
+    private LilySepEvent deleteEvent(RecordId recordId) {
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(RecordEvent.Type.DELETE);
+        recordEvent.setTableName(TABLE_NAME);
+        return new LilySepEvent(idGenerator, REPOSITORY_NAME, TABLE_NAME, Bytes.toBytes(TABLE_NAME),
+                recordId.toBytes(), Collections.<KeyValue>emptyList(), recordEvent.toBytes());
+    }
+
+    @Test
+    public void testSingleRecordBatch_FlushedBeforeUnlock() throws Exception {
+        RecordId recordId = idGenerator.newRecordId("a");
+
+        createIndexUpdater(1).processLilyEvents(Arrays.asList(deleteEvent(recordId)));
+
+        InOrder inOrder = inOrder(lockStrategy, indexer, bufferedShardMgr);
+        inOrder.verify(lockStrategy).lock(recordId);
+        inOrder.verify(indexer).delete(recordId);
+        inOrder.verify(bufferedShardMgr).flush();
+        inOrder.verify(lockStrategy).unlock(recordId);
+        verify(lockStrategy, never()).tryLockAll(anyCollectionOf(RecordId.class));
+    }
+
+    @Test
+    public void testBatchLockNotObtained_FlushedBeforeEachUnlock() throws Exception {
+        RecordId recordId1 = idGenerator.newRecordId("a");
+        RecordId recordId2 = idGenerator.newRecordId("b");
+        when(lockStrategy.tryLockAll(anyCollectionOf(RecordId.class))).thenReturn(false);
+
+        createIndexUpdater(1).processLilyEvents(Arrays.asList(deleteEvent(recordId1), deleteEvent(recordId2)));
+
+        InOrder inOrder = inOrder(lockStrategy, indexer, bufferedShardMgr);
+        inOrder.verify(lockStrategy).lock(recordId1);
+        inOrder.verify(indexer).delete(recordId1);
+        inOrder.verify(bufferedShardMgr).flush();
+        inOrder.verify(lockStrategy).unlock(recordId1);
+        inOrder.verify(lockStrategy).lock(recordId2);
+        inOrder.verify(indexer).delete(recordId2);
+        inOrder.verify(bufferedShardMgr).flush();
+        inOrder.verify(lockStrategy).unlock(recordId2);
+    }
+
+    @Test
+    public void testBatchLock_FlushedBeforeRelease() throws Exception {
+        RecordId recordId1 = idGenerator.newRecordId("a");
+        RecordId recordId2 = idGenerator.newRecordId("b");
+        when(lockStrategy.tryLockAll(anyCollectionOf(RecordId.class))).thenReturn(true);
+
+        createIndexUpdater(1).processLilyEvents(Arrays.asList(deleteEvent(recordId1), deleteEvent(recordId2)));
+
+        InOrder inOrder = inOrder(lockStrategy, indexer, bufferedShardMgr);
+        inOrder.verify(indexer).delete(recordId1);
+        inOrder.verify(indexer).delete(recordId2);
+        inOrder.verify(bufferedShardMgr).flush();
+        inOrder.verify(lockStrategy).unlockAll(anyCollectionOf(RecordId.class));
+        verify(lockStrategy, never()).lock(recordId1);
+        verify(lockStrategy, never()).unlock(recordId1);
+    }
+
+    @Test
+    public void testParallelPartitions_EventOrderPerRecordKept() throws Exception {
+        List<LilySepEvent> events = new ArrayList<LilySepEvent>();
+        Map<RecordId, List<LilySepEvent>> expected = new HashMap<RecordId, List<LilySepEvent>>();
+        for (int i = 0; i < 5; i++) {
+            for (int r = 0; r < 8; r++) {
+                RecordId recordId = idGenerator.newRecordId("record" + r);
+                LilySepEvent event = deleteEvent(recordId);
+                events.add(event);
+                if (!expected.containsKey(recordId)) {
+                    expected.put(recordId, new ArrayList<LilySepEvent>());
+                }
+                expected.get(recordId).add(event);
+            }
+        }
+        when(lockStrategy.tryLockAll(anyCollectionOf(RecordId.class))).thenReturn(true);
+
+        final Map<RecordId, List<LilySepEvent>> processed = new HashMap<RecordId, List<LilySepEvent>>();
+        final Random random = new Random();
+        IndexUpdater indexUpdater = new IndexUpdater(indexer, repositoryManager, REPOSITORY_NAME, indexLocker,
+                metrics, null, null, "subscription", 4, bufferedShardMgr) {
+            @Override
+            public void processEvent(LilySepEvent event) {
+                try {
+                    Thread.sleep(random.nextInt(5));
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                synchronized (processed) {
+                    if (!processed.containsKey(event.getRecordId())) {
+                        processed.put(event.getRecordId(), new ArrayList<LilySepEvent>());
+                    }
+                    processed.get(event.getRecordId()).add(event);
+                }
+            }
+        };
+        try {
+            indexUpdater.processLilyEvents(events);
+        } finally {
+            indexUpdater.close();
+        }
+
+        assertEquals(expected.keySet(), processed.keySet());
+        for (RecordId recordId : expected.keySet()) {
+            List<LilySepEvent> expectedEvents = expected.get(recordId);
+            List<LilySepEvent> processedEvents = processed.get(recordId);
+            assertEquals(expectedEvents.size(), processedEvents.size());
+            for (int i = 0; i < expectedEvents.size(); i++) {
+                assertSame(expectedEvents.get(i), processedEvents.get(i));
+            }
+        }
+    }
+}
@@ -17,6 +17,7 @@ package org.lilyproject.indexer.engine.test;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -37,6 +38,8 @@ import org.lilyproject.util.net.NetUtils;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
 
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -87,6 +90,41 @@ public class IndexLockerTest {
         indexLocker.unlock(recordId2);
     }
 
+    @Test
+    public void testLockAll() throws Exception {
+        final IndexLocker indexLocker = new IndexLocker(ZK, true);
+        final RecordId recordId1 = new IdGeneratorImpl().newRecordId();
+        final RecordId recordId2 = new IdGeneratorImpl().newRecordId();
+
+        IndexLocker.BatchLock batchLock = indexLocker.lockAll(Arrays.asList(recordId1, recordId2));
+        assertNotNull(batchLock);
+        assertTrue(indexLocker.hasLock(recordId1));
+
+        // A second batch containing one of the records should not be able to lock
+        final Variable<IndexLocker.BatchLock> otherBatchLock = new Variable<IndexLocker.BatchLock>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    otherBatchLock.value = indexLocker.lockAll(Arrays.asList(recordId2,
+                            new IdGeneratorImpl().newRecordId()));
+                } catch (Exception e) {
+                    log.error(e);
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNull(otherBatchLock.value);
+
+        batchLock.release();
+        assertFalse(indexLocker.hasLock(recordId1));
+
+        // After release, the records can be locked one by one again
+        indexLocker.lock(recordId2);
+        indexLocker.unlock(recordId2);
+    }
+
     @Test
     public void testLockTimeout() throws Exception {
         int maxWaitTime = 500;
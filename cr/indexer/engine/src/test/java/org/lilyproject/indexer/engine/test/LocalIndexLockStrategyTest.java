@@ -0,0 +1,124 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.engine.test;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.lilyproject.indexer.engine.IndexLockTimeoutException;
+import org.lilyproject.indexer.engine.IndexLocker;
+import org.lilyproject.indexer.engine.LocalIndexLockStrategy;
+import org.lilyproject.indexer.engine.test.IndexLockerTest.Variable;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LocalIndexLockStrategyTest {
+
+    @Test
+    public void testObtainAndReleaseLock() throws Exception {
+        IndexLocker indexLocker = new IndexLocker(new LocalIndexLockStrategy(), true);
+        RecordId recordId = new IdGeneratorImpl().newRecordId();
+
+        assertFalse(indexLocker.hasLock(recordId));
+        indexLocker.lock(recordId);
+        assertTrue(indexLocker.hasLock(recordId));
+        indexLocker.unlock(recordId);
+        assertFalse(indexLocker.hasLock(recordId));
+    }
+
+    @Test
+    public void testLockTimeout() throws Exception {
+        final IndexLocker indexLocker = new IndexLocker(new LocalIndexLockStrategy(16, 200), true);
+        final RecordId recordId = new IdGeneratorImpl().newRecordId();
+
+        indexLocker.lock(recordId);
+
+        final Variable<Throwable> throwable = new Variable<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    indexLocker.lock(recordId);
+                } catch (Throwable t) {
+                    throwable.value = t;
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertTrue(throwable.value instanceof IndexLockTimeoutException);
+        indexLocker.unlock(recordId);
+    }
+
+    @Test
+    public void testLockAll() throws Exception {
+        final IndexLocker indexLocker = new IndexLocker(new LocalIndexLockStrategy(), true);
+        final RecordId recordId1 = new IdGeneratorImpl().newRecordId();
+        final RecordId recordId2 = new IdGeneratorImpl().newRecordId();
+
+        final IndexLocker.BatchLock batchLock = indexLocker.lockAll(Arrays.asList(recordId1, recordId2));
+        assertNotNull(batchLock);
+
+        // Another thread can't lock a batch overlapping with ours, but can work under our batch lock
+        final Variable<IndexLocker.BatchLock> otherBatchLock = new Variable<IndexLocker.BatchLock>();
+        final Variable<Boolean> hasLockInBatch = new Variable<Boolean>();
+        final Variable<Throwable> throwable = new Variable<Throwable>();
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    otherBatchLock.value = indexLocker.lockAll(Arrays.asList(recordId2));
+                    batchLock.join();
+                    try {
+                        indexLocker.lock(recordId1);
+                        hasLockInBatch.value = indexLocker.hasLock(recordId1);
+                        indexLocker.unlock(recordId1);
+                    } finally {
+                        batchLock.leave();
+                    }
+                } catch (Throwable t) {
+                    throwable.value = t;
+                }
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertNull(throwable.value);
+        assertNull(otherBatchLock.value);
+        assertTrue(hasLockInBatch.value);
+
+        batchLock.release();
+        assertFalse(indexLocker.hasLock(recordId1));
+        assertFalse(indexLocker.hasLock(recordId2));
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        IndexLocker indexLocker = new IndexLocker(new LocalIndexLockStrategy(), false);
+        RecordId recordId = new IdGeneratorImpl().newRecordId();
+
+        assertNull(indexLocker.lockAll(Arrays.asList(recordId)));
+        indexLocker.lock(recordId);
+        assertTrue(indexLocker.hasLock(recordId));
+    }
+}
@@ -20,23 +20,37 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.util.Pair;
 
 /**
  * Decides what records to include in an index based on inclusion/exclusion rules.
+ *
+ * <p>Which rules can match depends for a good part on the table and the record type, so for each table and
+ * record type the filter remembers the candidate rules. Only these are evaluated against the record.</p>
  */
 public class IndexRecordFilter {
     private List<Pair<RecordMatcher, IndexCase>> includes = new ArrayList<Pair<RecordMatcher, IndexCase>>();
     private List<RecordMatcher> excludes = new ArrayList<RecordMatcher>();
 
+    /**
+     * The candidate rules per table and record type name. Matching on these only depends on the rules
+     * themselves, not on the schema, so entries never become stale.
+     */
+    private final Cache<Pair<String, QName>, Candidates> candidatesCache =
+            CacheBuilder.newBuilder().maximumSize(1000).build();
+
     public void addExclude(RecordMatcher exclude) {
         excludes.add(exclude);
+        candidatesCache.invalidateAll();
     }
 
     public void addInclude(RecordMatcher include, IndexCase indexCase) {
         includes.add(new Pair<RecordMatcher, IndexCase>(include, indexCase));
+        candidatesCache.invalidateAll();
     }
 
     public Set<QName> getFieldDependencies() {
@@ -70,16 +84,18 @@ public class IndexRecordFilter {
     }
 
     public IndexCase getIndexCase(String table, Record record) {
+        Candidates candidates = getCandidates(table, record.getRecordTypeName());
+
         // If an exclude matches, the record is not included in this index.
         // Excludes have higher precedence than includes.
-        for (RecordMatcher exclude : excludes) {
-            if (exclude.matches(table, record)) {
+        for (RecordMatcher exclude : candidates.excludes) {
+            if (exclude.matchesRecord(record)) {
                 return null;
             }
         }
 
-        for (Pair<RecordMatcher, IndexCase> include : includes) {
-            if (include.getV1().matches(table, record)) {
+        for (Pair<RecordMatcher, IndexCase> include : candidates.includes) {
+            if (include.getV1().matchesRecord(record)) {
                 return include.getV2();
             }
         }
@@ -87,6 +103,26 @@ public class IndexRecordFilter {
         return null;
     }
 
+    private Candidates getCandidates(String table, QName recordTypeName) {
+        Pair<String, QName> key = new Pair<String, QName>(table, recordTypeName);
+        Candidates candidates = candidatesCache.getIfPresent(key);
+        if (candidates == null) {
+            candidates = new Candidates();
+            for (RecordMatcher exclude : excludes) {
+                if (exclude.matchesTableAndRecordType(table, recordTypeName)) {
+                    candidates.excludes.add(exclude);
+                }
+            }
+            for (Pair<RecordMatcher, IndexCase> include : includes) {
+                if (include.getV1().matchesTableAndRecordType(table, recordTypeName)) {
+                    candidates.includes.add(include);
+                }
+            }
+            candidatesCache.put(key, candidates);
+        }
+        return candidates;
+    }
+
     public List<IndexCase> getAllIndexCases() {
         List<IndexCase> cases = new ArrayList<IndexCase>(includes.size());
         for (Pair<RecordMatcher, IndexCase> include : includes) {
@@ -94,4 +130,12 @@ public class IndexRecordFilter {
         }
         return cases;
     }
+
+    /**
+     * The rules that can match records of a certain table and record type, in their original order.
+     */
+    private static class Candidates {
+        private final List<RecordMatcher> excludes = new ArrayList<RecordMatcher>();
+        private final List<Pair<RecordMatcher, IndexCase>> includes = new ArrayList<Pair<RecordMatcher, IndexCase>>();
+    }
 }
@@ -18,8 +18,11 @@ package org.lilyproject.indexer.model.indexerconf;
 import java.io.IOException;
 import java.util.List;
 
+import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.LTable;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.RepositoryManager;
 import org.lilyproject.repository.api.SchemaId;
@@ -49,6 +52,13 @@ public interface IndexUpdateBuilder {
 
     public SchemaId getVTag();
 
+    /**
+     * Reads the version of a record corresponding to the vtag being indexed, for following a link to it.
+     * Behaves like {@link org.lilyproject.util.repo.VersionTag#getIdRecord(RecordId, SchemaId, LTable, LRepository)},
+     * but might return a cached record, which should not be modified.
+     */
+    public IdRecord getIdRecord(RecordId recordId, LTable table) throws RepositoryException, InterruptedException;
+
     public String evalIndexFieldName(NameTemplate nameTemplate);
 
     /**
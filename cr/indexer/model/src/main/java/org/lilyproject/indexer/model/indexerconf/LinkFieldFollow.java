@@ -29,7 +29,6 @@ import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.VersionNotFoundException;
-import org.lilyproject.util.repo.VersionTag;
 
 public class LinkFieldFollow implements Follow {
     private FieldType fieldType;
@@ -77,7 +76,7 @@ public class LinkFieldFollow implements Follow {
                 String tableName = link.getTable() != null ? link.getTable() : indexUpdateBuilder.getTable();
                 LTable table = repository.getTable(tableName);
                 try {
-                    linkedRecord = VersionTag.getIdRecord(linkedRecordId, indexUpdateBuilder.getVTag(), table, repository);
+                    linkedRecord = indexUpdateBuilder.getIdRecord(linkedRecordId, table);
                 } catch (RecordNotFoundException rnfe) {
                     // ok, continue with null value
                 } catch (VersionNotFoundException e) {
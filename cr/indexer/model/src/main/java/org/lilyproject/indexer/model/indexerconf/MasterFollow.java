@@ -24,7 +24,6 @@ import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.VersionNotFoundException;
-import org.lilyproject.util.repo.VersionTag;
 
 public class MasterFollow implements Follow {
 
@@ -42,7 +41,7 @@ public class MasterFollow implements Follow {
         Dep masterDep = new Dep(ctx.dep.id.getMaster(), Collections.<String>emptySet());
         Record master = null;
         try {
-            master = VersionTag.getIdRecord(masterDep.id, indexUpdateBuilder.getVTag(), table, repository);
+            master = indexUpdateBuilder.getIdRecord(masterDep.id, table);
         } catch (RecordNotFoundException e) {
             // It's ok that the master does not exist
         } catch (VersionNotFoundException e) {
@@ -72,9 +72,14 @@ public class RecordMatcher {
     }
 
     public boolean matches(String table, Record record) {
-        QName recordTypeName = record.getRecordTypeName();
-        Map<String, String> varProps = record.getId().getVariantProperties();
+        return matchesTableAndRecordType(table, record.getRecordTypeName()) && matchesRecord(record);
+    }
 
+    /**
+     * Evaluates the conditions on the table and the record type name. These only depend on the configuration,
+     * so that the outcome can be remembered for a table and record type, see {@link IndexRecordFilter}.
+     */
+    public boolean matchesTableAndRecordType(String table, QName recordTypeName) {
         // About "recordTypeName == null": normally record type name cannot be null, but it can
         // be in the case of IndexAwareMQFeeder
         if (this.recordTypeNamespace != null &&
@@ -91,6 +96,16 @@ public class RecordMatcher {
             return false;
         }
 
+        return true;
+    }
+
+    /**
+     * Evaluates the remaining conditions, which are not covered by {@link #matchesTableAndRecordType}.
+     */
+    public boolean matchesRecord(Record record) {
+        QName recordTypeName = record.getRecordTypeName();
+        Map<String, String> varProps = record.getId().getVariantProperties();
+
         try {
             if (this.instanceOfType != null
                     && (recordTypeName == null || !RecordUtil.instanceOf(record, instanceOfType, typeManager))) {
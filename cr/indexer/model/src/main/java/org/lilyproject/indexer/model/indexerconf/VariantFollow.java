@@ -26,7 +26,6 @@ import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.VersionNotFoundException;
-import org.lilyproject.util.repo.VersionTag;
 
 /**
  * Represents a -prop1[,-prop2 ...] follow
@@ -61,7 +60,7 @@ public class VariantFollow implements Follow {
 
         Record lessDimensionedRecord = null;
         try {
-            lessDimensionedRecord = VersionTag.getIdRecord(newDep.id, indexUpdateBuilder.getVTag(), table, repository);
+            lessDimensionedRecord = indexUpdateBuilder.getIdRecord(newDep.id, table);
         } catch (RecordNotFoundException e) {
             // It's ok that the variant does not exist
         } catch (VersionNotFoundException e) {
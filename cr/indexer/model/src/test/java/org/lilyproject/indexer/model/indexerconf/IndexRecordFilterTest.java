@@ -0,0 +1,95 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.indexer.model.indexerconf;
+
+import java.util.Collections;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class IndexRecordFilterTest {
+    private IndexRecordFilter filter;
+    private IndexCase caseA;
+    private IndexCase caseNs;
+
+    @Before
+    public void setUp() {
+        caseA = new IndexCase(Collections.<SchemaId>emptySet());
+        caseNs = new IndexCase(Collections.<SchemaId>emptySet());
+
+        filter = new IndexRecordFilter();
+        filter.addExclude(new RecordMatcher(null, null, null, null, null, null,
+                ImmutableMap.of("lang", "fr"), null, null));
+        filter.addInclude(new RecordMatcher(new WildcardPattern("ns1"), new WildcardPattern("type*"), null, null,
+                null, null, null, Lists.newArrayList("record"), null), caseA);
+        filter.addInclude(new RecordMatcher(new WildcardPattern("ns*"), null, null, null, null, null,
+                null, null, null), caseNs);
+    }
+
+    @Test
+    public void testIndexCase() {
+        assertSame(caseA, filter.getIndexCase("record", record(new QName("ns1", "typeA"))));
+        assertSame(caseNs, filter.getIndexCase("other", record(new QName("ns1", "typeA"))));
+        assertSame(caseNs, filter.getIndexCase("record", record(new QName("ns2", "typeA"))));
+        assertNull(filter.getIndexCase("record", record(new QName("other", "typeA"))));
+        assertNull(filter.getIndexCase("record", record(null)));
+    }
+
+    @Test
+    public void testExcludeOnRecord() {
+        // The candidates are remembered per table and record type, the variant properties still count
+        assertSame(caseA, filter.getIndexCase("record", record(new QName("ns1", "typeA"))));
+        assertNull(filter.getIndexCase("record", record(new QName("ns1", "typeA"), "lang", "fr")));
+        assertSame(caseA, filter.getIndexCase("record", record(new QName("ns1", "typeA"), "lang", "en")));
+    }
+
+    @Test
+    public void testAddAfterUse() {
+        assertNull(filter.getIndexCase("record", record(new QName("other", "typeA"))));
+
+        IndexCase caseOther = new IndexCase(Collections.<SchemaId>emptySet());
+        filter.addInclude(new RecordMatcher(new WildcardPattern("other"), null, null, null, null, null,
+                null, null, null), caseOther);
+
+        assertSame(caseOther, filter.getIndexCase("record", record(new QName("other", "typeA"))));
+    }
+
+    private Record record(QName recordTypeName, String... variantProperties) {
+        RecordId recordId = mock(RecordId.class);
+        ImmutableSortedMap.Builder<String, String> props = ImmutableSortedMap.naturalOrder();
+        for (int i = 0; i < variantProperties.length; i += 2) {
+            props.put(variantProperties[i], variantProperties[i + 1]);
+        }
+        when(recordId.getVariantProperties()).thenReturn(props.build());
+
+        Record record = mock(Record.class);
+        when(record.getId()).thenReturn(recordId);
+        when(record.getRecordTypeName()).thenReturn(recordTypeName);
+        return record;
+    }
+}
@@ -23,12 +23,14 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
+import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+import org.lilyproject.util.repo.RecordEvent.RoutingHeader;
 
 /**
  * Filter for SEP events that removes all KeyValues from WALEdits that are not applicable to the configured index
@@ -40,7 +42,7 @@ class IndexerEditFilter implements WALEditFilter {
      * If this attribute value is set to "false" in the RecordEvent, the SEP event will not be passed through to the
      * indexer.
      */
-    public static final String NO_INDEX_FLAG = "lily.mq";
+    public static final String NO_INDEX_FLAG = RecordEvent.NO_INDEX_FLAG;
 
     private final IdGenerator idGenerator = new IdGeneratorImpl();
     private final Log log = LogFactory.getLog(getClass());
@@ -68,6 +70,27 @@ class IndexerEditFilter implements WALEditFilter {
 
     private boolean isValidKeyValue(KeyValue kv) {
         if (kv.matchingColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes)) {
+            // The routing header holds all we need, which saves reading the whole event for each subscription
+            RoutingHeader routingHeader;
+            try {
+                routingHeader = RoutingHeader.read(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+            } catch (IOException e) {
+                log.error("Error parsing RecordEvent", e);
+                return false;
+            }
+            if (routingHeader != null) {
+                if (routingHeader.hasNoIndexFlag()) {
+                    return false;
+                }
+                if (routingHeader.hasIndexRecordFilterData()) {
+                    return routingHeader.appliesToSubscription(subscriptionName);
+                } else {
+                    log.warn("No IndexRecordFilterData on record event for row " + Bytes.toStringBinary(kv.getRow()));
+                    return false;
+                }
+            }
+
+            // Events written in an older format have no routing header
             RecordEvent recordEvent = null;
             try {
                 recordEvent = new RecordEvent(kv.getValue(), idGenerator);
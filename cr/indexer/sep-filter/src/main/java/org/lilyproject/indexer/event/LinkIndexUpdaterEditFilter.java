@@ -15,28 +15,48 @@
  */
 package org.lilyproject.indexer.event;
 
+import java.io.IOException;
 import java.util.List;
 
 import com.ngdata.sep.WALEditFilter;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.regionserver.wal.WALEdit;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.repo.RecordEvent;
+import org.lilyproject.util.repo.RecordEvent.RoutingHeader;
 
 /**
- * Edit filter for the {@code LinkIndexUpdater}.
+ * Edit filter for the {@code LinkIndexUpdater}. Besides everything that is not a payload, it removes the
+ * index events, which the {@code LinkIndexUpdater} does not act upon.
  */
 public class LinkIndexUpdaterEditFilter implements WALEditFilter {
+    private final Log log = LogFactory.getLog(getClass());
 
     @Override
     public void apply(WALEdit walEdit) {
         List<KeyValue> keyValues = walEdit.getKeyValues();
         for (int i = keyValues.size() - 1; i >= 0; i--) {
             KeyValue kv = keyValues.get(i);
-            if (!(kv.matchingColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes))) {
+            if (!(kv.matchingColumn(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes)) || isIndexEvent(kv)) {
                 keyValues.remove(i);
             }
         }
     }
 
+    private boolean isIndexEvent(KeyValue kv) {
+        RoutingHeader routingHeader;
+        try {
+            routingHeader = RoutingHeader.read(kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+        } catch (IOException e) {
+            // Leave it up to the LinkIndexUpdater to report this
+            log.debug("Error parsing RecordEvent routing header", e);
+            return false;
+        }
+        // Events written in an older format have no routing header, these are passed on
+        return routingHeader != null && routingHeader.getType() == RecordEvent.Type.INDEX;
+    }
+
 }
@@ -99,6 +99,66 @@ public class IndexerEditFilterTest {
         assertEquals(0, walEdit.size());
     }
 
+    @Test
+    public void testApply_BinaryPayload_NotApplicableIndex() {
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(ImmutableSet.of("SomeOtherIndexName"));
+        recordEvent.setIndexRecordFilterData(filterData);
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toBytes()));
+
+        editFilter.apply(walEdit);
+
+        assertEquals(0, walEdit.size());
+    }
+
+    @Test
+    public void testApply_BinaryPayload_ApplicableIndex() {
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionExclusions(ImmutableSet.of("SomeOtherIndexName"));
+        recordEvent.setIndexRecordFilterData(filterData);
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toBytes()));
+
+        editFilter.apply(walEdit);
+
+        assertEquals(1, walEdit.size());
+    }
+
+    @Test
+    public void testApply_BinaryPayload_ApplicableIndexButNoIndexFlagIsSet() {
+        RecordEvent recordEvent = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionInclusions(ImmutableSet.of(INDEX_NAME));
+        recordEvent.setIndexRecordFilterData(filterData);
+        recordEvent.getAttributes().put(IndexerEditFilter.NO_INDEX_FLAG, "false");
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                recordEvent.toBytes()));
+
+        editFilter.apply(walEdit);
+
+        assertEquals(0, walEdit.size());
+    }
+
+    @Test
+    public void testApply_BinaryPayload_NoFilterData() {
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes,
+                new RecordEvent().toBytes()));
+
+        editFilter.apply(walEdit);
+
+        assertEquals(0, walEdit.size());
+    }
+
     @Test
     public void testApply_NonJsonPayload() {
 
@@ -22,6 +22,7 @@ import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+import org.lilyproject.util.repo.RecordEvent;
 
 import static org.junit.Assert.assertEquals;
 
@@ -55,4 +56,21 @@ public class LinkIndexUpdaterEditFilterTest {
         assertEquals(1, walEdit.getKeyValues().size());
     }
 
+    @Test
+    public void testApply_IndexEvent() {
+        RecordEvent indexEvent = new RecordEvent();
+        indexEvent.setType(RecordEvent.Type.INDEX);
+        RecordEvent updateEvent = new RecordEvent();
+        updateEvent.setType(RecordEvent.Type.UPDATE);
+
+        WALEdit walEdit = new WALEdit();
+        walEdit.add(new KeyValue(Bytes.toBytes("row1"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, indexEvent.toBytes()));
+        walEdit.add(new KeyValue(Bytes.toBytes("row2"), RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, updateEvent.toBytes()));
+
+        editFilter.apply(walEdit);
+
+        assertEquals(1, walEdit.getKeyValues().size());
+        assertEquals("row2", Bytes.toString(walEdit.getKeyValues().get(0).getRow()));
+    }
+
 }
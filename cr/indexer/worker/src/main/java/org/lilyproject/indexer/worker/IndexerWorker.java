@@ -37,14 +37,19 @@ import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.zookeeper.KeeperException;
 import org.lilyproject.indexer.derefmap.DerefMap;
 import org.lilyproject.indexer.derefmap.DerefMapHbaseImpl;
+import org.lilyproject.indexer.engine.BlobTextCache;
+import org.lilyproject.indexer.engine.BufferedSolrShardManager;
 import org.lilyproject.indexer.engine.ClassicSolrShardManager;
 import org.lilyproject.indexer.engine.CloudSolrShardManager;
+import org.lilyproject.indexer.engine.ContentExtractor;
+import org.lilyproject.indexer.engine.DerefRecordCache;
 import org.lilyproject.indexer.engine.IndexLocker;
 import org.lilyproject.indexer.engine.IndexUpdater;
 import org.lilyproject.indexer.engine.IndexUpdaterMetrics;
 import org.lilyproject.indexer.engine.Indexer;
 import org.lilyproject.indexer.engine.IndexerMetrics;
 import org.lilyproject.indexer.engine.IndexerRegistry;
+import org.lilyproject.indexer.engine.LocalIndexLockStrategy;
 import org.lilyproject.indexer.engine.SolrClientConfig;
 import org.lilyproject.indexer.engine.SolrShardManager;
 import org.lilyproject.indexer.model.api.IndexDefinition;
@@ -66,6 +71,7 @@ import org.lilyproject.sep.ZooKeeperItfAdapter;
 import org.lilyproject.util.Logs;
 import org.lilyproject.util.ObjectUtils;
 import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.RepoAndTableUtil;
 import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
@@ -120,6 +126,11 @@ public class IndexerWorker {
 
     private HBaseTableFactory tableFactory;
 
+    /**
+     * Shared by all indexes, null if not enabled.
+     */
+    private BlobTextCache blobTextCache;
+
     private final Log log = LogFactory.getLog(getClass());
 
     public IndexerWorker(IndexerModel indexerModel, RepositoryManager repositoryManager, ZooKeeperItf zk, Configuration hbaseConf,
@@ -138,7 +149,12 @@ public class IndexerWorker {
     }
 
     @PostConstruct
-    public void init() {
+    public void init() throws IOException, InterruptedException {
+        if (settings.getCacheExtractedContent()) {
+            // Creates the table if it does not exist yet, before any index updater needs it
+            blobTextCache = new BlobTextCache(LilyHBaseSchema.getBlobTextTable(tableFactory, false));
+        }
+
         connectionManager = new ThreadSafeClientConnManager();
         connectionManager.setDefaultMaxPerRoute(settings.getSolrMaxConnectionsPerHost());
         connectionManager.setMaxTotal(settings.getSolrMaxTotalConnections());
@@ -192,7 +208,9 @@ public class IndexerWorker {
 
             final SolrShardManager solrShardMgr = getSolrShardManager(index);
 
-            IndexLocker indexLocker = new IndexLocker(zk, settings.getEnableLocking());
+            IndexLocker indexLocker = settings.getLocalLocking() ?
+                    new IndexLocker(new LocalIndexLockStrategy(), settings.getEnableLocking()) :
+                    new IndexLocker(zk, settings.getEnableLocking());
             IndexerMetrics indexerMetrics = new IndexerMetrics(index.getName());
 
             // Create a deref map in case the indexer configuration contains deref fields and the index definition says
@@ -201,20 +219,41 @@ public class IndexerWorker {
                     DerefMapHbaseImpl.create(repository.getRepositoryName(), index.getName(), hbaseConf, tableFactory,
                             repository.getIdGenerator()) : null;
 
+            // The cache is shared by the indexers of this index, the index updater keeps it up to date
+            DerefRecordCache derefRecordCache = settings.getDerefCacheSize() > 0 &&
+                    indexerConf.containsDerefExpressions() ?
+                    new DerefRecordCache(settings.getDerefCacheSize(), settings.getDerefCacheExpiry(),
+                            indexerMetrics) : null;
+
+            ContentExtractor contentExtractor = new ContentExtractor(settings.getExtractContentMaxSize(),
+                    blobTextCache, indexerMetrics);
+
             // create and register the indexer
             Indexer indexer = new Indexer(index.getName(), indexerConf, repository, solrShardMgr, indexLocker,
-                    indexerMetrics, derefMap);
+                    indexerMetrics, derefMap, derefRecordCache, contentExtractor);
             indexerRegistry.register(indexer);
 
+            // The index updater gets its own indexer when buffering Solr updates, the registered one is used for
+            // synchronous indexing and should send its updates immediately.
+            BufferedSolrShardManager bufferedShardMgr = null;
+            Indexer updaterIndexer = indexer;
+            if (settings.getSolrUpdateBufferSize() > 1) {
+                bufferedShardMgr = new BufferedSolrShardManager(solrShardMgr, settings.getSolrUpdateBufferSize());
+                updaterIndexer = new Indexer(index.getName(), indexerConf, repository, bufferedShardMgr,
+                        indexLocker, indexerMetrics, derefMap, derefRecordCache, contentExtractor);
+            }
+
             IndexUpdaterMetrics updaterMetrics = new IndexUpdaterMetrics(index.getName());
             LilyEventPublisherManager eventPublisherManager = new LilyEventPublisherManager(tableFactory);
-            IndexUpdater indexUpdater = new IndexUpdater(indexer, repositoryManager, repository.getRepositoryName(),
-                    indexLocker, updaterMetrics, derefMap, eventPublisherManager, index.getQueueSubscriptionId());
+            IndexUpdater indexUpdater = new IndexUpdater(updaterIndexer, repositoryManager,
+                    repository.getRepositoryName(), indexLocker, updaterMetrics, derefMap, eventPublisherManager,
+                    index.getQueueSubscriptionId(), settings.getUpdaterThreadsPerIndex(), bufferedShardMgr);
 
             SepConsumer sepConsumer = new SepConsumer(index.getQueueSubscriptionId(),
                     index.getSubscriptionTimestamp(), indexUpdater, settings.getListenersPerIndex(), hostName,
                     new ZooKeeperItfAdapter(zk), hbaseConf, new LilyPayloadExtractor());
-            handle = new IndexUpdaterHandle(index, sepConsumer, solrShardMgr, indexerMetrics, updaterMetrics);
+            handle = new IndexUpdaterHandle(index, sepConsumer, indexUpdater, solrShardMgr, indexerMetrics,
+                    updaterMetrics);
             handle.start();
 
             indexUpdaters.put(index.getName(), handle);
@@ -333,15 +372,17 @@ public class IndexerWorker {
     private class IndexUpdaterHandle {
         private final IndexDefinition indexDef;
         private final SepConsumer sepConsumer;
+        private final IndexUpdater indexUpdater;
         private final SolrShardManager solrShardMgr;
         private final IndexerMetrics indexerMetrics;
         private final IndexUpdaterMetrics updaterMetrics;
 
-        IndexUpdaterHandle(IndexDefinition indexDef, SepConsumer sepEventSlave,
+        IndexUpdaterHandle(IndexDefinition indexDef, SepConsumer sepEventSlave, IndexUpdater indexUpdater,
                                   SolrShardManager solrShardMgr, IndexerMetrics indexerMetrics,
                                   IndexUpdaterMetrics updaterMetrics) {
             this.indexDef = indexDef;
             this.sepConsumer = sepEventSlave;
+            this.indexUpdater = indexUpdater;
             this.solrShardMgr = solrShardMgr;
             this.indexerMetrics = indexerMetrics;
             this.updaterMetrics = updaterMetrics;
@@ -353,6 +394,7 @@ public class IndexerWorker {
 
         public void stop() throws InterruptedException {
             Closer.close(sepConsumer);
+            Closer.close(indexUpdater);
             Closer.close(solrShardMgr);
             Closer.close(indexerMetrics);
             Closer.close(updaterMetrics);
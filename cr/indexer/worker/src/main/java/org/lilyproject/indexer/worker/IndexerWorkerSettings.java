@@ -15,9 +15,19 @@
  */
 package org.lilyproject.indexer.worker;
 
+import org.lilyproject.indexer.engine.ContentExtractor;
+import org.lilyproject.indexer.engine.DerefRecordCache;
+
 public class IndexerWorkerSettings {
     private int listenersPerIndex = 10;
+    private int updaterThreadsPerIndex = 1;
+    private int solrUpdateBufferSize = 1;
+    private int derefCacheSize = 0;
+    private int derefCacheExpiry = DerefRecordCache.DEFAULT_EXPIRY_SECONDS;
+    private int extractContentMaxSize = ContentExtractor.DEFAULT_MAX_SIZE;
+    private boolean cacheExtractedContent = false;
     private boolean enableLocking = false;
+    private boolean localLocking = false;
     private int solrMaxTotalConnections = 200;
     private int solrMaxConnectionsPerHost = 50;
 
@@ -29,6 +39,54 @@ public class IndexerWorkerSettings {
         this.listenersPerIndex = listenersPerIndex;
     }
 
+    public int getUpdaterThreadsPerIndex() {
+        return updaterThreadsPerIndex;
+    }
+
+    public void setUpdaterThreadsPerIndex(int updaterThreadsPerIndex) {
+        this.updaterThreadsPerIndex = updaterThreadsPerIndex;
+    }
+
+    public int getSolrUpdateBufferSize() {
+        return solrUpdateBufferSize;
+    }
+
+    public void setSolrUpdateBufferSize(int solrUpdateBufferSize) {
+        this.solrUpdateBufferSize = solrUpdateBufferSize;
+    }
+
+    public int getDerefCacheSize() {
+        return derefCacheSize;
+    }
+
+    public void setDerefCacheSize(int derefCacheSize) {
+        this.derefCacheSize = derefCacheSize;
+    }
+
+    public int getDerefCacheExpiry() {
+        return derefCacheExpiry;
+    }
+
+    public void setDerefCacheExpiry(int derefCacheExpiry) {
+        this.derefCacheExpiry = derefCacheExpiry;
+    }
+
+    public int getExtractContentMaxSize() {
+        return extractContentMaxSize;
+    }
+
+    public void setExtractContentMaxSize(int extractContentMaxSize) {
+        this.extractContentMaxSize = extractContentMaxSize;
+    }
+
+    public boolean getCacheExtractedContent() {
+        return cacheExtractedContent;
+    }
+
+    public void setCacheExtractedContent(boolean cacheExtractedContent) {
+        this.cacheExtractedContent = cacheExtractedContent;
+    }
+
     public boolean getEnableLocking() {
         return enableLocking;
     }
@@ -37,6 +95,14 @@ public class IndexerWorkerSettings {
         this.enableLocking = enableLocking;
     }
 
+    public boolean getLocalLocking() {
+        return localLocking;
+    }
+
+    public void setLocalLocking(boolean localLocking) {
+        this.localLocking = localLocking;
+    }
+
     public int getSolrMaxTotalConnections() {
         return solrMaxTotalConnections;
     }
@@ -59,6 +59,24 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
 
     public static final String SCAN = "lily.mapreduce.scan";
 
+    /**
+     * Number of input splits to create per region, defaults to 1. Use a higher value when regions are
+     * large compared to what a single mapper can handle in a reasonable time.
+     */
+    public static final String SPLITS_PER_REGION = "lily.mapreduce.splitsperregion";
+
+    /**
+     * Upper bound for all record ids: record ids start with an identifier byte which is 0 for user ids
+     * and 1 for UUID ids. Used as end key when dividing the last region of a table.
+     */
+    private static final byte[] RECORD_ID_UPPER_BOUND = new byte[] {2};
+
+    /**
+     * Length to which the region boundaries are padded before dividing them: the identifier byte followed
+     * by the 16 bytes of a UUID, which are uniformly distributed.
+     */
+    private static final int SPLIT_KEY_LENGTH = 17;
+
     final Log log = LogFactory.getLog(AbstractLilyScanInputFormat.class);
 
     private Configuration conf;
@@ -192,6 +210,7 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
                 keys.getFirst().length == 0) {
             throw new IOException("Expecting at least one region.");
         }
+        int splitsPerRegion = conf != null ? conf.getInt(SPLITS_PER_REGION, 1) : 1;
         int count = 0;
         List<InputSplit> splits = new ArrayList<InputSplit>(keys.getFirst().length);
         for (int i = 0; i < keys.getFirst().length; i++) {
@@ -212,17 +231,46 @@ public abstract class AbstractLilyScanInputFormat<KEYIN, VALUEIN> extends InputF
                         Bytes.compareTo(keys.getSecond()[i], stopRow) <= 0) &&
                         keys.getSecond()[i].length > 0 ?
                         keys.getSecond()[i] : stopRow;
-                InputSplit split = new TableSplit(table.getTableName(),
-                        splitStart, splitStop, regionLocation);
-                splits.add(split);
-                if (log.isDebugEnabled()) {
-                    log.debug("getSplits: split -> " + (count++) + " -> " + split);
+                byte[][] boundaries = splitRange(splitStart, splitStop, splitsPerRegion);
+                for (int j = 0; j < boundaries.length - 1; j++) {
+                    InputSplit split = new TableSplit(table.getTableName(),
+                            boundaries[j], boundaries[j + 1], regionLocation);
+                    splits.add(split);
+                    if (log.isDebugEnabled()) {
+                        log.debug("getSplits: split -> " + (count++) + " -> " + split);
+                    }
                 }
             }
         }
         return splits;
     }
 
+    /**
+     * Divides the row range [start, stop) in the given number of parts of about equal size, assuming the
+     * keys are uniformly distributed, as is the case for UUID record ids. An empty start or stop key means
+     * the range is unbounded on that side.
+     *
+     * @return the boundaries of the parts: the first one is start, the last one is stop, so there is one
+     *         boundary more than there are parts. If the range is too small to be divided, this is just
+     *         start and stop.
+     */
+    public static byte[][] splitRange(byte[] start, byte[] stop, int count) {
+        if (count > 1) {
+            byte[] lower = Bytes.padTail(start, Math.max(0, SPLIT_KEY_LENGTH - start.length));
+            byte[] upper = stop.length == 0 ? RECORD_ID_UPPER_BOUND : stop;
+            upper = Bytes.padTail(upper, Math.max(0, SPLIT_KEY_LENGTH - upper.length));
+            if (Bytes.compareTo(lower, upper) < 0) {
+                byte[][] boundaries = Bytes.split(lower, upper, count - 1);
+                if (boundaries != null) {
+                    boundaries[0] = start;
+                    boundaries[boundaries.length - 1] = stop;
+                    return boundaries;
+                }
+            }
+        }
+        return new byte[][] {start, stop};
+    }
+
     protected boolean includeRegionInSplit(final byte[] startKey, final byte [] endKey) {
         return true;
     }
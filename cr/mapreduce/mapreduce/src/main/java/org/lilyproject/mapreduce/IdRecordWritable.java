@@ -19,30 +19,98 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
+import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.RepositoryException;
 
-public class IdRecordWritable implements Writable {
-    private IdRecord idRecord;
+/**
+ * Writable wrapper around a Lily {@link IdRecord}, the id-based mapping of the record is serialized along
+ * with the record.
+ *
+ * <p>See {@link RecordWritable} for how the repository needed for serialization is obtained.</p>
+ */
+public class IdRecordWritable implements Writable, Configurable {
+    private IdRecord record;
+    private LRepository repository;
+    private Configuration conf;
+
+    public IdRecordWritable() {
+    }
 
-    protected IdRecordWritable() {
+    public IdRecordWritable(LRepository repository) {
+        this.repository = repository;
     }
 
     @Override
     public void write(DataOutput dataOutput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            RecordAsBytesConverter.writeIdRecord(record, output, getRepository());
+            WritableUtils.writeVInt(dataOutput, output.getSize());
+            dataOutput.write(output.getBuffer(), 0, output.getSize());
+        } catch (RepositoryException e) {
+            throw new IOException("Error serializing record " + record.getId(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while serializing record " + record.getId(), e);
+        } finally {
+            DataOutputPool.release(output);
+        }
     }
 
     @Override
     public void readFields(DataInput dataInput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+        int length = WritableUtils.readVInt(dataInput);
+        byte[] bytes = new byte[length];
+        dataInput.readFully(bytes, 0, length);
+        try {
+            record = RecordAsBytesConverter.readIdRecord(new DataInputImpl(bytes), getRepository());
+        } catch (RepositoryException e) {
+            throw new IOException("Error deserializing record", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deserializing record", e);
+        }
+    }
+
+    private LRepository getRepository() throws InterruptedException {
+        if (repository == null) {
+            if (conf == null) {
+                throw new IllegalStateException("IdRecordWritable needs a repository or a job configuration"
+                        + " to (de)serialize records.");
+            }
+            repository = LilyMapReduceUtil.getSharedRepository(conf);
+        }
+        return repository;
     }
 
     public IdRecord getRecord() {
-        return idRecord;
+        return record;
+    }
+
+    public void setRecord(IdRecord record) {
+        this.record = record;
+    }
+
+    public void setRepository(LRepository repository) {
+        this.repository = repository;
     }
 
-    public void setRecord(IdRecord idRecord) {
-        this.idRecord = idRecord;
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
     }
 }
@@ -73,6 +73,6 @@ public class LilyIdScanInputFormat extends AbstractLilyScanInputFormat<RecordIdW
             throw new IOException("Error setting up RecordScanner", e);
         }
 
-        return new LilyScanIdRecordReader(lilyClient, scanner);
+        return new LilyScanIdRecordReader(lilyClient, repository, scanner);
     }
 }
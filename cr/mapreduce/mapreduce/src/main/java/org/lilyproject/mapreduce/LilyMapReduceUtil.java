@@ -15,7 +15,9 @@
  */
 package org.lilyproject.mapreduce;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.common.base.Joiner;
 import org.apache.hadoop.conf.Configuration;
@@ -24,12 +26,19 @@ import org.codehaus.jackson.JsonNode;
 import org.lilyproject.client.LilyClient;
 import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.RecordScan;
+import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.tools.import_.json.RecordScanWriter;
 import org.lilyproject.tools.import_.json.WriteOptions;
 import org.lilyproject.util.exception.ExceptionUtil;
+import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.json.JsonFormat;
 
 public class LilyMapReduceUtil {
+    /**
+     * The shared LilyClients, by ZooKeeper connect string.
+     */
+    private static final Map<String, LilyClient> sharedLilyClients = new HashMap<String, LilyClient>();
+
     public static final String ZK_CONNECT_STRING = "lily.mapreduce.zookeeper";
 
     /**
@@ -110,4 +119,39 @@ public class LilyMapReduceUtil {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Returns the repository configured in the job, using a LilyClient which is shared within the JVM.
+     *
+     * <p>This is used by the Writables to (de)serialize records: they are instantiated by Hadoop whenever
+     * it needs to read them, and have no point at which they could close a client of their own. There is
+     * one shared client per ZooKeeper connect string. Since repositories obtained from a client might still
+     * be in use, the shared clients are only closed when the JVM shuts down.</p>
+     */
+    public static synchronized LRepository getSharedRepository(Configuration conf) throws InterruptedException {
+        String zkConnectString = conf.get(ZK_CONNECT_STRING);
+        String repositoryName = conf.get(REPOSITORY_NAME);
+        if (repositoryName == null) {
+            throw new RuntimeException("Missing " + REPOSITORY_NAME + " in job conf.");
+        }
+
+        LilyClient lilyClient = sharedLilyClients.get(zkConnectString);
+        if (lilyClient == null) {
+            lilyClient = getLilyClient(conf);
+            sharedLilyClients.put(zkConnectString, lilyClient);
+            final LilyClient clientToClose = lilyClient;
+            Runtime.getRuntime().addShutdownHook(new Thread() {
+                @Override
+                public void run() {
+                    Closer.close(clientToClose);
+                }
+            });
+        }
+
+        try {
+            return lilyClient.getRepository(repositoryName);
+        } catch (RepositoryException e) {
+            throw new RuntimeException("Error getting Lily repository " + repositoryName, e);
+        }
+    }
 }
@@ -23,6 +23,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.lilyproject.client.LilyClient;
 import org.lilyproject.repository.api.IdRecord;
 import org.lilyproject.repository.api.IdRecordScanner;
+import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.util.io.Closer;
 
@@ -35,11 +36,12 @@ public class LilyScanIdRecordReader extends RecordReader<RecordIdWritable, IdRec
     private IdRecord currentRecord;
 
     private RecordIdWritable recordId = new RecordIdWritable();
-    private IdRecordWritable record = new IdRecordWritable();
+    private IdRecordWritable record;
 
-    public LilyScanIdRecordReader(LilyClient lilyClient, IdRecordScanner scanner) {
+    public LilyScanIdRecordReader(LilyClient lilyClient, LRepository repository, IdRecordScanner scanner) {
         this.lilyClient = lilyClient;
         this.scanner = scanner;
+        this.record = new IdRecordWritable(repository);
     }
 
     @Override
@@ -73,6 +73,6 @@ public class LilyScanInputFormat extends AbstractLilyScanInputFormat<RecordIdWri
             throw new IOException("Error setting up RecordScanner", e);
         }
 
-        return new LilyScanRecordReader(lilyClient, scanner);
+        return new LilyScanRecordReader(lilyClient, repository, scanner);
     }
 }
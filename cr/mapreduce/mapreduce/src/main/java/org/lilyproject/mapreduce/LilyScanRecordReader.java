@@ -21,6 +21,7 @@ import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.lilyproject.client.LilyClient;
+import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.RepositoryException;
@@ -35,11 +36,12 @@ public class LilyScanRecordReader extends RecordReader<RecordIdWritable, RecordW
     private Record currentRecord;
 
     private RecordIdWritable recordId = new RecordIdWritable();
-    private RecordWritable record = new RecordWritable();
+    private RecordWritable record;
 
-    public LilyScanRecordReader(LilyClient lilyClient, RecordScanner scanner) {
+    public LilyScanRecordReader(LilyClient lilyClient, LRepository repository, RecordScanner scanner) {
         this.lilyClient = lilyClient;
         this.scanner = scanner;
+        this.record = new RecordWritable(repository);
     }
 
     @Override
@@ -19,20 +19,79 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
+import org.lilyproject.repository.api.LRepository;
 import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
 
-public class RecordWritable implements Writable {
+/**
+ * Writable wrapper around a Lily {@link Record}, allowing records to be used as map output and
+ * to be stored in SequenceFiles.
+ *
+ * <p>Records are serialized using {@link RecordAsBytesConverter}, which needs the field types of the
+ * repository. Instances created by Hadoop are configured with the job configuration and use the repository
+ * from {@link LilyMapReduceUtil#getSharedRepository}, unless a repository is set explicitly.</p>
+ */
+public class RecordWritable implements Writable, Configurable {
     private Record record;
+    private LRepository repository;
+    private Configuration conf;
+
+    public RecordWritable() {
+    }
+
+    public RecordWritable(LRepository repository) {
+        this.repository = repository;
+    }
 
     @Override
     public void write(DataOutput dataOutput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            RecordAsBytesConverter.write(record, output, getRepository());
+            WritableUtils.writeVInt(dataOutput, output.getSize());
+            dataOutput.write(output.getBuffer(), 0, output.getSize());
+        } catch (RepositoryException e) {
+            throw new IOException("Error serializing record " + record.getId(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while serializing record " + record.getId(), e);
+        } finally {
+            DataOutputPool.release(output);
+        }
     }
 
     @Override
     public void readFields(DataInput dataInput) throws IOException {
-        throw new UnsupportedOperationException("Not implemented");
+        int length = WritableUtils.readVInt(dataInput);
+        byte[] bytes = new byte[length];
+        dataInput.readFully(bytes, 0, length);
+        try {
+            record = RecordAsBytesConverter.read(new DataInputImpl(bytes), getRepository());
+        } catch (RepositoryException e) {
+            throw new IOException("Error deserializing record", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while deserializing record", e);
+        }
+    }
+
+    private LRepository getRepository() throws InterruptedException {
+        if (repository == null) {
+            if (conf == null) {
+                throw new IllegalStateException("RecordWritable needs a repository or a job configuration"
+                        + " to (de)serialize records.");
+            }
+            repository = LilyMapReduceUtil.getSharedRepository(conf);
+        }
+        return repository;
     }
 
     public Record getRecord() {
@@ -42,4 +101,18 @@ public class RecordWritable implements Writable {
     public void setRecord(Record record) {
         this.record = record;
     }
+
+    public void setRepository(LRepository repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.test;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.mapreduce.IdRecordWritable;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.IdRecord;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.impl.IdRecordImpl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class IdRecordWritableTest {
+    private LRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = RecordWritableTest.mockRepository();
+    }
+
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        IdGenerator idGenerator = repository.getIdGenerator();
+        SchemaId fieldId = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId recordTypeId = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId versionedRecordTypeId = idGenerator.getSchemaId(UUID.randomUUID());
+
+        Map<SchemaId, QName> mapping = new HashMap<SchemaId, QName>();
+        mapping.put(fieldId, RecordWritableTest.FIELD);
+        Map<Scope, SchemaId> recordTypeIds = new EnumMap<Scope, SchemaId>(Scope.class);
+        recordTypeIds.put(Scope.NON_VERSIONED, recordTypeId);
+        recordTypeIds.put(Scope.VERSIONED, versionedRecordTypeId);
+        IdRecord record = new IdRecordImpl(RecordWritableTest.newRecord(idGenerator, "foo", "value"), mapping,
+                recordTypeIds);
+
+        IdRecordWritable writable1 = new IdRecordWritable(repository);
+        writable1.setRecord(record);
+
+        // As Hadoop does it: no-arg constructor, then readFields
+        IdRecordWritable writable2 = new IdRecordWritable();
+        writable2.setRepository(repository);
+        RecordWritableTest.read(writable2, RecordWritableTest.write(writable1));
+
+        IdRecord readRecord = writable2.getRecord();
+        assertEquals(record.getId(), readRecord.getId());
+        assertEquals("value", readRecord.getField(RecordWritableTest.FIELD));
+        assertEquals("value", readRecord.getField(fieldId));
+        assertEquals(mapping, readRecord.getFieldIdToNameMapping());
+        assertEquals(recordTypeId, readRecord.getRecordTypeId(Scope.NON_VERSIONED));
+        assertEquals(versionedRecordTypeId, readRecord.getRecordTypeId(Scope.VERSIONED));
+        assertNull(readRecord.getRecordTypeId(Scope.VERSIONED_MUTABLE));
+    }
+}
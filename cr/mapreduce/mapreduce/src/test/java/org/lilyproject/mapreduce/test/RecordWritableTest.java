@@ -0,0 +1,143 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.apache.hadoop.io.Writable;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.mapreduce.RecordWritable;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RecordWritableTest {
+    static final QName FIELD = new QName("org.lilyproject.recordwritabletest", "field");
+    static final QName RECORD_TYPE = new QName("org.lilyproject.recordwritabletest", "type");
+
+    private LRepository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = mockRepository();
+    }
+
+    /**
+     * A repository which only knows enough to (de)serialize records with one string field {@link #FIELD}.
+     */
+    static LRepository mockRepository() throws Exception {
+        ValueType stringType = new StringValueType();
+        FieldType fieldType = mock(FieldType.class);
+        when(fieldType.getValueType()).thenReturn(stringType);
+        FieldTypes fieldTypes = mock(FieldTypes.class);
+        when(fieldTypes.getFieldType(FIELD)).thenReturn(fieldType);
+        TypeManager typeManager = mock(TypeManager.class);
+        when(typeManager.getFieldTypesSnapshot()).thenReturn(fieldTypes);
+        when(typeManager.getValueType(StringValueType.NAME)).thenReturn(stringType);
+
+        LRepository repository = mock(LRepository.class);
+        when(repository.getTypeManager()).thenReturn(typeManager);
+        when(repository.getIdGenerator()).thenReturn(new IdGeneratorImpl());
+        when(repository.getRecordFactory()).thenReturn(new RecordFactoryImpl());
+        return repository;
+    }
+
+    static Record newRecord(IdGenerator idGenerator, String id, String value) {
+        Record record = new RecordFactoryImpl().newRecord();
+        record.setId(idGenerator.newRecordId(id));
+        record.setVersion(3L);
+        record.setRecordType(RECORD_TYPE, 2L);
+        record.setField(FIELD, value);
+        return record;
+    }
+
+    static byte[] write(Writable writable) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        writable.write(out);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    static void read(Writable writable, byte[] bytes) throws Exception {
+        writable.readFields(new DataInputStream(new ByteArrayInputStream(bytes)));
+    }
+
+    @Test
+    public void testSerializationRoundTrip() throws Exception {
+        Record record = newRecord(repository.getIdGenerator(), "foo", "value");
+        RecordWritable writable1 = new RecordWritable(repository);
+        writable1.setRecord(record);
+
+        // As Hadoop does it: no-arg constructor, then readFields
+        RecordWritable writable2 = new RecordWritable();
+        writable2.setRepository(repository);
+        read(writable2, write(writable1));
+
+        assertEquals(record, writable2.getRecord());
+        assertEquals("value", writable2.getRecord().getField(FIELD));
+        assertEquals(Long.valueOf(3L), writable2.getRecord().getVersion());
+        assertEquals(RECORD_TYPE, writable2.getRecord().getRecordTypeName());
+    }
+
+    @Test
+    public void testReuseForSeveralRecords() throws Exception {
+        RecordWritable writer = new RecordWritable(repository);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        for (int i = 0; i < 3; i++) {
+            writer.setRecord(newRecord(repository.getIdGenerator(), "record" + i, "value " + i));
+            writer.write(out);
+        }
+        out.close();
+
+        RecordWritable reader = new RecordWritable(repository);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        for (int i = 0; i < 3; i++) {
+            reader.readFields(in);
+            assertEquals("value " + i, reader.getRecord().getField(FIELD));
+        }
+        assertEquals(0, in.available());
+    }
+
+    @Test
+    public void testNoRepository() throws Exception {
+        RecordWritable writable = new RecordWritable();
+        writable.setRecord(newRecord(repository.getIdGenerator(), "foo", "value"));
+        try {
+            write(writable);
+            fail("expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
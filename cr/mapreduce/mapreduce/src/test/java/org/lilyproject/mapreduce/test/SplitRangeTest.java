@@ -0,0 +1,75 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.mapreduce.test;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+import org.lilyproject.mapreduce.AbstractLilyScanInputFormat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SplitRangeTest {
+    @Test
+    public void testSingleSplit() {
+        byte[] start = Bytes.toBytes("a");
+        byte[] stop = Bytes.toBytes("b");
+        byte[][] boundaries = AbstractLilyScanInputFormat.splitRange(start, stop, 1);
+        assertEquals(2, boundaries.length);
+        assertArrayEquals(start, boundaries[0]);
+        assertArrayEquals(stop, boundaries[1]);
+    }
+
+    @Test
+    public void testUnboundedRange() {
+        byte[][] boundaries = AbstractLilyScanInputFormat.splitRange(new byte[0], new byte[0], 4);
+        assertEquals(5, boundaries.length);
+        assertEquals(0, boundaries[0].length);
+        assertEquals(0, boundaries[4].length);
+        // The UUID ids, starting with byte 1, should get two of the four splits
+        assertEquals(1, boundaries[2][0]);
+        assertIncreasing(boundaries);
+    }
+
+    @Test
+    public void testUuidRange() {
+        byte[] start = new byte[] {1, 0x40};
+        byte[] stop = new byte[] {1, (byte)0x80};
+        byte[][] boundaries = AbstractLilyScanInputFormat.splitRange(start, stop, 4);
+        assertEquals(5, boundaries.length);
+        assertArrayEquals(start, boundaries[0]);
+        assertEquals(0x50, boundaries[1][1]);
+        assertEquals(0x60, boundaries[2][1]);
+        assertEquals(0x70, boundaries[3][1]);
+        assertArrayEquals(stop, boundaries[4]);
+        assertIncreasing(boundaries);
+    }
+
+    @Test
+    public void testRangeTooSmall() {
+        byte[] start = Bytes.add(new byte[] {1}, new byte[16]);
+        byte[] stop = Bytes.add(start, new byte[] {1});
+        byte[][] boundaries = AbstractLilyScanInputFormat.splitRange(start, stop, 4);
+        assertEquals(2, boundaries.length);
+    }
+
+    private void assertIncreasing(byte[][] boundaries) {
+        for (int i = 1; i < boundaries.length - 1; i++) {
+            assertTrue(Bytes.compareTo(boundaries[i - 1], boundaries[i]) < 0);
+        }
+    }
+}
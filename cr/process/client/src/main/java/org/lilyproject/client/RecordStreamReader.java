@@ -0,0 +1,80 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.client;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * Reads the records from a response of the REST interface in the binary record format, which is requested
+ * using the {@link RecordAsBytesConverter#STREAM_MEDIA_TYPE} media type in the Accept header. This is supported
+ * by the multi-get (POST on /records) and the scan (GET on /scan/{id}) resources.
+ *
+ * <p>Decoding records needs the field types, which are taken from the given repository.</p>
+ */
+public class RecordStreamReader implements Closeable {
+    private final DataInputStream input;
+    private final LRepository repository;
+    private boolean endReached = false;
+
+    public RecordStreamReader(InputStream input, LRepository repository) {
+        this.input = new DataInputStream(new BufferedInputStream(input));
+        this.repository = repository;
+    }
+
+    /**
+     * Returns the next record, or null when all records have been read.
+     *
+     * @throws EOFException if the stream ends before the end marker, which happens when the server ran into
+     *                      an error while writing the response
+     */
+    public Record next() throws IOException, RepositoryException, InterruptedException {
+        if (endReached) {
+            return null;
+        }
+
+        int length;
+        try {
+            length = input.readInt();
+        } catch (EOFException e) {
+            throw new EOFException("Record stream ended without end marker, the response is incomplete.");
+        }
+
+        if (length == 0) {
+            endReached = true;
+            return null;
+        }
+
+        byte[] recordBytes = new byte[length];
+        input.readFully(recordBytes);
+        return RecordAsBytesConverter.read(new DataInputImpl(recordBytes), repository);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
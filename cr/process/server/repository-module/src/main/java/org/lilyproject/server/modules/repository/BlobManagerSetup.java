@@ -35,6 +35,7 @@ import org.lilyproject.repository.impl.InlineBlobStoreAccess;
 import org.lilyproject.repository.impl.SizeBasedBlobStoreAccessFactory;
 import org.lilyproject.runtime.conf.Conf;
 import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.lilyproject.util.io.Closer;
 import org.lilyproject.util.repo.DfsUri;
 import org.lilyproject.util.zookeeper.ZkUtil;
 import org.lilyproject.util.zookeeper.ZooKeeperItf;
@@ -53,21 +54,25 @@ public class BlobManagerSetup {
         fs = FileSystem.get(DfsUri.getBaseDfsUri(dfsUri), configuration);
         Path blobRootPath = new Path(DfsUri.getDfsPath(dfsUri));
 
-        BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
-        BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(tableFactory);
-        BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
-        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
-                inlineBlobStoreAccess);
-
         String defaultStoreName = blobManagerConf.getChild("blobStore").getAttribute("default");
         BlobStoreAccessConfig blobStoreAccessConfig = new BlobStoreAccessConfig(defaultStoreName);
+        int hbaseChunkSize = HBaseBlobStoreAccess.DEFAULT_CHUNK_SIZE;
         List<Conf> children = blobManagerConf.getChild("blobStore").getChildren("store");
         for (Conf access : children) {
             String accessName = access.getAttribute("name");
             long limit = access.getAttributeAsInteger("limit");
             blobStoreAccessConfig.setLimit(accessName, limit);
+            if (accessName.equals("HBASE")) {
+                hbaseChunkSize = access.getAttributeAsInteger("chunkSize", hbaseChunkSize);
+            }
         }
 
+        BlobStoreAccess dfsBlobStoreAccess = new DFSBlobStoreAccess(fs, blobRootPath);
+        BlobStoreAccess hbaseBlobStoreAccess = new HBaseBlobStoreAccess(tableFactory, false, hbaseChunkSize);
+        BlobStoreAccess inlineBlobStoreAccess = new InlineBlobStoreAccess();
+        List<BlobStoreAccess> blobStoreAccesses = Arrays.asList(dfsBlobStoreAccess, hbaseBlobStoreAccess,
+                inlineBlobStoreAccess);
+
         SizeBasedBlobStoreAccessFactory blobStoreAccessFactory = new SizeBasedBlobStoreAccessFactory(blobStoreAccesses,
                 blobStoreAccessConfig);
         blobManager = new BlobManagerImpl(tableFactory, blobStoreAccessFactory, false);
@@ -78,6 +83,8 @@ public class BlobManagerSetup {
 
     @PreDestroy
     public void stop() {
+        Closer.close(blobManager);
+
         // Since CDH4: don't close connection as this seems to close it for other clients (such as HBase)
         // too in case of launch-test-lily with resetLilyState.
         // Closer.close(fs);
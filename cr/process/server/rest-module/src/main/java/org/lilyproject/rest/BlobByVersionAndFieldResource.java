@@ -16,13 +16,17 @@
 package org.lilyproject.rest;
 
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobNotFoundException;
@@ -45,15 +49,25 @@ import static javax.ws.rs.core.Response.Status.NOT_FOUND;
 @GenerateRepositoryAndTableResource
 public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
 
+    /**
+     * A single byte range: "bytes=first-last", "bytes=first-" or "bytes=-suffixLength".
+     */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    // Not available in Response.Status
+    private static final int PARTIAL_CONTENT = 206;
+    private static final int REQUESTED_RANGE_NOT_SATISFIABLE = 416;
+
     @GET
     @Produces("*/*")
     public Response get(@PathParam("id") String id, @PathParam("version") String version,
-            @PathParam("fieldName") String fieldName, @Context UriInfo uriInfo) {
-        return getBlob(id, version, fieldName, uriInfo, getTable(uriInfo), getRepository(uriInfo));
+            @PathParam("fieldName") String fieldName, @HeaderParam("Range") String range,
+            @Context UriInfo uriInfo) {
+        return getBlob(id, version, fieldName, range, uriInfo, getTable(uriInfo), getRepository(uriInfo));
     }
 
 
-    protected static Response getBlob(String id, String version, String fieldName, UriInfo uriInfo,
+    protected static Response getBlob(String id, String version, String fieldName, String range, UriInfo uriInfo,
             LTable table, LRepository repository) {
         final RecordId recordId = repository.getIdGenerator().fromString(id);
 
@@ -66,9 +80,9 @@ public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
             versionNr = Long.parseLong(version);
         }
 
+        final BlobAccess blobAccess;
         try {
-            final BlobAccess blobAccess = table.getBlob(recordId, versionNr, fieldQName, indexes);
-            return Response.ok(blobAccess, MediaType.valueOf(blobAccess.getBlob().getMediaType())).build();
+            blobAccess = table.getBlob(recordId, versionNr, fieldQName, indexes);
         } catch (RecordNotFoundException e) {
             throw new ResourceException(e, NOT_FOUND.getStatusCode());
         } catch (FieldNotFoundException e) {
@@ -78,6 +92,69 @@ public class BlobByVersionAndFieldResource extends BaseRepositoryResource {
         } catch (Exception e) {
             throw new ResourceException("Error loading record.", e, INTERNAL_SERVER_ERROR.getStatusCode());
         }
+
+        MediaType mediaType = MediaType.valueOf(blobAccess.getBlob().getMediaType());
+        Long size = blobAccess.getBlob().getSize();
+        if (size == null) {
+            return Response.ok(blobAccess, mediaType).build();
+        }
+
+        long[] byteRange = range != null ? parseRange(range, size) : null;
+        if (byteRange == null) {
+            return Response.ok(blobAccess, mediaType).header("Accept-Ranges", "bytes").build();
+        }
+
+        long first = byteRange[0];
+        long last = byteRange[1];
+        return Response.status(PARTIAL_CONTENT)
+                .entity(new BlobRange(blobAccess, first, last - first + 1))
+                .type(mediaType)
+                .header("Accept-Ranges", "bytes")
+                .header("Content-Range", "bytes " + first + "-" + last + "/" + size)
+                .build();
+    }
+
+    /**
+     * Parses the value of a Range header into the first and last (inclusive) byte positions. Returns null
+     * when the complete blob should be returned, which is also the case for ranges we don't support,
+     * such as multiple ranges.
+     */
+    static long[] parseRange(String range, long size) {
+        Matcher matcher = RANGE_PATTERN.matcher(range.trim());
+        if (!matcher.matches()) {
+            return null;
+        }
+
+        String firstValue = matcher.group(1);
+        String lastValue = matcher.group(2);
+        long first;
+        long last;
+        try {
+            if (firstValue.length() == 0) {
+                if (lastValue.length() == 0) {
+                    return null;
+                }
+                // Suffix range: the last n bytes
+                first = Math.max(0, size - Long.parseLong(lastValue));
+                last = size - 1;
+            } else {
+                first = Long.parseLong(firstValue);
+                last = lastValue.length() == 0 ? size - 1 : Math.min(Long.parseLong(lastValue), size - 1);
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        if (first > last) {
+            if (lastValue.length() > 0 && firstValue.length() > 0 && Long.parseLong(lastValue) < first) {
+                // Syntactically invalid, should be ignored
+                return null;
+            }
+            throw new WebApplicationException(Response.status(REQUESTED_RANGE_NOT_SATISFIABLE)
+                    .header("Content-Range", "bytes */" + size).build());
+        }
+
+        return new long[] {first, last};
     }
 
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rest;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.lilyproject.repository.api.BlobAccess;
+import org.lilyproject.repository.api.BlobException;
+import org.lilyproject.repository.api.RangedBlobAccess;
+import org.lilyproject.util.io.IOUtils;
+
+/**
+ * A range of the bytes of a blob, the response entity of an HTTP Range request on a blob.
+ */
+public class BlobRange {
+    private final BlobAccess blobAccess;
+    private final long offset;
+    private final long length;
+
+    public BlobRange(BlobAccess blobAccess, long offset, long length) {
+        this.blobAccess = blobAccess;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public InputStream getInputStream() throws BlobException {
+        if (blobAccess instanceof RangedBlobAccess) {
+            return ((RangedBlobAccess)blobAccess).getInputStream(offset, length);
+        }
+        try {
+            return IOUtils.range(blobAccess.getInputStream(), offset, length);
+        } catch (IOException e) {
+            throw new BlobException("Failed to skip to offset " + offset + " of the blob", e);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.rest;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.UriInfo;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.node.ObjectNode;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.tools.restresourcegenerator.GenerateRepositoryAndTableResource;
+import org.lilyproject.tools.restresourcegenerator.GenerateRepositoryResource;
+import org.lilyproject.tools.restresourcegenerator.GenerateTableResource;
+
+import static javax.ws.rs.core.Response.Status.BAD_REQUEST;
+import static javax.ws.rs.core.Response.Status.INTERNAL_SERVER_ERROR;
+
+/**
+ * Reads multiple records at once. The request body is a JSON object with an array of record ids:
+ * {"ids": ["USER.a", "USER.b"]}. Records which do not exist are left out of the response.
+ *
+ * <p>Besides JSON, the records can be retrieved in the binary format of {@link RecordAsBytesConverter}.</p>
+ */
+@Path("records")
+@GenerateTableResource
+@GenerateRepositoryResource
+@GenerateRepositoryAndTableResource
+public class RecordMultiGetResource extends BaseRepositoryResource {
+
+    @POST
+    @Consumes("application/json")
+    @Produces({"application/json", RecordAsBytesConverter.STREAM_MEDIA_TYPE})
+    public EntityList<Record> post(ObjectNode request, @Context UriInfo uriInfo) {
+        JsonNode idsNode = request.get("ids");
+        if (idsNode == null || !idsNode.isArray()) {
+            throw new ResourceException("Missing array property 'ids'.", BAD_REQUEST.getStatusCode());
+        }
+
+        LRepository repository = getRepository(uriInfo);
+        IdGenerator idGenerator = repository.getIdGenerator();
+        List<RecordId> recordIds = new ArrayList<RecordId>(idsNode.size());
+        try {
+            for (JsonNode idNode : idsNode) {
+                recordIds.add(idGenerator.fromString(idNode.getTextValue()));
+            }
+        } catch (Exception e) {
+            throw new ResourceException("Invalid record id.", e, BAD_REQUEST.getStatusCode());
+        }
+
+        List<QName> fieldQNames = ResourceClassUtil.parseFieldList(uriInfo);
+        try {
+            List<Record> records = fieldQNames != null ?
+                    getTable(uriInfo).read(recordIds, fieldQNames.toArray(new QName[fieldQNames.size()])) :
+                    getTable(uriInfo).read(recordIds);
+            return EntityList.create(records, uriInfo);
+        } catch (Exception e) {
+            throw new ResourceException("Error loading records.", e, INTERNAL_SERVER_ERROR.getStatusCode());
+        }
+    }
+}
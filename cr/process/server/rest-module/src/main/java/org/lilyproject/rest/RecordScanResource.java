@@ -26,10 +26,11 @@ import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Iterator;
 
 import com.google.common.cache.Cache;
+import com.google.common.collect.AbstractIterator;
+import org.lilyproject.avro.repository.RecordAsBytesConverter;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordScanner;
 import org.lilyproject.repository.api.RepositoryException;
@@ -47,20 +48,22 @@ import static javax.ws.rs.core.Response.Status.NO_CONTENT;
 @GenerateRepositoryResource
 @GenerateRepositoryAndTableResource
 public class RecordScanResource extends BaseRepositoryResource {
-    @Autowired
     private Cache<String, RecordScanner> recordScannerMap;
 
+    @Autowired
+    public void setRecordScannerMap(Cache<String, RecordScanner> recordScannerMap) {
+        this.recordScannerMap = recordScannerMap;
+    }
+
     @GET
-    @Produces("application/json")
+    @Produces({"application/json", RecordAsBytesConverter.STREAM_MEDIA_TYPE})
     public EntityList<Record> get(@PathParam("id") String scanId, @DefaultValue("1") @QueryParam("batch") Long batch, @Context UriInfo uriInfo) {
         RecordScanner scanner = recordScannerMap.getIfPresent(scanId);
         if (scanner != null) {
-            List<Record> records = new ArrayList<Record>();
-
+            Record first = null;
             try {
-                Record record;
-                while(records.size() < batch && (record = scanner.next()) != null) {
-                    records.add(record);
+                if (batch > 0) {
+                    first = scanner.next();
                 }
             } catch (RepositoryException e) {
                 throw new ResourceException(e, INTERNAL_SERVER_ERROR.getStatusCode());
@@ -68,16 +71,64 @@ public class RecordScanResource extends BaseRepositoryResource {
                 throw new ResourceException(e, INTERNAL_SERVER_ERROR.getStatusCode());
             }
 
-            if (records.size() < 1) {
+            if (first == null) {
                 throw new WebApplicationException(Response.status(NO_CONTENT).build());
             }
 
-            return EntityList.create(records, uriInfo);
+            // The other records of the batch are read while the response is written, so that they
+            // don't need to be kept in memory all together
+            return EntityList.create(new ScanBatch(scanner, first, batch), uriInfo);
         } else {
             throw new ResourceException("No scan with ID " + scanId + " found", NOT_FOUND.getStatusCode());
         }
     }
 
+    /**
+     * The records of one batch of a scan, read from the scanner while iterating.
+     */
+    private static class ScanBatch implements Iterable<Record> {
+        private final RecordScanner scanner;
+        private final Record first;
+        private final long batch;
+
+        ScanBatch(RecordScanner scanner, Record first, long batch) {
+            this.scanner = scanner;
+            this.first = first;
+            this.batch = batch;
+        }
+
+        @Override
+        public Iterator<Record> iterator() {
+            return new AbstractIterator<Record>() {
+                private long count = 0;
+
+                @Override
+                protected Record computeNext() {
+                    if (count >= batch) {
+                        return endOfData();
+                    }
+
+                    Record record;
+                    if (count == 0) {
+                        record = first;
+                    } else {
+                        try {
+                            record = scanner.next();
+                        } catch (RepositoryException e) {
+                            throw new ResourceException(e, INTERNAL_SERVER_ERROR.getStatusCode());
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new ResourceException(e, INTERNAL_SERVER_ERROR.getStatusCode());
+                        }
+                    }
+
+                    count++;
+                    return record != null ? record : endOfData();
+                }
+            };
+        }
+    }
+
     @DELETE
     public Response delete(@PathParam("id") String scanId) {
         RecordScanner scanner = this.recordScannerMap.getIfPresent(scanId);
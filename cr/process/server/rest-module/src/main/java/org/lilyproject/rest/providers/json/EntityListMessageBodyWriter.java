@@ -28,17 +28,30 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 
 import org.apache.commons.io.output.CloseShieldOutputStream;
-import org.codehaus.jackson.node.ArrayNode;
-import org.codehaus.jackson.node.JsonNodeFactory;
-import org.codehaus.jackson.node.ObjectNode;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.SerializationConfig;
 import org.lilyproject.rest.BaseRepositoryResource;
 import org.lilyproject.rest.EntityList;
 import org.lilyproject.rest.ResourceException;
 import org.lilyproject.tools.import_.json.EntityWriter;
-import org.lilyproject.util.json.JsonFormat;
 
+/**
+ * Writes a list of entities as a JSON object with a "results" array, streaming the entities as they are iterated.
+ *
+ * <p>When an error occurs before anything has been sent, an error response is returned instead. When it occurs
+ * later on, the JSON is cut off without being terminated, so that clients can't take it for the complete list.</p>
+ */
 @Provider
 public class EntityListMessageBodyWriter extends BaseRepositoryResource implements MessageBodyWriter<EntityList> {
+    /**
+     * Does not flush the output after each entity, so that it is only sent out when the buffer is full.
+     */
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .configure(SerializationConfig.Feature.FLUSH_AFTER_WRITE_VALUE, false);
 
     @Override
     public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
@@ -73,17 +86,33 @@ public class EntityListMessageBodyWriter extends BaseRepositoryResource implemen
             throws IOException, WebApplicationException {
 
         try {
-            ObjectNode listNode = JsonNodeFactory.instance.objectNode();
-            ArrayNode resultsNode = listNode.putArray("results");
-
-            EntityWriter writer = getEntityWriter(genericType);
-            for (Object entity : entityList.getEntities()) {
-                // Multiple repositories: ok to use public repo since only non-repository-specific things are needed
-                resultsNode.add(writer.toJson(entity, entityList.getWriteOptions(),
-                        repositoryMgr.getDefaultRepository()));
-            }
+            // The entities are streamed one by one, rather than building the JSON of the complete list in memory
+            DiscardableOutputStream output = new DiscardableOutputStream(new CloseShieldOutputStream(entityStream));
+            JsonGenerator generator = OBJECT_MAPPER.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8);
+            // A list which could not be written completely should not look like a complete one
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            boolean complete = false;
+            try {
+                generator.writeStartObject();
+                generator.writeArrayFieldStart("results");
+
+                EntityWriter writer = getEntityWriter(genericType);
+                for (Object entity : entityList.getEntities()) {
+                    // Multiple repositories: ok to use public repo since only non-repository-specific things are needed
+                    generator.writeTree(writer.toJson(entity, entityList.getWriteOptions(),
+                            repositoryMgr.getDefaultRepository()));
+                }
 
-            JsonFormat.serialize(listNode, new CloseShieldOutputStream(entityStream));
+                generator.writeEndArray();
+                generator.writeEndObject();
+                complete = true;
+            } finally {
+                if (!complete && !output.isCommitted()) {
+                    // Nothing has been sent yet, so the client can still get an error response instead
+                    output.discard();
+                }
+                generator.close();
+            }
         } catch (Throwable e) {
             // We catch every throwable, since otherwise no one does it and we will not have any trace
             // of Errors that happened.
@@ -91,4 +120,31 @@ public class EntityListMessageBodyWriter extends BaseRepositoryResource implemen
         }
     }
 
+    /**
+     * Keeps track of whether anything has been written to the entity stream, and allows to drop the
+     * output which has not been written yet.
+     */
+    private static class DiscardableOutputStream extends ProxyOutputStream {
+        private boolean committed;
+
+        DiscardableOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        protected void beforeWrite(int n) {
+            if (n > 0) {
+                committed = true;
+            }
+        }
+
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        public void discard() {
+            out = NullOutputStream.NULL_OUTPUT_STREAM;
+        }
+    }
+
 }
@@ -16,6 +16,8 @@
 package org.lilyproject.process.updatehook;
 
 import javax.annotation.PreDestroy;
+import java.util.Collections;
+import java.util.Set;
 
 import org.lilyproject.plugin.PluginRegistry;
 import org.lilyproject.repository.api.FieldTypes;
@@ -23,10 +25,11 @@ import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.Repository;
 import org.lilyproject.repository.api.RepositoryException;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.repo.RecordEvent;
 
-public class TestRecordUpdateHook implements RecordUpdateHook {
+public class TestRecordUpdateHook implements FieldDependentRecordUpdateHook {
     private PluginRegistry pluginRegistry;
     /** Name should be unique among all RecordUpdateHook's */
     private String NAME = "test-updatehook";
@@ -42,6 +45,11 @@ public class TestRecordUpdateHook implements RecordUpdateHook {
         pluginRegistry.removePlugin(RecordUpdateHook.class, NAME, this);
     }
 
+    @Override
+    public Set<QName> getFieldDependencies() {
+        return Collections.emptySet();
+    }
+
     @Override
     public void beforeUpdate(Record record, Record originalRecord, Repository repository, FieldTypes fieldTypes,
             RecordEvent recordEvent) throws RepositoryException, InterruptedException {
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.process.test;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.UriInfo;
+import java.io.ByteArrayOutputStream;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.reflect.TypeToken;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.JsonNodeFactory;
+import org.codehaus.jackson.node.ObjectNode;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordException;
+import org.lilyproject.repository.api.RecordScanner;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.rest.EntityList;
+import org.lilyproject.rest.RecordScanResource;
+import org.lilyproject.rest.ResourceException;
+import org.lilyproject.rest.providers.json.EntityListMessageBodyWriter;
+import org.lilyproject.tools.import_.json.EntityWriter;
+import org.lilyproject.tools.import_.json.Namespaces;
+import org.lilyproject.tools.import_.json.WriteOptions;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the streaming of entity lists as JSON, and of scan batches in particular.
+ */
+public class EntityListStreamingTest {
+    private static final Type RECORD_LIST_TYPE = new TypeToken<EntityList<Record>>() { }.getType();
+
+    private EntityListMessageBodyWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        RepositoryManager repositoryManager = mock(RepositoryManager.class);
+        when(repositoryManager.getDefaultRepository()).thenReturn(mock(LRepository.class));
+
+        // Records are written as just their id, so that no schema is needed
+        writer = new EntityListMessageBodyWriter() {
+            @Override
+            protected EntityWriter getEntityWriter(Type genericType) {
+                return new RecordIdWriter();
+            }
+        };
+        writer.setRepositoryManager(repositoryManager);
+    }
+
+    private static class RecordIdWriter implements EntityWriter<Record> {
+        @Override
+        public ObjectNode toJson(Record record, WriteOptions options, LRepository repository) {
+            ObjectNode node = JsonNodeFactory.instance.objectNode();
+            node.put("id", record.getId().toString());
+            return node;
+        }
+
+        @Override
+        public ObjectNode toJson(Record record, WriteOptions options, Namespaces namespaces,
+                LRepository repository) {
+            return toJson(record, options, repository);
+        }
+    }
+
+    private static Record newRecord(int i) {
+        Record record = new RecordFactoryImpl().newRecord();
+        record.setId(new IdGeneratorImpl().newRecordId("record" + i));
+        return record;
+    }
+
+    /**
+     * Returns the given number of records, and then fails if failAtEnd is true.
+     */
+    private static Iterable<Record> records(final int count, final boolean failAtEnd) {
+        return new Iterable<Record>() {
+            @Override
+            public Iterator<Record> iterator() {
+                return new AbstractIterator<Record>() {
+                    private int i = 0;
+
+                    @Override
+                    protected Record computeNext() {
+                        if (i < count) {
+                            return newRecord(i++);
+                        }
+                        if (failAtEnd) {
+                            throw new RuntimeException("failing after " + count + " records");
+                        }
+                        return endOfData();
+                    }
+                };
+            }
+        };
+    }
+
+    private void write(EntityList<Record> entityList, ByteArrayOutputStream output) throws Exception {
+        writer.writeTo(entityList, EntityList.class, RECORD_LIST_TYPE, null, MediaType.APPLICATION_JSON_TYPE,
+                null, output);
+    }
+
+    @Test
+    public void testStreamedList() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // Enough records to go beyond the buffer of the JSON generator
+        write(new EntityList<Record>(records(5000, false)), output);
+
+        JsonNode results = new ObjectMapper().readTree(output.toByteArray()).get("results");
+        assertEquals(5000, results.size());
+        assertEquals("USER.record0", results.get(0).get("id").getTextValue());
+        assertEquals("USER.record4999", results.get(4999).get("id").getTextValue());
+    }
+
+    @Test
+    public void testEmptyList() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        write(new EntityList<Record>(records(0, false)), output);
+
+        assertEquals(0, new ObjectMapper().readTree(output.toByteArray()).get("results").size());
+    }
+
+    @Test
+    public void testErrorBeforeAnythingWasSent() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            write(new EntityList<Record>(records(2, true)), output);
+            fail("expected ResourceException");
+        } catch (ResourceException expected) {
+        }
+
+        // Nothing was written, so that an error response can be sent instead
+        assertEquals(0, output.size());
+    }
+
+    @Test
+    public void testErrorAfterOutputWasSent() throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            write(new EntityList<Record>(records(5000, true)), output);
+            fail("expected ResourceException");
+        } catch (ResourceException expected) {
+        }
+
+        // The records before the error were sent, but the JSON is not terminated
+        assertTrue(output.size() > 0);
+        assertNotCompleteJson(output.toByteArray());
+    }
+
+    @Test
+    public void testScanFailureOnFirstRecord() throws Exception {
+        RecordScanner scanner = mock(RecordScanner.class);
+        when(scanner.next()).thenThrow(new RecordException("scan failure"));
+
+        try {
+            newScanResource(scanner).get("scan1", 10L, newUriInfo());
+            fail("expected ResourceException");
+        } catch (ResourceException expected) {
+            // Failed before the response was started, so it gets the proper status code
+            assertEquals(500, expected.getStatus());
+        }
+    }
+
+    @Test
+    public void testScanEnded() throws Exception {
+        RecordScanner scanner = mock(RecordScanner.class);
+        when(scanner.next()).thenReturn(null);
+
+        try {
+            newScanResource(scanner).get("scan1", 10L, newUriInfo());
+            fail("expected WebApplicationException");
+        } catch (WebApplicationException expected) {
+            assertEquals(204, expected.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testScanFailureDuringBatch() throws Exception {
+        RecordScanner scanner = mock(RecordScanner.class);
+        Record[] records = new Record[3000];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = newRecord(i);
+        }
+        when(scanner.next()).thenReturn(records[0], withoutFirst(records))
+                .thenThrow(new RecordException("scan failure"));
+
+        EntityList<Record> batch = newScanResource(scanner).get("scan1", 5000L, newUriInfo());
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try {
+            write(batch, output);
+            fail("expected ResourceException");
+        } catch (ResourceException expected) {
+        }
+        assertTrue(output.size() > 0);
+        assertNotCompleteJson(output.toByteArray());
+    }
+
+    @Test
+    public void testScanBatchSize() throws Exception {
+        RecordScanner scanner = mock(RecordScanner.class);
+        Record[] records = new Record[10];
+        for (int i = 0; i < records.length; i++) {
+            records[i] = newRecord(i);
+        }
+        when(scanner.next()).thenReturn(records[0], withoutFirst(records)).thenReturn(null);
+
+        List<Record> batch = new ArrayList<Record>();
+        for (Record record : newScanResource(scanner).get("scan1", 4L, newUriInfo()).getEntities()) {
+            batch.add(record);
+        }
+        assertEquals(4, batch.size());
+        assertSame(records[3], batch.get(3));
+        // The rest of the scan is left for the next batch
+        assertSame(records[4], scanner.next());
+    }
+
+    private static Record[] withoutFirst(Record[] records) {
+        Record[] rest = new Record[records.length - 1];
+        System.arraycopy(records, 1, rest, 0, rest.length);
+        return rest;
+    }
+
+    private RecordScanResource newScanResource(RecordScanner scanner) {
+        Cache<String, RecordScanner> scanners = CacheBuilder.newBuilder().build();
+        scanners.put("scan1", scanner);
+        RecordScanResource resource = new RecordScanResource();
+        resource.setRecordScannerMap(scanners);
+        return resource;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static UriInfo newUriInfo() {
+        UriInfo uriInfo = mock(UriInfo.class);
+        when(uriInfo.getQueryParameters()).thenReturn(mock(MultivaluedMap.class));
+        return uriInfo;
+    }
+
+    private static void assertNotCompleteJson(byte[] bytes) throws Exception {
+        try {
+            new ObjectMapper().readTree(bytes);
+            fail("expected the JSON to be cut off");
+        } catch (JsonProcessingException expected) {
+        }
+    }
+}
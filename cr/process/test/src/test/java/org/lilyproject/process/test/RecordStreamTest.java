@@ -0,0 +1,156 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.process.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.client.RecordStreamReader;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.IdGenerator;
+import org.lilyproject.repository.api.LRepository;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RepositoryManager;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.RecordFactoryImpl;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+import org.lilyproject.rest.EntityList;
+import org.lilyproject.rest.providers.RecordStreamMessageBodyWriter;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Writes records with the REST binary record stream writer and reads them back with the client's reader.
+ */
+public class RecordStreamTest {
+    private static final QName FIELD = new QName("org.lilyproject.recordstreamtest", "field");
+
+    private IdGenerator idGenerator;
+    private LRepository repository;
+    private RecordStreamMessageBodyWriter writer;
+
+    @Before
+    public void setUp() throws Exception {
+        idGenerator = new IdGeneratorImpl();
+        ValueType stringType = new StringValueType();
+        FieldType fieldType = mock(FieldType.class);
+        when(fieldType.getValueType()).thenReturn(stringType);
+        FieldTypes fieldTypes = mock(FieldTypes.class);
+        when(fieldTypes.getFieldType(FIELD)).thenReturn(fieldType);
+        TypeManager typeManager = mock(TypeManager.class);
+        when(typeManager.getFieldTypesSnapshot()).thenReturn(fieldTypes);
+        when(typeManager.getValueType(StringValueType.NAME)).thenReturn(stringType);
+
+        repository = mock(LRepository.class);
+        when(repository.getTypeManager()).thenReturn(typeManager);
+        when(repository.getIdGenerator()).thenReturn(idGenerator);
+        when(repository.getRecordFactory()).thenReturn(new RecordFactoryImpl());
+        RepositoryManager repositoryManager = mock(RepositoryManager.class);
+        when(repositoryManager.getDefaultRepository()).thenReturn(repository);
+
+        writer = new RecordStreamMessageBodyWriter();
+        writer.setRepositoryManager(repositoryManager);
+    }
+
+    private Record newRecord(String id, String value) {
+        Record record = new RecordFactoryImpl().newRecord();
+        record.setId(idGenerator.newRecordId(id));
+        record.setVersion(1L);
+        record.setRecordType(new QName("org.lilyproject.recordstreamtest", "type"), 1L);
+        record.setField(FIELD, value);
+        return record;
+    }
+
+    private byte[] write(List<Record> records) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        writer.writeTo(new EntityList<Record>(records), EntityList.class, null, null,
+                RecordStreamMessageBodyWriter.MEDIA_TYPE, null, output);
+        return output.toByteArray();
+    }
+
+    private List<Record> read(byte[] bytes) throws Exception {
+        RecordStreamReader reader = new RecordStreamReader(new ByteArrayInputStream(bytes), repository);
+        try {
+            List<Record> records = new ArrayList<Record>();
+            Record record;
+            while ((record = reader.next()) != null) {
+                records.add(record);
+            }
+            // Reading beyond the end marker keeps returning null
+            assertNull(reader.next());
+            return records;
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testEmptyStream() throws Exception {
+        assertEquals(0, read(write(Collections.<Record>emptyList())).size());
+    }
+
+    @Test
+    public void testOneRecord() throws Exception {
+        Record record = newRecord("a", "value a");
+
+        assertEquals(Arrays.asList(record), read(write(Arrays.asList(record))));
+    }
+
+    @Test
+    public void testSeveralRecords() throws Exception {
+        List<Record> records = new ArrayList<Record>();
+        for (int i = 0; i < 10; i++) {
+            records.add(newRecord("record" + i, "value " + i));
+        }
+
+        List<Record> readRecords = read(write(records));
+        assertEquals(records, readRecords);
+        assertEquals("value 3", readRecords.get(3).getField(FIELD));
+    }
+
+    @Test
+    public void testTruncatedStream() throws Exception {
+        byte[] bytes = write(Arrays.asList(newRecord("a", "value a"), newRecord("b", "value b")));
+
+        // Without the end marker
+        assertTruncated(Arrays.copyOf(bytes, bytes.length - 4));
+        // In the middle of the second record
+        assertTruncated(Arrays.copyOf(bytes, bytes.length - 10));
+    }
+
+    private void assertTruncated(byte[] bytes) throws Exception {
+        try {
+            read(bytes);
+            fail("expected EOFException");
+        } catch (EOFException expected) {
+        }
+    }
+}
@@ -278,6 +278,8 @@ public class RepositorySetup {
         Closer.close(typeManager);
         Closer.close(remoteRepositoryManager);
         Closer.close(repositoryManager);
+        Closer.close(blobManager);
+        Closer.close(remoteBlobManager);
 
         if (lilyServer != null) {
             lilyServer.close();
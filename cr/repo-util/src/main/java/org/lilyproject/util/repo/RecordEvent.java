@@ -18,6 +18,7 @@ package org.lilyproject.util.repo;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -34,6 +35,11 @@ import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.JsonParser;
 import org.codehaus.jackson.JsonToken;
 import org.codehaus.jackson.util.ByteArrayBuilder;
+import org.lilyproject.bytes.api.DataInput;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataInputImpl;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 import org.lilyproject.repository.api.IdGenerator;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.SchemaId;
@@ -43,9 +49,26 @@ import org.lilyproject.util.json.JsonFormat;
 /**
  * Represents the payload of an event about a create-update-delete operation on the repository.
  *
- * <p>The actual payload is json, this class helps in parsing or constructing that json.
+ * <p>The payload is stored in a compact binary format, see {@link #toBytes()}. Payloads written by older
+ * versions are json, {@link #RecordEvent(byte[], IdGenerator)} detects the format and can read both.
  */
 public class RecordEvent {
+    /**
+     * First byte of the binary format. Json payloads always start with '{', which is how both formats are
+     * told apart.
+     */
+    private static final byte BINARY_FORMAT_V1 = 1;
+    /**
+     * Version 2 starts with a {@link RoutingHeader}. The subscription ids are part of the header, they are left
+     * out of the {@link IndexRecordFilterData} further on.
+     */
+    private static final byte BINARY_FORMAT_V2 = 2;
+
+    /**
+     * If this attribute is set to "false", the event is not passed on to the indexers.
+     */
+    public static final String NO_INDEX_FLAG = "lily.mq";
+
     private long versionCreated = -1;
     private long versionUpdated = -1;
     private Type type;
@@ -58,6 +81,9 @@ public class RecordEvent {
     /** A copy of the attributes supplied via {@link Record#setAttributes(Map)}. */
     private Map<String, String> attributes;
 
+    /**
+     * The type of event. The binary format stores the ordinal, new types should be added at the end.
+     */
     public enum Type {
         CREATE("repo:record-created"),
         UPDATE("repo:record-updated"),
@@ -79,9 +105,68 @@ public class RecordEvent {
     }
 
     /**
-     * Creates a record event from the json data supplied as bytes.
+     * Creates a record event from its serialized form, which can be either the binary format produced by
+     * {@link #toBytes()} or the json produced by {@link #toJsonBytes()}.
      */
     public RecordEvent(byte[] data, IdGenerator idGenerator) throws IOException {
+        if (data.length > 0 && (data[0] == BINARY_FORMAT_V1 || data[0] == BINARY_FORMAT_V2)) {
+            try {
+                readBinary(new DataInputImpl(data), idGenerator);
+            } catch (RuntimeException e) {
+                // DataInputImpl signals truncated input with unchecked exceptions
+                throw new IOException("Error parsing binary record event", e);
+            }
+        } else {
+            readJson(data, idGenerator);
+        }
+    }
+
+    private void readBinary(DataInput input, IdGenerator idGenerator) {
+        byte format = input.readByte();
+
+        RoutingHeader header = null;
+        if (format == BINARY_FORMAT_V2) {
+            header = new RoutingHeader(input);
+            type = header.getType();
+        } else {
+            type = readType(input);
+        }
+
+        tableName = input.readVUTF();
+        versionUpdated = input.readVLong() - 1;
+        versionCreated = input.readVLong() - 1;
+        recordTypeChanged = input.readBoolean();
+
+        int updatedFieldCount = input.readVInt();
+        for (int i = 0; i < updatedFieldCount; i++) {
+            addUpdatedField(readSchemaId(input, idGenerator));
+        }
+
+        int vtagCount = input.readVInt();
+        for (int i = 0; i < vtagCount; i++) {
+            addVTagToIndex(readSchemaId(input, idGenerator));
+        }
+
+        int attributeCount = input.readVInt();
+        if (attributeCount > 0) {
+            attributes = new HashMap<String, String>();
+            for (int i = 0; i < attributeCount; i++) {
+                attributes.put(input.readVUTF(), input.readVUTF());
+            }
+        }
+
+        boolean hasFilterData = header != null ? header.hasIndexRecordFilterData() : input.readBoolean();
+        if (hasFilterData) {
+            indexRecordFilterData = new IndexRecordFilterData(input, idGenerator, header);
+        }
+    }
+
+    private static Type readType(DataInput input) {
+        byte typeOrdinal = input.readByte();
+        return typeOrdinal == -1 ? null : Type.values()[typeOrdinal];
+    }
+
+    private void readJson(byte[] data, IdGenerator idGenerator) throws IOException {
         // Using streaming JSON parsing for performance. We expect the JSON to be correct, validation
         // is absent/minimal.
 
@@ -311,6 +396,91 @@ public class RecordEvent {
         gen.flush();
     }
 
+    /**
+     * Serializes this event in the binary format, which is the format used for the payload stored
+     * in the record table. It starts with a {@link RoutingHeader}.
+     */
+    public byte[] toBytes() {
+        DataOutputImpl output = DataOutputPool.acquire();
+        try {
+            write(output);
+            return output.toByteArray();
+        } finally {
+            DataOutputPool.release(output);
+        }
+    }
+
+    private void write(DataOutput output) {
+        output.writeByte(BINARY_FORMAT_V2);
+
+        RoutingHeader.write(this, output);
+
+        output.writeVUTF(tableName);
+        // The versions are -1 when not set, shift them to keep the variable-length encoding small
+        output.writeVLong(versionUpdated + 1);
+        output.writeVLong(versionCreated + 1);
+        output.writeBoolean(recordTypeChanged);
+
+        writeSchemaIds(updatedFields, output);
+        writeSchemaIds(vtagsToIndex, output);
+
+        if (attributes != null) {
+            output.writeVInt(attributes.size());
+            for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+                output.writeVUTF(attribute.getKey());
+                output.writeVUTF(attribute.getValue());
+            }
+        } else {
+            output.writeVInt(0);
+        }
+
+        if (indexRecordFilterData != null) {
+            indexRecordFilterData.write(output);
+        }
+    }
+
+    private boolean hasNoIndexFlag() {
+        return attributes != null && "false".equals(attributes.get(NO_INDEX_FLAG));
+    }
+
+    private static void writeSchemaIds(Set<SchemaId> schemaIds, DataOutput output) {
+        if (schemaIds == null) {
+            output.writeVInt(0);
+            return;
+        }
+        output.writeVInt(schemaIds.size());
+        for (SchemaId schemaId : schemaIds) {
+            writeSchemaId(schemaId, output);
+        }
+    }
+
+    private static void writeSchemaId(SchemaId schemaId, DataOutput output) {
+        byte[] bytes = schemaId.getBytes();
+        output.writeVInt(bytes.length);
+        output.writeBytes(bytes);
+    }
+
+    private static SchemaId readSchemaId(DataInput input, IdGenerator idGenerator) {
+        return idGenerator.getSchemaId(input.readBytes(input.readVInt()));
+    }
+
+    /**
+     * Writes a byte array which can be null.
+     */
+    private static void writeNullableBytes(byte[] bytes, DataOutput output) {
+        if (bytes == null) {
+            output.writeVInt(0);
+        } else {
+            output.writeVInt(bytes.length + 1);
+            output.writeBytes(bytes);
+        }
+    }
+
+    private static byte[] readNullableBytes(DataInput input) {
+        int length = input.readVInt();
+        return length == 0 ? null : input.readBytes(length - 1);
+    }
+
     public String toJson() {
         try {
             StringWriter writer = new StringWriter();
@@ -436,6 +606,49 @@ public class RecordEvent {
         public IndexRecordFilterData() {
         }
 
+        /**
+         * Reads the binary format. In version 2 the subscriptions are taken from the routing header, in
+         * version 1 (header is null) they are read from the input.
+         */
+        private IndexRecordFilterData(DataInput input, IdGenerator idGenerator, RoutingHeader header) {
+            oldRecordExists = input.readBoolean();
+            newRecordExists = input.readBoolean();
+            if (header == null) {
+                includeSubscriptions = input.readBoolean();
+            }
+
+            if (input.readBoolean()) {
+                newRecordType = readSchemaId(input, idGenerator);
+            }
+
+            if (input.readBoolean()) {
+                oldRecordType = readSchemaId(input, idGenerator);
+            }
+
+            int fieldChangeCount = input.readVInt();
+            if (fieldChangeCount > 0) {
+                fieldChanges = new ArrayList<FieldChange>(fieldChangeCount - 1);
+                for (int i = 0; i < fieldChangeCount - 1; i++) {
+                    fieldChanges.add(new FieldChange(input, idGenerator));
+                }
+            }
+
+            if (header != null) {
+                includeSubscriptions = header.includeSubscriptions();
+                if (header.subscriptionIds != null) {
+                    indexSubscriptionIds = Sets.newHashSet(header.subscriptionIds);
+                }
+            } else {
+                int subscriptionCount = input.readVInt();
+                if (subscriptionCount > 0) {
+                    indexSubscriptionIds = Sets.newHashSet();
+                    for (int i = 0; i < subscriptionCount - 1; i++) {
+                        indexSubscriptionIds.add(input.readVUTF());
+                    }
+                }
+            }
+        }
+
         public IndexRecordFilterData(JsonParser jp, IdGenerator idGenerator) throws IOException {
             JsonToken current = jp.getCurrentToken();
 
@@ -555,7 +768,34 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        /**
+         * Writes the binary format, see {@link RecordEvent#toBytes()}. The subscriptions are not written here,
+         * they are part of the {@link RoutingHeader}.
+         */
+        public void write(DataOutput output) {
+            output.writeBoolean(oldRecordExists);
+            output.writeBoolean(newRecordExists);
+
+            output.writeBoolean(newRecordType != null);
+            if (newRecordType != null) {
+                writeSchemaId(newRecordType, output);
+            }
+
+            output.writeBoolean(oldRecordType != null);
+            if (oldRecordType != null) {
+                writeSchemaId(oldRecordType, output);
+            }
 
+            // Counts are written plus one, to distinguish null from empty
+            if (fieldChanges != null) {
+                output.writeVInt(fieldChanges.size() + 1);
+                for (FieldChange fieldChange : fieldChanges) {
+                    fieldChange.write(output);
+                }
+            } else {
+                output.writeVInt(0);
+            }
+        }
 
         /**
          * Set the index subscription ids to be included when distributing the containing record
@@ -616,6 +856,120 @@ public class RecordEvent {
         }
     }
 
+    /**
+     * The start of the binary format, holding what the SEP edit filters on the region servers need to decide
+     * which subscriptions get to see an event: the event type, the {@link RecordEvent#NO_INDEX_FLAG} and the
+     * index subscriptions of the {@link IndexRecordFilterData}.
+     *
+     * <p>It can be read straight from the buffer of a KeyValue, see {@link #read(byte[], int, int)}, which
+     * is a lot cheaper than reading the whole event for each subscription.</p>
+     */
+    public static class RoutingHeader {
+        private static final int NO_INDEX = 1;
+        private static final int HAS_FILTER_DATA = 2;
+        private static final int INCLUDE_SUBSCRIPTIONS = 4;
+
+        private final Type type;
+        private final int flags;
+        /** Sorted, null if the filter data has no subscription set. */
+        private final String[] subscriptionIds;
+
+        private RoutingHeader(DataInput input) {
+            type = readType(input);
+            flags = input.readByte();
+
+            int subscriptionCount = input.readVInt();
+            if (subscriptionCount > 0) {
+                subscriptionIds = new String[subscriptionCount - 1];
+                for (int i = 0; i < subscriptionIds.length; i++) {
+                    subscriptionIds[i] = input.readVUTF();
+                }
+            } else {
+                subscriptionIds = null;
+            }
+        }
+
+        private static void write(RecordEvent event, DataOutput output) {
+            output.writeByte(event.type == null ? -1 : (byte)event.type.ordinal());
+
+            IndexRecordFilterData filterData = event.indexRecordFilterData;
+            int flags = 0;
+            if (event.hasNoIndexFlag()) {
+                flags |= NO_INDEX;
+            }
+            if (filterData != null) {
+                flags |= HAS_FILTER_DATA;
+                if (filterData.includeSubscriptions) {
+                    flags |= INCLUDE_SUBSCRIPTIONS;
+                }
+            }
+            output.writeByte((byte)flags);
+
+            // Count is written plus one, to distinguish null from empty
+            if (filterData != null && filterData.indexSubscriptionIds != null) {
+                String[] subscriptionIds = filterData.indexSubscriptionIds.toArray(
+                        new String[filterData.indexSubscriptionIds.size()]);
+                Arrays.sort(subscriptionIds);
+                output.writeVInt(subscriptionIds.length + 1);
+                for (String subscriptionId : subscriptionIds) {
+                    output.writeVUTF(subscriptionId);
+                }
+            } else {
+                output.writeVInt(0);
+            }
+        }
+
+        /**
+         * Reads the routing header of a serialized event.
+         *
+         * @return null if the event is in a format without routing header (json or the first binary format),
+         *         for these the whole event needs to be read
+         */
+        public static RoutingHeader read(byte[] data, int offset, int length) throws IOException {
+            if (length == 0 || data[offset] != BINARY_FORMAT_V2) {
+                return null;
+            }
+            try {
+                return new RoutingHeader(new DataInputImpl(data, offset + 1, length - 1));
+            } catch (RuntimeException e) {
+                throw new IOException("Error parsing record event routing header", e);
+            }
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Indicates if the {@link RecordEvent#NO_INDEX_FLAG} attribute was set to "false" on the event.
+         */
+        public boolean hasNoIndexFlag() {
+            return (flags & NO_INDEX) != 0;
+        }
+
+        public boolean hasIndexRecordFilterData() {
+            return (flags & HAS_FILTER_DATA) != 0;
+        }
+
+        private boolean includeSubscriptions() {
+            return (flags & INCLUDE_SUBSCRIPTIONS) != 0;
+        }
+
+        /**
+         * Same as {@link IndexRecordFilterData#appliesToSubscription(String)}, only meaningful if the event
+         * has {@link #hasIndexRecordFilterData() filter data}.
+         */
+        public boolean appliesToSubscription(String indexSubscriptionId) {
+            if (includeSubscriptions()) {
+                return subscriptionIds == null
+                        || Arrays.binarySearch(subscriptionIds, indexSubscriptionId) >= 0;
+            } else {
+                return subscriptionIds != null
+                        && Arrays.binarySearch(subscriptionIds, indexSubscriptionId) < 0;
+            }
+        }
+    }
+
     public static class FieldChange {
         private SchemaId id;
         private byte[] oldValue;
@@ -627,6 +981,12 @@ public class RecordEvent {
             this.newValue = newValue;
         }
 
+        public FieldChange(DataInput input, IdGenerator idGenerator) {
+            this.id = readSchemaId(input, idGenerator);
+            this.oldValue = readNullableBytes(input);
+            this.newValue = readNullableBytes(input);
+        }
+
         public FieldChange(JsonParser jp, IdGenerator idGenerator) throws IOException {
             JsonToken current = jp.getCurrentToken();
 
@@ -675,6 +1035,15 @@ public class RecordEvent {
             gen.writeEndObject();
         }
 
+        /**
+         * Writes the binary format, see {@link RecordEvent#toBytes()}.
+         */
+        public void write(DataOutput output) {
+            writeSchemaId(id, output);
+            writeNullableBytes(oldValue, output);
+            writeNullableBytes(newValue, output);
+        }
+
         @Override
         public boolean equals(Object obj) {
             return EqualsBuilder.reflectionEquals(this, obj);
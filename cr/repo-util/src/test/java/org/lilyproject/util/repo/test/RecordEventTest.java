@@ -31,6 +31,7 @@ import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.util.repo.RecordEvent;
 import org.lilyproject.util.repo.RecordEvent.FieldChange;
 import org.lilyproject.util.repo.RecordEvent.IndexRecordFilterData;
+import org.lilyproject.util.repo.RecordEvent.RoutingHeader;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
@@ -170,6 +171,121 @@ public class RecordEventTest {
         assertEquals(filterData, doJsonRoundtrip(filterData));
     }
 
+    @Test
+    public void testRecordEvent_BinaryRoundTrip() throws Exception {
+        SchemaId field1Id = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId field2Id = idGenerator.getSchemaId(UUID.randomUUID());
+        SchemaId vtagId = idGenerator.getSchemaId(UUID.randomUUID());
+
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.UPDATE);
+        event.setTableName("_table_name_");
+        event.setVersionUpdated(3);
+        event.setRecordTypeChanged(true);
+        event.addUpdatedField(field1Id);
+        event.addUpdatedField(field2Id);
+        event.addVTagToIndex(vtagId);
+        event.getAttributes().put("key", "value");
+
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setNewRecordExists(true);
+        filterData.setNewRecordType(new SchemaIdImpl("newtype".getBytes()));
+        filterData.addChangedField(field1Id, null, Bytes.toBytes("foo1"));
+        filterData.addChangedField(field2Id, Bytes.toBytes("foo2"), new byte[0]);
+        filterData.setSubscriptionExclusions(Sets.newHashSet("indexA"));
+        event.setIndexRecordFilterData(filterData);
+
+        RecordEvent deserialized = new RecordEvent(event.toBytes(), idGenerator);
+
+        assertEquals(event, deserialized);
+        assertEquals(-1, deserialized.getVersionCreated());
+        assertEquals(filterData, deserialized.getIndexRecordFilterData());
+        assertArrayEquals(new byte[0], deserialized.getIndexRecordFilterData().getFieldChanges().get(1).getNewValue());
+    }
+
+    @Test
+    public void testRecordEvent_BinaryRoundTrip_Empty() throws Exception {
+        RecordEvent event = new RecordEvent();
+
+        RecordEvent deserialized = new RecordEvent(event.toBytes(), idGenerator);
+
+        assertEquals(event, deserialized);
+        assertNull(deserialized.getType());
+        assertNull(deserialized.getTableName());
+        assertNull(deserialized.getIndexRecordFilterData());
+        assertFalse(deserialized.hasAttributes());
+    }
+
+    @Test
+    public void testRecordEvent_BinarySmallerThanJson() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.CREATE);
+        event.setVersionCreated(1);
+        for (int i = 0; i < 10; i++) {
+            event.addUpdatedField(idGenerator.getSchemaId(UUID.randomUUID()));
+        }
+
+        assertTrue(event.toBytes().length < event.toJsonBytes().length);
+    }
+
+    @Test
+    public void testRoutingHeader() throws Exception {
+        RecordEvent event = new RecordEvent();
+        event.setType(RecordEvent.Type.CREATE);
+        event.getAttributes().put(RecordEvent.NO_INDEX_FLAG, "false");
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setNewRecordExists(true);
+        filterData.setSubscriptionInclusions(Sets.newHashSet("indexC", "indexA", "indexB"));
+        event.setIndexRecordFilterData(filterData);
+
+        // Read from the middle of a larger buffer, as is done with KeyValues
+        byte[] bytes = event.toBytes();
+        byte[] buffer = new byte[bytes.length + 10];
+        System.arraycopy(bytes, 0, buffer, 5, bytes.length);
+        RoutingHeader header = RoutingHeader.read(buffer, 5, bytes.length);
+
+        assertEquals(RecordEvent.Type.CREATE, header.getType());
+        assertTrue(header.hasNoIndexFlag());
+        assertTrue(header.hasIndexRecordFilterData());
+        assertTrue(header.appliesToSubscription("indexA"));
+        assertTrue(header.appliesToSubscription("indexC"));
+        assertFalse(header.appliesToSubscription("indexD"));
+
+        // The subscriptions are only stored in the header
+        assertEquals(filterData, new RecordEvent(bytes, idGenerator).getIndexRecordFilterData());
+    }
+
+    @Test
+    public void testRoutingHeader_Exclusions() throws Exception {
+        RecordEvent event = new RecordEvent();
+        IndexRecordFilterData filterData = new IndexRecordFilterData();
+        filterData.setSubscriptionExclusions(Sets.newHashSet("indexA"));
+        event.setIndexRecordFilterData(filterData);
+
+        byte[] bytes = event.toBytes();
+        RoutingHeader header = RoutingHeader.read(bytes, 0, bytes.length);
+
+        assertFalse(header.hasNoIndexFlag());
+        assertFalse(header.appliesToSubscription("indexA"));
+        assertTrue(header.appliesToSubscription("indexB"));
+    }
+
+    @Test
+    public void testRoutingHeader_NoFilterData() throws Exception {
+        byte[] bytes = new RecordEvent().toBytes();
+        RoutingHeader header = RoutingHeader.read(bytes, 0, bytes.length);
+
+        assertNull(header.getType());
+        assertFalse(header.hasIndexRecordFilterData());
+    }
+
+    @Test
+    public void testRoutingHeader_Json() throws Exception {
+        byte[] json = new RecordEvent().toJsonBytes();
+
+        assertNull(RoutingHeader.read(json, 0, json.length));
+    }
+
     @Test
     public void testAppliesToSubscription_DefaultCase() {
         IndexRecordFilterData filterData = new IndexRecordFilterData();
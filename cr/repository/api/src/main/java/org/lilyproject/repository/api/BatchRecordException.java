@@ -0,0 +1,139 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Thrown by the batch operations of {@link LTable} when some of the records of the batch could not be
+ * stored. The other records of the batch have been stored: a batch is not atomic.
+ *
+ * <p>The records are identified by their position in the list that was passed to the batch operation.</p>
+ */
+public class BatchRecordException extends RecordException {
+    private static final long serialVersionUID = 1L;
+
+    private final int size;
+    private final SortedMap<Integer, String> failures;
+    private final transient List<Record> records;
+
+    public BatchRecordException(String message, Map<String, String> state) {
+        super(message);
+        this.failures = new TreeMap<Integer, String>();
+        this.records = null;
+        String size = state != null ? state.get("size") : null;
+        if (size == null) {
+            // Incomplete state, getMessage() falls back to the message
+            this.size = -1;
+            return;
+        }
+        this.size = Integer.parseInt(size);
+        String failed = state.get("failed");
+        if (failed != null && failed.length() > 0) {
+            for (String index : failed.split(",")) {
+                failures.put(Integer.valueOf(index), state.get("failure." + index));
+            }
+        }
+    }
+
+    /**
+     * @param records the resulting records of the batch, with null at the positions of the records that failed
+     * @param failures the exceptions of the records that failed, by their position in the batch. The first
+     *                 one becomes the cause of this exception.
+     */
+    public BatchRecordException(List<Record> records, SortedMap<Integer, RepositoryException> failures) {
+        this.size = records.size();
+        this.records = Collections.unmodifiableList(new ArrayList<Record>(records));
+        this.failures = new TreeMap<Integer, String>();
+        for (Map.Entry<Integer, RepositoryException> failure : failures.entrySet()) {
+            this.failures.put(failure.getKey(), failure.getValue().toString());
+        }
+        if (!failures.isEmpty()) {
+            initCause(failures.get(failures.firstKey()));
+        }
+    }
+
+    /**
+     * Returns the error messages of the records that failed, by their position in the batch.
+     */
+    public SortedMap<Integer, String> getFailures() {
+        return Collections.unmodifiableSortedMap(failures);
+    }
+
+    /**
+     * Returns the resulting records of the batch, as they would have been returned by the batch operation, with
+     * null at the positions of the records that failed. This gives access to the ids and versions assigned to
+     * the records that were stored.
+     *
+     * <p>The records are only available when the exception was thrown within the same JVM. When it was received
+     * from a remote repository, this returns null and only the positions in {@link #getSucceeded()} are known.</p>
+     */
+    public List<Record> getRecords() {
+        return records;
+    }
+
+    /**
+     * Returns the positions in the batch of the records that were stored. Empty if the exception was received
+     * without the size of the batch.
+     */
+    public List<Integer> getSucceeded() {
+        List<Integer> succeeded = new ArrayList<Integer>(Math.max(size - failures.size(), 0));
+        for (int i = 0; i < size; i++) {
+            if (!failures.containsKey(i)) {
+                succeeded.add(i);
+            }
+        }
+        return succeeded;
+    }
+
+    @Override
+    public Map<String, String> getState() {
+        Map<String, String> state = new HashMap<String, String>();
+        if (size >= 0) {
+            state.put("size", String.valueOf(size));
+        }
+        StringBuilder failed = new StringBuilder();
+        for (Map.Entry<Integer, String> failure : failures.entrySet()) {
+            if (failed.length() > 0) {
+                failed.append(',');
+            }
+            failed.append(failure.getKey());
+            state.put("failure." + failure.getKey(), failure.getValue());
+        }
+        state.put("failed", failed.toString());
+        return state;
+    }
+
+    @Override
+    public String getMessage() {
+        if (size < 0) {
+            return super.getMessage();
+        }
+        StringBuilder message = new StringBuilder();
+        message.append(failures.size()).append(" of the ").append(size).append(" records of the batch failed, ")
+                .append("the other records were stored.");
+        for (Map.Entry<Integer, String> failure : failures.entrySet()) {
+            message.append(" Record ").append(failure.getKey()).append(": ").append(failure.getValue());
+        }
+        return message.toString();
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+/**
+ * Thrown by the field accessors of a {@link Record} read from the repository when the stored value of a field
+ * can not be decoded, e.g. because it is corrupt.
+ *
+ * <p>The repository can postpone decoding the field values of the records it reads until they are first
+ * accessed. A field that fails to decode is then not reported by the read operation, as a
+ * {@link RepositoryException}, but by methods such as {@link Record#getField(QName)} or
+ * {@link Record#getFields()}. The cause is the exception the decoding failed with.</p>
+ */
+public class FieldDecodingException extends RepositoryRuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    public FieldDecodingException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -204,6 +204,39 @@ public interface LTable {
      */
     Record createOrUpdate(Record record, boolean useLatestRecordType) throws RepositoryException, InterruptedException;
 
+    /**
+     * Creates or updates a list of records in one operation.
+     *
+     * <p>Each record is treated as by {@link #createOrUpdate(Record, boolean)}, including its optimistic
+     * concurrency control: the records are written independently of each other, the batch is not atomic.
+     * The benefit compared to calling createOrUpdate for each record is that the state of the existing
+     * records is read in one go, and that for remote clients the whole list is sent in one request.
+     *
+     * <p>The batch is not atomic. If some of the records fail, the other records are still processed and
+     * stored, after which a {@link BatchRecordException} is thrown which tells which records failed and
+     * which succeeded. Since createOrUpdate is idempotent, the batch can then simply be retried.
+     *
+     * @throws BatchRecordException if some of the records could not be stored
+     * @return the created or updated records, in the same order as the supplied records. The outcome for each
+     *         record is available via {@link Record#getResponseStatus()}.
+     */
+    List<Record> createOrUpdate(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException;
+
+    /**
+     * Updates a list of records in one operation.
+     *
+     * <p>Each record is treated as by {@link #update(Record, boolean, boolean)}. As for
+     * {@link #createOrUpdate(List, boolean)}, the batch is not atomic: the records that can be updated are
+     * updated, even if others fail.
+     *
+     * @throws BatchRecordException if some of the records could not be updated, e.g. because they do not exist
+     * @return the updated records, in the same order as the supplied records. The outcome for each
+     *         record is available via {@link Record#getResponseStatus()}.
+     */
+    List<Record> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException;
+
     /**
      * @param recordId   the id of the record to read, null is not allowed
      * @param fieldNames list of names of the fields to read or null to read all fields
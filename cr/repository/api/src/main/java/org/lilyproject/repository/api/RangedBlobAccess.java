@@ -0,0 +1,34 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.io.InputStream;
+
+/**
+ * A {@link BlobAccess} which can open an InputStream on a range of the blob.
+ *
+ * <p>Implementing this interface is optional. For other BlobAccess implementations, a range is read by
+ * skipping over the start of the InputStream of the complete blob.
+ */
+public interface RangedBlobAccess extends BlobAccess {
+    /**
+     * Opens an InputStream on a range of the blob.
+     *
+     * @param offset position of the first byte to read
+     * @param length maximum number of bytes to read, or -1 to read until the end of the blob
+     */
+    InputStream getInputStream(long offset, long length) throws BlobException;
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.api;
+
+import java.io.InputStream;
+
+/**
+ * A {@link BlobStoreAccess} which can read a range of a blob without reading the bytes before it.
+ *
+ * <p>Implementing this interface is optional. For blob stores which don't, a range is read by skipping over
+ * the start of the complete blob.
+ */
+public interface RangedBlobStoreAccess extends BlobStoreAccess {
+    /**
+     * Get an {@link InputStream} to read a range of the bytes stored for the given key.
+     *
+     * @param key a unique key identifying the written bytes on the blobstore, see {@link #getOutputStream(Blob)}
+     * @param offset position of the first byte to read
+     * @param length maximum number of bytes to read, or -1 to read until the end
+     *
+     * @return an InputStream from which the requested range of bytes can be read
+     * @throws BlobException when an unexpected exception occurred (e.g. an IOException of the underlying blobstore)
+     */
+    InputStream getInputStream(byte[] key, long offset, long length) throws BlobException;
+}
@@ -34,6 +34,8 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Sets;
 import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
@@ -66,12 +68,24 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
     private final CacheRefresher cacheRefresher = new CacheRefresher();
 
-    private FieldTypes fieldTypesSnapshot;
     private FieldTypesCache fieldTypesCache = new FieldTypesCache();
-    private volatile boolean updatedFieldTypes = false;
 
     private RecordTypesCache recordTypes = new RecordTypesCache();
 
+    /**
+     * Maximum number of entries in {@link #recordTypeVersions}.
+     */
+    private static final int RECORD_TYPE_VERSIONS_CACHE_SIZE = 1000;
+
+    /**
+     * Specific (usually older) versions of record types, as requested by clients which pin the version of
+     * the record type. A version of a record type is immutable, except for its name which is not versioned:
+     * the name is brought up to date when the entry is read.
+     */
+    private final Cache<Pair<SchemaId, Long>, RecordType> recordTypeVersions = CacheBuilder.newBuilder()
+            .maximumSize(RECORD_TYPE_VERSIONS_CACHE_SIZE)
+            .build();
+
     private Set<CacheWatcher> cacheWatchers = Collections.synchronizedSet(new HashSet<CacheWatcher>());
     private Map<String, Integer> bucketVersions = new ConcurrentHashMap<String, Integer>();
     private ParentWatcher parentWatcher = new ParentWatcher();
@@ -208,21 +222,11 @@ public abstract class AbstractSchemaCache implements SchemaCache {
 
     @Override
     public FieldTypes getFieldTypesSnapshot() throws InterruptedException {
-        if (!updatedFieldTypes) {
-            return fieldTypesSnapshot;
-        }
-        synchronized (this) {
-            if (updatedFieldTypes) {
-                fieldTypesSnapshot = fieldTypesCache.getSnapshot();
-                updatedFieldTypes = false;
-            }
-            return fieldTypesSnapshot;
-        }
+        return fieldTypesCache.getSnapshot();
     }
 
     public void updateFieldType(FieldType fieldType) throws TypeException, InterruptedException {
         fieldTypesCache.update(fieldType);
-        updatedFieldTypes = true;
     }
 
     public void updateRecordType(RecordType recordType) throws TypeException, InterruptedException {
@@ -241,6 +245,30 @@ public abstract class AbstractSchemaCache implements SchemaCache {
         return recordTypes.getRecordType(id);
     }
 
+    @Override
+    public RecordType getRecordTypeVersion(SchemaId id, long version) {
+        Pair<SchemaId, Long> key = new Pair<SchemaId, Long>(id, version);
+        RecordType recordType = recordTypeVersions.getIfPresent(key);
+        if (recordType != null) {
+            // A rename applies to all versions of the record type. The cached entry is replaced rather than
+            // modified, since it is shared.
+            RecordType latest = recordTypes.getRecordType(id);
+            if (latest != null && !latest.getName().equals(recordType.getName())) {
+                recordType = recordType.clone();
+                recordType.setName(latest.getName());
+                recordTypeVersions.put(key, recordType);
+            }
+        }
+        return recordType;
+    }
+
+    @Override
+    public void putRecordTypeVersion(RecordType recordType) {
+        // Clone the RecordType to avoid changes to it while it is in the cache
+        RecordType rtToCache = recordType.clone();
+        recordTypeVersions.put(new Pair<SchemaId, Long>(rtToCache.getId(), rtToCache.getVersion()), rtToCache);
+    }
+
     public FieldType getFieldType(QName name) throws InterruptedException, TypeException {
         return fieldTypesCache.getFieldType(name);
     }
@@ -345,7 +373,6 @@ public abstract class AbstractSchemaCache implements SchemaCache {
             // Read all types in one go
             Pair<List<FieldType>, List<RecordType>> types = getTypeManager().getTypesWithoutCache();
             fieldTypesCache.refreshFieldTypes(types.getV1());
-            updatedFieldTypes = true;
             recordTypes.refreshRecordTypes(types.getV2());
         } else {
             // Only the changed buckets need to be refreshed.
@@ -387,7 +414,6 @@ public abstract class AbstractSchemaCache implements SchemaCache {
                 bucketVersions.put(entry.getKey(), entry.getValue());
                 TypeBucket typeBucket = getTypeManager().getTypeBucketWithoutCache(entry.getKey());
                 fieldTypesCache.refreshFieldTypeBucket(typeBucket);
-                updatedFieldTypes = true;
                 recordTypes.refreshRecordTypeBucket(typeBucket);
             }
         }
@@ -442,7 +468,6 @@ public abstract class AbstractSchemaCache implements SchemaCache {
             fieldTypesCache.refreshFieldTypeBucket(typeBucket);
             recordTypes.refreshRecordTypeBucket(typeBucket);
         }
-        updatedFieldTypes = true;
     }
 
     private void watchPathsForExistence() throws InterruptedException {
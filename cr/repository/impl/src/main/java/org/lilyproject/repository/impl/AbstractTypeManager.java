@@ -121,9 +121,9 @@ public abstract class AbstractTypeManager implements TypeManager {
         if (recordType == null) {
             throw new RecordTypeNotFoundException(id, version);
         }
-        // The cache only keeps the latest (known) RecordType
+        // The main cache only keeps the latest (known) RecordType, other versions are cached separately
         if (version != null && !version.equals(recordType.getVersion())) {
-            recordType = getRecordTypeByIdWithoutCache(id, version);
+            recordType = getRecordTypeVersion(id, version);
         }
         if (recordType == null) {
             throw new RecordTypeNotFoundException(id, version);
@@ -138,9 +138,9 @@ public abstract class AbstractTypeManager implements TypeManager {
         if (recordType == null) {
             throw new RecordTypeNotFoundException(name, version);
         }
-        // The cache only keeps the latest (known) RecordType
+        // The main cache only keeps the latest (known) RecordType, other versions are cached separately
         if (version != null && !version.equals(recordType.getVersion())) {
-            recordType = getRecordTypeByIdWithoutCache(recordType.getId(), version);
+            recordType = getRecordTypeVersion(recordType.getId(), version);
         }
         if (recordType == null) {
             throw new RecordTypeNotFoundException(name, version);
@@ -148,6 +148,24 @@ public abstract class AbstractTypeManager implements TypeManager {
         return recordType.clone();
     }
 
+    /**
+     * Gets a specific version of a record type, from the cache of record type versions if possible,
+     * otherwise it is read without cache and added to that cache.
+     *
+     * <p>The returned object is shared, it should be cloned before handing it out.</p>
+     */
+    private RecordType getRecordTypeVersion(SchemaId id, long version) throws RepositoryException,
+            InterruptedException {
+        RecordType recordType = schemaCache.getRecordTypeVersion(id, version);
+        if (recordType == null) {
+            recordType = getRecordTypeByIdWithoutCache(id, version);
+            if (recordType != null) {
+                schemaCache.putRecordTypeVersion(recordType);
+            }
+        }
+        return recordType;
+    }
+
     @Override
     public Set<QName> findSubtypes(QName recordTypeName) throws InterruptedException, RepositoryException {
         return findSubTypes(recordTypeName, true);
@@ -457,6 +457,59 @@ public abstract class BaseRepository implements Repository {
         }
     }
 
+    /**
+     * Reads the latest version of a number of records together with their occ bytes, using one multi-get.
+     *
+     * @param fieldsByRecordId the records to read, mapped onto the fields to read for each of them. A null
+     *                         or empty list of fields reads all fields.
+     * @return the records and their occ bytes. Records which do not exist or are deleted are not contained
+     *         in this map.
+     */
+    protected Map<RecordId, Pair<Record, byte[]>> readWithOcc(Map<RecordId, List<FieldType>> fieldsByRecordId,
+            FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            Map<RecordId, Pair<Record, byte[]>> records = new HashMap<RecordId, Pair<Record, byte[]>>();
+            if (fieldsByRecordId.isEmpty()) {
+                return records;
+            }
+
+            List<RecordId> recordIds = new ArrayList<RecordId>(fieldsByRecordId.keySet());
+            Result[] results;
+            try {
+                List<Get> gets = new ArrayList<Get>(recordIds.size());
+                for (RecordId recordId : recordIds) {
+                    Get get = new Get(recordId.toBytes());
+                    get.setFilter(REAL_RECORDS_FILTER);
+                    addFieldsToGet(get, fieldsByRecordId.get(recordId));
+                    get.setMaxVersions(1);
+                    gets.add(get);
+                }
+                results = recordTable.get(gets);
+            } catch (IOException e) {
+                throw new RecordException("Exception occurred while retrieving records '" + recordIds
+                        + "' from HBase table", e);
+            }
+
+            for (int i = 0; i < results.length; i++) {
+                Result result = results[i];
+                if (result == null || result.isEmpty()) {
+                    continue;
+                }
+                RecordId recordId = recordIds.get(i);
+                Long version = recdec.getLatestVersion(result);
+                byte[] occBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+                records.put(recordId, new Pair<Record, byte[]>(
+                        recdec.decodeRecord(recordId, version, null, result, fieldTypes), occBytes));
+            }
+            return records;
+        } finally {
+            if (metrics != null) {
+                metrics.report(Action.READ, System.currentTimeMillis() - before);
+            }
+        }
+    }
+
     private List<Record> read(List<RecordId> recordIds, List<FieldType> fields, FieldTypes fieldTypes)
             throws RepositoryException, InterruptedException {
         long before = System.currentTimeMillis();
@@ -15,14 +15,18 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.io.IOException;
 import java.io.InputStream;
 
+import org.apache.commons.codec.binary.Hex;
 import org.lilyproject.repository.api.Blob;
-import org.lilyproject.repository.api.BlobAccess;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.RangedBlobAccess;
+import org.lilyproject.repository.api.RangedBlobStoreAccess;
+import org.lilyproject.util.io.IOUtils;
 
-public class BlobAccessImpl implements BlobAccess {
+public class BlobAccessImpl implements RangedBlobAccess {
     private Blob blob;
     private BlobStoreAccess blobStoreAccess;
     private byte[] blobKey;
@@ -42,4 +46,17 @@ public class BlobAccessImpl implements BlobAccess {
     public InputStream getInputStream() throws BlobException {
         return blobStoreAccess.getInputStream(blobKey);
     }
+
+    @Override
+    public InputStream getInputStream(long offset, long length) throws BlobException {
+        if (blobStoreAccess instanceof RangedBlobStoreAccess) {
+            return ((RangedBlobStoreAccess)blobStoreAccess).getInputStream(blobKey, offset, length);
+        }
+        try {
+            return IOUtils.range(blobStoreAccess.getInputStream(blobKey), offset, length);
+        } catch (IOException e) {
+            throw new BlobException("Failed to skip to offset " + offset + " of blob with key '"
+                    + Hex.encodeHexString(blobKey) + "'", e);
+        }
+    }
 }
@@ -15,13 +15,21 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import org.apache.hadoop.metrics.MetricsContext;
 import org.apache.hadoop.metrics.MetricsRecord;
 import org.apache.hadoop.metrics.MetricsUtil;
 import org.apache.hadoop.metrics.Updater;
 import org.apache.hadoop.metrics.util.MetricsBase;
+import org.apache.hadoop.metrics.util.MetricsIntValue;
 import org.apache.hadoop.metrics.util.MetricsRegistry;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingInt;
 import org.apache.hadoop.metrics.util.MetricsTimeVaryingRate;
@@ -29,6 +37,7 @@ import org.lilyproject.util.hbase.metrics.MBeanUtil;
 import org.lilyproject.util.hbase.metrics.MetricsDynamicMBeanBase;
 
 public class BlobIncubatorMetrics implements Updater {
+    private final Log log = LogFactory.getLog(getClass());
     private final MetricsRegistry registry = new MetricsRegistry();
     private final MetricsRecord metricsRecord;
     private final BlobIncubatorMetricsMXBean mbean;
@@ -41,6 +50,19 @@ public class BlobIncubatorMetrics implements Updater {
     public MetricsTimeVaryingInt blobDeleteCount = new MetricsTimeVaryingInt("blob_delete_cnt", registry);
     public MetricsTimeVaryingInt refDeleteCount = new MetricsTimeVaryingInt("ref_delete_cnt", registry);
 
+    /**
+     * Reservation of the blobs used by one record create or update.
+     */
+    public MetricsTimeVaryingRate reserveDuration = new MetricsTimeVaryingRate("reserve_duration", registry);
+    public MetricsTimeVaryingInt reserveFailedCount = new MetricsTimeVaryingInt("reserve_failed_cnt", registry);
+
+    /**
+     * Removal of the references to blobs which are in use, done asynchronously after record writes.
+     */
+    public MetricsTimeVaryingRate refCleanupDuration = new MetricsTimeVaryingRate("ref_cleanup_duration", registry);
+    public MetricsTimeVaryingInt refCleanupCount = new MetricsTimeVaryingInt("ref_cleanup_cnt", registry);
+    public MetricsIntValue refCleanupQueueSize = new MetricsIntValue("ref_cleanup_queue_size", registry);
+
     public BlobIncubatorMetrics() {
         context = MetricsUtil.getContext("blobIncubator");
         metricsRecord = MetricsUtil.createRecord(context, "blobIncubator");
@@ -64,12 +86,37 @@ public class BlobIncubatorMetrics implements Updater {
     }
 
     public class BlobIncubatorMetricsMXBean extends MetricsDynamicMBeanBase {
+        private static final int MAX_MBEAN_NAMES = 100;
         private final ObjectName mbeanName;
 
         public BlobIncubatorMetricsMXBean(MetricsRegistry registry) {
             super(registry, "Lily Blob Incubator");
 
-            mbeanName = MBeanUtil.registerMBean("Blob Incubator", "blobIncubator", this);
+            mbeanName = register();
+        }
+
+        /**
+         * There can be several blob managers in one JVM, e.g. in tests, each gets its own MBean. Another name
+         * is only tried when the previous one is already taken.
+         */
+        private ObjectName register() {
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            for (int i = 1; i <= MAX_MBEAN_NAMES; i++) {
+                String nameName = i == 1 ? "blobIncubator" : "blobIncubator" + i;
+                ObjectName name = MBeanUtil.registerMBean("Blob Incubator", nameName, this);
+                if (name != null) {
+                    return name;
+                }
+                try {
+                    if (!mbeanServer.isRegistered(new ObjectName("Lily:service=Blob Incubator,name=" + nameName))) {
+                        break;
+                    }
+                } catch (MalformedObjectNameException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            log.warn("Could not register the blob incubator metrics MBean.");
+            return null;
         }
 
         public void shutdown() {
@@ -60,7 +60,7 @@ import org.lilyproject.util.zookeeper.ZooKeeperItf;
 
 public class BlobIncubatorMonitor {
     private Log log = LogFactory.getLog(getClass());
-    private BlobIncubatorMetrics metrics = new BlobIncubatorMetrics();
+    private final BlobIncubatorMetrics metrics;
     private final ZooKeeperItf zk;
     private LeaderElection leaderElection;
     private final long minimalAge;
@@ -82,6 +82,11 @@ public class BlobIncubatorMonitor {
         this.monitorDelay = monitorDelay;
         this.runDelay = runDelay;
 
+        // Report together with the incubator bookkeeping done by the blob manager for record writes
+        BlobIncubatorMetrics blobManagerMetrics = blobManager instanceof BlobManagerImpl ?
+                ((BlobManagerImpl)blobManager).getMetrics() : null;
+        this.metrics = blobManagerMetrics != null ? blobManagerMetrics : new BlobIncubatorMetrics();
+
         this.blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(tableFactory, false);
 
         this.tableFactory = tableFactory;
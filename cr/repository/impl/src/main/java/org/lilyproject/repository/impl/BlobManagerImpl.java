@@ -15,13 +15,19 @@
  */
 package org.lilyproject.repository.impl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.primitives.Ints;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -43,12 +49,13 @@ import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.ValueType;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.util.Logs;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
 import org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorCf;
 import org.lilyproject.util.hbase.LilyHBaseSchema.BlobIncubatorColumn;
 
-public class BlobManagerImpl implements BlobManager {
+public class BlobManagerImpl implements BlobManager, Closeable {
     private Log log = LogFactory.getLog(getClass());
 
     protected static final byte[] INCUBATE = new byte[]{(byte)-1};
@@ -56,10 +63,71 @@ public class BlobManagerImpl implements BlobManager {
 
     private BlobStoreAccessRegistry registry;
 
+    /**
+     * Only available when not in client mode.
+     */
+    private BlobIncubatorMetrics metrics;
+
+    /**
+     * Rows of the blob incubator table which can be deleted because their blob is now used by a record. Deleting
+     * these is not needed for correctness: the {@link BlobIncubatorMonitor} removes any leftover references once
+     * they reach the incubation timeout. It is therefore done asynchronously and in batches.
+     */
+    private final BlockingQueue<byte[]> referenceCleanupQueue;
+    private ReferenceCleanupThread referenceCleanupThread;
+
+    private static final int REFERENCE_CLEANUP_QUEUE_CAPACITY = 100000;
+    private static final int REFERENCE_CLEANUP_BATCH_SIZE = 1000;
+    private static final long REFERENCE_CLEANUP_POLL_MILLIS = 500;
+
     public BlobManagerImpl(HBaseTableFactory hbaseTableFactory, BlobStoreAccessFactory blobStoreAccessFactory, boolean clientMode) throws IOException, InterruptedException {
+        this(hbaseTableFactory, blobStoreAccessFactory, clientMode, REFERENCE_CLEANUP_QUEUE_CAPACITY);
+    }
+
+    @VisibleForTesting
+    BlobManagerImpl(HBaseTableFactory hbaseTableFactory, BlobStoreAccessFactory blobStoreAccessFactory,
+            boolean clientMode, int referenceCleanupQueueCapacity) throws IOException, InterruptedException {
+        referenceCleanupQueue = new LinkedBlockingQueue<byte[]>(referenceCleanupQueueCapacity);
         blobIncubatorTable = LilyHBaseSchema.getBlobIncubatorTable(hbaseTableFactory, clientMode);
         registry = new BlobStoreAccessRegistry(this);
         registry.setBlobStoreAccessFactory(blobStoreAccessFactory);
+
+        // Records are only written in the server, clients only need to upload blobs
+        if (!clientMode) {
+            metrics = new BlobIncubatorMetrics();
+            referenceCleanupThread = new ReferenceCleanupThread();
+            referenceCleanupThread.start();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (referenceCleanupThread != null) {
+            referenceCleanupThread.shutdown();
+            try {
+                Logs.logThreadJoin(referenceCleanupThread);
+                referenceCleanupThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            referenceCleanupThread = null;
+
+            // Don't leave the queued references to the monitor if they can still be deleted right away
+            List<byte[]> rows = new ArrayList<byte[]>();
+            referenceCleanupQueue.drainTo(rows);
+            deleteReferences(rows);
+        }
+
+        if (metrics != null) {
+            metrics.shutdown();
+        }
+    }
+
+    /**
+     * Returns null in client mode.
+     */
+    public BlobIncubatorMetrics getMetrics() {
+        return metrics;
     }
 
     @Override
@@ -94,11 +162,15 @@ public class BlobManagerImpl implements BlobManager {
 
     @Override
     public Set<BlobReference> reserveBlobs(Set<BlobReference> blobs) throws IOException {
+        long before = System.currentTimeMillis();
         Set<BlobReference> failedBlobs = new HashSet<BlobReference>();
+
+        // Inline blobs are not incubated and therefore reserving them always succeeds
+        List<BlobReference> incubatedBlobs = new ArrayList<BlobReference>(blobs.size());
         for (BlobReference referencedBlob : blobs) {
             try {
-                if (!reserveBlob(referencedBlob)) {
-                    failedBlobs.add(referencedBlob);
+                if (registry.getBlobStoreAccess(referencedBlob.getBlob()).incubate()) {
+                    incubatedBlobs.add(referencedBlob);
                 }
             } catch (BlobNotFoundException bnfe) {
                 failedBlobs.add(referencedBlob);
@@ -106,16 +178,23 @@ public class BlobManagerImpl implements BlobManager {
                 failedBlobs.add(referencedBlob);
             }
         }
-        return failedBlobs;
-    }
 
-    private boolean reserveBlob(BlobReference referencedBlob)  throws BlobNotFoundException, BlobException, IOException {
-        BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(referencedBlob.getBlob());
+        // One atomic checkAndPut per blob: it fails for blobs which are not incubating anymore, typically because
+        // they are already used by the record, and ensures a blob can't be claimed by two records
+        for (BlobReference referencedBlob : incubatedBlobs) {
+            if (!reserveBlob(referencedBlob)) {
+                failedBlobs.add(referencedBlob);
+            }
+        }
 
-        // Inline blobs are not incubated and therefore reserving them always succeeds
-        if (!blobStoreAccess.incubate()) {
-            return true;
+        if (metrics != null) {
+            metrics.reserveDuration.inc(System.currentTimeMillis() - before);
+            metrics.reserveFailedCount.inc(failedBlobs.size());
         }
+        return failedBlobs;
+    }
+
+    private boolean reserveBlob(BlobReference referencedBlob) throws IOException {
         byte[] row = referencedBlob.getBlob().getValue();
         byte[] family = BlobIncubatorCf.REF.bytes;
         byte[] recordQualifier = BlobIncubatorColumn.RECORD.bytes;
@@ -130,25 +209,25 @@ public class BlobManagerImpl implements BlobManager {
     public void handleBlobReferences(RecordId recordId, Set<BlobReference> referencedBlobs, Set<BlobReference> unReferencedBlobs) {
         // Remove references from the blobIncubator for the blobs that are still referenced.
         if (referencedBlobs != null) {
-            try {
-                for (BlobReference blobReference : referencedBlobs) {
-                    try {
-                        BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(blobReference.getBlob());
-                        // Only delete from the blobIncubatorTable if incubation applies
-                        if (blobStoreAccess.incubate()) {
-                            blobIncubatorTable.delete(new Delete(blobReference.getBlob().getValue()));
+            List<byte[]> rows = new ArrayList<byte[]>();
+            for (BlobReference blobReference : referencedBlobs) {
+                try {
+                    BlobStoreAccess blobStoreAccess = registry.getBlobStoreAccess(blobReference.getBlob());
+                    // Only delete from the blobIncubatorTable if incubation applies
+                    if (blobStoreAccess.incubate()) {
+                        byte[] row = blobReference.getBlob().getValue();
+                        if (referenceCleanupThread == null || !referenceCleanupQueue.offer(row)) {
+                            rows.add(row);
                         }
-                    } catch (BlobNotFoundException bnfe) {
-                        // TODO
-                    } catch (BlobException be) {
-                        // TODO
                     }
+                } catch (BlobNotFoundException bnfe) {
+                    // TODO
+                } catch (BlobException be) {
+                    // TODO
                 }
-            } catch (IOException e) {
-                // We do a best effort to remove the blobs from the blobIncubator
-                // If it fails a background cleanup process will notice this later and clean it up
-                log.info("Failed to remove blobs from the blobIncubator for record '" + recordId + "'", e);
             }
+            // Only when the asynchronous cleanup is not available or can't keep up
+            deleteReferences(rows);
         }
 
         // Remove blobs that are no longer referenced.
@@ -213,4 +292,67 @@ public class BlobManagerImpl implements BlobManager {
     public void delete(byte[] blobKey) throws BlobException {
         registry.delete(blobKey);
     }
+
+    private void deleteReferences(List<byte[]> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+
+        long before = System.currentTimeMillis();
+        List<Delete> deletes = new ArrayList<Delete>(rows.size());
+        for (byte[] row : rows) {
+            deletes.add(new Delete(row));
+        }
+        try {
+            blobIncubatorTable.delete(deletes);
+        } catch (IOException e) {
+            // We do a best effort to remove the blobs from the blobIncubator
+            // If it fails a background cleanup process will notice this later and clean it up
+            log.info("Failed to remove " + deletes.size() + " blob references from the blobIncubator", e);
+        }
+
+        if (metrics != null) {
+            metrics.refCleanupDuration.inc(System.currentTimeMillis() - before);
+            // Failed deletes are left in the list
+            metrics.refCleanupCount.inc(rows.size() - deletes.size());
+        }
+    }
+
+    private class ReferenceCleanupThread extends Thread {
+        private volatile boolean stopRequested = false;
+
+        ReferenceCleanupThread() {
+            super("BlobIncubatorReferenceCleanup");
+            setDaemon(true);
+        }
+
+        /**
+         * Stops the thread once it is done with the batch it is deleting. The thread is not interrupted, that
+         * would abort the delete in progress.
+         */
+        public void shutdown() {
+            stopRequested = true;
+        }
+
+        @Override
+        public void run() {
+            while (!stopRequested) {
+                try {
+                    byte[] row = referenceCleanupQueue.poll(REFERENCE_CLEANUP_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (row == null) {
+                        continue;
+                    }
+                    List<byte[]> rows = new ArrayList<byte[]>();
+                    rows.add(row);
+                    referenceCleanupQueue.drainTo(rows, REFERENCE_CLEANUP_BATCH_SIZE - 1);
+                    metrics.refCleanupQueueSize.set(referenceCleanupQueue.size());
+                    deleteReferences(rows);
+                } catch (InterruptedException e) {
+                    break;
+                } catch (Throwable t) {
+                    log.error("Error in blob incubator reference cleanup", t);
+                }
+            }
+        }
+    }
 }
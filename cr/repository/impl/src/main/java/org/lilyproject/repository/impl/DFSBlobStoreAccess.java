@@ -21,16 +21,19 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.UUID;
 
+import com.google.common.io.ByteStreams;
 import org.apache.commons.codec.binary.Hex;
+import org.apache.hadoop.fs.FSDataInputStream;
 import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.RangedBlobStoreAccess;
+import org.lilyproject.util.io.Closer;
 
-public class DFSBlobStoreAccess implements BlobStoreAccess {
+public class DFSBlobStoreAccess implements RangedBlobStoreAccess {
 
     private static final String ID = "HDFS";
 
@@ -76,6 +79,22 @@ public class DFSBlobStoreAccess implements BlobStoreAccess {
         }
     }
 
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset, long length) throws BlobException {
+        UUID uuid = decode(blobKey);
+        FSDataInputStream is = null;
+        try {
+            is = fileSystem.open(createPath(uuid));
+            if (offset > 0) {
+                is.seek(offset);
+            }
+        } catch (IOException e) {
+            Closer.close(is);
+            throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' on the DFS blobstore", e);
+        }
+        return length == -1 ? is : ByteStreams.limit(is, length);
+    }
+
     private Path createPath(UUID uuid) {
         String fileName = uuid.toString();
         String dirLevel1 = fileName.substring(0, 2);
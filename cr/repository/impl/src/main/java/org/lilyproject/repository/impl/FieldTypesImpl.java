@@ -16,13 +16,12 @@
 package org.lilyproject.repository.impl;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeNotFoundException;
 import org.lilyproject.repository.api.FieldTypes;
@@ -30,28 +29,58 @@ import org.lilyproject.repository.api.QName;
 import org.lilyproject.repository.api.SchemaId;
 import org.lilyproject.util.ArgumentValidator;
 
+/**
+ * An immutable set of field types, which can be looked up by id and by name.
+ *
+ * <p>The field types are spread over a fixed number of buckets, both for the lookup by id (the bucket is
+ * the first byte of the id, as for the buckets of the schema cache) and the lookup by name. A new
+ * FieldTypesImpl with some field types added or replaced is made with a {@link Builder}, which only copies
+ * the buckets that change and shares all other buckets with the FieldTypesImpl it started from. This makes
+ * it cheap for {@link FieldTypesCache} to publish a new snapshot after each change.</p>
+ */
 public class FieldTypesImpl implements FieldTypes {
-    private Log log = LogFactory.getLog(getClass());
+    private static final int BUCKET_COUNT = 256;
 
-    // Always use getNameCache() instead of this variable directly, to make sure
-    // this is the up-to-date nameCache (in case of FieldTypesCache).
-    protected Map<QName, FieldType> nameCache;
-    protected Map<String, Map<SchemaId, FieldType>> buckets;
+    @SuppressWarnings("unchecked")
+    private static final FieldTypesImpl EMPTY = new FieldTypesImpl(new Map[BUCKET_COUNT], new Map[BUCKET_COUNT]);
+
+    static {
+        Arrays.fill(EMPTY.idBuckets, Collections.emptyMap());
+        Arrays.fill(EMPTY.nameBuckets, Collections.emptyMap());
+    }
+
+    // Neither these arrays nor the maps in them are modified after construction.
+    private final Map<SchemaId, FieldType>[] idBuckets;
+    private final Map<QName, FieldType>[] nameBuckets;
+
+    private FieldTypesImpl(Map<SchemaId, FieldType>[] idBuckets, Map<QName, FieldType>[] nameBuckets) {
+        this.idBuckets = idBuckets;
+        this.nameBuckets = nameBuckets;
+    }
 
-    public FieldTypesImpl() {
-        nameCache = new HashMap<QName, FieldType>();
-        buckets = new ConcurrentHashMap<String, Map<SchemaId, FieldType>>();
+    /**
+     * Returns a FieldTypesImpl without any field types.
+     */
+    public static FieldTypesImpl empty() {
+        return EMPTY;
     }
 
-    protected Map<QName, FieldType> getNameCache() throws InterruptedException {
-        return nameCache;
+    private static int idBucket(SchemaId id) {
+        return id.getBytes()[0] & 0xFF;
+    }
+
+    private static int nameBucket(QName name) {
+        int hash = name.hashCode();
+        return (hash ^ (hash >>> 16)) & (BUCKET_COUNT - 1);
     }
 
     @Override
-    public List<FieldType> getFieldTypes() throws InterruptedException {
+    public List<FieldType> getFieldTypes() {
         List<FieldType> fieldTypes = new ArrayList<FieldType>();
-        for (FieldType fieldType : getNameCache().values()) {
-            fieldTypes.add(fieldType.clone());
+        for (Map<QName, FieldType> bucket : nameBuckets) {
+            for (FieldType fieldType : bucket.values()) {
+                fieldTypes.add(fieldType.clone());
+            }
         }
         return fieldTypes;
     }
@@ -59,13 +88,7 @@ public class FieldTypesImpl implements FieldTypes {
     @Override
     public FieldType getFieldType(SchemaId id) throws FieldTypeNotFoundException {
         ArgumentValidator.notNull(id, "id");
-        String bucket = AbstractSchemaCache.encodeHex(id.getBytes());
-
-        Map<SchemaId, FieldType> fieldTypeIdCacheBucket = buckets.get(bucket);
-        if (fieldTypeIdCacheBucket == null) {
-            throw new FieldTypeNotFoundException(id);
-        }
-        FieldType fieldType = fieldTypeIdCacheBucket.get(id);
+        FieldType fieldType = idBuckets[idBucket(id)].get(id);
         if (fieldType == null) {
             throw new FieldTypeNotFoundException(id);
         }
@@ -73,22 +96,81 @@ public class FieldTypesImpl implements FieldTypes {
     }
 
     @Override
-    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException, InterruptedException {
+    public FieldType getFieldType(QName name) throws FieldTypeNotFoundException {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = nameBuckets[nameBucket(name)].get(name);
         if (fieldType == null) {
             throw new FieldTypeNotFoundException(name);
         }
         return fieldType.clone();
     }
 
-    public FieldType getFieldTypeByNameReturnNull(QName name) throws InterruptedException {
+    public FieldType getFieldTypeByNameReturnNull(QName name) {
         ArgumentValidator.notNull(name, "name");
-        FieldType fieldType = getNameCache().get(name);
+        FieldType fieldType = nameBuckets[nameBucket(name)].get(name);
         return fieldType != null ? fieldType.clone() : null;
     }
 
-    public boolean fieldTypeExists(QName name) throws InterruptedException {
-        return getNameCache().containsKey(name);
+    public boolean fieldTypeExists(QName name) {
+        return nameBuckets[nameBucket(name)].containsKey(name);
+    }
+
+    /**
+     * Builds a new FieldTypesImpl starting from the field types of an existing one.
+     */
+    public static class Builder {
+        private final Map<SchemaId, FieldType>[] idBuckets;
+        private final Map<QName, FieldType>[] nameBuckets;
+        // Which buckets have already been copied, and can thus be modified
+        private final boolean[] copiedIdBuckets = new boolean[BUCKET_COUNT];
+        private final boolean[] copiedNameBuckets = new boolean[BUCKET_COUNT];
+
+        public Builder(FieldTypesImpl base) {
+            idBuckets = base.idBuckets.clone();
+            nameBuckets = base.nameBuckets.clone();
+        }
+
+        /**
+         * Adds a field type, replacing the field type with the same id if there is one. The field type
+         * should not be modified anymore afterwards.
+         */
+        public Builder put(FieldType fieldType) {
+            SchemaId id = fieldType.getId();
+            FieldType oldFieldType = idBucketForUpdate(idBucket(id)).put(id, fieldType);
+
+            // When the field type was renamed, the old name should not refer to it anymore
+            if (oldFieldType != null && !oldFieldType.getName().equals(fieldType.getName())) {
+                QName oldName = oldFieldType.getName();
+                FieldType byOldName = nameBuckets[nameBucket(oldName)].get(oldName);
+                if (byOldName != null && byOldName.getId().equals(id)) {
+                    nameBucketForUpdate(nameBucket(oldName)).remove(oldName);
+                }
+            }
+            nameBucketForUpdate(nameBucket(fieldType.getName())).put(fieldType.getName(), fieldType);
+            return this;
+        }
+
+        private Map<SchemaId, FieldType> idBucketForUpdate(int bucket) {
+            if (!copiedIdBuckets[bucket]) {
+                idBuckets[bucket] = new HashMap<SchemaId, FieldType>(idBuckets[bucket]);
+                copiedIdBuckets[bucket] = true;
+            }
+            return idBuckets[bucket];
+        }
+
+        private Map<QName, FieldType> nameBucketForUpdate(int bucket) {
+            if (!copiedNameBuckets[bucket]) {
+                nameBuckets[bucket] = new HashMap<QName, FieldType>(nameBuckets[bucket]);
+                copiedNameBuckets[bucket] = true;
+            }
+            return nameBuckets[bucket];
+        }
+
+        /**
+         * Creates the new FieldTypesImpl. The builder should not be used anymore afterwards.
+         */
+        public FieldTypesImpl build() {
+            return new FieldTypesImpl(idBuckets, nameBuckets);
+        }
     }
 }
@@ -20,6 +20,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 
 import org.apache.commons.codec.binary.Hex;
@@ -34,20 +36,43 @@ import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.RangedBlobStoreAccess;
 import org.lilyproject.util.hbase.HBaseTableFactory;
 import org.lilyproject.util.hbase.HBaseTableFactoryImpl;
 
-public class HBaseBlobStoreAccess implements BlobStoreAccess {
+/**
+ * Stores blobs in an HBase table.
+ *
+ * <p>Blobs are split in chunks of a fixed size, each chunk is stored in its own row. The first chunk is stored
+ * in the row of the blob key, together with the size of the blob and the chunk size. The other chunks are stored
+ * in rows keyed by the blob key followed by the chunk number. This way, neither writing nor reading a blob needs
+ * to keep more than one chunk in memory, and reading a range of a blob only needs to read the chunks
+ * overlapping with that range.</p>
+ *
+ * <p>Blobs written by older versions are stored as one value in the row of the blob key, without size or chunk
+ * size columns. These can still be read and deleted.</p>
+ *
+ * <p>The chunks after the first one are written while the blob is being written, the row of the blob key only
+ * when the output stream is closed. The blob is only registered in the blob incubator after that, since its key
+ * is only returned on close. An output stream that is never closed therefore leaves chunk rows behind which
+ * nothing refers to and which are not cleaned up, just like the partial file an unclosed output stream of the
+ * {@link DFSBlobStoreAccess} leaves behind.</p>
+ */
+public class HBaseBlobStoreAccess implements RangedBlobStoreAccess {
 
     private static final byte[] BLOB_TABLE = Bytes.toBytes("blob");
     private static final String ID = "HBASE";
     private static final String BLOBS_COLUMN_FAMILY = "data";
     private static final byte[] BLOBS_COLUMN_FAMILY_BYTES = Bytes.toBytes(BLOBS_COLUMN_FAMILY);
     private static final byte[] BLOB_COLUMN = Bytes.toBytes("b");
+    private static final byte[] SIZE_COLUMN = Bytes.toBytes("s");
+    private static final byte[] CHUNK_SIZE_COLUMN = Bytes.toBytes("c");
+
+    public static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
 
     private boolean clientMode = false;
     private HTableInterface table;
+    private final int chunkSize;
 
     public HBaseBlobStoreAccess(Configuration hbaseConf) throws IOException, InterruptedException {
         this(hbaseConf, false);
@@ -62,6 +87,20 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
     }
 
     public HBaseBlobStoreAccess(HBaseTableFactory tableFactory, boolean clientMode) throws IOException, InterruptedException {
+        this(tableFactory, clientMode, DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param chunkSize the size of the chunks in which newly written blobs are split. Existing blobs are always
+     *                  read using the chunk size they were written with.
+     */
+    public HBaseBlobStoreAccess(HBaseTableFactory tableFactory, boolean clientMode, int chunkSize)
+            throws IOException, InterruptedException {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size should be positive, got: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+
         HTableDescriptor tableDescriptor = new HTableDescriptor(BLOB_TABLE);
         tableDescriptor.addFamily(new HColumnDescriptor(BLOBS_COLUMN_FAMILY));
 
@@ -78,33 +117,80 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         UUID uuid = UUID.randomUUID();
         byte[] blobKey = Bytes.toBytes(uuid.getMostSignificantBits());
         blobKey = Bytes.add(blobKey, Bytes.toBytes(uuid.getLeastSignificantBits()));
-        return new HBaseBlobOutputStream(table, blobKey, blob);
+        return new HBaseBlobOutputStream(table, blobKey, blob, chunkSize);
     }
 
     @Override
     public InputStream getInputStream(byte[] blobKey) throws BlobException {
+        return getInputStream(blobKey, 0, -1);
+    }
+
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset, long length) throws BlobException {
         Get get = new Get(blobKey);
-        get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
+        if (offset == 0) {
+            // Reading starts with the first chunk, which is stored in the same row
+            get.addFamily(BLOBS_COLUMN_FAMILY_BYTES);
+        } else {
+            get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN);
+            get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN);
+        }
         Result result;
         try {
             result = table.get(get);
+            if (offset != 0 && result.isEmpty()) {
+                // Possibly a blob stored as a single value
+                get = new Get(blobKey);
+                get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
+                result = table.get(get);
+            }
         } catch (IOException e) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' on the HBASE blobstore", e);
         }
+
+        byte[] sizeValue = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN);
         byte[] value = result.getValue(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
-        if (value == null) {
+        if (sizeValue == null && value == null) {
             throw new BlobException("Failed to open an inputstream for blobkey '" + Hex.encodeHexString(blobKey) + "' since no blob was found on the HBASE blobstore");
         }
-        return new ByteArrayInputStream(value);
+
+        if (sizeValue == null) {
+            // Blob stored as a single value
+            int start = (int)Math.min(offset, value.length);
+            int end = length == -1 ? value.length : (int)Math.min(offset + length, value.length);
+            return new ByteArrayInputStream(value, start, end - start);
+        }
+
+        long size = Bytes.toLong(sizeValue);
+        int blobChunkSize = Bytes.toInt(result.getValue(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN));
+        long end = length == -1 ? size : Math.min(offset + length, size);
+        return new HBaseBlobInputStream(table, blobKey, blobChunkSize, Math.min(offset, end), end, value);
     }
 
     @Override
     public void delete(byte[] blobKey) throws BlobException {
-        Delete delete = new Delete(blobKey);
         try {
-            table.delete(delete);
+            Get get = new Get(blobKey);
+            get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN);
+            get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN);
+            Result result = table.get(get);
+
+            // The row of the blob key is deleted last, so that a failed delete can be retried
+            List<Delete> deletes = new ArrayList<Delete>();
+            if (!result.isEmpty()) {
+                long size = Bytes.toLong(result.getValue(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN));
+                int blobChunkSize = Bytes.toInt(result.getValue(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN));
+                long chunkCount = (size + blobChunkSize - 1) / blobChunkSize;
+                for (int chunk = 1; chunk < chunkCount; chunk++) {
+                    deletes.add(new Delete(getChunkRowKey(blobKey, chunk)));
+                }
+                if (!deletes.isEmpty()) {
+                    table.delete(deletes);
+                }
+            }
+            table.delete(new Delete(blobKey));
         } catch (IOException e) {
-            throw new BlobException("Failed to delete blob with key '" + Hex.encodeHexString(blobKey) + "' from the DFS blobstore", e);
+            throw new BlobException("Failed to delete blob with key '" + Hex.encodeHexString(blobKey) + "' from the HBASE blobstore", e);
         }
     }
 
@@ -113,25 +199,176 @@ public class HBaseBlobStoreAccess implements BlobStoreAccess {
         return true;
     }
 
-    private class HBaseBlobOutputStream extends ByteArrayOutputStream {
+    private static byte[] getChunkRowKey(byte[] blobKey, int chunk) {
+        return chunk == 0 ? blobKey : Bytes.add(blobKey, Bytes.toBytes(chunk));
+    }
+
+    private static class HBaseBlobOutputStream extends OutputStream {
 
         private final HTableInterface blobTable;
         private final byte[] blobKey;
         private final Blob blob;
-        HBaseBlobOutputStream(HTableInterface table, byte[] blobKey, Blob blob) {
-            super();
+        private final int chunkSize;
+        private final ByteArrayOutputStream chunkBuffer;
+        private int chunk = 0;
+        private long size = 0;
+        private byte[] firstChunk;
+        private boolean closed = false;
+
+        HBaseBlobOutputStream(HTableInterface table, byte[] blobKey, Blob blob, int chunkSize) {
             blobTable = table;
             this.blobKey = blobKey;
             this.blob = blob;
+            this.chunkSize = chunkSize;
+            // Grows up to the chunk size, so that small blobs don't need a buffer of the full chunk size
+            this.chunkBuffer = new ByteArrayOutputStream(Math.min(chunkSize, 8192));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            chunkBuffer.write(b);
+            size++;
+            if (chunkBuffer.size() == chunkSize) {
+                writeChunk();
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int count = Math.min(len, chunkSize - chunkBuffer.size());
+                chunkBuffer.write(b, off, count);
+                size += count;
+                off += count;
+                len -= count;
+                if (chunkBuffer.size() == chunkSize) {
+                    writeChunk();
+                }
+            }
         }
+
+        private void writeChunk() throws IOException {
+            byte[] bytes = chunkBuffer.toByteArray();
+            chunkBuffer.reset();
+            if (chunk == 0) {
+                // The first chunk is written together with the size, on close
+                firstChunk = bytes;
+            } else {
+                Put put = new Put(getChunkRowKey(blobKey, chunk));
+                put.add(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN, bytes);
+                blobTable.put(put);
+            }
+            chunk++;
+        }
+
         @Override
         public void close() throws IOException {
-            super.close();
-            byte[] bytes = toByteArray();
+            if (closed) {
+                return;
+            }
+            closed = true;
+
+            if (chunkBuffer.size() > 0) {
+                writeChunk();
+            }
+
+            // The size is written last: it marks the blob as complete
             Put put = new Put(blobKey);
-            put.add(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN, bytes);
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN, firstChunk != null ? firstChunk : new byte[0]);
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, SIZE_COLUMN, Bytes.toBytes(size));
+            put.add(BLOBS_COLUMN_FAMILY_BYTES, CHUNK_SIZE_COLUMN, Bytes.toBytes(chunkSize));
             blobTable.put(put);
             blob.setValue(blobKey);
         }
     }
+
+    /**
+     * Reads the chunks of a blob one at a time, only when they are needed.
+     */
+    private static class HBaseBlobInputStream extends InputStream {
+
+        private final HTableInterface blobTable;
+        private final byte[] blobKey;
+        private final int chunkSize;
+        private final long end;
+        private long position;
+        private int currentChunk = -1;
+        private byte[] currentChunkData;
+
+        HBaseBlobInputStream(HTableInterface table, byte[] blobKey, int chunkSize, long start, long end,
+                byte[] firstChunk) {
+            this.blobTable = table;
+            this.blobKey = blobKey;
+            this.chunkSize = chunkSize;
+            this.position = start;
+            this.end = end;
+            if (firstChunk != null) {
+                currentChunk = 0;
+                currentChunkData = firstChunk;
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            byte[] data = getChunkData();
+            int b = data[(int)(position % chunkSize)] & 0xff;
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position >= end) {
+                return -1;
+            }
+            byte[] data = getChunkData();
+            int chunkOffset = (int)(position % chunkSize);
+            int count = (int)Math.min(Math.min(len, data.length - chunkOffset), end - position);
+            System.arraycopy(data, chunkOffset, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped chunks are never read
+            long count = Math.max(0, Math.min(n, end - position));
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            if (currentChunk != -1 && position < end && position / chunkSize == currentChunk) {
+                return (int)Math.min(currentChunkData.length - position % chunkSize, end - position);
+            }
+            return 0;
+        }
+
+        private byte[] getChunkData() throws IOException {
+            int chunk = (int)(position / chunkSize);
+            if (chunk != currentChunk) {
+                Get get = new Get(getChunkRowKey(blobKey, chunk));
+                get.addColumn(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
+                byte[] data = blobTable.get(get).getValue(BLOBS_COLUMN_FAMILY_BYTES, BLOB_COLUMN);
+                if (data == null) {
+                    throw new IOException("Chunk " + chunk + " of blob with key '" + Hex.encodeHexString(blobKey)
+                            + "' is missing from the HBASE blobstore");
+                }
+                currentChunk = chunk;
+                currentChunkData = data;
+            }
+            if (currentChunkData.length <= position % chunkSize) {
+                throw new IOException("Chunk " + chunk + " of blob with key '" + Hex.encodeHexString(blobKey)
+                        + "' is shorter than expected");
+            }
+            return currentChunkData;
+        }
+    }
 }
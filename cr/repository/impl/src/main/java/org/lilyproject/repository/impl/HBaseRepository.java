@@ -16,6 +16,7 @@
 package org.lilyproject.repository.impl;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -28,6 +29,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -49,9 +52,11 @@ import org.apache.hadoop.hbase.filter.WritableByteArrayComparable;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
+import org.lilyproject.repository.api.BatchRecordException;
 import org.lilyproject.repository.api.BlobReference;
 import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
 import org.lilyproject.repository.api.FieldType;
@@ -85,6 +90,7 @@ import org.lilyproject.repository.impl.RepositoryMetrics.Action;
 import org.lilyproject.repository.impl.hbase.ContainsValueComparator;
 import org.lilyproject.repository.impl.id.SchemaIdImpl;
 import org.lilyproject.repository.impl.valuetype.BlobValueType;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
 import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.ArgumentValidator;
 import org.lilyproject.util.ObjectUtils;
@@ -109,6 +115,17 @@ public class HBaseRepository extends BaseRepository {
 
     private static final Object METADATA_ONLY_UPDATE = new Object();
 
+    /**
+     * Record attribute by which a client can request an update of non-versioned fields to be done without
+     * reading the stored record first, by setting it to "true". The attribute is ignored for updates that
+     * do not qualify for this. It is not passed on to the record event.
+     *
+     * <p>When update hooks are registered, the system columns and the fields the hooks depend on are still
+     * read, so that the hooks can be called. Only without hooks the write is done without any read. In that
+     * case the occ value is not checked, and the returned record has no version and record type.</p>
+     */
+    public static final String BLIND_WRITE_ATTRIBUTE = "lily.blindwrite";
+
     public HBaseRepository(RepoTableKey ttk, AbstractRepositoryManager repositoryManager, HTableInterface hbaseTable,
             BlobManager blobManager, TableManager tableManager, RecordFactory recordFactory)
             throws IOException, InterruptedException {
@@ -186,6 +203,58 @@ public class HBaseRepository extends BaseRepository {
                 " attempts, toggling between create and update mode.");
     }
 
+    @Override
+    public List<Record> createOrUpdate(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+
+        for (Record record : records) {
+            if (record.getId() == null) {
+                throw new RecordException("Record ID is mandatory when using create-or-update.");
+            }
+        }
+
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+
+        // Records of which no state is read don't exist (yet)
+        Map<RecordId, Pair<Record, byte[]>> originalRecords = readForUpdate(records, useLatestRecordType, fieldTypes);
+
+        List<Record> resultRecords = new ArrayList<Record>(records.size());
+        SortedMap<Integer, RepositoryException> failures = new TreeMap<Integer, RepositoryException>();
+        Set<RecordId> handledRecordIds = new HashSet<RecordId>();
+        for (Record record : records) {
+            try {
+                resultRecords.add(createOrUpdate(record, originalRecords, handledRecordIds, useLatestRecordType,
+                        fieldTypes));
+            } catch (RepositoryException e) {
+                failures.put(resultRecords.size(), e);
+                resultRecords.add(null);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new BatchRecordException(resultRecords, failures);
+        }
+        return resultRecords;
+    }
+
+    private Record createOrUpdate(Record record, Map<RecordId, Pair<Record, byte[]>> originalRecords,
+            Set<RecordId> handledRecordIds, boolean useLatestRecordType, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        if (!handledRecordIds.add(record.getId())) {
+            // The record occurs more than once in the list, what we read in advance is outdated
+            return createOrUpdate(record, useLatestRecordType);
+        } else if (originalRecords.containsKey(record.getId())) {
+            return update(record, originalRecords.get(record.getId()), false, useLatestRecordType, null, fieldTypes);
+        } else {
+            try {
+                return create(record);
+            } catch (RecordExistsException e) {
+                // someone created the record since we checked
+                return createOrUpdate(record, useLatestRecordType);
+            }
+        }
+    }
+
     @Override
     public Record create(Record record) throws RepositoryException {
 
@@ -241,9 +310,7 @@ public class HBaseRepository extends BaseRepository {
                 RecordEvent recordEvent = new RecordEvent();
                 recordEvent.setType(Type.CREATE);
                 recordEvent.setTableName(getTableName());
-                if (record.hasAttributes()) {
-                    recordEvent.getAttributes().putAll(record.getAttributes());
-                }
+                addEventAttributes(record, recordEvent);
 
                 Record newRecord = record.cloneRecord();
                 newRecord.setId(recordId);
@@ -268,7 +335,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(null, referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
                 boolean success = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
                 if (!success) {
@@ -371,6 +438,63 @@ public class HBaseRepository extends BaseRepository {
     @Override
     public Record update(Record record, boolean updateVersion, boolean useLatestRecordType,
                          List<MutationCondition> conditions) throws RepositoryException, InterruptedException {
+        return update(record, null, updateVersion, useLatestRecordType, conditions,
+                typeManager.getFieldTypesSnapshot());
+    }
+
+    @Override
+    public List<Record> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+
+        FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
+
+        Map<RecordId, Pair<Record, byte[]>> originalRecords;
+        if (updateVersion) {
+            // Updates of mutable fields read a specific version of the record, these are not read in advance
+            originalRecords = Collections.emptyMap();
+        } else {
+            List<Record> recordsToRead = new ArrayList<Record>(records.size());
+            for (Record record : records) {
+                if (record.getId() == null) {
+                    throw new InvalidRecordException("The recordId cannot be null for a record to be updated.",
+                            record.getId());
+                }
+                if (!isBlindWrite(record, null, fieldTypes)) {
+                    recordsToRead.add(record);
+                }
+            }
+            originalRecords = readForUpdate(recordsToRead, useLatestRecordType, fieldTypes);
+        }
+
+        List<Record> updatedRecords = new ArrayList<Record>(records.size());
+        SortedMap<Integer, RepositoryException> failures = new TreeMap<Integer, RepositoryException>();
+        Set<RecordId> updatedRecordIds = new HashSet<RecordId>();
+        for (Record record : records) {
+            // Once a record is updated, the state that was read in advance is outdated
+            Pair<Record, byte[]> originalRecord = updatedRecordIds.add(record.getId()) ?
+                    originalRecords.get(record.getId()) : null;
+            try {
+                updatedRecords.add(update(record, originalRecord, updateVersion, useLatestRecordType, null,
+                        fieldTypes));
+            } catch (RepositoryException e) {
+                failures.put(updatedRecords.size(), e);
+                updatedRecords.add(null);
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new BatchRecordException(updatedRecords, failures);
+        }
+        return updatedRecords;
+    }
+
+    /**
+     * @param originalRecordAndOcc the stored state of the record in case it was already read, otherwise null.
+     *                             Only used for updates which do not update a specific version.
+     */
+    private Record update(Record record, Pair<Record, byte[]> originalRecordAndOcc, boolean updateVersion,
+            boolean useLatestRecordType, List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
 
         long before = System.currentTimeMillis();
         RecordId recordId = record.getId();
@@ -380,8 +504,6 @@ public class HBaseRepository extends BaseRepository {
                         record.getId());
             }
 
-            FieldTypes fieldTypes = typeManager.getFieldTypesSnapshot();
-
             // Check if the update is an update of mutable fields
             if (updateVersion) {
                 try {
@@ -391,7 +513,7 @@ public class HBaseRepository extends BaseRepository {
                             e);
                 }
             } else {
-                return updateRecord(record, useLatestRecordType, conditions, fieldTypes);
+                return updateRecord(record, originalRecordAndOcc, useLatestRecordType, conditions, fieldTypes);
             }
         } finally {
             metrics.report(Action.UPDATE, System.currentTimeMillis() - before);
@@ -399,13 +521,20 @@ public class HBaseRepository extends BaseRepository {
     }
 
 
-    private Record updateRecord(Record record, boolean useLatestRecordType, List<MutationCondition> conditions,
-                                FieldTypes fieldTypes) throws RepositoryException {
+    private Record updateRecord(Record record, Pair<Record, byte[]> recordAndOcc, boolean useLatestRecordType,
+                                List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws RepositoryException {
 
         RecordId recordId = record.getId();
 
         try {
-            Pair<Record, byte[]> recordAndOcc = readWithOcc(record.getId(), null, null, fieldTypes);
+            if (recordAndOcc == null) {
+                if (isBlindWrite(record, conditions, fieldTypes)) {
+                    return blindWrite(record, fieldTypes);
+                }
+                recordAndOcc = readForUpdate(record, useLatestRecordType, conditions, fieldTypes);
+            }
+
             Record originalRecord = new UnmodifiableRecord(recordAndOcc.getV1());
 
             byte[] oldOccBytes = recordAndOcc.getV2();
@@ -413,9 +542,7 @@ public class HBaseRepository extends BaseRepository {
             RecordEvent recordEvent = new RecordEvent();
             recordEvent.setType(Type.UPDATE);
             recordEvent.setTableName(getTableName());
-            if (record.hasAttributes()) {
-                recordEvent.getAttributes().putAll(record.getAttributes());
-            }
+            addEventAttributes(record, recordEvent);
 
             for (RecordUpdateHook hook : updateHooks) {
                 hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
@@ -444,7 +571,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
@@ -475,6 +602,318 @@ public class HBaseRepository extends BaseRepository {
         }
     }
 
+    /**
+     * Reads the stored state of a record that is about to be updated, together with its occ bytes.
+     *
+     * <p>Only the system columns are read together with the fields that are needed to calculate the changes:
+     * the fields that are updated or deleted, the fields on which conditions are put, the mandatory fields of
+     * the record type and the fields the update hooks depend on. If one of the hooks needs the complete
+     * original record, the complete record is read.</p>
+     */
+    private Pair<Record, byte[]> readForUpdate(Record record, boolean useLatestRecordType,
+            List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        Set<QName> fieldNames = getFieldsToReadForUpdate(record, useLatestRecordType, conditions, fieldTypes);
+        if (fieldNames == null) {
+            return readWithOcc(record.getId(), null, null, fieldTypes);
+        }
+
+        Pair<Record, byte[]> recordAndOcc = readWithOcc(record.getId(), null, getFieldTypes(fieldNames, fieldTypes),
+                fieldTypes);
+        return readMissingMandatoryFields(record, fieldNames, recordAndOcc, fieldTypes);
+    }
+
+    /**
+     * Variant of {@link #readForUpdate(Record, boolean, List, FieldTypes)} for a list of records, which reads
+     * all records using one multi-get. Records which do not exist are not contained in the returned map. If
+     * the same record occurs more than once, the state is read for its first occurrence.
+     */
+    private Map<RecordId, Pair<Record, byte[]>> readForUpdate(List<Record> records, boolean useLatestRecordType,
+            FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        Map<RecordId, Record> recordsById = new HashMap<RecordId, Record>();
+        Map<RecordId, Set<QName>> fieldNamesById = new HashMap<RecordId, Set<QName>>();
+        Map<RecordId, List<FieldType>> fieldsById = new HashMap<RecordId, List<FieldType>>();
+        for (Record record : records) {
+            if (!recordsById.containsKey(record.getId())) {
+                recordsById.put(record.getId(), record);
+                Set<QName> fieldNames = getFieldsToReadForUpdate(record, useLatestRecordType, null, fieldTypes);
+                fieldNamesById.put(record.getId(), fieldNames);
+                fieldsById.put(record.getId(), fieldNames == null ? null : getFieldTypes(fieldNames, fieldTypes));
+            }
+        }
+
+        Map<RecordId, Pair<Record, byte[]>> recordsAndOccs = readWithOcc(fieldsById, fieldTypes);
+        for (Entry<RecordId, Pair<Record, byte[]>> entry : recordsAndOccs.entrySet()) {
+            Set<QName> fieldNames = fieldNamesById.get(entry.getKey());
+            if (fieldNames != null) {
+                entry.setValue(readMissingMandatoryFields(recordsById.get(entry.getKey()), fieldNames,
+                        entry.getValue(), fieldTypes));
+            }
+        }
+        return recordsAndOccs;
+    }
+
+    /**
+     * Returns the names of the fields that need to be read to update the record, or null if the complete
+     * record needs to be read.
+     */
+    private Set<QName> getFieldsToReadForUpdate(Record record, boolean useLatestRecordType,
+            List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        Set<QName> fieldNames = getHookFieldDependencies(fieldTypes);
+        if (fieldNames == null) {
+            return null;
+        }
+
+        fieldNames.addAll(record.getFields().keySet());
+        fieldNames.addAll(record.getFieldsToDelete());
+        fieldNames.addAll(record.getMetadataMap().keySet());
+        if (conditions != null) {
+            for (MutationCondition condition : conditions) {
+                // Conditions can also be put on system fields, these are evaluated on the system columns
+                if (fieldTypes.fieldTypeExists(condition.getField())) {
+                    fieldNames.add(condition.getField());
+                }
+            }
+        }
+
+        if (fieldNames.isEmpty()) {
+            // Only the record type is updated, an empty field list would read everything anyway
+            return null;
+        }
+
+        if (record.getRecordTypeName() != null) {
+            Long recordTypeVersion = useLatestRecordType ? null : record.getRecordTypeVersion();
+            addMandatoryFields(typeManager.getRecordTypeByName(record.getRecordTypeName(), recordTypeVersion),
+                    fieldNames, fieldTypes);
+        }
+
+        return fieldNames;
+    }
+
+    /**
+     * Returns the names of the fields of the original record that the update hooks depend on, or null if one
+     * of them needs the complete record, which is the case for hooks that are not a
+     * {@link FieldDependentRecordUpdateHook}. Fields which do not exist (anymore) are left out.
+     */
+    private Set<QName> getHookFieldDependencies(FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        Set<QName> fieldNames = new HashSet<QName>();
+        for (RecordUpdateHook hook : updateHooks) {
+            // Hooks which do not declare their dependencies might need any field
+            Set<QName> dependencies = hook instanceof FieldDependentRecordUpdateHook ?
+                    ((FieldDependentRecordUpdateHook)hook).getFieldDependencies() : null;
+            if (dependencies == null) {
+                return null;
+            }
+            for (QName fieldName : dependencies) {
+                if (fieldTypes.fieldTypeExists(fieldName)) {
+                    fieldNames.add(fieldName);
+                }
+            }
+        }
+        return fieldNames;
+    }
+
+    /**
+     * If the update does not specify a record type, the record type of the stored record stays in use, which
+     * is only known after reading the record. In case it has mandatory fields that were not read, the record
+     * is read again including those.
+     */
+    private Pair<Record, byte[]> readMissingMandatoryFields(Record record, Set<QName> fieldNames,
+            Pair<Record, byte[]> recordAndOcc, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        QName originalRecordTypeName = recordAndOcc.getV1().getRecordTypeName();
+        if (record.getRecordTypeName() == null && originalRecordTypeName != null) {
+            if (addMandatoryFields(typeManager.getRecordTypeByName(originalRecordTypeName, null), fieldNames,
+                    fieldTypes)) {
+                recordAndOcc = readWithOcc(record.getId(), null, getFieldTypes(fieldNames, fieldTypes), fieldTypes);
+            }
+        }
+
+        return recordAndOcc;
+    }
+
+    /**
+     * Adds the names of the mandatory fields of the record type to the given set.
+     *
+     * @return true if the set changed
+     */
+    private boolean addMandatoryFields(RecordType recordType, Set<QName> fieldNames, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        boolean added = false;
+        for (FieldTypeEntry fieldTypeEntry : recordType.getFieldTypeEntries()) {
+            if (fieldTypeEntry.isMandatory()) {
+                added |= fieldNames.add(fieldTypes.getFieldType(fieldTypeEntry.getFieldTypeId()).getName());
+            }
+        }
+        return added;
+    }
+
+    private List<FieldType> getFieldTypes(Set<QName> fieldNames, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        List<FieldType> result = new ArrayList<FieldType>(fieldNames.size());
+        for (QName fieldName : fieldNames) {
+            result.add(fieldTypes.getFieldType(fieldName));
+        }
+        return result;
+    }
+
+    /**
+     * Checks if an update can be done as a blind write, i.e. without reading the stored values of the
+     * fields it changes. This is the case when the client asked for it using {@link #BLIND_WRITE_ATTRIBUTE},
+     * no conditions apply, none of the update hooks needs the complete original record, and the update only
+     * sets values of non-versioned, non-blob fields without metadata or a record type.
+     */
+    private boolean isBlindWrite(Record record, List<MutationCondition> conditions, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        if (!record.hasAttributes() || !"true".equals(record.getAttributes().get(BLIND_WRITE_ATTRIBUTE))) {
+            return false;
+        }
+
+        if (conditions != null && !conditions.isEmpty()) {
+            return false;
+        }
+
+        return hasOnlyBlindWritableChanges(record, fieldTypes) && getHookFieldDependencies(fieldTypes) != null;
+    }
+
+    private boolean hasOnlyBlindWritableChanges(Record record, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException {
+        if (record.getRecordTypeName() != null || record.getFields().isEmpty()
+                || !record.getFieldsToDelete().isEmpty() || !record.getMetadataMap().isEmpty()) {
+            return false;
+        }
+
+        for (Entry<QName, Object> field : record.getFields().entrySet()) {
+            FieldType fieldType = fieldTypes.getFieldType(field.getKey());
+            if (field.getValue() == null || fieldType.getScope() != Scope.NON_VERSIONED
+                    || fieldType.getValueType().getDeepestValueType() instanceof BlobValueType) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes the non-versioned fields of the record without reading their stored values. Since the previous
+     * values are unknown, all fields are reported as updated in the record event, and the returned record only
+     * contains the submitted fields.
+     *
+     * <p>When there are update hooks, the system columns are read together with the fields the hooks depend on,
+     * and the Put is guarded by the occ value that was read, like a regular update. The returned record then
+     * carries the version and record type of the stored record, which are left unchanged.</p>
+     *
+     * <p>Without update hooks nothing is read. The Put is only guarded by the record not being deleted, which
+     * HBase checks without returning data, and the occ value is left as is: concurrent updates of the same
+     * fields are not detected, the last write wins. The returned record has no version and record type.</p>
+     */
+    private Record blindWrite(Record record, FieldTypes fieldTypes)
+            throws RepositoryException, InterruptedException, IOException {
+        RecordId recordId = record.getId();
+
+        Record originalRecord = null;
+        byte[] oldOccBytes = null;
+        if (!updateHooks.isEmpty()) {
+            Pair<Record, byte[]> recordAndOcc = readSystemColumnsWithOcc(recordId,
+                    getFieldTypes(getHookFieldDependencies(fieldTypes), fieldTypes), fieldTypes);
+            originalRecord = new UnmodifiableRecord(recordAndOcc.getV1());
+            oldOccBytes = recordAndOcc.getV2();
+        }
+
+        RecordEvent recordEvent = new RecordEvent();
+        recordEvent.setType(Type.UPDATE);
+        recordEvent.setTableName(getTableName());
+        addEventAttributes(record, recordEvent);
+
+        for (RecordUpdateHook hook : updateHooks) {
+            hook.beforeUpdate(record, originalRecord, this, fieldTypes, recordEvent);
+        }
+
+        if (!hasOnlyBlindWritableChanges(record, fieldTypes)) {
+            throw new InvalidRecordException("The update hooks changed the record into one that cannot be "
+                    + "written blindly.", recordId);
+        }
+
+        Record newRecord = record.cloneRecord();
+
+        Put put = new Put(recordId.toBytes());
+        FieldValueWriter fieldValueWriter = newFieldValueWriter(put, newRecord);
+        for (Entry<QName, Object> field : record.getFields().entrySet()) {
+            FieldType fieldType = fieldTypes.getFieldType(field.getKey());
+            fieldValueWriter.addFieldValue(fieldType, field.getValue(), null, 1L);
+            recordEvent.addUpdatedField(fieldType.getId());
+        }
+
+        put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
+        if (originalRecord == null) {
+            if (!recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.DELETED.bytes,
+                    Bytes.toBytes(false), put)) {
+                throw new RecordNotFoundException(recordId, this, this);
+            }
+        } else {
+            put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
+            boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
+                    oldOccBytes, put);
+            if (!occSuccess) {
+                throw new ConcurrentRecordUpdateException(recordId);
+            }
+
+            setRecordTypesAfterUpdate(newRecord, originalRecord, EnumSet.noneOf(Scope.class));
+            newRecord.setVersion(originalRecord.getVersion());
+        }
+
+        newRecord.setResponseStatus(ResponseStatus.UPDATED);
+        removeUnidirectionalState(newRecord);
+        return newRecord;
+    }
+
+    /**
+     * Copies the attributes of the record into the record event, except for the attributes which only control
+     * how the repository performs the operation, such as {@link #BLIND_WRITE_ATTRIBUTE}.
+     */
+    private void addEventAttributes(Record record, RecordEvent recordEvent) {
+        if (record.hasAttributes()) {
+            recordEvent.getAttributes().putAll(record.getAttributes());
+            recordEvent.getAttributes().remove(BLIND_WRITE_ATTRIBUTE);
+        }
+    }
+
+    /**
+     * Reads the latest state of the system columns of a record and the given fields, together with its
+     * occ bytes. Contrary to {@link #readWithOcc}, an empty list of fields only reads the system columns.
+     */
+    private Pair<Record, byte[]> readSystemColumnsWithOcc(RecordId recordId, List<FieldType> fields,
+            FieldTypes fieldTypes) throws RepositoryException, InterruptedException {
+        long before = System.currentTimeMillis();
+        try {
+            Get get = new Get(recordId.toBytes());
+            get.setFilter(REAL_RECORDS_FILTER);
+            RecordDecoder.addSystemColumnsToGet(get);
+            for (FieldType field : fields) {
+                get.addColumn(RecordCf.DATA.bytes, ((FieldTypeImpl) field).getQualifier());
+            }
+
+            Result result;
+            try {
+                get.setMaxVersions(1);
+                result = recordTable.get(get);
+            } catch (IOException e) {
+                throw new RecordException("Exception occurred while retrieving record '" + recordId
+                        + "' from HBase table", e);
+            }
+            if (result == null || result.isEmpty()) {
+                throw new RecordNotFoundException(recordId, this, this);
+            }
+
+            byte[] occBytes = result.getValue(RecordCf.DATA.bytes, RecordColumn.OCC.bytes);
+            Record record = recdec.decodeRecord(recordId, recdec.getLatestVersion(result), null, result, fieldTypes);
+            return new Pair<Record, byte[]>(record, occBytes);
+        } finally {
+            metrics.report(Action.READ, System.currentTimeMillis() - before);
+        }
+    }
+
     // Calculates the changes that are to be made on the record-row and puts
     // this information on the Put object and the RecordEvent
     private boolean calculateRecordChanges(Record record, Record originalRecord, Long version, Put put,
@@ -849,11 +1288,10 @@ public class HBaseRepository extends BaseRepository {
 
 
     public static void writeMetadataWithLengthSuffix(Metadata metadata, DataOutput output) {
-        DataOutput tmp = new DataOutputImpl();
-        MetadataSerDeser.write(metadata, tmp);
-        byte[] metadataBytes = tmp.toByteArray();
-        output.writeBytes(metadataBytes);
-        output.writeInt(metadataBytes.length);
+        // Write the metadata directly in the output, its length follows from the position before and after
+        int start = output.getSize();
+        MetadataSerDeser.write(metadata, output);
+        output.writeInt(output.getSize() - start);
     }
 
     private boolean isDeleteMarker(Object fieldValue) {
@@ -983,7 +1421,7 @@ public class HBaseRepository extends BaseRepository {
                 // Reserve blobs so no other records can use them
                 reserveBlobs(record.getId(), referencedBlobs);
 
-                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toJsonBytes());
+                put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, 1L, recordEvent.toBytes());
                 put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOccBytes));
                 boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                         oldOccBytes, put);
@@ -1110,7 +1548,7 @@ public class HBaseRepository extends BaseRepository {
 
             }
 
-            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toJsonBytes());
+            put.add(RecordCf.DATA.bytes, RecordColumn.PAYLOAD.bytes, recordEvent.toBytes());
             put.add(RecordCf.DATA.bytes, RecordColumn.OCC.bytes, 1L, nextOcc(oldOcc));
             boolean occSuccess = recordTable.checkAndPut(put.getRow(), RecordCf.DATA.bytes, RecordColumn.OCC.bytes,
                     oldOcc, put);
@@ -1290,9 +1728,16 @@ public class HBaseRepository extends BaseRepository {
             return blobs;
         }
         Set<BlobReference> unReferencedBlobs = new HashSet<BlobReference>();
-        for (BlobReference blobReference : blobs) {
+        if (blobs.isEmpty()) {
+            return unReferencedBlobs;
+        }
+
+        // The blobs are checked with one batched call
+        List<BlobReference> blobList = new ArrayList<BlobReference>(blobs);
+        List<Get> gets = new ArrayList<Get>(blobList.size());
+        byte[] recordIdBytes = recordId.toBytes();
+        for (BlobReference blobReference : blobList) {
             FieldTypeImpl fieldType = (FieldTypeImpl) blobReference.getFieldType();
-            byte[] recordIdBytes = recordId.toBytes();
             ValueType valueType = fieldType.getValueType();
 
             Get get = new Get(recordIdBytes);
@@ -1305,9 +1750,16 @@ public class HBaseRepository extends BaseRepository {
             Filter filter = new SingleColumnValueFilter(RecordCf.DATA.bytes, fieldType.getQualifier(), CompareOp.EQUAL,
                     valueComparator);
             get.setFilter(filter);
-            Result result = recordTable.get(get);
+            gets.add(get);
+        }
+        Result[] results = recordTable.get(gets);
+
+        for (int i = 0; i < results.length; i++) {
+            BlobReference blobReference = blobList.get(i);
+            FieldTypeImpl fieldType = (FieldTypeImpl) blobReference.getFieldType();
+            Result result = results[i];
 
-            if (result.isEmpty()) {
+            if (result == null || result.isEmpty()) {
                 unReferencedBlobs.add(blobReference);
             } else {
                 if (ignoreVersion != null) {
@@ -1413,30 +1865,35 @@ public class HBaseRepository extends BaseRepository {
                         fieldValue.getClass().getName()));
             }
 
-            DataOutput dataOutput = new DataOutputImpl();
-            boolean hasMetadata = metadata != null && !metadata.getMap().isEmpty();
-
-            dataOutput.writeByte(hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT);
+            // Reuse the buffer between field values, only the final byte[] for the Put gets allocated
+            DataOutputImpl dataOutput = DataOutputPool.acquire();
             try {
-                valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
-            } catch (InterruptedException e) {
-                throw e;
-            } catch (Exception e) {
-                // wrap the exception so that it is known what field causes the problem
-                throw new RepositoryException("Error serializing value for field " + fieldType.getName(), e);
-            }
+                boolean hasMetadata = metadata != null && !metadata.getMap().isEmpty();
 
-            if (hasMetadata) {
-                if (fieldType.getScope() == Scope.VERSIONED_MUTABLE) {
-                    throw new RuntimeException("Field metadata is currently not supported for versioned-mutable fields.");
+                dataOutput.writeByte(hasMetadata ? FieldFlags.METADATA_V1 : FieldFlags.DEFAULT);
+                try {
+                    valueType.write(fieldValue, dataOutput, new IdentityRecordStack(parentRecord));
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    // wrap the exception so that it is known what field causes the problem
+                    throw new RepositoryException("Error serializing value for field " + fieldType.getName(), e);
                 }
-                if (fieldType.getValueType().getDeepestValueType().getBaseName().equals("BLOB")) {
-                    throw new RuntimeException("Field metadata is currently not supported for BLOB fields.");
+
+                if (hasMetadata) {
+                    if (fieldType.getScope() == Scope.VERSIONED_MUTABLE) {
+                        throw new RuntimeException("Field metadata is currently not supported for versioned-mutable fields.");
+                    }
+                    if (fieldType.getValueType().getDeepestValueType().getBaseName().equals("BLOB")) {
+                        throw new RuntimeException("Field metadata is currently not supported for BLOB fields.");
+                    }
+                    writeMetadataWithLengthSuffix(metadata, dataOutput);
                 }
-                writeMetadataWithLengthSuffix(metadata, dataOutput);
-            }
 
-            return dataOutput.toByteArray();
+                return dataOutput.toByteArray();
+            } finally {
+                DataOutputPool.release(dataOutput);
+            }
         }
 
     }
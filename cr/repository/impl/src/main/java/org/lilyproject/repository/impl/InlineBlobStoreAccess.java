@@ -23,9 +23,9 @@ import java.io.OutputStream;
 
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.BlobException;
-import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.RangedBlobStoreAccess;
 
-public class InlineBlobStoreAccess implements BlobStoreAccess {
+public class InlineBlobStoreAccess implements RangedBlobStoreAccess {
 
     private static final String ID = "INLINE";
 
@@ -48,6 +48,13 @@ public class InlineBlobStoreAccess implements BlobStoreAccess {
         return new ByteArrayInputStream(blobKey);
     }
 
+    @Override
+    public InputStream getInputStream(byte[] blobKey, long offset, long length) throws BlobException {
+        int start = (int)Math.min(offset, blobKey.length);
+        int end = length == -1 ? blobKey.length : (int)Math.min(offset + length, blobKey.length);
+        return new ByteArrayInputStream(blobKey, start, end - start);
+    }
+
     @Override
     public void delete(byte[] blobKey) {
         // no-op
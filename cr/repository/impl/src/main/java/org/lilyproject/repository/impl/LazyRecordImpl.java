@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.lilyproject.repository.api.FieldDecodingException;
+import org.lilyproject.repository.api.FieldNotFoundException;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.Metadata;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RepositoryException;
+
+/**
+ * A record as read from HBase whose field values are only decoded when they are first accessed.
+ *
+ * <p>The record keeps the raw HBase KeyValue of each (non-deleted) field, together with the field type
+ * resolved from the {@link org.lilyproject.repository.api.FieldTypes} snapshot that was used for reading.
+ * The value and metadata of a field are decoded upon the first call of a method that needs them, such as
+ * {@link #getField(QName)} or {@link #getFields()}. {@link #hasField(QName)} does not need to decode
+ * anything.</p>
+ *
+ * <p>Once decoded, a field behaves exactly as in {@link RecordImpl}. The field accessors synchronize on the
+ * record, since they decode on first access: this way a record which is not modified anymore can be read
+ * from multiple threads, as a RecordImpl can.</p>
+ *
+ * <p>A field that fails to decode is reported by the accessor that needed it, with a
+ * {@link FieldDecodingException}.</p>
+ */
+public class LazyRecordImpl extends RecordImpl {
+    private Map<QName, UndecodedField> undecodedFields;
+
+    public LazyRecordImpl(RecordId id) {
+        super(id);
+    }
+
+    /**
+     * Registers the raw storage of a field, to be decoded on first access.
+     *
+     * @param keyValue the HBase cell holding the flag-prefixed, serialized value of the field.
+     */
+    void addUndecodedField(FieldType fieldType, KeyValue keyValue) {
+        if (undecodedFields == null) {
+            undecodedFields = new HashMap<QName, UndecodedField>();
+        }
+        undecodedFields.put(fieldType.getName(), new UndecodedField(fieldType, keyValue));
+    }
+
+    private boolean isFullyDecoded() {
+        return undecodedFields == null || undecodedFields.isEmpty();
+    }
+
+    private void decodeField(QName name) {
+        if (isFullyDecoded()) {
+            return;
+        }
+        UndecodedField undecoded = undecodedFields.remove(name);
+        if (undecoded != null) {
+            decode(undecoded);
+        }
+    }
+
+    private void decodeAllFields() {
+        if (isFullyDecoded()) {
+            return;
+        }
+        List<UndecodedField> fields = new ArrayList<UndecodedField>(undecodedFields.values());
+        undecodedFields.clear();
+        for (UndecodedField undecoded : fields) {
+            decode(undecoded);
+        }
+    }
+
+    private void decode(UndecodedField undecoded) {
+        RecordDecoder.ExtractedField field;
+        try {
+            KeyValue kv = undecoded.keyValue;
+            field = RecordDecoder.decodeField(undecoded.fieldType, kv.getBuffer(), kv.getValueOffset(),
+                    kv.getValueLength());
+        } catch (RepositoryException e) {
+            throw new FieldDecodingException("Error decoding field " + undecoded.fieldType.getName()
+                    + " of record " + getId(), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FieldDecodingException("Interrupted while decoding field " + undecoded.fieldType.getName()
+                    + " of record " + getId(), e);
+        } catch (RuntimeException e) {
+            // Corrupt values can also make the value types fail with e.g. an IndexOutOfBoundsException
+            throw new FieldDecodingException("Error decoding field " + undecoded.fieldType.getName()
+                    + " of record " + getId(), e);
+        }
+
+        if (field != null) {
+            super.setField(field.type.getName(), field.value);
+            if (field.metadata != null) {
+                super.setMetadata(field.type.getName(), field.metadata);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setField(QName name, Object value) {
+        // Decode the stored value first so that its metadata is not lost
+        decodeField(name);
+        super.setField(name, value);
+    }
+
+    @Override
+    public synchronized <T> T getField(QName name) throws FieldNotFoundException {
+        decodeField(name);
+        return super.<T>getField(name);
+    }
+
+    @Override
+    public synchronized boolean hasField(QName fieldName) {
+        return super.hasField(fieldName) || (!isFullyDecoded() && undecodedFields.containsKey(fieldName));
+    }
+
+    @Override
+    public synchronized Map<QName, Object> getFields() {
+        decodeAllFields();
+        return super.getFields();
+    }
+
+    @Override
+    public synchronized void delete(QName fieldName, boolean addToFieldsToDelete) {
+        if (!isFullyDecoded()) {
+            undecodedFields.remove(fieldName);
+        }
+        super.delete(fieldName, addToFieldsToDelete);
+    }
+
+    @Override
+    public synchronized Metadata getMetadata(QName fieldName) {
+        decodeField(fieldName);
+        return super.getMetadata(fieldName);
+    }
+
+    @Override
+    public synchronized void setMetadata(QName fieldName, Metadata metadata) {
+        decodeField(fieldName);
+        super.setMetadata(fieldName, metadata);
+    }
+
+    @Override
+    public synchronized Map<QName, Metadata> getMetadataMap() {
+        decodeAllFields();
+        return super.getMetadataMap();
+    }
+
+    private static final class UndecodedField {
+        final FieldType fieldType;
+        final KeyValue keyValue;
+
+        UndecodedField(FieldType fieldType, KeyValue keyValue) {
+            this.fieldType = fieldType;
+            this.keyValue = keyValue;
+        }
+    }
+}
@@ -261,13 +261,13 @@ public class MetadataSerDeser {
         @Override
         public void serialize(Object value, DataOutput dataOutput) {
             dataOutput.writeVInt(((ByteArray)value).length());
-            dataOutput.writeBytes(((ByteArray) value).getBytesUnsafe());
+            ((ByteArray)value).writeTo(dataOutput);
         }
 
         @Override
         public Object deserialize(DataInput dataInput) {
             int size = dataInput.readVInt();
-            return new ByteArray(dataInput.readBytes(size));
+            return dataInput.readByteArray(size);
         }
     }
 
@@ -16,14 +16,15 @@
 package org.lilyproject.repository.impl;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
 import java.util.Set;
 
+import org.apache.hadoop.hbase.KeyValue;
 import org.apache.hadoop.hbase.client.Get;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.Scan;
@@ -88,11 +89,15 @@ public class RecordDecoder {
     private TypeManager typeManager;
     private IdGenerator idGenerator;
     private RecordFactory recordFactory;
+    private final boolean lazyDecoding;
 
     public RecordDecoder(TypeManager typeManager, IdGenerator idGenerator, RecordFactory recordFactory) {
         this.typeManager = typeManager;
         this.idGenerator = idGenerator;
         this.recordFactory = recordFactory;
+        // A LazyRecordImpl can stand in for the records of any factory that creates plain RecordImpls, also
+        // when it is a subclass or a wrapper of RecordFactoryImpl. Other record classes are kept.
+        this.lazyDecoding = recordFactory.newRecord().getClass() == RecordImpl.class;
     }
 
     /**
@@ -107,36 +112,64 @@ public class RecordDecoder {
 
     /**
      * Gets the requested version of the record (fields and recordTypes) from the Result object.
+     *
+     * <p>If the record factory creates {@link RecordImpl}s, the field values are not decoded right away, this
+     * only happens when they are first accessed on the returned record, see {@link LazyRecordImpl}. A field that
+     * fails to decode then throws a {@link org.lilyproject.repository.api.FieldDecodingException} from the
+     * record's accessors rather than a RepositoryException from this method. Records of factories creating
+     * other Record implementations are filled in with the decoded values.</p>
      */
     public Record decodeRecord(RecordId recordId, Long requestedVersion, ReadContext readContext,
                                Result result, FieldTypes fieldTypes) throws InterruptedException, RepositoryException {
-        Record record = recordFactory.newRecord(recordId);
+        Record record = lazyDecoding ? new LazyRecordImpl(recordId) : recordFactory.newRecord(recordId);
         record.setVersion(requestedVersion);
 
         // If the version is null, this means the record has no version an thus only contains non-versioned fields (if any)
         // All non-versioned fields are stored at version 1, so we extract the fields at version 1
-        Long versionToRead = (requestedVersion == null) ? 1L : requestedVersion;
-
-        // Get a map of all fields with their values for each (cell-)version
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> mapWithVersions = result.getMap().get(RecordCf.DATA.bytes);
-        if (mapWithVersions != null) {
-            // Iterate over all columns
-            for (Map.Entry<byte[], NavigableMap<Long, byte[]>> columnWithAllVersions : mapWithVersions.entrySet()) {
-                // Check if the retrieved column is from a data field, and not a system field
-                byte[] key = columnWithAllVersions.getKey();
-                if (key[0] == LilyHBaseSchema.RecordColumn.DATA_PREFIX) {
-                    NavigableMap<Long, byte[]> allValueVersions = columnWithAllVersions.getValue();
-                    // Get the entry for the version (can be a cell with a lower version number if the field was not changed)
-                    Map.Entry<Long, byte[]> ceilingEntry = allValueVersions.ceilingEntry(versionToRead);
-                    if (ceilingEntry != null) {
-                        // Extract and decode the value of the field
-                        ExtractedField field =
-                                extractField(key, ceilingEntry.getValue(), readContext, fieldTypes);
-                        if (field != null) {
-                            record.setField(field.type.getName(), field.value);
-                            if (field.metadata != null) {
-                                record.setMetadata(field.type.getName(), field.metadata);
-                            }
+        long versionToRead = (requestedVersion == null) ? 1L : requestedVersion;
+
+        // Rather than going through Result.getMap(), which would build a map-of-maps of all cells, we walk
+        // over the raw KeyValues. These are sorted on column and, within a column, on descending timestamp.
+        KeyValue[] keyValues = result.raw();
+        if (keyValues != null) {
+            KeyValue lastColumn = null;
+            for (KeyValue kv : keyValues) {
+                if (!kv.matchingFamily(RecordCf.DATA.bytes)) {
+                    continue;
+                }
+                // Check if the column is from a data field, and not a system field
+                if (kv.getBuffer()[kv.getQualifierOffset()] != RecordColumn.DATA_PREFIX) {
+                    continue;
+                }
+                // Only the most recent cell not newer than the requested version counts (can be a cell with a
+                // lower version number if the field was not changed)
+                if (kv.getTimestamp() > versionToRead ||
+                        (lastColumn != null && Bytes.equals(lastColumn.getBuffer(), lastColumn.getQualifierOffset(),
+                                lastColumn.getQualifierLength(), kv.getBuffer(), kv.getQualifierOffset(),
+                                kv.getQualifierLength()))) {
+                    continue;
+                }
+                lastColumn = kv;
+
+                if (FieldFlags.isDeletedField(kv.getBuffer()[kv.getValueOffset()])) {
+                    continue;
+                }
+
+                byte[] idBytes = new byte[kv.getQualifierLength() - 1];
+                System.arraycopy(kv.getBuffer(), kv.getQualifierOffset() + 1, idBytes, 0, idBytes.length);
+                FieldType fieldType = fieldTypes.getFieldType(new SchemaIdImpl(idBytes));
+                if (readContext != null) {
+                    readContext.addFieldType(fieldType);
+                }
+                if (record instanceof LazyRecordImpl) {
+                    ((LazyRecordImpl)record).addUndecodedField(fieldType, kv);
+                } else {
+                    ExtractedField field = decodeField(fieldType, kv.getBuffer(), kv.getValueOffset(),
+                            kv.getValueLength());
+                    if (field != null) {
+                        record.setField(fieldType.getName(), field.value);
+                        if (field.metadata != null) {
+                            record.setMetadata(fieldType.getName(), field.metadata);
                         }
                     }
                 }
@@ -210,45 +243,61 @@ public class RecordDecoder {
             scopes.put(requestedVersion, EnumSet.noneOf(Scope.class));
         }
 
-        // Get a map of all fields with their values for each (cell-)version
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> mapWithVersions = result.getMap().get(RecordCf.DATA.bytes);
-        if (mapWithVersions != null) {
-
-            // Iterate over all columns
-            for (Map.Entry<byte[], NavigableMap<Long, byte[]>> columnWithAllVersions : mapWithVersions.entrySet()) {
+        // Walk over the raw KeyValues rather than building Result.getMap(). The KeyValues are sorted on column
+        // and, within a column, on descending timestamp, so the cells of each column are consecutive.
+        // The versions are walked in descending order, along with the cells of each column.
+        List<Long> descendingVersions = new ArrayList<Long>(requestedVersions);
+        Collections.sort(descendingVersions, Collections.reverseOrder());
+
+        KeyValue[] keyValues = result.raw();
+        if (keyValues != null) {
+            int columnStart = 0;
+            while (columnStart < keyValues.length) {
+                KeyValue first = keyValues[columnStart];
+                int columnEnd = columnStart + 1;
+                while (columnEnd < keyValues.length && keyValues[columnEnd].matchingFamily(first)
+                        && keyValues[columnEnd].matchingQualifier(first)) {
+                    columnEnd++;
+                }
 
-                // Check if the retrieved column is from a data field, and not a system field
-                byte[] key = columnWithAllVersions.getKey();
-                if (key[0] == RecordColumn.DATA_PREFIX) {
-                    NavigableMap<Long, byte[]> allValueVersions = columnWithAllVersions.getValue();
+                // Check if the column is from a data field, and not a system field
+                if (first.matchingFamily(RecordCf.DATA.bytes)
+                        && first.getBuffer()[first.getQualifierOffset()] == RecordColumn.DATA_PREFIX) {
 
                     // Keep the last decoded field value, to avoid decoding the same value again and again if unchanged
                     // between versions (sparse storage). Note that lastDecodedField can be null, in case of a field
                     // deletion marker
-                    Long lastDecodedFieldVersion = null;
+                    KeyValue lastDecodedKeyValue = null;
                     ExtractedField lastDecodedField = null;
-                    for (Long versionToRead : requestedVersions) {
+                    int cursor = columnStart;
+                    for (Long versionToRead : descendingVersions) {
                         Record record = records.get(versionToRead);
-                        // Get the entry for the version (can be a cell with a lower version number if the field was
-                        // not changed)
-                        Map.Entry<Long, byte[]> ceilingEntry = allValueVersions.ceilingEntry(versionToRead);
-                        if (ceilingEntry != null) {
-                            if (lastDecodedFieldVersion == null ||
-                                    !lastDecodedFieldVersion.equals(ceilingEntry.getKey())) {
-                                // Not yet decoded, do it now
-                                lastDecodedFieldVersion = ceilingEntry.getKey();
-                                lastDecodedField = extractField(key, ceilingEntry.getValue(), null, fieldTypes);
-                            }
-                            if (lastDecodedField != null) {
-                                record.setField(lastDecodedField.type.getName(), lastDecodedField.value);
-                                scopes.get(versionToRead).add(lastDecodedField.type.getScope());
-                                if (lastDecodedField.metadata != null) {
-                                    record.setMetadata(lastDecodedField.type.getName(), lastDecodedField.metadata);
-                                }
+                        // Get the cell for the version (can be a cell with a lower version number if the field was
+                        // not changed). Since the versions descend, the cursor never needs to go back.
+                        while (cursor < columnEnd && keyValues[cursor].getTimestamp() > versionToRead) {
+                            cursor++;
+                        }
+                        if (cursor == columnEnd) {
+                            // No cells for this or any lower version
+                            break;
+                        }
+                        KeyValue ceiling = keyValues[cursor];
+                        if (lastDecodedKeyValue != ceiling) {
+                            // Not yet decoded, do it now
+                            lastDecodedKeyValue = ceiling;
+                            lastDecodedField = extractField(ceiling, null, fieldTypes);
+                        }
+                        if (lastDecodedField != null) {
+                            record.setField(lastDecodedField.type.getName(), lastDecodedField.value);
+                            scopes.get(versionToRead).add(lastDecodedField.type.getScope());
+                            if (lastDecodedField.metadata != null) {
+                                record.setMetadata(lastDecodedField.type.getName(), lastDecodedField.metadata);
                             }
                         }
                     }
                 }
+
+                columnStart = columnEnd;
             }
         }
 
@@ -276,7 +325,7 @@ public class RecordDecoder {
         return new ArrayList<Record>(records.values());
     }
 
-    private static class ExtractedField {
+    static class ExtractedField {
         FieldType type;
         Object value;
         Metadata metadata;
@@ -288,17 +337,33 @@ public class RecordDecoder {
         }
     }
 
-    private ExtractedField extractField(byte[] key, byte[] prefixedValue, ReadContext context,
-                                                 FieldTypes fieldTypes)
+    private ExtractedField extractField(KeyValue kv, ReadContext context, FieldTypes fieldTypes)
             throws RepositoryException, InterruptedException {
-        byte flags = prefixedValue[0];
-        if (FieldFlags.isDeletedField(flags)) {
+        if (FieldFlags.isDeletedField(kv.getBuffer()[kv.getValueOffset()])) {
             return null;
         }
-        FieldType fieldType = fieldTypes.getFieldType(new SchemaIdImpl(Bytes.tail(key, key.length - 1)));
+        byte[] idBytes = new byte[kv.getQualifierLength() - 1];
+        System.arraycopy(kv.getBuffer(), kv.getQualifierOffset() + 1, idBytes, 0, idBytes.length);
+        FieldType fieldType = fieldTypes.getFieldType(new SchemaIdImpl(idBytes));
         if (context != null) {
             context.addFieldType(fieldType);
         }
+        return decodeField(fieldType, kv.getBuffer(), kv.getValueOffset(), kv.getValueLength());
+    }
+
+    /**
+     * Decodes the value and metadata of a field from its stored form, this is prefixed with the field flags.
+     * The stored form is a range of a larger buffer, typically the backing buffer of an HBase KeyValue. It is
+     * decoded without first copying it out of the buffer, so value types may return objects referring to it.
+     *
+     * @return null if the stored value is a field deletion marker
+     */
+    static ExtractedField decodeField(FieldType fieldType, byte[] buffer, int offset, int length)
+            throws RepositoryException, InterruptedException {
+        byte flags = buffer[offset];
+        if (FieldFlags.isDeletedField(flags)) {
+            return null;
+        }
         ValueType valueType = fieldType.getValueType();
 
         Metadata metadata = null;
@@ -307,16 +372,16 @@ public class RecordDecoder {
         if (metadataEncodingVersion == 0) {
             // there is no metadata
         } else if (metadataEncodingVersion == 1) {
-            int metadataSize = Bytes.toInt(prefixedValue, prefixedValue.length - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
+            int end = offset + length;
+            int metadataSize = Bytes.toInt(buffer, end - Bytes.SIZEOF_INT, Bytes.SIZEOF_INT);
             metadataSpace = metadataSize + Bytes.SIZEOF_INT;
-            metadata = MetadataSerDeser.read(
-                    new DataInputImpl(prefixedValue, prefixedValue.length - metadataSpace, metadataSize));
+            metadata = MetadataSerDeser.read(new DataInputImpl(buffer, end - metadataSpace, metadataSize));
         } else {
             throw new RuntimeException("Unsupported field metadata encoding version: " + metadataEncodingVersion);
         }
 
-        Object value = valueType.read(new DataInputImpl(prefixedValue, FieldFlags.SIZE_OF_FIELD_FLAGS,
-                prefixedValue.length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace));
+        Object value = valueType.read(new DataInputImpl(buffer, offset + FieldFlags.SIZE_OF_FIELD_FLAGS,
+                length - FieldFlags.SIZE_OF_FIELD_FLAGS - metadataSpace));
 
         return new ExtractedField(fieldType, value, metadata);
     }
@@ -334,29 +399,34 @@ public class RecordDecoder {
     }
 
     /**
-     * Gets the latest value for a family/qualifier from a Result object, using its
-     * getMap(). Most of the time this will be more efficient than using
-     * Result.getValue() since the map will need to built anyway when reading the
-     * record.
+     * Gets the latest value for a family/qualifier from a Result object. This does a binary search over
+     * the KeyValues of the Result, rather than using Result.getMap(): since the fields of a record are
+     * decoded lazily, the map would otherwise be built for nothing.
      */
     public byte[] getLatest(Result result, byte[] family, byte[] qualifier) {
-        NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> map = result.getMap();
-        if (map == null) {
+        if (result.isEmpty()) {
             return null;
         }
 
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> qualifiers = map.get(family);
-        if (qualifiers == null) {
-            return null;
-        }
+        KeyValue kv = result.getColumnLatest(family, qualifier);
+        return kv == null ? null : kv.getValue();
+    }
 
-        NavigableMap<Long, byte[]> timestamps = qualifiers.get(qualifier);
-        if (timestamps == null) {
+    /**
+     * Gets the value of the most recent cell of a column which is not newer than the given version.
+     */
+    private byte[] getCeilingValue(Result result, byte[] family, byte[] qualifier, long version) {
+        if (result.isEmpty()) {
             return null;
         }
 
-        Map.Entry<Long, byte[]> entry = timestamps.lastEntry();
-        return entry == null ? null : entry.getValue();
+        // The cells of the column are sorted from newest to oldest
+        for (KeyValue kv : result.getColumn(family, qualifier)) {
+            if (kv.getTimestamp() <= version) {
+                return kv.getValue();
+            }
+        }
+        return null;
     }
 
     /**
@@ -389,35 +459,20 @@ public class RecordDecoder {
      * Extracts the record type for a specific version and a specific scope
      */
     public Pair<SchemaId, Long> extractVersionRecordType(Scope scope, Result result, Long version) {
-        NavigableMap<byte[], NavigableMap<byte[], NavigableMap<Long, byte[]>>> allVersionsMap = result.getMap();
-        NavigableMap<byte[], NavigableMap<Long, byte[]>> allColumnsAllVersionsMap = allVersionsMap
-                .get(RecordCf.DATA.bytes);
-
-        byte[] recordTypeIdColumnName = RECORD_TYPE_ID_QUALIFIERS.get(scope);
-        byte[] recordTypeVersionColumnName = RECORD_TYPE_VERSION_QUALIFIERS.get(scope);
         // Get recordTypeId
-        Map.Entry<Long, byte[]> idCeilingEntry = null;
-        NavigableMap<Long, byte[]> recordTypeIdMap = allColumnsAllVersionsMap.get(recordTypeIdColumnName);
-        if (recordTypeIdMap != null) {
-            idCeilingEntry = recordTypeIdMap.ceilingEntry(version);
-        }
-        SchemaId recordTypeId;
-        if (idCeilingEntry == null) {
+        byte[] idBytes = getCeilingValue(result, RecordCf.DATA.bytes, RECORD_TYPE_ID_QUALIFIERS.get(scope), version);
+        if (idBytes == null) {
             return null; // No record type was found
         }
-        recordTypeId = new SchemaIdImpl(idCeilingEntry.getValue());
+        SchemaId recordTypeId = new SchemaIdImpl(idBytes);
 
         // Get recordTypeVersion
-        Long recordTypeVersion;
-        Map.Entry<Long, byte[]> versionCeilingEntry = null;
-        NavigableMap<Long, byte[]> recordTypeVersionMap = allColumnsAllVersionsMap.get(recordTypeVersionColumnName);
-        if (recordTypeVersionMap != null) {
-            versionCeilingEntry = recordTypeVersionMap.ceilingEntry(version);
-        }
-        if (versionCeilingEntry == null) {
+        byte[] versionBytes =
+                getCeilingValue(result, RecordCf.DATA.bytes, RECORD_TYPE_VERSION_QUALIFIERS.get(scope), version);
+        if (versionBytes == null) {
             return null; // No record type was found, we should never get here: if there is an id there should also be a version
         }
-        recordTypeVersion = Bytes.toLong(versionCeilingEntry.getValue());
+        Long recordTypeVersion = Bytes.toLong(versionBytes);
         return new Pair<SchemaId, Long>(recordTypeId, recordTypeVersion);
     }
 
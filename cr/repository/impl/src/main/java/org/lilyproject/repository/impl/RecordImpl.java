@@ -215,7 +215,7 @@ public class RecordImpl implements Record, Cloneable {
         record.version = version;
         record.recordTypes.putAll(recordTypes);
         parentRecords.push(this);
-        for (Entry<QName, Object> entry : fields.entrySet()) {
+        for (Entry<QName, Object> entry : getFields().entrySet()) {
             record.fields.put(entry.getKey(), tryCloneValue(parentRecords, entry));
         }
         parentRecords.pop();
@@ -223,10 +223,8 @@ public class RecordImpl implements Record, Cloneable {
             record.fieldsToDelete.addAll(fieldsToDelete);
         }
 
-        if (metadatas != null) {
-            for (Map.Entry<QName, Metadata> metadata : metadatas.entrySet()) {
-                record.setMetadata(metadata.getKey(), metadata.getValue());
-            }
+        for (Map.Entry<QName, Metadata> metadata : getMetadataMap().entrySet()) {
+            record.setMetadata(metadata.getKey(), metadata.getValue());
         }
 
         // the ResponseStatus is not cloned, on purpose
@@ -316,7 +314,7 @@ public class RecordImpl implements Record, Cloneable {
     public int hashCode() {
         final int prime = 31;
         int result = 1;
-        result = prime * result + ((fields == null) ? 0 : fields.hashCode());
+        result = prime * result + getFields().hashCode();
         result = prime * result + ((fieldsToDelete == null) ? 0 : fieldsToDelete.hashCode());
         result = prime * result + ((id == null) ? 0 : id.hashCode());
         result = prime * result + ((recordTypes == null) ? 0 : recordTypes.hashCode());
@@ -372,16 +370,14 @@ public class RecordImpl implements Record, Cloneable {
         if (obj instanceof IdRecordImpl) {
             return softEquals(((IdRecordImpl)obj).getRecord());
         }
-        if (getClass() != obj.getClass()) {
+        // Compare as RecordImpl rather than on exact class, so that lazily decoded records (see
+        // LazyRecordImpl) are equal to their fully decoded counterparts.
+        if (!(obj instanceof RecordImpl)) {
             return false;
         }
         RecordImpl other = (RecordImpl) obj;
 
-        if (fields == null) {
-            if (other.fields != null) {
-                return false;
-            }
-        } else if (!fields.equals(other.fields)) {
+        if (!getFields().equals(other.getFields())) {
             return false;
         }
 
@@ -414,7 +410,7 @@ public class RecordImpl implements Record, Cloneable {
     @Override
     public String toString() {
         return "RecordImpl [id=" + id + ", version=" + version + ", recordTypes=" + recordTypes
-                        + ", fields=" + fields + ", fieldsToDelete="
+                        + ", fields=" + getFields() + ", fieldsToDelete="
                         + fieldsToDelete + "]";
     }
 
@@ -100,6 +100,23 @@ public interface SchemaCache {
      */
     RecordType getRecordType(SchemaId id);
 
+    /**
+     * Returns a specific version of a record type from the cache of record type versions. Other than
+     * {@link #getRecordType(SchemaId)}, which only knows the latest version of each record type, this
+     * cache is filled on demand through {@link #putRecordTypeVersion(RecordType)}.
+     *
+     * @return the RecordType or null if this version is not in the cache
+     */
+    RecordType getRecordTypeVersion(SchemaId id, long version);
+
+    /**
+     * Adds a version of a record type to the cache of record type versions. Since a version of a
+     * record type never changes, these entries are never invalidated, but the number of cached
+     * versions is bounded. Only the name of a record type is not versioned, it is taken from the
+     * latest version when the entry is read.
+     */
+    void putRecordTypeVersion(RecordType recordType);
+
     /**
      * Returns the field type with the given name from the cache.
      *
@@ -21,6 +21,7 @@ import java.util.Set;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 import org.lilyproject.repository.api.IdentityRecordStack;
 import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.ValueType;
@@ -50,9 +51,13 @@ public abstract class AbstractValueType implements ValueType {
     @Override
     public byte[] toBytes(Object value, IdentityRecordStack parentRecords) throws RepositoryException,
             InterruptedException {
-        DataOutput dataOutput = new DataOutputImpl();
-        write(value, dataOutput, parentRecords);
-        return dataOutput.toByteArray();
+        DataOutputImpl dataOutput = DataOutputPool.acquire();
+        try {
+            write(value, dataOutput, parentRecords);
+            return dataOutput.toByteArray();
+        } finally {
+            DataOutputPool.release(dataOutput);
+        }
     }
 
     @Override
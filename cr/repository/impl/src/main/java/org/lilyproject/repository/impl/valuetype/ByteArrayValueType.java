@@ -17,7 +17,6 @@ package org.lilyproject.repository.impl.valuetype;
 
 import java.util.Comparator;
 
-import org.apache.hadoop.hbase.util.Bytes;
 import org.lilyproject.bytes.api.ByteArray;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
@@ -38,7 +37,7 @@ public class ByteArrayValueType extends AbstractValueType implements ValueType {
     private static final Comparator<ByteArray> COMPARATOR = new Comparator<ByteArray>() {
         @Override
         public int compare(ByteArray o1, ByteArray o2) {
-            return Bytes.compareTo(o1.getBytesUnsafe(), o2.getBytesUnsafe());
+            return o1.compareTo(o2);
         }
     };
 
@@ -56,21 +55,17 @@ public class ByteArrayValueType extends AbstractValueType implements ValueType {
     @SuppressWarnings("unchecked")
     public ByteArray read(DataInput dataInput) {
         int length = dataInput.readInt();
-        // We can use ByteArray.wrap here since in this use case the dataInput
-        // will always be a DataInputImpl which copies the bytes when reading
-        // them.
-        return ByteArray.wrap(dataInput.readBytes(length));
+        // The returned ByteArray is a view on the input's buffer rather than a copy. The buffers
+        // we decode from (e.g. the value of an HBase KeyValue) are never modified afterwards.
+        return dataInput.readByteArray(length);
     }
 
     @Override
     public void write(Object value, DataOutput dataOutput, IdentityRecordStack parentRecords) {
         ByteArray byteArray = (ByteArray) value;
         dataOutput.writeInt(byteArray.length());
-        // We can use getBytesUnsafe here since we know that in this use case
-        // the
-        // dataOutput will be a DataOutputImpl which copies the byte[] when
-        // writing it.
-        dataOutput.writeBytes(byteArray.getBytesUnsafe());
+        // Writes the range covered by the ByteArray, which might be a slice of a larger array
+        byteArray.writeTo(dataOutput);
     }
 
     @Override
@@ -27,6 +27,7 @@ import java.util.Map.Entry;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeEntry;
 import org.lilyproject.repository.api.IdentityRecordStack;
@@ -127,9 +128,13 @@ public class RecordValueType extends AbstractValueType implements ValueType {
                 return bytes;
             }
         }
-        DataOutput dataOutput = new DataOutputImpl();
-        encodeData(value, dataOutput, parentRecords);
-        return dataOutput.toByteArray();
+        DataOutputImpl dataOutput = DataOutputPool.acquire();
+        try {
+            encodeData(value, dataOutput, parentRecords);
+            return dataOutput.toByteArray();
+        } finally {
+            DataOutputPool.release(dataOutput);
+        }
     }
 
     @Override
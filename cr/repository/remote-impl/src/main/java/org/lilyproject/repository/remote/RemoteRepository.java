@@ -198,6 +198,40 @@ public class RemoteRepository extends BaseRepository {
         }
     }
 
+    @Override
+    public List<Record> createOrUpdate(List<Record> records, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroRecords(lilyProxy.createOrUpdateRecords(converter.convertRecords(records, this),
+                    repositoryName, tableName, useLatestRecordType), this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
+    @Override
+    public List<Record> update(List<Record> records, boolean updateVersion, boolean useLatestRecordType)
+            throws RepositoryException, InterruptedException {
+        try {
+            return converter.convertAvroRecords(lilyProxy.updateRecords(converter.convertRecords(records, this),
+                    repositoryName, tableName, updateVersion, useLatestRecordType), this);
+        } catch (AvroRepositoryException e) {
+            throw converter.convert(e);
+        } catch (AvroGenericException e) {
+            throw converter.convert(e);
+        } catch (AvroRemoteException e) {
+            throw handleAvroRemoteException(e);
+        } catch (UndeclaredThrowableException e) {
+            throw handleUndeclaredRecordThrowable(e);
+        }
+    }
+
     @Override
     public Set<RecordId> getVariants(RecordId recordId) throws RepositoryException, InterruptedException {
         try {
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.spi;
+
+import java.util.Set;
+
+import org.lilyproject.repository.api.QName;
+
+/**
+ * A {@link RecordUpdateHook} which only needs some of the fields of the original record.
+ *
+ * <p>For updates, the repository only reads the fields needed to perform the update. As soon as one of the
+ * registered hooks is a plain RecordUpdateHook, the complete original record is read, since such a hook might
+ * need any of its fields. Hooks implementing this interface declare what they need, so the narrow read
+ * remains possible.</p>
+ */
+public interface FieldDependentRecordUpdateHook extends RecordUpdateHook {
+    /**
+     * Returns the fields of the original record which {@link #beforeUpdate} needs. The repository only reads
+     * the fields needed to perform the update, extended with the dependencies of all hooks, so fields that
+     * are not listed here might be missing from the original record. The system information of the record
+     * (record type, version) is always available.
+     *
+     * <p>This method is called for each update, so the result is allowed to change over time.</p>
+     *
+     * @return the names of the fields needed, or null if the complete original record is needed
+     */
+    Set<QName> getFieldDependencies();
+}
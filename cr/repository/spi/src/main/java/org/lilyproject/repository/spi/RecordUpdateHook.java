@@ -38,7 +38,8 @@ public interface RecordUpdateHook {
      *
      * @param record the record supplied by the user (not validated). Only contains fields supplied by the user.
      * @param originalRecord the record as it is stored in the repository, containing all record
-     *                       fields. Unmodifiable.
+     *                       fields, or only some of them for a {@link FieldDependentRecordUpdateHook}.
+     *                       Unmodifiable.
      * @param fieldTypes snapshot of the state of the field types when the update operation started (to
      *                   be insensitive to changes such as field type name changes)
      * @param recordEvent the RecordEvent that will be added as payload to the SEP. Hooks can add their
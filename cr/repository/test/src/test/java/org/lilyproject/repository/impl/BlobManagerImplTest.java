@@ -0,0 +1,235 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.ObjectName;
+
+import org.apache.hadoop.hbase.HTableDescriptor;
+import org.apache.hadoop.hbase.client.Delete;
+import org.apache.hadoop.hbase.client.Get;
+import org.apache.hadoop.hbase.client.HTableInterface;
+import org.apache.hadoop.hbase.client.Put;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.Blob;
+import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.BlobStoreAccess;
+import org.lilyproject.repository.api.BlobStoreAccessFactory;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.util.hbase.HBaseTableFactory;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Tests the asynchronous removal of the blob incubator references of blobs which are used by a record.
+ */
+public class BlobManagerImplTest {
+    private static final String ACCESS_ID = "test";
+
+    private HTableInterface table;
+    private HBaseTableFactory tableFactory;
+    private BlobStoreAccessFactory blobStoreAccessFactory;
+    /** The rows deleted from the blob incubator table, with the name of the thread which deleted them. */
+    private final List<String> deletes = Collections.synchronizedList(new ArrayList<String>());
+    private final CountDownLatch cleanupStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseCleanup = new CountDownLatch(1);
+    private List<BlobManagerImpl> blobManagers = new ArrayList<BlobManagerImpl>();
+
+    @Before
+    public void setUp() throws Exception {
+        table = mock(HTableInterface.class);
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                boolean async = Thread.currentThread().getName().equals("BlobIncubatorReferenceCleanup");
+                if (async) {
+                    // Keep the cleanup thread busy until the test lets it continue
+                    cleanupStarted.countDown();
+                    releaseCleanup.await();
+                }
+                List<Delete> batch = (List<Delete>)invocation.getArguments()[0];
+                for (Delete delete : batch) {
+                    deletes.add(Bytes.toString(delete.getRow()) + (async ? " async" : " sync"));
+                }
+                // Successful deletes are removed from the list, as HTable does
+                batch.clear();
+                return null;
+            }
+        }).when(table).delete(anyListOf(Delete.class));
+
+        tableFactory = mock(HBaseTableFactory.class);
+        when(tableFactory.getTable(any(HTableDescriptor.class), anyBoolean())).thenReturn(table);
+
+        BlobStoreAccess blobStoreAccess = mock(BlobStoreAccess.class);
+        when(blobStoreAccess.getId()).thenReturn(ACCESS_ID);
+        when(blobStoreAccess.incubate()).thenReturn(true);
+        blobStoreAccessFactory = mock(BlobStoreAccessFactory.class);
+        when(blobStoreAccessFactory.getAll()).thenReturn(Collections.singletonList(blobStoreAccess));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        releaseCleanup.countDown();
+        for (BlobManagerImpl blobManager : blobManagers) {
+            blobManager.close();
+        }
+    }
+
+    private BlobManagerImpl newBlobManager(int queueCapacity) throws Exception {
+        BlobManagerImpl blobManager = new BlobManagerImpl(tableFactory, blobStoreAccessFactory, false, queueCapacity);
+        blobManagers.add(blobManager);
+        return blobManager;
+    }
+
+    private Set<BlobReference> references(String... keys) {
+        Set<BlobReference> references = new HashSet<BlobReference>();
+        for (String key : keys) {
+            // The blob key as encoded by the BlobStoreAccessRegistry: key, access id, length of the access id
+            byte[] value = Bytes.add(Bytes.toBytes(key), Bytes.toBytes(ACCESS_ID), Bytes.toBytes(ACCESS_ID.length()));
+            references.add(new BlobReference(new Blob(value, "text/plain", 1L, key), null, null));
+        }
+        return references;
+    }
+
+    private String blobKey(String key) {
+        return Bytes.toString(Bytes.add(Bytes.toBytes(key), Bytes.toBytes(ACCESS_ID),
+                Bytes.toBytes(ACCESS_ID.length())));
+    }
+
+    private void waitForDeletes(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (deletes.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, deletes.size());
+    }
+
+    @Test
+    public void testAsyncCleanup() throws Exception {
+        BlobManagerImpl blobManager = newBlobManager(100);
+        releaseCleanup.countDown();
+
+        blobManager.handleBlobReferences(null, references("a", "b"), null);
+
+        waitForDeletes(2);
+        assertTrue(deletes.contains(blobKey("a") + " async"));
+        assertTrue(deletes.contains(blobKey("b") + " async"));
+    }
+
+    @Test
+    public void testQueueOverflowDeletesSynchronously() throws Exception {
+        BlobManagerImpl blobManager = newBlobManager(2);
+
+        // Keep the cleanup thread busy with a first reference, so that the queue fills up
+        blobManager.handleBlobReferences(null, references("first"), null);
+        assertTrue(cleanupStarted.await(10, TimeUnit.SECONDS));
+
+        blobManager.handleBlobReferences(null, references("a", "b", "c", "d", "e"), null);
+
+        // What did not fit in the queue was deleted right away by the writer
+        List<String> syncDeletes = new ArrayList<String>(deletes);
+        assertEquals(3, syncDeletes.size());
+        for (String delete : syncDeletes) {
+            assertTrue(delete, delete.endsWith(" sync"));
+        }
+
+        // The queued references are deleted once the cleanup thread catches up
+        releaseCleanup.countDown();
+        waitForDeletes(6);
+        assertTrue(deletes.contains(blobKey("first") + " async"));
+    }
+
+    @Test
+    public void testCloseDeletesQueuedReferences() throws Exception {
+        BlobManagerImpl blobManager = newBlobManager(100);
+        blobManager.handleBlobReferences(null, references("first"), null);
+        assertTrue(cleanupStarted.await(10, TimeUnit.SECONDS));
+        blobManager.handleBlobReferences(null, references("a", "b"), null);
+
+        releaseCleanup.countDown();
+        blobManager.close();
+        blobManagers.remove(blobManager);
+
+        assertEquals(3, deletes.size());
+    }
+
+    @Test
+    public void testReserveBlobs() throws Exception {
+        BlobManagerImpl blobManager = newBlobManager(100);
+        when(table.checkAndPut(any(byte[].class), any(byte[].class), any(byte[].class), any(byte[].class),
+                any(Put.class))).thenReturn(true, false);
+
+        SchemaId fieldTypeId = mock(SchemaId.class);
+        when(fieldTypeId.getBytes()).thenReturn(Bytes.toBytes("field"));
+        FieldType fieldType = mock(FieldType.class);
+        when(fieldType.getId()).thenReturn(fieldTypeId);
+        RecordId recordId = new IdGeneratorImpl().newRecordId("record");
+        Set<BlobReference> references = new HashSet<BlobReference>();
+        for (BlobReference reference : references("a", "b")) {
+            references.add(new BlobReference(reference.getBlob(), recordId, fieldType));
+        }
+
+        // One of the two blobs could not be claimed
+        assertEquals(1, blobManager.reserveBlobs(references).size());
+
+        // Only the conditional puts, no read of the incubator rows in front of them
+        verify(table, times(2)).checkAndPut(any(byte[].class), any(byte[].class), any(byte[].class),
+                any(byte[].class), any(Put.class));
+        verify(table, never()).get(anyListOf(Get.class));
+        verify(table, never()).get(any(Get.class));
+    }
+
+    @Test
+    public void testMetricsOfSeveralBlobManagers() throws Exception {
+        int before = countIncubatorMBeans();
+        newBlobManager(100);
+        newBlobManager(100);
+
+        // Each blob manager registers its own MBean rather than the second one being ignored
+        assertEquals(before + 2, countIncubatorMBeans());
+    }
+
+    private int countIncubatorMBeans() throws Exception {
+        return ManagementFactory.getPlatformMBeanServer().queryNames(
+                new ObjectName("Lily:service=Blob Incubator,name=blobIncubator*"), null).size();
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.FieldType;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeBucket;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FieldTypesCacheTest {
+    private static final String NS = "org.lilyproject.repository.impl.test";
+
+    private FieldTypesCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new FieldTypesCache();
+    }
+
+    private FieldType newFieldType(String name) {
+        return new FieldTypeImpl(new SchemaIdImpl(UUID.randomUUID()), new StringValueType(), new QName(NS, name),
+                Scope.NON_VERSIONED);
+    }
+
+    private FieldType renamed(FieldType fieldType, String name) {
+        FieldType result = fieldType.clone();
+        result.setName(new QName(NS, name));
+        return result;
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        List<FieldType> fieldTypes = new ArrayList<FieldType>();
+        for (int i = 0; i < 1000; i++) {
+            fieldTypes.add(newFieldType("field" + i));
+        }
+        cache.refreshFieldTypes(fieldTypes);
+
+        assertEquals(1000, cache.getFieldTypes().size());
+        for (FieldType fieldType : fieldTypes) {
+            assertEquals(fieldType, cache.getFieldType(fieldType.getId()));
+            assertEquals(fieldType, cache.getFieldType(fieldType.getName()));
+        }
+        assertFalse(cache.fieldTypeExists(new QName(NS, "unknown")));
+        assertNull(cache.getFieldTypeByNameReturnNull(new QName(NS, "unknown")));
+    }
+
+    @Test
+    public void testSnapshotDoesNotChange() throws Exception {
+        FieldType field1 = newFieldType("field1");
+        cache.update(field1);
+        FieldTypes snapshot = cache.getSnapshot();
+        assertSame(snapshot, cache.getSnapshot());
+
+        FieldType field2 = newFieldType("field2");
+        cache.update(field2);
+        cache.update(renamed(field1, "field1b"));
+
+        assertEquals(1, snapshot.getFieldTypes().size());
+        assertEquals(field1, snapshot.getFieldType(field1.getId()));
+        assertTrue(cache.fieldTypeExists(field2.getName()));
+        assertEquals(2, cache.getSnapshot().getFieldTypes().size());
+    }
+
+    @Test
+    public void testRename() throws Exception {
+        FieldType field = newFieldType("before");
+        cache.update(field);
+        cache.update(renamed(field, "after"));
+
+        assertFalse(cache.fieldTypeExists(new QName(NS, "before")));
+        assertEquals(field.getId(), cache.getFieldType(new QName(NS, "after")).getId());
+        assertEquals(new QName(NS, "after"), cache.getFieldType(field.getId()).getName());
+        assertEquals(1, cache.getFieldTypes().size());
+    }
+
+    @Test
+    public void testRefreshSkipsLocalUpdate() throws Exception {
+        FieldType field = newFieldType("local");
+        cache.update(field);
+
+        // A refresh which was triggered before the local update should not undo it
+        TypeBucket typeBucket = new TypeBucket(AbstractSchemaCache.encodeHex(field.getId().getBytes()));
+        typeBucket.add(renamed(field, "stale"));
+        cache.refreshFieldTypeBucket(typeBucket);
+        assertTrue(cache.fieldTypeExists(new QName(NS, "local")));
+
+        // Later refreshes are applied
+        cache.refreshFieldTypeBucket(typeBucket);
+        assertTrue(cache.fieldTypeExists(new QName(NS, "stale")));
+        assertFalse(cache.fieldTypeExists(new QName(NS, "local")));
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.client.Result;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.bytes.api.DataOutput;
+import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.repository.api.FieldDecodingException;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.IdentityRecordStack;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordFactory;
+import org.lilyproject.repository.api.RecordId;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.Scope;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.IdGeneratorImpl;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.lilyproject.repository.impl.valuetype.StringValueType;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordCf;
+import org.lilyproject.util.hbase.LilyHBaseSchema.RecordColumn;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RecordDecoderTest {
+    private static final String NS = "org.lilyproject.repository.impl.test";
+
+    private RecordDecoder recordDecoder;
+    private FieldTypes fieldTypes;
+    private RecordId recordId;
+    private FieldTypeImpl field1;
+    private FieldTypeImpl field2;
+    private FieldTypeImpl field3;
+    private SchemaId recordTypeId = new SchemaIdImpl(UUID.randomUUID());
+
+    @Before
+    public void setUp() throws Exception {
+        field1 = newStringField("field1", Scope.NON_VERSIONED);
+        field2 = newStringField("field2", Scope.VERSIONED);
+        field3 = newStringField("field3", Scope.VERSIONED);
+
+        fieldTypes = mock(FieldTypes.class);
+        for (FieldTypeImpl field : new FieldTypeImpl[] {field1, field2, field3}) {
+            when(fieldTypes.getFieldType(field.getId())).thenReturn(field);
+            when(fieldTypes.getFieldType(field.getName())).thenReturn(field);
+        }
+
+        IdGeneratorImpl idGenerator = new IdGeneratorImpl();
+        recordId = idGenerator.newRecordId("decoder-test");
+        recordDecoder = new RecordDecoder(mockTypeManager(), idGenerator, new RecordFactoryImpl());
+    }
+
+    private TypeManager mockTypeManager() throws Exception {
+        RecordType recordType = mock(RecordType.class);
+        when(recordType.getName()).thenReturn(new QName(NS, "rt"));
+        TypeManager typeManager = mock(TypeManager.class);
+        when(typeManager.getRecordTypeById(recordTypeId, null)).thenReturn(recordType);
+        when(typeManager.getRecordTypeById(recordTypeId, 1L)).thenReturn(recordType);
+        return typeManager;
+    }
+
+    private FieldTypeImpl newStringField(String name, Scope scope) {
+        return new FieldTypeImpl(new SchemaIdImpl(UUID.randomUUID()), new StringValueType(), new QName(NS, name),
+                scope);
+    }
+
+    private KeyValue fieldCell(FieldTypeImpl field, long version, String value) throws Exception {
+        DataOutput output = new DataOutputImpl();
+        output.writeByte(FieldFlags.DEFAULT);
+        field.getValueType().write(value, output, new IdentityRecordStack());
+        return new KeyValue(recordId.toBytes(), RecordCf.DATA.bytes, field.getQualifier(), version,
+                output.toByteArray());
+    }
+
+    private KeyValue systemCell(RecordColumn column, long version, byte[] value) {
+        return new KeyValue(recordId.toBytes(), RecordCf.DATA.bytes, column.bytes, version, value);
+    }
+
+    private Result newResult(KeyValue... keyValues) {
+        List<KeyValue> kvs = new ArrayList<KeyValue>();
+        Collections.addAll(kvs, keyValues);
+        Collections.sort(kvs, KeyValue.COMPARATOR);
+        return new Result(kvs);
+    }
+
+    private Result twoVersionResult() throws Exception {
+        return newResult(
+                systemCell(RecordColumn.VERSION, 2L, Bytes.toBytes(2L)),
+                systemCell(RecordColumn.VERSION, 1L, Bytes.toBytes(1L)),
+                systemCell(RecordColumn.NON_VERSIONED_RT_ID, 1L, recordTypeId.getBytes()),
+                systemCell(RecordColumn.NON_VERSIONED_RT_VERSION, 1L, Bytes.toBytes(1L)),
+                fieldCell(field1, 1L, "nv"),
+                fieldCell(field2, 2L, "v2"),
+                fieldCell(field2, 1L, "v1"),
+                new KeyValue(recordId.toBytes(), RecordCf.DATA.bytes, field3.getQualifier(), 2L,
+                        FieldFlags.getDeleteMarker()),
+                fieldCell(field3, 1L, "deleted in v2"));
+    }
+
+    @Test
+    public void testDecodeLatest() throws Exception {
+        Record record = recordDecoder.decodeRecord(recordId, 2L, null, twoVersionResult(), fieldTypes);
+
+        assertEquals(new QName(NS, "rt"), record.getRecordTypeName());
+        assertEquals(Long.valueOf(2L), record.getVersion());
+        assertTrue(record.hasField(field1.getName()));
+        assertTrue(record.hasField(field2.getName()));
+        assertFalse(record.hasField(field3.getName()));
+        assertEquals("v2", record.getField(field2.getName()));
+        assertEquals(2, record.getFields().size());
+    }
+
+    @Test
+    public void testDecodeOlderVersion() throws Exception {
+        Record record = recordDecoder.decodeRecord(recordId, 1L, null, twoVersionResult(), fieldTypes);
+
+        assertEquals("nv", record.getField(field1.getName()));
+        assertEquals("v1", record.getField(field2.getName()));
+        assertEquals("deleted in v2", record.getField(field3.getName()));
+    }
+
+    @Test
+    public void testEqualsEagerRecord() throws Exception {
+        Record lazyRecord = recordDecoder.decodeRecord(recordId, 2L, null, twoVersionResult(), fieldTypes);
+
+        Record record = new RecordImpl(recordId);
+        record.setVersion(2L);
+        record.setRecordType(new QName(NS, "rt"), 1L);
+        record.setField(field1.getName(), "nv");
+        record.setField(field2.getName(), "v2");
+
+        assertEquals(record, lazyRecord);
+        assertEquals(lazyRecord, record);
+        assertEquals(record, lazyRecord.cloneRecord());
+    }
+
+    @Test
+    public void testSetAndDeleteBeforeDecode() throws Exception {
+        Record record = recordDecoder.decodeRecord(recordId, 2L, null, twoVersionResult(), fieldTypes);
+
+        record.setField(field1.getName(), "changed");
+        record.delete(field2.getName(), true);
+
+        assertEquals("changed", record.getField(field1.getName()));
+        assertFalse(record.hasField(field2.getName()));
+        assertNull(record.getMetadata(field2.getName()));
+        assertEquals(1, record.getFields().size());
+        assertEquals(Collections.singletonList(field2.getName()), record.getFieldsToDelete());
+    }
+
+    @Test
+    public void testCustomRecordFactory() throws Exception {
+        RecordFactory recordFactory = new RecordFactory() {
+            @Override
+            public Record newRecord() {
+                return new CustomRecord(null);
+            }
+
+            @Override
+            public Record newRecord(RecordId recordId) {
+                return new CustomRecord(recordId);
+            }
+        };
+        RecordDecoder decoder = new RecordDecoder(mockTypeManager(), new IdGeneratorImpl(), recordFactory);
+
+        Record record = decoder.decodeRecord(recordId, 2L, null, twoVersionResult(), fieldTypes);
+
+        assertTrue(record instanceof CustomRecord);
+        assertEquals("nv", record.getField(field1.getName()));
+        assertEquals("v2", record.getField(field2.getName()));
+        assertFalse(record.hasField(field3.getName()));
+    }
+
+    @Test
+    public void testWrappedRecordFactory() throws Exception {
+        final RecordFactory delegate = new RecordFactoryImpl();
+        RecordFactory recordFactory = new RecordFactory() {
+            @Override
+            public Record newRecord() {
+                return delegate.newRecord();
+            }
+
+            @Override
+            public Record newRecord(RecordId recordId) {
+                return delegate.newRecord(recordId);
+            }
+        };
+        RecordDecoder decoder = new RecordDecoder(mockTypeManager(), new IdGeneratorImpl(), recordFactory);
+
+        // The factory creates plain RecordImpls, so these can be decoded lazily
+        Record record = decoder.decodeRecord(recordId, 2L, null, twoVersionResult(), fieldTypes);
+        assertTrue(record instanceof LazyRecordImpl);
+        assertEquals("v2", record.getField(field2.getName()));
+    }
+
+    @Test
+    public void testCorruptField() throws Exception {
+        Result result = newResult(
+                systemCell(RecordColumn.VERSION, 1L, Bytes.toBytes(1L)),
+                fieldCell(field1, 1L, "nv"),
+                new KeyValue(recordId.toBytes(), RecordCf.DATA.bytes, field2.getQualifier(), 1L,
+                        new byte[] {FieldFlags.DEFAULT, 0x7f}));
+        Record record = recordDecoder.decodeRecord(recordId, 1L, null, result, fieldTypes);
+
+        // Only the fields that are accessed are decoded
+        assertEquals("nv", record.getField(field1.getName()));
+        assertTrue(record.hasField(field2.getName()));
+        try {
+            record.getField(field2.getName());
+            fail("expected FieldDecodingException");
+        } catch (FieldDecodingException expected) {
+        }
+    }
+
+    private static class CustomRecord extends RecordImpl {
+        CustomRecord(RecordId recordId) {
+            super(recordId);
+        }
+    }
+
+    @Test
+    public void testConcurrentReads() throws Exception {
+        for (int i = 0; i < 100; i++) {
+            final Record record = recordDecoder.decodeRecord(recordId, 1L, null, twoVersionResult(), fieldTypes);
+            final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int t = 0; t < 4; t++) {
+                Thread thread = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                            assertEquals("v1", record.getField(field2.getName()));
+                            assertEquals("deleted in v2", record.getField(field3.getName()));
+                            assertEquals(3, record.getFields().size());
+                            assertEquals("nv", record.getField(field1.getName()));
+                        } catch (Throwable e) {
+                            errors.add(e);
+                        }
+                    }
+                };
+                thread.start();
+                threads.add(thread);
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            assertEquals(Collections.emptyList(), errors);
+        }
+    }
+
+    @Test
+    public void testDecodeMultipleVersions() throws Exception {
+        Result result = newResult(
+                systemCell(RecordColumn.VERSION, 4L, Bytes.toBytes(4L)),
+                systemCell(RecordColumn.NON_VERSIONED_RT_ID, 1L, recordTypeId.getBytes()),
+                systemCell(RecordColumn.NON_VERSIONED_RT_VERSION, 1L, Bytes.toBytes(1L)),
+                fieldCell(field1, 1L, "nv"),
+                fieldCell(field2, 4L, "v4"),
+                fieldCell(field2, 2L, "v2"),
+                new KeyValue(recordId.toBytes(), RecordCf.DATA.bytes, field3.getQualifier(), 3L,
+                        FieldFlags.getDeleteMarker()),
+                fieldCell(field3, 2L, "v2"));
+
+        // The requested versions are not in any particular order
+        List<Record> records = recordDecoder.decodeRecords(recordId, Arrays.asList(3L, 1L, 4L, 2L), result,
+                fieldTypes);
+
+        Map<Long, Record> byVersion = new HashMap<Long, Record>();
+        for (Record record : records) {
+            byVersion.put(record.getVersion(), record);
+        }
+        assertEquals(4, byVersion.size());
+
+        assertEquals("nv", byVersion.get(1L).getField(field1.getName()));
+        assertFalse(byVersion.get(1L).hasField(field2.getName()));
+        assertFalse(byVersion.get(1L).hasField(field3.getName()));
+
+        assertEquals("v2", byVersion.get(2L).getField(field2.getName()));
+        assertEquals("v2", byVersion.get(2L).getField(field3.getName()));
+
+        assertEquals("v2", byVersion.get(3L).getField(field2.getName()));
+        assertFalse(byVersion.get(3L).hasField(field3.getName()));
+
+        assertEquals("nv", byVersion.get(4L).getField(field1.getName()));
+        assertEquals("v4", byVersion.get(4L).getField(field2.getName()));
+        assertFalse(byVersion.get(4L).hasField(field3.getName()));
+        assertEquals(new QName(NS, "rt"), byVersion.get(4L).getRecordTypeName());
+    }
+}
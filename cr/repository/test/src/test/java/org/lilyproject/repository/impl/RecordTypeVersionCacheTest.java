@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.repository.impl;
+
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RecordType;
+import org.lilyproject.repository.api.RecordTypeNotFoundException;
+import org.lilyproject.repository.api.SchemaId;
+import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.id.SchemaIdImpl;
+import org.mockito.Mockito;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RecordTypeVersionCacheTest {
+    private static final String NS = "org.lilyproject.repository.impl.test";
+
+    private AbstractTypeManager typeManager;
+    private SchemaId id = new SchemaIdImpl(UUID.randomUUID());
+    private QName name = new QName(NS, "rt");
+
+    @Before
+    public void setUp() throws Exception {
+        typeManager = mock(AbstractTypeManager.class, Mockito.CALLS_REAL_METHODS);
+        typeManager.schemaCache = new AbstractSchemaCache(null) {
+            @Override
+            protected TypeManager getTypeManager() {
+                return typeManager;
+            }
+        };
+        typeManager.schemaCache.updateRecordType(newRecordType(3L));
+
+        doReturn(newRecordType(1L)).when(typeManager).getRecordTypeByIdWithoutCache(id, 1L);
+        doThrow(new RecordTypeNotFoundException(id, 5L)).when(typeManager).getRecordTypeByIdWithoutCache(id, 5L);
+    }
+
+    private RecordType newRecordType(long version) {
+        return newRecordType(name, version);
+    }
+
+    private RecordType newRecordType(QName name, long version) {
+        RecordType recordType = new RecordTypeImpl(id, name);
+        recordType.setVersion(version);
+        return recordType;
+    }
+
+    @Test
+    public void testLatestVersionFromCache() throws Exception {
+        assertEquals(Long.valueOf(3L), typeManager.getRecordTypeById(id, 3L).getVersion());
+        assertEquals(Long.valueOf(3L), typeManager.getRecordTypeByName(name, null).getVersion());
+        verify(typeManager, never()).getRecordTypeByIdWithoutCache(Mockito.<SchemaId>any(), Mockito.<Long>any());
+    }
+
+    @Test
+    public void testOlderVersionReadOnce() throws Exception {
+        assertEquals(Long.valueOf(1L), typeManager.getRecordTypeById(id, 1L).getVersion());
+        assertEquals(Long.valueOf(1L), typeManager.getRecordTypeByName(name, 1L).getVersion());
+        assertEquals(Long.valueOf(1L), typeManager.getRecordTypeById(id, 1L).getVersion());
+        verify(typeManager, times(1)).getRecordTypeByIdWithoutCache(id, 1L);
+    }
+
+    @Test
+    public void testCachedVersionIsNotShared() throws Exception {
+        typeManager.getRecordTypeById(id, 1L).setName(new QName(NS, "changed"));
+        assertEquals(name, typeManager.getRecordTypeById(id, 1L).getName());
+    }
+
+    @Test
+    public void testRenameAppliesToCachedVersion() throws Exception {
+        assertEquals(name, typeManager.getRecordTypeById(id, 1L).getName());
+
+        QName newName = new QName(NS, "renamed");
+        typeManager.schemaCache.updateRecordType(newRecordType(newName, 3L));
+
+        assertEquals(newName, typeManager.getRecordTypeById(id, 1L).getName());
+        assertEquals(newName, typeManager.getRecordTypeByName(newName, 1L).getName());
+        verify(typeManager, times(1)).getRecordTypeByIdWithoutCache(id, 1L);
+    }
+
+    @Test(expected = RecordTypeNotFoundException.class)
+    public void testMissingVersion() throws Exception {
+        typeManager.getRecordTypeById(id, 5L);
+    }
+}
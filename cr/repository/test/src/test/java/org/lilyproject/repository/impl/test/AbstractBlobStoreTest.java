@@ -15,6 +15,7 @@
  */
 package org.lilyproject.repository.impl.test;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -35,6 +36,7 @@ import org.lilyproject.repository.api.BlobException;
 import org.lilyproject.repository.api.BlobManager;
 import org.lilyproject.repository.api.BlobNotFoundException;
 import org.lilyproject.repository.api.BlobReference;
+import org.lilyproject.repository.api.BlobStoreAccess;
 import org.lilyproject.repository.api.FieldNotFoundException;
 import org.lilyproject.repository.api.FieldType;
 import org.lilyproject.repository.api.FieldTypeEntry;
@@ -42,6 +44,8 @@ import org.lilyproject.repository.api.FieldTypeNotFoundException;
 import org.lilyproject.repository.api.HierarchyPath;
 import org.lilyproject.repository.api.InvalidRecordException;
 import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.RangedBlobAccess;
+import org.lilyproject.repository.api.RangedBlobStoreAccess;
 import org.lilyproject.repository.api.Record;
 import org.lilyproject.repository.api.RecordId;
 import org.lilyproject.repository.api.RecordNotFoundException;
@@ -51,14 +55,21 @@ import org.lilyproject.repository.api.RepositoryException;
 import org.lilyproject.repository.api.Scope;
 import org.lilyproject.repository.api.TypeManager;
 import org.lilyproject.repository.api.ValueType;
+import org.lilyproject.repository.impl.BlobAccessImpl;
 import org.lilyproject.repository.impl.BlobIncubatorMonitor;
 import org.lilyproject.repository.impl.BlobStoreAccessRegistry;
+import org.lilyproject.repository.impl.HBaseBlobStoreAccess;
 import org.lilyproject.repository.impl.id.IdGeneratorImpl;
 import org.lilyproject.repotestfw.RepositorySetup;
 import org.lilyproject.util.hbase.LilyHBaseSchema;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public abstract class AbstractBlobStoreTest {
     private static String namespace = "test";
@@ -938,6 +949,89 @@ public abstract class AbstractBlobStoreTest {
         }
     }
 
+    @Test
+    public void testHBaseChunks() throws Exception {
+        RangedBlobStoreAccess blobStoreAccess = new HBaseBlobStoreAccess(repoSetup.getHbaseTableFactory(), true, 100);
+
+        byte[] bytes = new byte[1050];
+        random.nextBytes(bytes);
+        Blob blob = new Blob("aMediaType", (long)bytes.length, "testHBaseChunks");
+        OutputStream outputStream = blobStoreAccess.getOutputStream(blob);
+        outputStream.write(bytes, 0, 30);
+        outputStream.write(bytes[30]);
+        outputStream.write(bytes, 31, bytes.length - 31);
+        outputStream.close();
+        byte[] blobKey = blob.getValue();
+
+        assertTrue(Arrays.equals(bytes, IOUtils.toByteArray(blobStoreAccess.getInputStream(blobKey))));
+
+        // Ranges within a chunk, over chunk boundaries and past the end of the blob
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 10, 20),
+                IOUtils.toByteArray(blobStoreAccess.getInputStream(blobKey, 10, 10))));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 150, 420),
+                IOUtils.toByteArray(blobStoreAccess.getInputStream(blobKey, 150, 270))));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 1000, 1050),
+                IOUtils.toByteArray(blobStoreAccess.getInputStream(blobKey, 1000, -1))));
+        assertEquals(0, IOUtils.toByteArray(blobStoreAccess.getInputStream(blobKey, 2000, 10)).length);
+
+        // Skipping ahead
+        InputStream inputStream = blobStoreAccess.getInputStream(blobKey);
+        assertEquals(500, inputStream.skip(500));
+        assertEquals(bytes[500] & 0xff, inputStream.read());
+        inputStream.close();
+
+        blobStoreAccess.delete(blobKey);
+        try {
+            blobStoreAccess.getInputStream(blobKey);
+            fail("The blob should have been deleted.");
+        } catch (BlobException expected) {
+        }
+    }
+
+    @Test
+    public void testReadRange() throws Exception {
+        byte[] small = new byte[10];
+        random.nextBytes(small);
+        byte[] medium = new byte[100];
+        random.nextBytes(medium);
+        byte[] large = new byte[2048];
+        random.nextBytes(large);
+
+        for (byte[] bytes : new byte[][] {small, medium, large}) {
+            Blob blob = writeBlob(bytes, "aMediaType", "testReadRange");
+            InputStream inputStream = ((RangedBlobAccess)testBlobStoreAccessRegistry.getBlobAccess(blob))
+                    .getInputStream(5, 4);
+            try {
+                assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 5, 9), IOUtils.toByteArray(inputStream)));
+            } finally {
+                IOUtils.closeQuietly(inputStream);
+            }
+        }
+    }
+
+    @Test
+    public void testReadRangeWithoutRangedBlobStore() throws Exception {
+        final byte[] bytes = new byte[100];
+        random.nextBytes(bytes);
+        byte[] blobKey = Bytes.toBytes("key");
+        BlobStoreAccess blobStoreAccess = mock(BlobStoreAccess.class);
+        when(blobStoreAccess.getInputStream(blobKey)).thenAnswer(new Answer<InputStream>() {
+            @Override
+            public InputStream answer(InvocationOnMock invocation) {
+                return new ByteArrayInputStream(bytes);
+            }
+        });
+        RangedBlobAccess blobAccess = new BlobAccessImpl(new Blob("aMediaType", 100L, "aName"), blobStoreAccess,
+                blobKey);
+
+        // The range is read by skipping over the start of the complete blob
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 5, 9),
+                IOUtils.toByteArray(blobAccess.getInputStream(5, 4))));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(bytes, 90, 100),
+                IOUtils.toByteArray(blobAccess.getInputStream(90, -1))));
+        assertEquals(0, IOUtils.toByteArray(blobAccess.getInputStream(200, 10)).length);
+    }
+
     @Test
     public void testBadEncoding() throws Exception {
         Blob blob = new Blob("aMediaType", (long) 10, "aName");
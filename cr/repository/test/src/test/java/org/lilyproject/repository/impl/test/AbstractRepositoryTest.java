@@ -45,6 +45,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.lilyproject.bytes.api.ByteArray;
+import org.lilyproject.repository.api.BatchRecordException;
 import org.lilyproject.repository.api.Blob;
 import org.lilyproject.repository.api.CompareOp;
 import org.lilyproject.repository.api.ConcurrentRecordUpdateException;
@@ -1638,6 +1639,71 @@ public abstract class AbstractRepositoryTest {
         assertEquals(ResponseStatus.UP_TO_DATE, resultRecord.getResponseStatus());
     }
 
+    @Test
+    public void testCreateOrUpdateList() throws Exception {
+        Record existingRecord = createDefaultRecord();
+
+        Record record1 = repository.newRecord(existingRecord.getId());
+        record1.setField(fieldType1.getName(), "value2");
+        Record record2 = repository.newRecord(idGenerator.newRecordId());
+        record2.setRecordType(recordType1.getName(), recordType1.getVersion());
+        record2.setField(fieldType1.getName(), "value1");
+        Record record3 = repository.newRecord(existingRecord.getId());
+        record3.setField(fieldType2.getName(), 789);
+
+        List<Record> resultRecords = repository.createOrUpdate(Arrays.asList(record1, record2, record3), true);
+        assertEquals(3, resultRecords.size());
+        assertEquals(ResponseStatus.UPDATED, resultRecords.get(0).getResponseStatus());
+        assertEquals(ResponseStatus.CREATED, resultRecords.get(1).getResponseStatus());
+        assertEquals(record2.getId(), resultRecords.get(1).getId());
+        // The same record occurring twice is updated twice
+        assertEquals(ResponseStatus.UPDATED, resultRecords.get(2).getResponseStatus());
+
+        Record readRecord = repository.read(existingRecord.getId());
+        assertEquals("value2", readRecord.getField(fieldType1.getName()));
+        assertEquals(789, readRecord.getField(fieldType2.getName()));
+        assertEquals("value1", repository.read(record2.getId()).getField(fieldType1.getName()));
+
+        resultRecords = repository.createOrUpdate(Arrays.asList(record1, record2), true);
+        assertEquals(ResponseStatus.UP_TO_DATE, resultRecords.get(0).getResponseStatus());
+        assertEquals(ResponseStatus.UP_TO_DATE, resultRecords.get(1).getResponseStatus());
+    }
+
+    @Test
+    public void testUpdateList() throws Exception {
+        Record record1 = createDefaultRecord();
+        Record record2 = createDefaultRecord();
+
+        Record update1 = repository.newRecord(record1.getId());
+        update1.setField(fieldType2.getName(), 789);
+        Record update2 = repository.newRecord(record2.getId());
+        update2.setField(fieldType2.getName(), 123);
+
+        List<Record> resultRecords = repository.update(Arrays.asList(update1, update2), false, true);
+        assertEquals(ResponseStatus.UPDATED, resultRecords.get(0).getResponseStatus());
+        assertEquals(Long.valueOf(2), resultRecords.get(0).getVersion());
+        assertEquals(ResponseStatus.UP_TO_DATE, resultRecords.get(1).getResponseStatus());
+        assertEquals(Long.valueOf(1), resultRecords.get(1).getVersion());
+        assertEquals(789, repository.read(record1.getId()).getField(fieldType2.getName()));
+
+        // A failing record does not stop the records after it
+        Record update3 = repository.newRecord(idGenerator.newRecordId());
+        update3.setField(fieldType2.getName(), 123);
+        update2.setField(fieldType2.getName(), 456);
+        try {
+            repository.update(Arrays.asList(update3, update2), false, true);
+            fail("expected BatchRecordException");
+        } catch (BatchRecordException e) {
+            assertEquals(Collections.singleton(0), e.getFailures().keySet());
+            assertTrue(e.getFailures().get(0).contains(RecordNotFoundException.class.getName()));
+            assertEquals(Collections.singletonList(1), e.getSucceeded());
+            assertNull(e.getRecords().get(0));
+            assertEquals(ResponseStatus.UPDATED, e.getRecords().get(1).getResponseStatus());
+            assertEquals(Long.valueOf(2), e.getRecords().get(1).getVersion());
+        }
+        assertEquals(456, repository.read(record2.getId()).getField(fieldType2.getName()));
+    }
+
     @Test
     public void testUpdateMutableFieldsRecordType() throws Exception {
         Record record = repository.newRecord();
@@ -16,16 +16,34 @@
 package org.lilyproject.repository.impl.test;
 
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.lilyproject.hadooptestfw.TestHelper;
+import org.lilyproject.repository.api.FieldTypes;
+import org.lilyproject.repository.api.QName;
+import org.lilyproject.repository.api.Record;
+import org.lilyproject.repository.api.RecordNotFoundException;
 import org.lilyproject.repository.api.Repository;
+import org.lilyproject.repository.api.ResponseStatus;
 import org.lilyproject.repository.api.TypeManager;
+import org.lilyproject.repository.impl.HBaseRepository;
 import org.lilyproject.repository.impl.HBaseTypeManager;
+import org.lilyproject.repository.spi.FieldDependentRecordUpdateHook;
+import org.lilyproject.repository.spi.RecordUpdateHook;
 import org.lilyproject.util.io.Closer;
+import org.lilyproject.util.repo.RecordEvent;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class HBaseRepositoryTest extends AbstractRepositoryTest {
 
@@ -54,4 +72,149 @@ public class HBaseRepositoryTest extends AbstractRepositoryTest {
         assertEquals(fieldType1, newTypeManager.getFieldTypeByName(fieldType1.getName()));
         Closer.close(newTypeManager);
     }
+
+    @Test
+    public void testBlindWrite() throws Exception {
+        Record record = createDefaultRecord();
+
+        Record updateRecord = repository.newRecord(record.getId());
+        updateRecord.setField(fieldType1.getName(), "blind");
+        updateRecord.getAttributes().put(HBaseRepository.BLIND_WRITE_ATTRIBUTE, "true");
+        Record updatedRecord = repository.update(updateRecord);
+
+        assertEquals(ResponseStatus.UPDATED, updatedRecord.getResponseStatus());
+        // Without update hooks nothing is read, so the version and record type are unknown
+        assertNull(updatedRecord.getVersion());
+        assertNull(updatedRecord.getRecordTypeName());
+        Record readRecord = repository.read(record.getId());
+        assertEquals("blind", readRecord.getField(fieldType1.getName()));
+        assertEquals(record.getVersion(), readRecord.getVersion());
+        assertEquals(record.getRecordTypeName(), readRecord.getRecordTypeName());
+
+        // A regular update after the blind write still succeeds
+        updateRecord = repository.newRecord(record.getId());
+        updateRecord.setField(fieldType1.getName(), "not blind");
+        assertEquals(ResponseStatus.UPDATED, repository.update(updateRecord).getResponseStatus());
+        assertEquals("not blind", repository.read(record.getId()).getField(fieldType1.getName()));
+    }
+
+    @Test
+    public void testBlindWriteOnDeletedRecord() throws Exception {
+        Record record = createDefaultRecord();
+        repository.delete(record.getId());
+
+        Record updateRecord = repository.newRecord(record.getId());
+        updateRecord.setField(fieldType1.getName(), "blind");
+        updateRecord.getAttributes().put(HBaseRepository.BLIND_WRITE_ATTRIBUTE, "true");
+        try {
+            repository.update(updateRecord);
+            fail("expected RecordNotFoundException");
+        } catch (RecordNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void testUpdateHookFieldDependencies() throws Exception {
+        Record record = createDefaultRecord();
+        final QName field2 = new QName(fieldType1.getName().getNamespace(), "field2");
+        QName field3 = new QName(fieldType1.getName().getNamespace(), "field3");
+
+        final List<Record> originalRecords = new ArrayList<Record>();
+        final List<RecordEvent> recordEvents = new ArrayList<RecordEvent>();
+        RecordUpdateHook hook = new FieldDependentRecordUpdateHook() {
+            @Override
+            public Set<QName> getFieldDependencies() {
+                return Collections.singleton(field2);
+            }
+
+            @Override
+            public void beforeUpdate(Record record, Record originalRecord, Repository repository,
+                    FieldTypes fieldTypes, RecordEvent recordEvent) {
+                originalRecords.add(originalRecord);
+                recordEvents.add(recordEvent);
+            }
+
+            @Override
+            public void beforeCreate(Record newRecord, Repository repository, FieldTypes fieldTypes,
+                    RecordEvent recordEvent) {
+            }
+
+            @Override
+            public void beforeDelete(Record originalRecord, Repository repository, FieldTypes fieldTypes,
+                    RecordEvent recordEvent) {
+            }
+        };
+
+        HBaseRepository hbaseRepository = (HBaseRepository)repository;
+        hbaseRepository.setRecordUpdateHooks(Collections.singletonList(hook));
+        try {
+            // A regular update reads the updated field plus the field the hook depends on
+            Record updateRecord = repository.newRecord(record.getId());
+            updateRecord.setField(fieldType1.getName(), "value2");
+            repository.update(updateRecord);
+
+            // A blind write only reads the field the hook depends on
+            updateRecord = repository.newRecord(record.getId());
+            updateRecord.setField(fieldType1.getName(), "blind");
+            updateRecord.getAttributes().put(HBaseRepository.BLIND_WRITE_ATTRIBUTE, "true");
+            Record updatedRecord = repository.update(updateRecord);
+            assertEquals(record.getVersion(), updatedRecord.getVersion());
+            assertEquals(record.getRecordTypeName(), updatedRecord.getRecordTypeName());
+        } finally {
+            hbaseRepository.setRecordUpdateHooks(null);
+        }
+
+        assertEquals(2, originalRecords.size());
+        assertEquals(123, originalRecords.get(0).getField(field2));
+        assertEquals("value1", originalRecords.get(0).getField(fieldType1.getName()));
+        assertFalse(originalRecords.get(0).hasField(field3));
+        assertEquals(123, originalRecords.get(1).getField(field2));
+        assertFalse(originalRecords.get(1).hasField(fieldType1.getName()));
+        assertEquals(record.getRecordTypeName(), originalRecords.get(1).getRecordTypeName());
+        // The blind write flag is not passed on as an event attribute
+        assertFalse(recordEvents.get(1).getAttributes().containsKey(HBaseRepository.BLIND_WRITE_ATTRIBUTE));
+
+        assertEquals("blind", repository.read(record.getId()).getField(fieldType1.getName()));
+    }
+
+    @Test
+    public void testUpdateHookWithoutFieldDependencies() throws Exception {
+        Record record = createDefaultRecord();
+        QName field3 = new QName(fieldType1.getName().getNamespace(), "field3");
+
+        final List<Record> originalRecords = new ArrayList<Record>();
+        RecordUpdateHook hook = new RecordUpdateHook() {
+            @Override
+            public void beforeUpdate(Record record, Record originalRecord, Repository repository,
+                    FieldTypes fieldTypes, RecordEvent recordEvent) {
+                originalRecords.add(originalRecord);
+            }
+
+            @Override
+            public void beforeCreate(Record newRecord, Repository repository, FieldTypes fieldTypes,
+                    RecordEvent recordEvent) {
+            }
+
+            @Override
+            public void beforeDelete(Record originalRecord, Repository repository, FieldTypes fieldTypes,
+                    RecordEvent recordEvent) {
+            }
+        };
+
+        HBaseRepository hbaseRepository = (HBaseRepository)repository;
+        hbaseRepository.setRecordUpdateHooks(Collections.singletonList(hook));
+        try {
+            // The hook might need any field, so a blind write is done as a regular update
+            Record updateRecord = repository.newRecord(record.getId());
+            updateRecord.setField(fieldType1.getName(), "blind");
+            updateRecord.getAttributes().put(HBaseRepository.BLIND_WRITE_ATTRIBUTE, "true");
+            repository.update(updateRecord);
+        } finally {
+            hbaseRepository.setRecordUpdateHooks(null);
+        }
+
+        assertEquals(1, originalRecords.size());
+        assertEquals("value1", originalRecords.get(0).getField(fieldType1.getName()));
+        assertTrue(originalRecords.get(0).hasField(field3));
+    }
 }
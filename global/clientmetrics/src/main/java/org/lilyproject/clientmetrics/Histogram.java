@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram with logarithmic buckets, along the lines of HdrHistogram: each power of two is
+ * divided in 32 linear sub-buckets, so values are kept with a relative precision of about 3% whatever
+ * their magnitude, while the memory use does not depend on the number of recorded values.
+ *
+ * <p>Values are recorded with a resolution of 1/1000, which is a microsecond for timings in milliseconds.
+ * Negative values are counted as 0, values beyond the range of the histogram (about 7 * 10^10) are counted in
+ * the last bucket.</p>
+ *
+ * <p>Recording is lock-free and can be done concurrently by many threads.</p>
+ */
+class Histogram {
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT + 2) * SUB_BUCKET_COUNT;
+    private static final double UNITS_PER_VALUE = 1000d;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    public void record(double value) {
+        counts.incrementAndGet(getBucketIndex(toUnits(value)));
+    }
+
+    /**
+     * Returns the value below which the given percentage of the recorded values falls, or 0 if no values
+     * have been recorded.
+     *
+     * @param percentile number between 0 and 100
+     */
+    public double getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long)Math.ceil(total * percentile / 100d));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return getBucketValue(i) / UNITS_PER_VALUE;
+            }
+        }
+        // Only reachable if values were recorded concurrently with this method
+        return getBucketValue(BUCKET_COUNT - 1) / UNITS_PER_VALUE;
+    }
+
+    private static long toUnits(double value) {
+        if (value <= 0) {
+            return 0;
+        }
+        return (long)(value * UNITS_PER_VALUE);
+    }
+
+    static int getBucketIndex(long units) {
+        if (units < 2 * SUB_BUCKET_COUNT) {
+            // The first two ranges are linear with a bucket width of 1
+            return (int)units;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(units) - SUB_BUCKET_BITS;
+        if (exponent > MAX_EXPONENT) {
+            return BUCKET_COUNT - 1;
+        }
+        // subBucket is in the range [SUB_BUCKET_COUNT, 2 * SUB_BUCKET_COUNT[
+        int subBucket = (int)(units >>> exponent);
+        return exponent * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * Returns the value in the middle of the given bucket.
+     */
+    static double getBucketValue(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index >> SUB_BUCKET_BITS) - 1;
+        long subBucket = (index & (SUB_BUCKET_COUNT - 1)) + SUB_BUCKET_COUNT;
+        long lowerBound = subBucket << exponent;
+        return lowerBound + ((1L << exponent) - 1) / 2d;
+    }
+}
@@ -19,11 +19,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
-import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Pattern;
 
 import org.joda.time.DateTime;
@@ -44,15 +46,19 @@ import org.joda.time.DateTime;
  *
  * <p>The metrics files produced by this class are human readable but also machine readable, they can
  * be parsed using {@link org.lilyproject.clientmetrics.postproc.MetricsParser}.
+ *
+ * <p>Metrics can be incremented concurrently by many threads without them blocking each other: counts and
+ * sums are accumulated in per-thread stripes, and the median and percentiles are calculated from a
+ * fixed-size {@link Histogram}, so they have a precision of about 3%.
  */
 public class Metrics {
-    private Map<String, Metric> metrics = new TreeMap<String, Metric>();
+    private ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
     private int intervalDuration = 1000 * 30;
-    private DateTime intervalStartedAt;
-    private DateTime startedAt;
+    private volatile long intervalStartedAt;
+    private final AtomicLong startedAt = new AtomicLong();
     private PrintStream reportStream;
     private MetricsPlugin plugin;
-    private boolean inReport;
+    private final AtomicBoolean inReport = new AtomicBoolean();
     private int threadCount = 1;
     private Table table;
     private boolean inHeader;
@@ -81,6 +87,10 @@ public class Metrics {
         table.addColumn(-1, "Maximum", "f");
         table.addColumn(-1, "Alltime ops", "d");
         table.addColumn(-1, "Alltime avg", "f");
+        // The percentiles come last, so that the columns before them stay where MetricsParser expects them
+        table.addColumn(-1, "95th pct", "f");
+        table.addColumn(-1, "99th pct", "f");
+        table.addColumn(-1, "99.9th pct", "f");
         table.finishDefinition();
     }
 
@@ -106,8 +116,8 @@ public class Metrics {
         printReport();
         printGlobalOpsPerSec();
         metrics.clear();
-        intervalStartedAt = null;
-        startedAt = null;
+        intervalStartedAt = 0;
+        startedAt.set(0);
 
         reportStream.println("");
         reportStream.println("Metrics have been reset");
@@ -150,11 +160,11 @@ public class Metrics {
         return intervalDuration;
     }
 
-    public synchronized void increment(String name, double value) {
+    public void increment(String name, double value) {
         increment(name, null, 1, value);
     }
 
-    public synchronized void increment(String name, String type, double value) {
+    public void increment(String name, String type, double value) {
         increment(name, type, 1, value);
     }
 
@@ -172,36 +182,46 @@ public class Metrics {
      * @param value the value for the metric, such as a duration (typically in ms), an operation count, or whatever
      *              quantity you want to keep track of such as free memory, cpu load, ...
      */
-    public synchronized void increment(String name, String type, int operations, double value) {
-        if (type != null && !NAME_PATTERN.matcher(type).matches()) {
-            // Being strict here, can be helpful for further reporting
-            throw new IllegalArgumentException("Invalid type name, should be alphanumeric only: " + type);
-        }
-        if (name.indexOf(':') > 0) {
-            // Colons are used to separate the type from the name in the output, and type is optional, so if
-            // would allow colon in the name we would not be able to know what it stands for
-            throw new IllegalArgumentException("Usage of the colon character is reserved in the metric name: " + name);
+    public void increment(String name, String type, int operations, double value) {
+        Metric metric = metrics.get(name);
+        if (metric == null) {
+            // Only validate the first time we see a name, not on each increment
+            if (type != null && !NAME_PATTERN.matcher(type).matches()) {
+                // Being strict here, can be helpful for further reporting
+                throw new IllegalArgumentException("Invalid type name, should be alphanumeric only: " + type);
+            }
+            if (name.indexOf(':') > 0) {
+                // Colons are used to separate the type from the name in the output, and type is optional, so if
+                // would allow colon in the name we would not be able to know what it stands for
+                throw new IllegalArgumentException("Usage of the colon character is reserved in the metric name: " + name);
+            }
+
+            metric = new Metric(type);
+            Metric existing = metrics.putIfAbsent(name, metric);
+            if (existing != null) {
+                metric = existing;
+            }
         }
 
-        if (intervalStartedAt == null) {
+        long now = System.currentTimeMillis();
+        if (startedAt.get() == 0 && startedAt.compareAndSet(0, now)) {
             // it's our very first value
-            intervalStartedAt = new DateTime();
-            startedAt = new DateTime();
+            intervalStartedAt = now;
         }
 
-        if (!inReport && System.currentTimeMillis() - intervalStartedAt.getMillis() >= intervalDuration) {
-            printReport();
-            for (Metric metric : metrics.values()) {
-                metric.rollInterval();
+        // Only one thread does the report, the others continue to add their values to the next interval.
+        // The inReport flag also avoids that values added by plugins while reporting cause a nested report.
+        if (now - intervalStartedAt >= intervalDuration && inReport.compareAndSet(false, true)) {
+            try {
+                synchronized (this) {
+                    if (intervalStartedAt != 0 && now - intervalStartedAt >= intervalDuration) {
+                        doPrintReport(true);
+                        intervalStartedAt = System.currentTimeMillis();
+                    }
+                }
+            } finally {
+                inReport.set(false);
             }
-            intervalStartedAt = new DateTime();
-        }
-
-        Metric metric = metrics.get(name);
-        if (metric == null) {
-            metric = new Metric();
-            metric.type = type;
-            metrics.put(name, metric);
         }
 
         metric.add(operations, value);
@@ -209,21 +229,33 @@ public class Metrics {
         plugin.afterIncrement(this);
     }
 
-    public void printReport() {
-        if (intervalStartedAt == null) {
-            return;
+    public synchronized void printReport() {
+        boolean nested = !inReport.compareAndSet(false, true);
+        try {
+            doPrintReport(false);
+        } finally {
+            if (!nested) {
+                inReport.set(false);
+            }
         }
+    }
 
-        inReport = true;
+    /**
+     * @param rollInterval if true, the intervals of the metrics are reset as part of the report
+     */
+    private void doPrintReport(boolean rollInterval) {
+        if (intervalStartedAt == 0) {
+            return;
+        }
 
         plugin.beforeReport(this);
 
         long now = System.currentTimeMillis();
-        long actualIntervalDuration = now - intervalStartedAt.getMillis();
+        long actualIntervalDuration = now - intervalStartedAt;
 
         table.fullSepLine();
-        table.crossColumn("Interval started at: " + intervalStartedAt + " (duration: " + (actualIntervalDuration / 1000) + "s).");
-        table.crossColumn("Measurements started at: " + startedAt + " (duration: " + formatDuration(now - startedAt.getMillis()) + ")");
+        table.crossColumn("Interval started at: " + new DateTime(intervalStartedAt) + " (duration: " + (actualIntervalDuration / 1000) + "s).");
+        table.crossColumn("Measurements started at: " + new DateTime(startedAt.get()) + " (duration: " + formatDuration(now - startedAt.get()) + ")");
 
 
         List<String> extra = plugin.getExtraInfoLines();
@@ -237,9 +269,13 @@ public class Metrics {
 
         Map<String, CountAndValue> statByType = new TreeMap<String, CountAndValue>();
 
-        for (Map.Entry<String, Metric> entry : metrics.entrySet()) {
+        for (Map.Entry<String, Metric> entry : new TreeMap<String, Metric>(metrics).entrySet()) {
             String name = entry.getKey();
             Metric metric = entry.getValue();
+            // After the roll, threads which are still adding to the old interval might lose a few values
+            IntervalStats interval = rollInterval ? metric.rollInterval() : metric.interval;
+            long intervalCount = interval.stats.getCount();
+            double intervalValue = interval.stats.getValue();
 
             if (metric.type != null) {
                 name = metric.type + ":" + name;
@@ -249,17 +285,19 @@ public class Metrics {
                     statByType.put(metric.type, stat);
                 }
 
-                stat.count += metric.getIntervalCount();
-                stat.value += metric.getIntervalValue();
+                stat.count += intervalCount;
+                stat.value += intervalValue;
             }
 
-            table.columns(name, metric.getIntervalCount(), metric.getIntervalAverage(), metric.getIntervalMedian(),
-                    metric.getIntervalMin(), metric.getIntervalMax(), metric.getAllTimeCount(),
-                    metric.getAllTimeAverage());
+            double intervalMin = interval.stats.getMin();
+            double intervalMax = interval.stats.getMax();
+            table.columns(name, intervalCount, intervalCount == 0 ? 0 : intervalValue / (double)intervalCount,
+                    interval.getPercentile(50), intervalMin, intervalMax, metric.allTime.getCount(),
+                    metric.allTime.getAverage(), interval.getPercentile(95), interval.getPercentile(99),
+                    interval.getPercentile(99.9));
         }
         table.columnSepLine();
 
-
         if (statByType.size() > 0) {
             int i = 0;
             for (Map.Entry<String, CountAndValue> entry : statByType.entrySet()) {
@@ -285,16 +323,14 @@ public class Metrics {
         }
 
         reportStream.flush();
-
-        inReport = false;
     }
 
     private void printGlobalOpsPerSec() {
-        if (startedAt == null) {
+        if (startedAt.get() == 0) {
             return;
         }
 
-        double testDuration = System.currentTimeMillis() - startedAt.getMillis();
+        double testDuration = System.currentTimeMillis() - startedAt.get();
 
         Map<String, CountAndValue> statByType = new TreeMap<String, CountAndValue>();
 
@@ -308,8 +344,8 @@ public class Metrics {
                     statByType.put(metric.type, stat);
                 }
 
-                stat.count += metric.getAllTimeCount();
-                stat.value += metric.getAllTimeValue();
+                stat.count += metric.allTime.getCount();
+                stat.value += metric.allTime.getValue();
             }
         }
 
@@ -346,20 +382,12 @@ public class Metrics {
     }
 
     private static class Metric {
-        private List<Double> values = new ArrayList<Double>(1000);
-
-        String type;
-
-        int intervalCount;
-        double intervalValue;
-        double intervalMin;
-        double intervalMax;
+        final String type;
+        volatile IntervalStats interval = new IntervalStats();
+        final StripedStats allTime = new StripedStats();
 
-        int allTimeCount;
-        double allTimeValue;
-
-        Metric() {
-            rollInterval();
+        Metric(String type) {
+            this.type = type;
         }
 
         /**
@@ -371,82 +399,125 @@ public class Metrics {
                 return;
             }
 
-            intervalCount += operations;
-            intervalValue += value;
-            allTimeCount += operations;
-            allTimeValue += value;
-
             double valuePerOp = value / (double)operations;
-
-            if (valuePerOp < intervalMin) {
-                intervalMin = valuePerOp;
-            }
-
-            if (valuePerOp > intervalMax) {
-                intervalMax = valuePerOp;
-            }
-
-            values.add(valuePerOp);
+            IntervalStats current = interval;
+            current.stats.add(operations, value, valuePerOp);
+            current.histogram.record(valuePerOp);
+            allTime.add(operations, value, valuePerOp);
         }
 
-        public void rollInterval() {
-            intervalCount = 0;
-            intervalValue = 0;
-            intervalMin = Integer.MAX_VALUE;
-            intervalMax = 0;
-            values.clear();
+        /**
+         * Starts a new interval, returns the stats of the previous one.
+         */
+        public IntervalStats rollInterval() {
+            IntervalStats previous = interval;
+            interval = new IntervalStats();
+            return previous;
         }
+    }
 
-        public int getIntervalCount() {
-            return intervalCount;
-        }
+    private static class IntervalStats {
+        final StripedStats stats = new StripedStats();
+        final Histogram histogram = new Histogram();
 
-        public double getIntervalValue() {
-            return intervalValue;
+        /**
+         * Percentile of the value per op, kept within the exact minimum and maximum to hide the imprecision
+         * of the histogram for the extremes.
+         */
+        double getPercentile(double percentile) {
+            if (stats.getCount() == 0) {
+                return 0;
+            }
+            return Math.min(Math.max(histogram.getPercentile(percentile), stats.getMin()), stats.getMax());
         }
+    }
 
-        public int getAllTimeCount() {
-            return allTimeCount;
+    /**
+     * Count, sum, minimum and maximum which are updated without locking. Each thread updates one of a number
+     * of stripes, so that threads rarely compete for the same cell. Reading combines the stripes.
+     */
+    private static class StripedStats {
+        private static final int STRIPE_COUNT = 16;
+        private final Cell[] cells = new Cell[STRIPE_COUNT];
+
+        StripedStats() {
+            for (int i = 0; i < STRIPE_COUNT; i++) {
+                cells[i] = new Cell();
+            }
         }
 
-        public double getIntervalAverage() {
-            return intervalCount == 0 ? 0 : intervalValue / (double)intervalCount;
+        public void add(int operations, double value, double valuePerOp) {
+            Cell cell = cells[(int)Thread.currentThread().getId() & (STRIPE_COUNT - 1)];
+            cell.count.addAndGet(operations);
+            addDouble(cell.value, value);
+
+            long current;
+            while (valuePerOp < Double.longBitsToDouble(current = cell.min.get())) {
+                if (cell.min.compareAndSet(current, Double.doubleToLongBits(valuePerOp))) {
+                    break;
+                }
+            }
+            while (valuePerOp > Double.longBitsToDouble(current = cell.max.get())) {
+                if (cell.max.compareAndSet(current, Double.doubleToLongBits(valuePerOp))) {
+                    break;
+                }
+            }
         }
 
-        public double getAllTimeAverage() {
-            return allTimeCount == 0 ? 0 : allTimeValue / (double)allTimeCount;
+        private static void addDouble(AtomicLong bits, double delta) {
+            long current;
+            do {
+                current = bits.get();
+            } while (!bits.compareAndSet(current, Double.doubleToLongBits(Double.longBitsToDouble(current) + delta)));
         }
 
-        public double getAllTimeValue() {
-            return allTimeValue;
+        public long getCount() {
+            long count = 0;
+            for (Cell cell : cells) {
+                count += cell.count.get();
+            }
+            return count;
         }
 
-        public double getIntervalMin() {
-            return intervalCount == 0 ? 0 : intervalMin;
+        public double getValue() {
+            double value = 0;
+            for (Cell cell : cells) {
+                value += Double.longBitsToDouble(cell.value.get());
+            }
+            return value;
         }
 
-        public double getIntervalMax() {
-            return intervalMax;
+        public double getAverage() {
+            long count = getCount();
+            return count == 0 ? 0 : getValue() / (double)count;
         }
 
-        public double getIntervalMedian() {
-            if (values.size() == 0) {
-                return 0;
+        public double getMin() {
+            double min = Double.MAX_VALUE;
+            for (Cell cell : cells) {
+                min = Math.min(min, Double.longBitsToDouble(cell.min.get()));
             }
+            return min == Double.MAX_VALUE ? 0 : min;
+        }
 
-            Collections.sort(values);
-            int middle = values.size() / 2;
-
-            if (values.size() % 2 == 1) {
-                return values.get(middle);
-            } else {
-                return (values.get(middle - 1) + values.get(middle)) / 2d;
+        public double getMax() {
+            double max = 0;
+            for (Cell cell : cells) {
+                max = Math.max(max, Double.longBitsToDouble(cell.max.get()));
             }
+            return max;
         }
     }
 
+    private static class Cell {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong value = new AtomicLong(Double.doubleToLongBits(0d));
+        final AtomicLong min = new AtomicLong(Double.doubleToLongBits(Double.MAX_VALUE));
+        final AtomicLong max = new AtomicLong(Double.doubleToLongBits(0d));
+    }
+
     private static class CountAndValue {
-        int count;
+        long count;
         double value;
     }
 }
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.clientmetrics;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+    @Test
+    public void testEmpty() {
+        Histogram histogram = new Histogram();
+        assertEquals(0d, histogram.getPercentile(50), 0d);
+        assertEquals(0d, histogram.getPercentile(99), 0d);
+    }
+
+    @Test
+    public void testBucketBoundaries() {
+        // Linear buckets of width 1 up to 64 units
+        for (int units = 0; units < 64; units++) {
+            assertEquals(units, Histogram.getBucketIndex(units));
+            assertEquals(units, Histogram.getBucketValue(units), 0d);
+        }
+        assertEquals(64, Histogram.getBucketIndex(64));
+        assertEquals(64, Histogram.getBucketIndex(65));
+        assertEquals(65, Histogram.getBucketIndex(66));
+        assertEquals(95, Histogram.getBucketIndex(127));
+        assertEquals(96, Histogram.getBucketIndex(128));
+        assertEquals(96, Histogram.getBucketIndex(131));
+        assertEquals(97, Histogram.getBucketIndex(132));
+
+        // Buckets are contiguous and the value of a bucket lies within the range of values it counts
+        int previousIndex = 0;
+        for (long units = 1; units < 1000000; units++) {
+            int index = Histogram.getBucketIndex(units);
+            assertTrue("units " + units, index == previousIndex || index == previousIndex + 1);
+            previousIndex = index;
+
+            double bucketValue = Histogram.getBucketValue(index);
+            assertEquals("units " + units, units, bucketValue, units / 32d);
+        }
+    }
+
+    @Test
+    public void testSmallValues() {
+        Histogram histogram = new Histogram();
+        histogram.record(0.005);
+        assertEquals(0.005, histogram.getPercentile(50), 0.0000001);
+
+        histogram = new Histogram();
+        histogram.record(-3);
+        histogram.record(0);
+        assertEquals(0d, histogram.getPercentile(100), 0d);
+    }
+
+    @Test
+    public void testValuesBeyondRange() {
+        int lastIndex = Histogram.getBucketIndex(Long.MAX_VALUE);
+        assertEquals(lastIndex, Histogram.getBucketIndex(1L << 50));
+
+        Histogram histogram = new Histogram();
+        histogram.record(1e11);
+        histogram.record(1e15);
+        double max = Histogram.getBucketValue(lastIndex) / 1000d;
+        assertEquals(max, histogram.getPercentile(50), 0d);
+        assertEquals(max, histogram.getPercentile(100), 0d);
+        assertTrue(max > 6.8e10);
+
+        // Values just within the range are not counted in the last bucket
+        assertTrue(Histogram.getBucketIndex(1L << 45) < lastIndex);
+    }
+
+    @Test
+    public void testPercentilesUniform() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(500d, histogram.getPercentile(50), 500 * 0.03);
+        assertEquals(990d, histogram.getPercentile(99), 990 * 0.03);
+        assertEquals(1000d, histogram.getPercentile(100), 1000 * 0.03);
+        // Percentile 0 gives the smallest value
+        assertEquals(1d, histogram.getPercentile(0), 1 * 0.03);
+    }
+
+    @Test
+    public void testPercentilesSkewed() {
+        // 98% fast calls of 2 ms, 2% slow calls of 500 ms
+        Histogram histogram = new Histogram();
+        Random random = new Random(1);
+        for (int i = 0; i < 10000; i++) {
+            histogram.record(random.nextInt(100) < 98 ? 2 : 500);
+        }
+
+        assertEquals(2d, histogram.getPercentile(50), 2 * 0.03);
+        assertEquals(2d, histogram.getPercentile(95), 2 * 0.03);
+        assertEquals(500d, histogram.getPercentile(99), 500 * 0.03);
+    }
+}
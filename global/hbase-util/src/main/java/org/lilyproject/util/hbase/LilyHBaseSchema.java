@@ -56,6 +56,22 @@ public class LilyHBaseSchema {
         blobIncubatorDescriptor.addFamily(new HColumnDescriptor(BlobIncubatorCf.REF.bytes));
     }
 
+    /**
+     * Entries in the blob text table expire after 30 days, which bounds its size for blobs which are not
+     * indexed anymore.
+     */
+    public static final int BLOBTEXT_TIME_TO_LIVE_SECONDS = 30 * 24 * 60 * 60;
+
+    private static final HTableDescriptor blobTextDescriptor;
+
+    static {
+        blobTextDescriptor = new HTableDescriptor(Table.BLOBTEXT.bytes);
+        HColumnDescriptor family = new HColumnDescriptor(BlobTextCf.DATA.bytes);
+        family.setMaxVersions(1);
+        family.setTimeToLive(BLOBTEXT_TIME_TO_LIVE_SECONDS);
+        blobTextDescriptor.addFamily(family);
+    }
+
     private LilyHBaseSchema() {
     }
 
@@ -112,10 +128,20 @@ public class LilyHBaseSchema {
         return tableFactory.getTable(blobIncubatorDescriptor, !clientMode);
     }
 
+    /**
+     * Returns the table in which the indexer caches the text extracted from blobs.
+     *
+     * @param clientMode if true, the table is not created if it does not exist
+     */
+    public static HTableInterface getBlobTextTable(HBaseTableFactory tableFactory, boolean clientMode) throws IOException, InterruptedException {
+        return tableFactory.getTable(blobTextDescriptor, !clientMode);
+    }
+
     public static enum Table {
         RECORD("record"),
         TYPE("type"),
-        BLOBINCUBATOR("blobincubator");
+        BLOBINCUBATOR("blobincubator"),
+        BLOBTEXT("blobtext");
 
         public final byte[] bytes;
         public final String name;
@@ -237,4 +263,34 @@ public class LilyHBaseSchema {
             this.bytes = Bytes.toBytes(name);
         }
     }
+
+    /**
+     * Column families in the blob text table.
+     */
+    public static enum BlobTextCf {
+        DATA("data");
+
+        public final byte[] bytes;
+        public final String name;
+
+        BlobTextCf(String name) {
+            this.name = name;
+            this.bytes = Bytes.toBytes(name);
+        }
+    }
+
+    /**
+     * Columns in the blob text table.
+     */
+    public static enum BlobTextColumn {
+        TEXT("text"), MAX_SIZE("maxsize");
+
+        public final byte[] bytes;
+        public final String name;
+
+        BlobTextColumn(String name) {
+            this.name = name;
+            this.bytes = Bytes.toBytes(name);
+        }
+    }
 }
@@ -16,12 +16,13 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
- * Merge-joins two QueryResults into one, in other words: an AND
- * operation on two indices.
+ * Merge-joins QueryResults into one, in other words: an AND
+ * operation on indices.
  *
  * <p>This only works if the individual QueryResults return their rows
  * sorted in increasing identifier order, and return each identifier at most
@@ -32,63 +33,87 @@ import org.apache.hadoop.hbase.util.Bytes;
  * <p>A Conjunction itself also returns its results in increasing identifier
  * order, and can hence serve as input to other Conjunctions.
  *
- * <p>TODO the implementation is currently not optimal if lots of rows need
- * to be skipped to move to the next common result, since this is done by
- * iterating one result at a time using next() calls. It would be better to
- * directly skip to the next appropriate result. HBase scanners don't support
- * this natively, so to skip we would rather need to open a new scanner. But
- * we can't exactly know on beforehand if this will be beneficial or not. Maybe
- * we could have some heuristic for this, e.g. after 10 next() calls open a new
- * scanner to jump directly to the next relevant result.
+ * <p>The join leapfrogs: each input is asked to {@link QueryResult#seek seek} to the
+ * largest identifier seen so far, rather than being advanced one result at a time. For
+ * inputs that can seek efficiently (such as the results of an index query with equals
+ * conditions on all fields), the cost is thus proportional to the smallest input rather
+ * than to the largest one.
  */
 public class Conjunction extends BaseQueryResult {
-    private QueryResult result1;
-    private QueryResult result2;
+    private final QueryResult[] results;
+    private byte[] currentKey;
+    private boolean exhausted;
 
-    public Conjunction(QueryResult result1, QueryResult result2) {
+    public Conjunction(QueryResult... results) {
         super(null);
-        this.result1 = result1;
-        this.result2 = result2;
+        if (results.length < 1) {
+            throw new IllegalArgumentException("A conjunction needs at least one QueryResult");
+        }
+        this.results = results;
+    }
+
+    public Conjunction(List<QueryResult> results) {
+        this(results.toArray(new QueryResult[results.size()]));
     }
 
     @Override
     public byte[] next() throws IOException {
-        byte[] key1 = result1.next();
-        byte[] key2 = result2.next();
+        if (exhausted) {
+            return null;
+        }
+        return leapfrog(results[0].next());
+    }
 
-        if (key1 == null || key2 == null) {
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        if (exhausted) {
             return null;
         }
+        if (currentKey != null && Bytes.compareTo(currentKey, identifier) >= 0) {
+            return currentKey;
+        }
+        return leapfrog(results[0].seek(identifier));
+    }
+
+    /**
+     * Finds the first identifier, starting from the given one of the first result, on which all
+     * results agree.
+     */
+    private byte[] leapfrog(byte[] candidate) throws IOException {
+        // number of results, counting back from the current one, positioned on the candidate
+        int matches = 1;
+        int i = 0;
+        while (candidate != null) {
+            if (matches == results.length) {
+                currentKey = candidate;
+                currentQResult = results[0];
+                return candidate;
+            }
 
-        int cmp = Bytes.compareTo(key1, key2);
+            i = (i + 1) % results.length;
+            byte[] key = results[i].seek(candidate);
+            if (key == null) {
+                break;
+            }
 
-        while (cmp != 0) {
-            if (cmp < 0) {
-                while (cmp < 0) {
-                    key1 = result1.next();
-                    if (key1 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
-                }
-            } else if (cmp > 0) {
-                while (cmp > 0) {
-                    key2 = result2.next();
-                    if (key2 == null) {
-                        return null;
-                    }
-                    cmp = Bytes.compareTo(key1, key2);
-                }
+            if (Bytes.compareTo(key, candidate) == 0) {
+                matches++;
+            } else {
+                candidate = key;
+                matches = 1;
             }
         }
 
-        currentQResult = result1;
-        return key1;
+        exhausted = true;
+        currentKey = null;
+        currentQResult = null;
+        return null;
     }
 
     @Override
     public void close() {
-        result1.close();
-        result2.close();
+        for (QueryResult result : results) {
+            result.close();
+        }
     }
 }
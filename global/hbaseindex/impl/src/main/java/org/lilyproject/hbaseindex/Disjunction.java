@@ -16,74 +16,98 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.apache.hadoop.hbase.util.Bytes;
 
 /**
- * A QueryResult which is the disjunction (= OR operation) of two other QueryResults.
+ * A QueryResult which is the disjunction (= OR operation) of other QueryResults.
  *
  * <p>The supplied QueryResults should adhere to the same requirements as for
  * {@link Conjunction}s.
  */
 public class Disjunction extends BaseQueryResult {
-    private QueryResult result1;
-    private QueryResult result2;
-    private byte[] key1;
-    private byte[] key2;
+    private final QueryResult[] results;
+    /** The next key of each of the results, null if exhausted. */
+    private final byte[][] keys;
+    private byte[] currentKey;
     private boolean init = false;
 
-    public Disjunction(QueryResult result1, QueryResult result2) {
+    public Disjunction(QueryResult... results) {
         super(null);
-        this.result1 = result1;
-        this.result2 = result2;
+        if (results.length < 1) {
+            throw new IllegalArgumentException("A disjunction needs at least one QueryResult");
+        }
+        this.results = results;
+        this.keys = new byte[results.length][];
+    }
+
+    public Disjunction(List<QueryResult> results) {
+        this(results.toArray(new QueryResult[results.size()]));
     }
 
     @Override
     public byte[] next() throws IOException {
         if (!init) {
-            key1 = result1.next();
-            key2 = result2.next();
+            for (int i = 0; i < results.length; i++) {
+                keys[i] = results[i].next();
+            }
             init = true;
         }
 
-        if (key1 == null && key2 == null) {
+        int min = -1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && (min == -1 || Bytes.compareTo(keys[i], keys[min]) < 0)) {
+                min = i;
+            }
+        }
+
+        if (min == -1) {
+            currentKey = null;
+            currentQResult = null;
             return null;
-        } else if (key1 == null) {
-            byte[] result = key2;
-            currentQResult = result2;
-            key2 = result2.next();
-            return result;
-        } else if (key2 == null) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            return result;
         }
 
-        int cmp = Bytes.compareTo(key1, key2);
+        byte[] result = keys[min];
+        currentQResult = results[min];
+        currentKey = result;
+
+        // advance all results positioned on this key
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null && Bytes.compareTo(keys[i], result) == 0) {
+                keys[i] = results[i].next();
+            }
+        }
+
+        return result;
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        if (currentKey != null && Bytes.compareTo(currentKey, identifier) >= 0) {
+            return currentKey;
+        }
 
-        if (cmp == 0) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            key2 = result2.next();
-            return result;
-        } else if (cmp < 0) {
-            byte[] result = key1;
-            currentQResult = result1;
-            key1 = result1.next();
-            return result;
-        } else { // cmp > 0
-            byte[] result = key2;
-            currentQResult = result2;
-            key2 = result2.next();
-            return result;
+        if (!init) {
+            for (int i = 0; i < results.length; i++) {
+                keys[i] = results[i].seek(identifier);
+            }
+            init = true;
+        } else {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != null && Bytes.compareTo(keys[i], identifier) < 0) {
+                    keys[i] = results[i].seek(identifier);
+                }
+            }
         }
+
+        return next();
     }
 
     @Override
     public void close() {
-        result1.close();
-        result2.close();
+        for (QueryResult result : results) {
+            result.close();
+        }
     }
 }
@@ -286,7 +286,12 @@ public class Index {
         scan.setFilter(filters);
         scan.setCaching(30);
 
-        return new ScannerQueryResult(htable.getScanner(scan), definition);
+        // When there are equals conditions on all fields, the identifiers are sorted, and the scanner can be
+        // re-opened at the row of any identifier
+        Object[] seekPrefix = !rangeCondSet && usedConditionsCount == definition.getFields().size() ?
+                fromKeyComponents.toArray() : null;
+
+        return new ScannerQueryResult(htable, scan, seekPrefix, definition);
     }
 
     /**
@@ -30,6 +30,18 @@ public interface QueryResult extends Closeable {
      */
     byte[] next() throws IOException;
 
+    /**
+     * Move to the first result whose identifier is equal to or larger than the given identifier, and
+     * return it. If the current result (the one last returned by next or seek) already satisfies this,
+     * it is returned again without moving.
+     *
+     * <p>This is only meaningful for results returned in increasing identifier order, see {@link Conjunction}.
+     * Depending on the implementation, this can be much cheaper than calling {@link #next} repeatedly.</p>
+     *
+     * @return the identifier of the result, or null if the end is reached.
+     */
+    byte[] seek(byte[] identifier) throws IOException;
+
     /**
      * Retrieves data that was stored as part of the {@link IndexEntry} from the current index
      * entry (corresponding to the last {@link #next} call).
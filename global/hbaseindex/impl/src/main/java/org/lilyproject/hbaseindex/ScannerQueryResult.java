@@ -16,32 +16,86 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
+import java.util.Arrays;
 
+import com.gotometrics.orderly.Order;
 import com.gotometrics.orderly.StructIterator;
 import com.gotometrics.orderly.StructRowKey;
+import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.util.Bytes;
 
 /**
  * A QueryResult on top of a HBase scanner.
  */
 class ScannerQueryResult extends BaseQueryResult {
     private ResultScanner scanner;
+    private final HTableInterface htable;
+    private final Scan scan;
+    private final Object[] seekPrefix;
+    private byte[] currentIdentifier;
 
-    ScannerQueryResult(ResultScanner scanner, IndexDefinition definition) {
+    /**
+     * Number of rows we are willing to skip by calling next() before re-opening the scanner at the
+     * seek position instead.
+     */
+    private static final int SEEK_BY_NEXT_THRESHOLD = 30;
+
+    /**
+     * @param seekPrefix the values of the index fields, all rows returned by the scan should have exactly these
+     *                   values. If null, seeks are performed by iterating over the results.
+     */
+    ScannerQueryResult(HTableInterface htable, Scan scan, Object[] seekPrefix, IndexDefinition definition)
+            throws IOException {
         super(definition);
-        this.scanner = scanner;
+        this.htable = htable;
+        this.scan = scan;
+        // Re-opening the scanner only makes sense if the identifiers are sorted the same way as in the row keys
+        this.seekPrefix = definition.getIdentifierIndexFieldDefinition().getOrder() == Order.ASCENDING ?
+                seekPrefix : null;
+        this.scanner = htable.getScanner(scan);
     }
 
     @Override
     public byte[] next() throws IOException {
         currentResult = scanner.next();
         if (currentResult == null) {
+            currentIdentifier = null;
             return null;
         }
 
         byte[] rowKey = currentResult.getRow();
 
-        return decodeIdentifierFrom(rowKey);
+        currentIdentifier = decodeIdentifierFrom(rowKey);
+        return currentIdentifier;
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        if (currentIdentifier != null && Bytes.compareTo(currentIdentifier, identifier) >= 0) {
+            return currentIdentifier;
+        }
+
+        // The target is often close by, in which case the rows are likely already fetched by the scanner
+        int skipped = 0;
+        while (seekPrefix == null || skipped < SEEK_BY_NEXT_THRESHOLD) {
+            byte[] next = next();
+            if (next == null || Bytes.compareTo(next, identifier) >= 0) {
+                return next;
+            }
+            skipped++;
+        }
+
+        // Re-open the scanner at the row of the target identifier
+        Object[] startRowComponents = Arrays.copyOf(seekPrefix, seekPrefix.length + 1);
+        startRowComponents[seekPrefix.length] = identifier;
+        Scan seekScan = new Scan(scan);
+        seekScan.setStartRow(definition.asStructRowKey().serialize(startRowComponents));
+
+        scanner.close();
+        scanner = htable.getScanner(seekScan);
+        return next();
     }
 
     private byte[] decodeIdentifierFrom(byte[] rowKey) throws IOException {
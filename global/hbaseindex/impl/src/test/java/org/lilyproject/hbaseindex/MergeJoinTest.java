@@ -55,6 +55,94 @@ public class MergeJoinTest {
         assertNull(result.next());
     }
 
+    @Test
+    public void testConjunctionOfMany() throws Exception {
+        String[] values1 = {"a", "b", "c", "f", "g"};
+        String[] values2 = {"b", "c", "d", "e", "f"};
+        String[] values3 = {"a", "c", "f", "h"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1), buildQueryResult(values2),
+                buildQueryResult(values3));
+
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("f", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testConjunctionSkipsResults() throws Exception {
+        List<byte[]> many = new ArrayList<byte[]>();
+        for (int i = 0; i < 1000; i++) {
+            many.add(Bytes.toBytes(String.format("%04d", i)));
+        }
+        StaticQueryResult manyResult = new StaticQueryResult(many);
+
+        QueryResult result = new Conjunction(buildQueryResult(new String[] {"0010", "0500", "0999"}), manyResult);
+
+        assertEquals("0010", Bytes.toString(result.next()));
+        assertEquals("0500", Bytes.toString(result.next()));
+        assertEquals("0999", Bytes.toString(result.next()));
+        assertNull(result.next());
+        assertEquals(0, manyResult.getNextCount());
+    }
+
+    @Test
+    public void testConjunctionSeek() throws Exception {
+        String[] values1 = {"a", "b", "c", "f", "g"};
+        String[] values2 = {"b", "c", "d", "e", "f", "g"};
+
+        QueryResult result = new Conjunction(buildQueryResult(values1), buildQueryResult(values2));
+
+        assertEquals("c", Bytes.toString(result.seek(Bytes.toBytes("bb"))));
+        assertEquals("c", Bytes.toString(result.seek(Bytes.toBytes("c"))));
+        assertEquals("f", Bytes.toString(result.next()));
+        assertNull(result.seek(Bytes.toBytes("h")));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testDisjunctionOfMany() throws Exception {
+        String[] values1 = {"a", "f"};
+        String[] values2 = {"b", "f"};
+        String[] values3 = {"c", "g"};
+
+        QueryResult result = new Disjunction(buildQueryResult(values1), buildQueryResult(values2),
+                buildQueryResult(values3));
+
+        assertEquals("a", Bytes.toString(result.next()));
+        assertEquals("b", Bytes.toString(result.next()));
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("f", Bytes.toString(result.next()));
+        assertEquals("g", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testDisjunctionSeek() throws Exception {
+        String[] values1 = {"a", "b", "c", "f", "g"};
+        String[] values2 = {"b", "c", "d", "e", "f"};
+
+        QueryResult result = new Disjunction(buildQueryResult(values1), buildQueryResult(values2));
+
+        assertEquals("a", Bytes.toString(result.next()));
+        assertEquals("d", Bytes.toString(result.seek(Bytes.toBytes("cc"))));
+        assertEquals("d", Bytes.toString(result.seek(Bytes.toBytes("d"))));
+        assertEquals("e", Bytes.toString(result.next()));
+        assertEquals("g", Bytes.toString(result.seek(Bytes.toBytes("g"))));
+        assertNull(result.next());
+    }
+
+    @Test
+    public void testConjunctionOfDisjunctions() throws Exception {
+        QueryResult result = new Conjunction(
+                new Disjunction(buildQueryResult(new String[] {"a", "d"}), buildQueryResult(new String[] {"c", "e"})),
+                new Disjunction(buildQueryResult(new String[] {"b", "c"}), buildQueryResult(new String[] {"e"})));
+
+        assertEquals("c", Bytes.toString(result.next()));
+        assertEquals("e", Bytes.toString(result.next()));
+        assertNull(result.next());
+    }
+
     private QueryResult buildQueryResult(String[] values) {
         List<byte[]> byteValues = new ArrayList<byte[]>(values.length);
 
@@ -16,19 +16,55 @@
 package org.lilyproject.hbaseindex;
 
 import java.io.IOException;
-import java.util.Iterator;
 import java.util.List;
 
+import org.apache.hadoop.hbase.util.Bytes;
+
 public class StaticQueryResult implements QueryResult {
-    private Iterator<byte[]> iterator;
+    private List<byte[]> values;
+    private int position = -1;
+    private int nextCount;
 
+    /**
+     * @param values sorted values
+     */
     public StaticQueryResult(List<byte[]> values) {
-        this.iterator = values.iterator();
+        this.values = values;
     }
 
     @Override
     public byte[] next() throws IOException {
-        return iterator.hasNext() ? iterator.next() : null;
+        nextCount++;
+        if (position < values.size()) {
+            position++;
+        }
+        return current();
+    }
+
+    @Override
+    public byte[] seek(byte[] identifier) throws IOException {
+        byte[] current = current();
+        if (current != null && Bytes.compareTo(current, identifier) >= 0) {
+            return current;
+        }
+        // cheap seek, to be able to test that merge joins skip results
+        int from = Math.max(position, 0);
+        while (from < values.size() && Bytes.compareTo(values.get(from), identifier) < 0) {
+            from++;
+        }
+        position = from;
+        return current();
+    }
+
+    private byte[] current() {
+        return position >= 0 && position < values.size() ? values.get(position) : null;
+    }
+
+    /**
+     * The number of times next was called, seeks not included.
+     */
+    public int getNextCount() {
+        return nextCount;
     }
 
     @Override
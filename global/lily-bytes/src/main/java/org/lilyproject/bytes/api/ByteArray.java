@@ -28,10 +28,15 @@ import java.util.Arrays;
  * If the user is absolutely certain a byte[] will not be modified later on, the
  * factory method {@link ByteArray#wrap(byte[])} can be used which will not copy
  * the byte[] but just wrap it.
+ * <p>
+ * A ByteArray can also be a view on a part of a larger byte[], see
+ * {@link ByteArray#wrap(byte[], int, int)}. This is used to avoid copying the bytes
+ * when decoding field values from the buffers in which they were read.
  */
 public class ByteArray {
-
     private byte[] bytes;
+    private int offset;
+    private int length;
 
     /**
      * Provides an uninitialized ByteArray.
@@ -46,6 +51,7 @@ public class ByteArray {
      */
     public ByteArray(byte[] bytes) {
         this.bytes = Arrays.copyOf(bytes, bytes.length);
+        this.length = bytes.length;
     }
 
     /**
@@ -59,8 +65,32 @@ public class ByteArray {
      * @return a ByteArray
      */
     public static ByteArray wrap(byte[] bytes) {
+        return wrap(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Wraps a part of a byte[], without copying it.
+     * <p>
+     * Warning! Same as for {@link #wrap(byte[])}, the byte[] should not be modified
+     * anymore. Note that the ByteArray keeps a reference to the complete byte[].
+     *
+     * @param bytes
+     *            the byte[] to wrap
+     * @param offset
+     *            start of the part of the byte[] to wrap
+     * @param length
+     *            length of the part of the byte[] to wrap
+     * @return a ByteArray
+     */
+    public static ByteArray wrap(byte[] bytes, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > bytes.length) {
+            throw new IndexOutOfBoundsException("Invalid range: offset " + offset + ", length " + length
+                    + ", array length " + bytes.length);
+        }
         ByteArray byteArray = new ByteArray();
         byteArray.bytes = bytes;
+        byteArray.offset = offset;
+        byteArray.length = length;
         return byteArray;
     }
 
@@ -68,7 +98,7 @@ public class ByteArray {
      * Returns a copy of the wrapped byte[].
      */
     public byte[] getBytes() {
-        return Arrays.copyOf(this.bytes, this.bytes.length);
+        return Arrays.copyOfRange(this.bytes, offset, offset + length);
     }
 
     /**
@@ -76,9 +106,22 @@ public class ByteArray {
      * <p>
      * Warning! This method should only be used when the user is absolutely
      * certain that the returned byte[] will nog be modified anymore.
+     * <p>
+     * If this ByteArray wraps only a part of a byte[], a copy of that part is returned.
+     * Use {@link #writeTo(DataOutput)} to write the bytes without copying them.
      */
     public byte[] getBytesUnsafe() {
-        return bytes;
+        if (offset == 0 && length == bytes.length) {
+            return bytes;
+        }
+        return getBytes();
+    }
+
+    /**
+     * Writes the wrapped bytes to the given DataOutput.
+     */
+    public void writeTo(DataOutput dataOutput) {
+        dataOutput.writeBytes(bytes, offset, length);
     }
 
     /**
@@ -92,14 +135,17 @@ public class ByteArray {
      *             byte[]
      */
     public byte get(int index) {
-        return this.bytes[index];
+        if (index < 0 || index >= length) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+        return this.bytes[offset + index];
     }
 
     /**
      * Returns the length of the wrapped byte[]
      */
     public int length() {
-        return this.bytes.length;
+        return this.length;
     }
 
     /**
@@ -113,7 +159,27 @@ public class ByteArray {
      *            the last index of the original byte[].)
      **/
     public byte[] getRange(int from, int to) {
-        return Arrays.copyOfRange(this.bytes, from, to);
+        if (from < 0 || from > length) {
+            throw new ArrayIndexOutOfBoundsException(from);
+        }
+        byte[] result = new byte[to - from];
+        System.arraycopy(bytes, offset + from, result, 0, Math.min(to, length) - from);
+        return result;
+    }
+
+    /**
+     * Compares the bytes lexicographically, treating them as unsigned values.
+     */
+    public int compareTo(ByteArray other) {
+        int end = offset + Math.min(length, other.length);
+        for (int i = offset, j = other.offset; i < end; i++, j++) {
+            int a = bytes[i] & 0xff;
+            int b = other.bytes[j] & 0xff;
+            if (a != b) {
+                return a - b;
+            }
+        }
+        return length - other.length;
     }
 
     /*
@@ -124,8 +190,13 @@ public class ByteArray {
     @Override
     public int hashCode() {
         final int prime = 31;
+        // Same as Arrays.hashCode(), but limited to the wrapped range
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + bytes[i];
+        }
         int result = 1;
-        result = prime * result + Arrays.hashCode(bytes);
+        result = prime * result + hash;
         return result;
     }
 
@@ -146,14 +217,19 @@ public class ByteArray {
             return false;
         }
         ByteArray other = (ByteArray) obj;
-        if (!Arrays.equals(bytes, other.bytes)) {
+        if (length != other.length) {
             return false;
         }
+        for (int i = 0; i < length; i++) {
+            if (bytes[offset + i] != other.bytes[other.offset + i]) {
+                return false;
+            }
+        }
         return true;
     }
 
     @Override
     public String toString() {
-        return "[ByteArray, length=" + bytes.length + "]";
+        return "[ByteArray, length=" + length + "]";
     }
 }
@@ -31,6 +31,13 @@ public interface DataInput {
      */
     byte[] readBytes(int length);
 
+    /**
+     * Reads <code>length</code> number of bytes from the <code>DataInput</code>, as a view on the
+     * underlying byte[] rather than a copy. The underlying byte[] should not be modified anymore
+     * while the returned ByteArray is in use.
+     */
+    ByteArray readByteArray(int length);
+
     /**
      * Reads one byte from the <code>DataInput</code>
      */
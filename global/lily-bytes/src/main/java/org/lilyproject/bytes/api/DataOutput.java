@@ -47,6 +47,11 @@ public interface DataOutput {
      */
     void writeBytes(byte[] value);
 
+    /**
+     * Writes a part of a byte[] to the <code>DataOutput</code>
+     */
+    void writeBytes(byte[] value, int offset, int length);
+
     /**
      * Writes a string to the <code>DataOutput</code>.
      *
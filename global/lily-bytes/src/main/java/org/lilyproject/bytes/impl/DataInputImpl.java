@@ -15,6 +15,7 @@
  */
 package org.lilyproject.bytes.impl;
 
+import org.lilyproject.bytes.api.ByteArray;
 import org.lilyproject.bytes.api.DataInput;
 
 /**
@@ -116,6 +117,13 @@ public class DataInputImpl implements DataInput {
         return result;
     }
 
+    @Override
+    public ByteArray readByteArray(int length) {
+        ByteArray result = ByteArray.wrap(source, startPosition + pos, length);
+        pos += length;
+        return result;
+    }
+
     /**
      * Reads an (unmodified)UTF-8 from the underlying byte[].
      *
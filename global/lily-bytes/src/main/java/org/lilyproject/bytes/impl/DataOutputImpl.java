@@ -28,6 +28,9 @@ import org.lilyproject.bytes.api.DataOutput;
  *
  * <p>The underlying byte[] is resized when it is not large enough to contain the next value to be written.
  *
+ * <p>An instance can be reused for multiple serializations by calling {@link #reset()}, which keeps the
+ *    capacity of the byte[]. See {@link DataOutputPool} for reusing instances within a thread.
+ *
  * <p>This implementation (especially #writeUTF()) is based on (and some pieces are copied from) the work
  *    done by Lucene in the methods <code>UTF16toUTF8</code> and <code>UTF8toUTF16</code>
  *    in <code>org.apache.lucene.util.UnicodeUtil.java</code> (revision 1030754),
@@ -70,11 +73,53 @@ public class DataOutputImpl implements DataOutput {
         buffer = new byte[sizeEstimate];
     }
 
+    /**
+     * Creates a <code>DataOutputImpl</code> which writes into the given byte[], starting at the given offset.
+     * The byte[] is only replaced by a bigger one when the written data does not fit in it, so if the caller
+     * supplied a large enough buffer, the data ends up in it without further copying. Use {@link #getBuffer()}
+     * to find out if the buffer was replaced.
+     */
+    public DataOutputImpl(byte[] buffer, int offset) {
+        this.buffer = buffer;
+        this.pos = offset;
+    }
+
     @Override
     public byte[] toByteArray() {
         return Arrays.copyOfRange(buffer, 0, pos);
     }
 
+    /**
+     * Returns the underlying byte[] without copying it. Only the first {@link #getSize()} bytes of it are
+     * data, and the byte[] is overwritten when this DataOutput is reset and reused.
+     */
+    public byte[] getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Copies the written bytes to the given byte[], as an alternative to {@link #toByteArray()} when the
+     * destination has already been allocated.
+     */
+    public void copyTo(byte[] dest, int destOffset) {
+        System.arraycopy(buffer, 0, dest, destOffset, pos);
+    }
+
+    /**
+     * Resets this DataOutput so that it can be used to write new data, while keeping the capacity of the
+     * underlying byte[].
+     */
+    public void reset() {
+        pos = 0;
+    }
+
+    /**
+     * Returns the size of the underlying byte[].
+     */
+    public int getCapacity() {
+        return buffer.length;
+    }
+
     /**
      * Checks if the buffer has enough space to put <code>len</code> bytes.
      * If not the buffer is resized to at least twice its current size.
@@ -102,9 +147,13 @@ public class DataOutputImpl implements DataOutput {
 
     @Override
     public void writeBytes(byte[] bytes) {
-        int length = bytes.length;
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int length) {
         assureSize(length);
-        System.arraycopy(bytes, 0, buffer, pos, length);
+        System.arraycopy(bytes, offset, buffer, pos, length);
         pos += length;
     }
 
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.bytes.impl;
+
+import java.util.ArrayDeque;
+
+/**
+ * Pool of {@link DataOutputImpl} instances per thread, to avoid allocating and growing a new byte[] for
+ * each serialization in code that is called very often, such as the encoding of field values.
+ *
+ * <p>Usage:</p>
+ *
+ * <pre>
+ * DataOutputImpl output = DataOutputPool.acquire();
+ * try {
+ *     ...
+ *     return output.toByteArray();
+ * } finally {
+ *     DataOutputPool.release(output);
+ * }
+ * </pre>
+ *
+ * <p>Since serialization code can be nested (e.g. a record value type serializing the values of the nested
+ * record), each thread has a small stack of instances rather than a single one. An instance should not be
+ * used anymore after it has been released, and the byte[] of {@link DataOutputImpl#getBuffer()} should not
+ * be held on to. Instances which grew very large are not kept, to avoid that rare big values pin memory.</p>
+ */
+public final class DataOutputPool {
+    private static final int MAX_POOLED_PER_THREAD = 4;
+    private static final int MAX_POOLED_CAPACITY = 64 * 1024;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final ThreadLocal<ArrayDeque<DataOutputImpl>> POOL = new ThreadLocal<ArrayDeque<DataOutputImpl>>() {
+        @Override
+        protected ArrayDeque<DataOutputImpl> initialValue() {
+            return new ArrayDeque<DataOutputImpl>(MAX_POOLED_PER_THREAD);
+        }
+    };
+
+    private DataOutputPool() {
+    }
+
+    /**
+     * Returns an empty DataOutputImpl, which should be given back using {@link #release}.
+     */
+    public static DataOutputImpl acquire() {
+        DataOutputImpl output = POOL.get().poll();
+        return output != null ? output : new DataOutputImpl(INITIAL_CAPACITY);
+    }
+
+    public static void release(DataOutputImpl output) {
+        ArrayDeque<DataOutputImpl> pool = POOL.get();
+        if (pool.size() < MAX_POOLED_PER_THREAD && output.getCapacity() <= MAX_POOLED_CAPACITY) {
+            output.reset();
+            pool.push(output);
+        }
+    }
+}
@@ -19,10 +19,12 @@ import java.util.Random;
 
 import junit.framework.TestCase;
 import org.junit.Assert;
+import org.lilyproject.bytes.api.ByteArray;
 import org.lilyproject.bytes.api.DataInput;
 import org.lilyproject.bytes.api.DataOutput;
 import org.lilyproject.bytes.impl.DataInputImpl;
 import org.lilyproject.bytes.impl.DataOutputImpl;
+import org.lilyproject.bytes.impl.DataOutputPool;
 
 /**
  * Test the encodings used in DataInputImpl and DataOutputImpl
@@ -203,4 +205,70 @@ public class TestDataInputOutput extends TestCase {
         Assert.assertEquals(-1, new DataInputImpl(source, 7, 3).indexOf((byte) 0x00));
     }
 
+    public void testReset() {
+        DataOutputImpl dataOutput = new DataOutputImpl(4);
+        dataOutput.writeUTF("a string which does not fit in 4 bytes");
+        int capacity = dataOutput.getCapacity();
+
+        dataOutput.reset();
+        Assert.assertEquals(0, dataOutput.getSize());
+        dataOutput.writeInt(5);
+        Assert.assertEquals(capacity, dataOutput.getCapacity());
+        Assert.assertEquals(5, new DataInputImpl(dataOutput.toByteArray()).readInt());
+    }
+
+    public void testCallerSuppliedBuffer() {
+        byte[] buffer = new byte[10];
+        DataOutputImpl dataOutput = new DataOutputImpl(buffer, 2);
+        dataOutput.writeInt(7);
+        Assert.assertSame(buffer, dataOutput.getBuffer());
+        Assert.assertEquals(6, dataOutput.getSize());
+        Assert.assertEquals(7, new DataInputImpl(buffer, 2, 4).readInt());
+
+        // When the data does not fit anymore, the buffer is replaced
+        dataOutput.writeLong(8L);
+        Assert.assertNotSame(buffer, dataOutput.getBuffer());
+        DataInput dataInput = new DataInputImpl(dataOutput.toByteArray(), 2, 12);
+        Assert.assertEquals(7, dataInput.readInt());
+        Assert.assertEquals(8L, dataInput.readLong());
+    }
+
+    public void testPool() {
+        DataOutputImpl first = DataOutputPool.acquire();
+        first.writeInt(1);
+        // A nested acquire should not return the instance which is in use
+        DataOutputImpl nested = DataOutputPool.acquire();
+        Assert.assertNotSame(first, nested);
+        DataOutputPool.release(nested);
+        DataOutputPool.release(first);
+
+        DataOutputImpl reused = DataOutputPool.acquire();
+        Assert.assertSame(first, reused);
+        Assert.assertEquals(0, reused.getSize());
+        DataOutputPool.release(reused);
+    }
+
+    public void testReadByteArray() {
+        byte[] source = new byte[] {9, 9, 1, 2, 3, 9};
+        DataInput dataInput = new DataInputImpl(source, 1, 5);
+        dataInput.readByte();
+        ByteArray byteArray = dataInput.readByteArray(3);
+        Assert.assertEquals(4, dataInput.getPosition());
+        Assert.assertEquals(9, dataInput.readByte());
+
+        // The ByteArray is a view on the source, but behaves as if it only contained the range
+        Assert.assertEquals(3, byteArray.length());
+        Assert.assertEquals(1, byteArray.get(0));
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, byteArray.getBytes());
+        Assert.assertArrayEquals(new byte[] {2, 3}, byteArray.getRange(1, 3));
+        ByteArray copy = new ByteArray(new byte[] {1, 2, 3});
+        Assert.assertEquals(copy, byteArray);
+        Assert.assertEquals(copy.hashCode(), byteArray.hashCode());
+        Assert.assertEquals(0, copy.compareTo(byteArray));
+        Assert.assertTrue(byteArray.compareTo(ByteArray.wrap(new byte[] {1, 2, (byte)0xFF})) < 0);
+
+        DataOutput dataOutput = new DataOutputImpl();
+        byteArray.writeTo(dataOutput);
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, dataOutput.toByteArray());
+    }
 }
@@ -187,6 +187,9 @@ public abstract class BaseTestTool extends BaseZkCliTool {
         metricsStream.println("by the threads together. Another issue is that sometimes operations are very");
         metricsStream.println("quick but that their time is measured with a too low granularity.");
         metricsStream.println();
+        metricsStream.println("About the median and the percentile columns: these are calculated from a histogram");
+        metricsStream.println("   with a precision of about 3%, the minimum and maximum are exact.");
+        metricsStream.println();
         metricsStream.println("About hbaseLoad (if present): this is currently the same as the number of regions");
         metricsStream.println("   deployed on the region server.");
         metricsStream.println("About hbaseRequestCount (if present): this is number of HBase requests per seconds");
@@ -16,6 +16,9 @@
 package org.lilyproject.util.io;
 
 import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.commons.logging.LogFactory;
 
@@ -42,4 +45,82 @@ public class IOUtils {
             }
         }
     }
+
+    /**
+     * Limits an InputStream to a range of its bytes, by skipping over the bytes before the range. If the stream
+     * ends before the offset, the returned stream is empty. The stream is closed if skipping fails.
+     *
+     * @param offset position of the first byte to read
+     * @param length maximum number of bytes to read, or -1 to read until the end of the stream
+     */
+    public static InputStream range(InputStream in, long offset, long length) throws IOException {
+        try {
+            long remaining = offset;
+            while (remaining > 0) {
+                long skipped = in.skip(remaining);
+                if (skipped <= 0) {
+                    // Some streams only skip what is buffered, reading tells whether the end is reached
+                    if (in.read() == -1) {
+                        break;
+                    }
+                    skipped = 1;
+                }
+                remaining -= skipped;
+            }
+        } catch (IOException e) {
+            closeQuietly(in);
+            throw e;
+        }
+        return length == -1 ? in : new BoundedInputStream(in, length);
+    }
+
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b != -1) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int count = super.read(b, off, (int)Math.min(len, remaining));
+            if (count > 0) {
+                remaining -= count;
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(super.available(), remaining);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
 }
@@ -170,6 +170,15 @@ public class LilyRuntimeCli {
                 .create("p");
         cliOptions.addOption(modeOption);
 
+        Option startupThreadsOption = OptionBuilder
+                .withArgName("count")
+                .hasArg()
+                .withDescription("Number of threads used to start the modules. With more than one thread, modules " +
+                        "which do not depend on each other are started in parallel. Default: 1")
+                .withLongOpt("startup-threads")
+                .create("t");
+        cliOptions.addOption(startupThreadsOption);
+
         Option versionOption = OptionBuilder
             .withDescription("Don't start the service, only dump the version info string for the module defined with -Dlilyruntime.info.module")
             .withLongOpt("version")
@@ -275,6 +284,9 @@ public class LilyRuntimeCli {
         settings.setRepository(artifactRepository);
         settings.setSourceLocations(sourceLocations);
         settings.setEnableArtifactSharing(!cmd.hasOption(disableClassSharingOption.getOpt()));
+        if (cmd.hasOption(startupThreadsOption.getOpt())) {
+            settings.setStartupThreads(Integer.parseInt(cmd.getOptionValue(startupThreadsOption.getOpt())));
+        }
 
         LilyRuntime runtime = new LilyRuntime(settings);
 
@@ -26,6 +26,11 @@ import org.springframework.beans.factory.config.PropertyPlaceholderConfigurer;
  * Resolves ${...} expressions in the Spring bean configuration using
  * the {@link ConfRegistry}. The syntax for the expressions is
  * ${conf-path:jxpath-expr}.
+ *
+ * <p>A default value can be specified as ${conf-path:jxpath-expr?default}, it is
+ * used when the expression does not select anything, for example for a setting
+ * which is not present in an older configuration. The expression itself can then
+ * not contain a '?'.</p>
  */
 public class ConfPlaceholderConfigurer extends PropertyPlaceholderConfigurer {
     private ConfRegistry confRegistry;
@@ -44,12 +49,25 @@ public class ConfPlaceholderConfigurer extends PropertyPlaceholderConfigurer {
         try {
             String confPath = placeholder.substring(0, colonPos);
             String confExpr = placeholder.substring(colonPos + 1);
+            String defaultValue = null;
+            int questionPos = confExpr.lastIndexOf('?');
+            if (questionPos != -1) {
+                defaultValue = confExpr.substring(questionPos + 1);
+                confExpr = confExpr.substring(0, questionPos);
+            }
 
             Conf conf = confRegistry.getConfiguration(confPath);
             JXPathContext context = JXPathContext.newContext(conf);
+            if (defaultValue != null) {
+                // Don't fail on a missing value, but use the default value
+                context.setLenient(true);
+            }
             Object value = context.getValue(confExpr);
 
-            return value == null ? "" : value.toString();
+            if (value == null) {
+                return defaultValue != null ? defaultValue : "";
+            }
+            return value.toString();
         } catch (Exception e) {
             throw new RuntimeException("Error fetching configuration value for placeholder \"" + placeholder + "\".", e);
         }
@@ -205,6 +205,10 @@ public abstract class AbstractRuntimeTest extends TestCase {
         return true;
     }
 
+    protected int getStartupThreads() {
+        return 1;
+    }
+
     protected ConfManager getConfManager() throws Exception {
         return new ConfManagerImpl(Collections.<File>emptyList());
     }
@@ -272,6 +276,7 @@ public abstract class AbstractRuntimeTest extends TestCase {
             settings.setModel(model);
             settings.setRepository(localRepository);
             settings.setConfManager(getConfManager());
+            settings.setStartupThreads(getStartupThreads());
 
             runtime = new LilyRuntime(settings);
             runtime.setMode(getMode());
@@ -81,6 +81,9 @@ public class ConfTest extends AbstractRuntimeTest {
 
         String confTestBean3 = (String)appContext.getBean("confTestBean3");
         Assert.assertEquals("foobar@hotmail.com", confTestBean3);
+
+        Assert.assertEquals("foobar@hotmail.com", appContext.getBean("confTestBean4"));
+        Assert.assertEquals("nobody@example.com", appContext.getBean("confTestBean5"));
     }
 
 }
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime.test;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Assert;
+import org.lilyproject.runtime.model.LilyRuntimeModel;
+import org.lilyproject.runtime.model.ModuleDefinition;
+import org.lilyproject.runtime.model.ModuleSourceType;
+import org.lilyproject.runtime.module.Module;
+import org.lilyproject.runtime.testfw.AbstractRuntimeTest;
+
+/**
+ * Tests starting the modules in parallel.
+ */
+public class ParallelStartupTest extends AbstractRuntimeTest {
+    protected LilyRuntimeModel getRuntimeModel() throws Exception {
+        LilyRuntimeModel model = new LilyRuntimeModel();
+
+        {
+            File module2Dir = createModule("org.lilyproject.runtime.test.testmodules.jwiringmod2");
+            ModuleDefinition module2 = new ModuleDefinition("jwiringmod2", module2Dir, ModuleSourceType.EXPANDED_JAR);
+            model.addModule(module2);
+        }
+
+        {
+            // Imports the CharSequence service by type, without explicit wiring
+            File module4Dir = createModule("org.lilyproject.runtime.test.testmodules.jwiringmod4");
+            ModuleDefinition module4 = new ModuleDefinition("jwiringmod4", module4Dir, ModuleSourceType.EXPANDED_JAR);
+            model.addModule(module4);
+        }
+
+        {
+            // Exports two more CharSequence services, which might be registered before jwiringmod4 starts
+            File module1Dir = createModule("org.lilyproject.runtime.test.testmodules.jwiringmod1");
+            ModuleDefinition module1 = new ModuleDefinition("jwiringmod1", module1Dir, ModuleSourceType.EXPANDED_JAR);
+            model.addModule(module1);
+        }
+
+        return model;
+    }
+
+    @Override
+    protected int getStartupThreads() {
+        return 3;
+    }
+
+    public void testIt() {
+        // Only the modules listed before jwiringmod4 are considered for its import, as with sequential startup
+        Assert.assertEquals("bar", runtime.getModuleById("jwiringmod4").getApplicationContext().getBean("bean1").toString());
+
+        List<Module> modules = runtime.getModules();
+        Assert.assertEquals(3, modules.size());
+        Assert.assertEquals("jwiringmod2", modules.get(0).getDefinition().getId());
+        Assert.assertEquals("jwiringmod4", modules.get(1).getDefinition().getId());
+        Assert.assertEquals("jwiringmod1", modules.get(2).getDefinition().getId());
+
+        Assert.assertEquals(3, runtime.getStartupReport().getStartupThreads());
+        Assert.assertEquals(3, runtime.getStartupReport().getModuleStartupTimes().length);
+    }
+}
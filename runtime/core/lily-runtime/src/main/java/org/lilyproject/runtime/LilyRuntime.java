@@ -16,14 +16,18 @@
  */
 package org.lilyproject.runtime;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.apache.commons.jci.monitor.FilesystemAlterationMonitor;
 import org.apache.commons.logging.Log;
@@ -39,7 +43,6 @@ import org.lilyproject.runtime.model.ModuleDefinition;
 import org.lilyproject.runtime.model.SourceLocations;
 import org.lilyproject.runtime.module.Module;
 import org.lilyproject.runtime.module.ModuleConfig;
-import org.lilyproject.runtime.module.build.ModuleBuilder;
 import org.lilyproject.runtime.module.build.ModuleConfigBuilder;
 import org.lilyproject.runtime.module.javaservice.JavaServiceManager;
 import org.lilyproject.runtime.rapi.ConfRegistry;
@@ -65,10 +68,12 @@ public class LilyRuntime {
     private LilyRuntimeModel model;
     private ClassLoader rootClassLoader;
     private List<Module> modules;
-    private Map<String, Module> modulesById = new HashMap<String, Module>();
+    private Map<String, Module> modulesById = new ConcurrentHashMap<String, Module>();
     private List<ModuleConfig> moduleConfigs;
     private JavaServiceManager javaServiceManager;
     private ModuleSourceManager moduleSourceManager;
+    private StartupReport startupReport;
+    private ObjectName startupReportObjectName;
 
     private enum LifeCycle { NOT_STARTED, STARTED, STOPPED }
     private LifeCycle state = LifeCycle.NOT_STARTED;
@@ -156,6 +161,9 @@ public class LilyRuntime {
         }
         state = LifeCycle.STARTED;
 
+        long startupStart = System.currentTimeMillis();
+        startupReport = new StartupReport(settings.getStartupThreads());
+
         // Init the configuration manager
         ConfManager confManager = settings.getConfManager();
         confManager.initRuntimeConfig();
@@ -190,7 +198,9 @@ public class LilyRuntime {
             if (infolog.isInfoEnabled()) {
                 infolog.debug("Reading module config " + entry.getId() + " - " + entry.getFile().getAbsolutePath());
             }
+            long before = System.currentTimeMillis();
             ModuleConfig moduleConf = ModuleConfigBuilder.build(entry, this);
+            startupReport.setConfigReadTime(entry.getId(), System.currentTimeMillis() - before);
             moduleConfigs.add(moduleConf);
         }
 
@@ -207,7 +217,9 @@ public class LilyRuntime {
         // Construct the classloaders of the various modules
         List<ClassLoader> moduleClassLoaders = new ArrayList<ClassLoader>();
         for (ModuleConfig cfg : moduleConfigs) {
+            long before = System.currentTimeMillis();
             ClassLoader classLoader = cfg.getClassLoadingConfig().getClassLoader(getClassLoader());
+            startupReport.setClassLoaderTime(cfg.getId(), System.currentTimeMillis() - before);
             moduleClassLoaders.add(classLoader);
         }
 
@@ -215,16 +227,28 @@ public class LilyRuntime {
         confManager.initModulesConfig(moduleConfigs);
 
         // Create the modules
-        infolog.info("Starting the modules.");
-
-        modules = new ArrayList<Module>(model.getModules().size());
-        for (int i = 0; i < moduleConfigs.size(); i++) {
-            ModuleConfig moduleConfig = moduleConfigs.get(i);
-            Module module = ModuleBuilder.build(moduleConfig, moduleClassLoaders.get(i), this);
-            modules.add(module);
-            modulesById.put(module.getDefinition().getId(), module);
+        if (settings.getStartupThreads() > 1) {
+            infolog.info("Starting the modules using " + settings.getStartupThreads() + " threads.");
+        } else {
+            infolog.info("Starting the modules.");
         }
 
+        // Modules are added as soon as they are started, so that they are shut down when starting another one fails
+        modules = new CopyOnWriteArrayList<Module>();
+        new ModuleStarter(this, moduleConfigs, moduleClassLoaders, startupReport)
+                .start(settings.getStartupThreads(), modules, modulesById);
+
+        // When started in parallel, the modules were added in the order in which they finished starting
+        List<Module> orderedModules = new ArrayList<Module>(moduleConfigs.size());
+        for (ModuleConfig moduleConfig : moduleConfigs) {
+            orderedModules.add(modulesById.get(moduleConfig.getId()));
+        }
+        modules = orderedModules;
+
+        startupReport.setStartupTime(System.currentTimeMillis() - startupStart);
+        infolog.info(startupReport);
+        registerStartupReportMBean();
+
         // Start the FAM, conf manager refreshing
         fam.start();
         confManager.startRefreshing();
@@ -260,6 +284,27 @@ public class LilyRuntime {
         return modulesById.get(moduleId);
     }
 
+    /**
+     * Returns the IDs of the modules listed before the given module in the wiring.
+     */
+    public Set<String> getPrecedingModuleIds(String moduleId) {
+        Set<String> ids = new HashSet<String>();
+        for (ModuleDefinition definition : model.getModules()) {
+            if (definition.getId().equals(moduleId)) {
+                break;
+            }
+            ids.add(definition.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the time spent starting each module, or null if the runtime has not been started.
+     */
+    public StartupReport getStartupReport() {
+        return startupReport;
+    }
+
     public LilyRuntimeSettings getSettings() {
         return settings;
     }
@@ -315,6 +360,28 @@ public class LilyRuntime {
 
         settings.getConfManager().shutdown();
 
+        unregisterStartupReportMBean();
+    }
+
+    private void registerStartupReportMBean() {
+        try {
+            startupReportObjectName = new ObjectName("Lily:name=RuntimeStartup");
+            ManagementFactory.getPlatformMBeanServer().registerMBean(startupReport, startupReportObjectName);
+        } catch (Exception e) {
+            infolog.warn("Error registering mbean " + startupReportObjectName, e);
+            startupReportObjectName = null;
+        }
+    }
+
+    private void unregisterStartupReportMBean() {
+        if (startupReportObjectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(startupReportObjectName);
+            } catch (Exception e) {
+                infolog.warn("Error unregistering mbean " + startupReportObjectName, e);
+            }
+            startupReportObjectName = null;
+        }
     }
 
     public static String getVersion() {
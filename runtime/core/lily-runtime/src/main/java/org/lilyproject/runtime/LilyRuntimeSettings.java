@@ -35,6 +35,7 @@ public class LilyRuntimeSettings {
     private LilyRuntimeModel model;
     private SourceLocations sourceLocations;
     private boolean disableServerConnectors;
+    private int startupThreads = 1;
 
     public ArtifactRepository getRepository() {
         return repository;
@@ -100,4 +101,20 @@ public class LilyRuntimeSettings {
     public void setDisableServerConnectors(boolean disableServerConnectors) {
         this.disableServerConnectors = disableServerConnectors;
     }
+
+    public int getStartupThreads() {
+        return startupThreads;
+    }
+
+    /**
+     * Sets the number of threads used to start the modules. With more than one thread, modules
+     * are started in parallel, each module waiting only for the modules it imports services from.
+     * The default is 1, which starts the modules one by one in the order of the wiring.
+     */
+    public void setStartupThreads(int startupThreads) {
+        if (startupThreads < 1) {
+            throw new IllegalArgumentException("startupThreads should be at least 1, got: " + startupThreads);
+        }
+        this.startupThreads = startupThreads;
+    }
 }
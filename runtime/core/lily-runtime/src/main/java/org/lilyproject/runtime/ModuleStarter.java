@@ -0,0 +1,273 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.lilyproject.runtime.model.JavaServiceInjectDefinition;
+import org.lilyproject.runtime.model.ModuleDefinition;
+import org.lilyproject.runtime.module.Module;
+import org.lilyproject.runtime.module.ModuleConfig;
+import org.lilyproject.runtime.module.build.ModuleBuilder;
+import org.lilyproject.runtime.rapi.ModuleSource;
+import org.lilyproject.util.io.IOUtils;
+import org.lilyproject.util.xml.DocumentHelper;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Builds the modules of the runtime, either one by one in the order of the wiring, or in parallel.
+ *
+ * <p>When started in parallel, a module only waits for the modules it depends on. These are the modules
+ * it gets its explicitly injected Java services from, and the preceding modules which export a service
+ * it imports through lily:import-service. The latter are found by scanning the Spring configs of the
+ * modules, when this scan is inconclusive the module is assumed to depend on all preceding modules,
+ * which is also the case for modules marked with startAfterPreceding in the wiring.</p>
+ *
+ * <p>Modules are submitted to the pool in wiring order and only depend on modules listed before them,
+ * so the earliest module which did not finish yet can always proceed.</p>
+ */
+class ModuleStarter {
+    private static final String SPRINGEXT_NAMESPACE = "http://lilyproject.org/runtime/1.0#springext";
+    private static final String BEANS_NAMESPACE = "http://www.springframework.org/schema/beans";
+
+    private final LilyRuntime runtime;
+    private final List<ModuleConfig> moduleConfigs;
+    private final List<ClassLoader> moduleClassLoaders;
+    private final StartupReport report;
+    private final Log log = LogFactory.getLog(getClass());
+
+    ModuleStarter(LilyRuntime runtime, List<ModuleConfig> moduleConfigs, List<ClassLoader> moduleClassLoaders,
+            StartupReport report) {
+        this.runtime = runtime;
+        this.moduleConfigs = moduleConfigs;
+        this.moduleClassLoaders = moduleClassLoaders;
+        this.report = report;
+    }
+
+    /**
+     * Builds all modules. The modules are added to the given list and map as soon as they are started,
+     * so that they can be shut down if starting one of the other modules fails.
+     */
+    void start(int threads, List<Module> startedModules, Map<String, Module> startedModulesById) {
+        if (threads <= 1) {
+            for (int i = 0; i < moduleConfigs.size(); i++) {
+                Module module = build(i, 0);
+                startedModules.add(module);
+                startedModulesById.put(module.getDefinition().getId(), module);
+            }
+        } else {
+            startInParallel(threads, startedModules, startedModulesById);
+        }
+    }
+
+    private Module build(int index, long waitTime) {
+        ModuleConfig moduleConfig = moduleConfigs.get(index);
+        long before = System.currentTimeMillis();
+        try {
+            return ModuleBuilder.build(moduleConfig, moduleClassLoaders.get(index), runtime);
+        } catch (LilyRTException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new LilyRTException("Error constructing module " + moduleConfig.getId(), e);
+        } finally {
+            report.setContextTime(moduleConfig.getId(), waitTime, System.currentTimeMillis() - before);
+        }
+    }
+
+    private void startInParallel(int threads, final List<Module> startedModules,
+            final Map<String, Module> startedModulesById) {
+        final List<Set<Integer>> dependencies = getDependencies();
+
+        final int moduleCount = moduleConfigs.size();
+        final CountDownLatch[] finished = new CountDownLatch[moduleCount];
+        for (int i = 0; i < moduleCount; i++) {
+            finished[i] = new CountDownLatch(1);
+        }
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ModuleStarterThreadFactory());
+        try {
+            for (int i = 0; i < moduleCount; i++) {
+                final int index = i;
+                executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            long before = System.currentTimeMillis();
+                            for (int dependency : dependencies.get(index)) {
+                                finished[dependency].await();
+                            }
+                            // Once a module failed, don't start any more modules, as would be the case
+                            // when starting them one by one
+                            if (failure.get() == null) {
+                                Module module = build(index, System.currentTimeMillis() - before);
+                                startedModules.add(module);
+                                startedModulesById.put(module.getDefinition().getId(), module);
+                            }
+                        } catch (Throwable t) {
+                            failure.compareAndSet(null, t);
+                        } finally {
+                            finished[index].countDown();
+                        }
+                    }
+                });
+            }
+
+            for (CountDownLatch latch : finished) {
+                latch.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+            throw new LilyRTException("Interrupted while starting the modules.", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        Throwable t = failure.get();
+        if (t instanceof LilyRTException) {
+            throw (LilyRTException)t;
+        } else if (t instanceof Error) {
+            throw (Error)t;
+        } else if (t != null) {
+            throw new LilyRTException("Error starting the modules.", t);
+        }
+    }
+
+    /**
+     * Returns for each module the indexes of the modules it should wait for.
+     */
+    List<Set<Integer>> getDependencies() {
+        int moduleCount = moduleConfigs.size();
+
+        Map<String, Integer> indexById = new HashMap<String, Integer>();
+        List<ServiceUsage> serviceUsages = new ArrayList<ServiceUsage>(moduleCount);
+        for (int i = 0; i < moduleCount; i++) {
+            indexById.put(moduleConfigs.get(i).getId(), i);
+            serviceUsages.add(getServiceUsage(moduleConfigs.get(i)));
+        }
+
+        List<Set<Integer>> dependencies = new ArrayList<Set<Integer>>(moduleCount);
+        for (int i = 0; i < moduleCount; i++) {
+            ModuleDefinition definition = moduleConfigs.get(i).getDefinition();
+            ServiceUsage serviceUsage = serviceUsages.get(i);
+            Set<Integer> moduleDependencies = new TreeSet<Integer>();
+
+            if (definition.getStartAfterPreceding() || !serviceUsage.complete) {
+                for (int j = 0; j < i; j++) {
+                    moduleDependencies.add(j);
+                }
+            } else {
+                for (JavaServiceInjectDefinition inject : definition.getJavaServiceInjects()) {
+                    Integer source = indexById.get(inject.getSourceModuleId());
+                    if (source != null && source < i) {
+                        moduleDependencies.add(source);
+                    }
+                }
+
+                for (String service : serviceUsage.imports) {
+                    for (int j = 0; j < i; j++) {
+                        ServiceUsage precedingUsage = serviceUsages.get(j);
+                        if (!precedingUsage.complete || precedingUsage.exports.contains(service)) {
+                            moduleDependencies.add(j);
+                        }
+                    }
+                }
+            }
+
+            if (log.isDebugEnabled()) {
+                List<String> ids = new ArrayList<String>();
+                for (int dependency : moduleDependencies) {
+                    ids.add(moduleConfigs.get(dependency).getId());
+                }
+                log.debug("Module " + definition.getId() + " will be started after " + ids);
+            }
+
+            dependencies.add(moduleDependencies);
+        }
+
+        return dependencies;
+    }
+
+    private ServiceUsage getServiceUsage(ModuleConfig moduleConfig) {
+        ServiceUsage serviceUsage = new ServiceUsage();
+        for (ModuleSource.SpringConfigEntry entry : moduleConfig.getModuleSource().getSpringConfigs(runtime.getMode())) {
+            InputStream is = null;
+            try {
+                is = entry.getStream();
+                Document document = DocumentHelper.parse(is);
+                addServices(document.getElementsByTagNameNS(SPRINGEXT_NAMESPACE, "import-service"),
+                        serviceUsage.imports);
+                addServices(document.getElementsByTagNameNS(SPRINGEXT_NAMESPACE, "export-service"),
+                        serviceUsage.exports);
+                // Imported Spring configs might contain more services
+                if (document.getElementsByTagNameNS(BEANS_NAMESPACE, "import").getLength() > 0) {
+                    serviceUsage.complete = false;
+                }
+            } catch (Exception e) {
+                log.debug("Could not determine the services used by " + entry.getLocation() + " in module "
+                        + moduleConfig.getId() + ", it will be started after all preceding modules.", e);
+                serviceUsage.complete = false;
+            } finally {
+                IOUtils.closeQuietly(is, entry.getLocation());
+            }
+        }
+        return serviceUsage;
+    }
+
+    private void addServices(NodeList elements, Set<String> services) {
+        for (int i = 0; i < elements.getLength(); i++) {
+            services.add(((Element)elements.item(i)).getAttribute("service"));
+        }
+    }
+
+    /**
+     * The Java service types a module imports and exports.
+     */
+    private static class ServiceUsage {
+        private Set<String> imports = new HashSet<String>();
+        private Set<String> exports = new HashSet<String>();
+        private boolean complete = true;
+    }
+
+    private static class ModuleStarterThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "Lily runtime module starter " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
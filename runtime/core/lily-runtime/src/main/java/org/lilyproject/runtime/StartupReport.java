@@ -0,0 +1,119 @@
+/*
+ * Copyright 2013 NGDATA nv
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.lilyproject.runtime;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the time spent in each phase of starting the modules: reading the module config, building its
+ * classloader and building its Spring context. When modules are started in parallel, the time a module
+ * waited for the modules it depends on is recorded separately.
+ */
+public class StartupReport implements StartupReportMBean {
+    private final List<String> moduleIds = new ArrayList<String>();
+    private final Map<String, ModuleTimes> moduleTimes = new HashMap<String, ModuleTimes>();
+    private final int startupThreads;
+    private long startupTime = -1;
+
+    public StartupReport(int startupThreads) {
+        this.startupThreads = startupThreads;
+    }
+
+    public synchronized void setConfigReadTime(String moduleId, long millis) {
+        getModuleTimes(moduleId).configRead = millis;
+    }
+
+    public synchronized void setClassLoaderTime(String moduleId, long millis) {
+        getModuleTimes(moduleId).classLoader = millis;
+    }
+
+    public synchronized void setContextTime(String moduleId, long waitMillis, long millis) {
+        ModuleTimes times = getModuleTimes(moduleId);
+        times.wait = waitMillis;
+        times.context = millis;
+    }
+
+    public synchronized void setStartupTime(long millis) {
+        this.startupTime = millis;
+    }
+
+    private ModuleTimes getModuleTimes(String moduleId) {
+        ModuleTimes times = moduleTimes.get(moduleId);
+        if (times == null) {
+            times = new ModuleTimes();
+            moduleTimes.put(moduleId, times);
+            moduleIds.add(moduleId);
+        }
+        return times;
+    }
+
+    @Override
+    public synchronized long getStartupTime() {
+        return startupTime;
+    }
+
+    @Override
+    public int getStartupThreads() {
+        return startupThreads;
+    }
+
+    @Override
+    public synchronized String[] getModuleStartupTimes() {
+        String[] result = new String[moduleIds.size()];
+        for (int i = 0; i < result.length; i++) {
+            String moduleId = moduleIds.get(i);
+            result[i] = moduleId + ": " + moduleTimes.get(moduleId);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("Started ").append(moduleIds.size()).append(" modules in ").append(startupTime)
+                .append(" ms using ").append(startupThreads).append(startupThreads == 1 ? " thread" : " threads");
+        for (String line : getModuleStartupTimes()) {
+            builder.append("\n  ").append(line);
+        }
+        return builder.toString();
+    }
+
+    private static class ModuleTimes {
+        private long configRead = -1;
+        private long classLoader = -1;
+        private long wait = -1;
+        private long context = -1;
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append("config ").append(format(configRead));
+            builder.append(", classloader ").append(format(classLoader));
+            builder.append(", context ").append(format(context));
+            if (wait > 0) {
+                builder.append(" (after waiting ").append(format(wait)).append(" on dependencies)");
+            }
+            return builder.toString();
+        }
+
+        private static String format(long millis) {
+            return millis == -1 ? "n/a" : millis + " ms";
+        }
+    }
+}
@@ -209,6 +209,8 @@ public class LilyRuntimeModelBuilder {
     private static Pattern MODULE_REF_PATTERN = Pattern.compile("^([^:]*):([^:]*)$");
 
     public static void buildWiring(Conf conf, ModuleDefinition moduleDef) {
+        moduleDef.setStartAfterPreceding(conf.getAttributeAsBoolean("startAfterPreceding", false));
+
         List<Conf> children = conf.getChildren();
         for (Conf child : children) {
             if (child.getName().equals("inject-javaservice")) {
@@ -17,6 +17,7 @@
 package org.lilyproject.runtime.model;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -36,6 +37,7 @@ public class ModuleDefinition {
     private Map<String, JavaServiceInjectByServiceDefinition> javaServiceInjectsByService = new HashMap<String, JavaServiceInjectByServiceDefinition>();
     private Location location;
     private String version;
+    private boolean startAfterPreceding;
 
     public ModuleDefinition(String id, File file, ModuleSourceType sourceType) {
         ArgumentValidator.notNull(id, "id");
@@ -109,6 +111,30 @@ public class ModuleDefinition {
         return javaServiceInjectsByService.get(serviceType);
     }
 
+    /**
+     * Returns all explicit injects of this module, both by name and by service type.
+     */
+    public List<JavaServiceInjectDefinition> getJavaServiceInjects() {
+        List<JavaServiceInjectDefinition> result = new ArrayList<JavaServiceInjectDefinition>();
+        result.addAll(javaServiceInjects.values());
+        result.addAll(javaServiceInjectsByService.values());
+        return result;
+    }
+
+    public boolean getStartAfterPreceding() {
+        return startAfterPreceding;
+    }
+
+    /**
+     * When starting modules in parallel, makes this module wait until all modules listed before it in the
+     * wiring have started, rather than only those it imports services from. Needed for modules which
+     * depend on the preceding modules in some other way than through a Java service, e.g. because
+     * they pick up the plugins registered by them.
+     */
+    public void setStartAfterPreceding(boolean startAfterPreceding) {
+        this.startAfterPreceding = startAfterPreceding;
+    }
+
     public void validate(List<ConfigError> configErrors, LilyRuntimeModel model) {
     }
 
@@ -147,7 +147,11 @@ public class LilyRuntimeNamespaceHandler implements NamespaceHandler {
                         component = javaServiceManager.getService(serviceClass, moduleId);
                     }
                 } else {
-                    component = javaServiceManager.getService(serviceClass);
+                    // Only consider the modules listed before this one, as these are the only ones which are
+                    // guaranteed to have been started, also when modules are started in parallel
+                    String moduleId = springBuildContext.getModule().getDefinition().getId();
+                    component = javaServiceManager.getService(serviceClass,
+                            springBuildContext.getRuntime().getPrecedingModuleIds(moduleId));
                 }
             } catch (Throwable t) {
                 throw new LilyRTException("Error assigning Java service dependency " + dependencyName + " of module "
@@ -17,6 +17,7 @@
 package org.lilyproject.runtime.module.javaservice;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -25,11 +26,13 @@ import org.lilyproject.util.ArgumentValidator;
 
 /**
  * Manages the registry of Java services.
+ *
+ * <p>When modules are started in parallel, services are added and looked up concurrently.</p>
  */
 public class JavaServiceManager {
     private Map<Class, List<ServiceData>> serviceRegistry = new HashMap<Class, List<ServiceData>>();
 
-    public void addService(Class type, String moduleId, String name, Object service) {
+    public synchronized void addService(Class type, String moduleId, String name, Object service) {
         ArgumentValidator.notNull(type, "type");
         ArgumentValidator.notNull(moduleId, "moduleId");
         ArgumentValidator.notNull(name, "name");
@@ -42,7 +45,6 @@ public class JavaServiceManager {
             throw new ServiceConfigurationException("The provided service object does not implement the interface " + type.getName());
         }
 
-        // By current design/usage, updates and reads will never be concurrent
         List<ServiceData> serviceDatas = serviceRegistry.get(type);
         if (serviceDatas == null) {
             serviceDatas = new ArrayList<ServiceData>();
@@ -56,7 +58,7 @@ public class JavaServiceManager {
         serviceDatas.add(new ServiceData(moduleId, name, service));
     }
 
-    public Object getService(Class type) {
+    public synchronized Object getService(Class type) {
         List<ServiceData> serviceDatas = getServiceDatas(type);
 
         if (serviceDatas.size() != 1) {
@@ -66,7 +68,28 @@ public class JavaServiceManager {
         return serviceDatas.get(0).service;
     }
 
-    public Object getService(Class type, String moduleId) {
+    /**
+     * Looks up a service by type, only considering the services exported by the given modules.
+     */
+    public synchronized Object getService(Class type, Collection<String> moduleIds) {
+        List<ServiceData> serviceDatas = new ArrayList<ServiceData>();
+        for (ServiceData serviceData : getServiceDatas(type)) {
+            if (moduleIds.contains(serviceData.moduleId)) {
+                serviceDatas.add(serviceData);
+            }
+        }
+
+        if (serviceDatas.isEmpty()) {
+            throw new NoSuchServiceException(type.getName());
+        }
+        if (serviceDatas.size() > 1) {
+            throw new AmbiguousServiceIdentificationException(type.getName());
+        }
+
+        return serviceDatas.get(0).service;
+    }
+
+    public synchronized Object getService(Class type, String moduleId) {
         List<ServiceData> serviceDatas = getServiceDatas(type);
 
         serviceDatas = findServiceDatas(serviceDatas, moduleId);
@@ -80,7 +103,7 @@ public class JavaServiceManager {
         return serviceDatas.get(0).service;
     }
 
-    public Object getService(Class type, String moduleId, String name) {
+    public synchronized Object getService(Class type, String moduleId, String name) {
         List<ServiceData> serviceDatas = getServiceDatas(type);
 
         ServiceData serviceData = findServiceData(serviceDatas, moduleId, name);
@@ -130,7 +153,7 @@ public class JavaServiceManager {
         }
     }
 
-    public void stop() {
+    public synchronized void stop() {
         serviceRegistry.clear();
     }
 }